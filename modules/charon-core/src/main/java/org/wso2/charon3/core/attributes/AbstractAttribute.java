@@ -15,40 +15,61 @@
  */
 package org.wso2.charon3.core.attributes;
 
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMAttributeSchema;
 import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class abstracts out the common characteristics of different types of attributes defined in
  * SCIM Core Schema Spec.
+ * <p>
+ * The characteristics are not copied into each attribute. The attribute references the schema it was created from
+ * and the getters delegate to it, so all attributes of the same kind share one set of characteristics. The schema
+ * is never modified through the attribute. The first setter replaces a shared reference with a private copy of the
+ * whole schema, which later setters modify in place.
+ * <p>
+ * When serialized, an attribute that references one of the schemas of the SCIMResourceSchemaManager only writes the
+ * URI of the schema and is bound to the same shared instance again when it is read.
 */
 public abstract class AbstractAttribute implements Attribute {
 
-    //unique identifier for the attribute
-    protected String uri;
+    private static final long serialVersionUID = -3441425442186283549L;
+
     //name of the attribute
     protected String name;
-    //data type of the attribute
-    protected SCIMDefinitions.DataType type = null;
-    //Boolean value indicating the attribute's plurality.
-    protected Boolean multiValued;
-    //The attribute's human readable description
-    protected String description;
-    //A Boolean value that specifies if the attribute is required
-    protected Boolean required;
-    //A Boolean value that specifies if the String attribute is case sensitive
-    protected Boolean caseExact;
-    //A SCIM defined value that specifies if the attribute's mutability.
-    protected SCIMDefinitions.Mutability mutability;
-    //A SCIM defined value that specifies when the attribute's value need to be returned.
-    protected SCIMDefinitions.Returned returned;
-    //A SCIM defined value that specifies the uniqueness level of an attribute.
-    protected SCIMDefinitions.Uniqueness uniqueness;
+    //the schema that defines the characteristics of the attribute, written by writeObject
+    protected transient AttributeSchema attributeSchema;
+    //whether the schema is a private copy that only this attribute references
+    private transient boolean schemaDetached;
+
+    /*
+     * return the schema of the attribute. The schema may be shared by other attributes afterwards, so a later
+     * setter of this attribute works on a private copy again.
+     * @return
+     */
+    public AttributeSchema getAttributeSchema() {
+        schemaDetached = false;
+        return attributeSchema;
+    }
+
+    public void setAttributeSchema(AttributeSchema attributeSchema) {
+        this.attributeSchema = attributeSchema;
+        this.schemaDetached = false;
+    }
 
     public String getURI() {
-        return uri; }
+        return attributeSchema == null ? null : attributeSchema.getURI(); }
 
     public void setURI(String uri) {
-        this.uri = uri; }
+        detachSchema().setURI(uri); }
 
     public String getName() {
         return name;
@@ -59,66 +80,124 @@ public abstract class AbstractAttribute implements Attribute {
     }
 
     public SCIMDefinitions.DataType getType() {
-        return type;
+        return attributeSchema == null ? null : attributeSchema.getType();
     }
 
     public void setType(SCIMDefinitions.DataType type) {
-        this.type = type;
+        detachSchema().setType(type);
     }
 
     public Boolean getMultiValued() {
-        return multiValued;
+        return attributeSchema == null ? null : attributeSchema.getMultiValued();
     }
 
     public void setMultiValued(Boolean multiValued) {
-        this.multiValued = multiValued;
+        detachSchema().setMultiValued(Boolean.TRUE.equals(multiValued));
     }
 
     public String getDescription() {
-        return description;
+        return attributeSchema == null ? null : attributeSchema.getDescription();
     }
 
     public void setDescription(String description) {
-        this.description = description;
+        detachSchema().setDescription(description);
     }
 
     public Boolean getRequired() {
-        return required;
+        return attributeSchema == null ? null : attributeSchema.getRequired();
     }
 
     public void setRequired(Boolean required) {
-        this.required = required;
+        detachSchema().setRequired(Boolean.TRUE.equals(required));
     }
 
     public Boolean getCaseExact() {
-        return caseExact;
+        return attributeSchema == null ? null : attributeSchema.getCaseExact();
     }
 
     public void setCaseExact(Boolean caseExact) {
-        this.caseExact = caseExact;
+        detachSchema().setCaseExact(Boolean.TRUE.equals(caseExact));
     }
 
     public SCIMDefinitions.Mutability getMutability() {
-        return mutability;
+        return attributeSchema == null ? null : attributeSchema.getMutability();
     }
 
     public void setMutability(SCIMDefinitions.Mutability mutability) {
-        this.mutability = mutability;
+        detachSchema().setMutability(mutability);
     }
 
     public SCIMDefinitions.Returned getReturned() {
-        return returned; }
+        return attributeSchema == null ? null : attributeSchema.getReturned(); }
 
     public void setReturned(SCIMDefinitions.Returned returned) {
-        this.returned = returned;
+        detachSchema().setReturned(returned);
     }
 
     public SCIMDefinitions.Uniqueness getUniqueness() {
-        return uniqueness;
+        return attributeSchema == null ? null : attributeSchema.getUniqueness();
     }
 
     public void setUniqueness(SCIMDefinitions.Uniqueness uniqueness) {
-        this.uniqueness = uniqueness;
+        detachSchema().setUniqueness(uniqueness);
+    }
+
+    /*
+     * Replaces the referenced schema with a copy that belongs to this attribute only, unless it already is one.
+     * @return the private copy
+     */
+    private AttributeSchema detachSchema() {
+        if (schemaDetached) {
+            return attributeSchema;
+        }
+        AttributeSchema schema = attributeSchema;
+        if (schema == null) {
+            attributeSchema = SCIMAttributeSchema.createSCIMAttributeSchema(null, name, null, false, null, false,
+                    false, null, null, null, null, null, null);
+        } else if (schema instanceof SCIMAttributeSchema) {
+            SCIMAttributeSchema scimSchema = (SCIMAttributeSchema) schema;
+            attributeSchema = SCIMAttributeSchema.createSCIMAttributeSchema(schema.getURI(), schema.getName(),
+                    schema.getType(), schema.getMultiValued(), schema.getDescription(), schema.getRequired(),
+                    schema.getCaseExact(), schema.getMutability(), schema.getReturned(), schema.getUniqueness(),
+                    copyList(scimSchema.getCanonicalValues()), copyList(scimSchema.getReferenceTypes()),
+                    copyList(scimSchema.getSubAttributeSchemas()));
+        } else {
+            attributeSchema = SCIMAttributeSchema.createSCIMAttributeSchema(schema.getURI(), schema.getName(),
+                    schema.getType(), schema.getMultiValued(), schema.getDescription(), schema.getRequired(),
+                    schema.getCaseExact(), schema.getMutability(), schema.getReturned(), schema.getUniqueness(),
+                    null, null, copyList(schema.getSubAttributeSchemas()));
+        }
+        schemaDetached = true;
+        return attributeSchema;
+    }
+
+    private static <T> ArrayList<T> copyList(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        String sharedSchemaURI = null;
+        if (!schemaDetached && attributeSchema != null && attributeSchema == SCIMResourceSchemaManager.getInstance()
+                .getAttributeSchemaByURI(attributeSchema.getURI())) {
+            sharedSchemaURI = attributeSchema.getURI();
+        }
+        out.writeObject(sharedSchemaURI);
+        out.writeObject(sharedSchemaURI == null ? attributeSchema : null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        String sharedSchemaURI = (String) in.readObject();
+        AttributeSchema schema = (AttributeSchema) in.readObject();
+        if (sharedSchemaURI != null) {
+            schema = SCIMResourceSchemaManager.getInstance().getAttributeSchemaByURI(sharedSchemaURI);
+            if (schema == null) {
+                throw new InvalidObjectException("Unknown attribute schema " + sharedSchemaURI);
+            }
+        }
+        //a schema written in full may have been read for other attributes of the stream as well
+        setAttributeSchema(schema);
     }
 
 }
@@ -25,7 +25,7 @@ import java.util.Map;
  */
 public class ComplexAttribute extends AbstractAttribute {
 
-    private static final long serialVersionUID = 6106269076155338045L;
+    private static final long serialVersionUID = 2651390498431870926L;
     //If it is a complex attribute, it has a list of sub attributes.
     protected Map<String, Attribute> subAttributesList = new HashMap<String, Attribute>();
 
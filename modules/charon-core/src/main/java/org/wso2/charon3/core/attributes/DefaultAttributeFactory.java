@@ -38,22 +38,14 @@ public class DefaultAttributeFactory {
     public static Attribute createAttribute(AttributeSchema attributeSchema,
                                             AbstractAttribute attribute) throws CharonException, BadRequestException {
 
-        attribute.setMutability(attributeSchema.getMutability());
-        attribute.setRequired(attributeSchema.getRequired());
-        attribute.setReturned(attributeSchema.getReturned());
-        attribute.setCaseExact(attributeSchema.getCaseExact());
-        attribute.setMultiValued(attributeSchema.getMultiValued());
-        attribute.setDescription(attributeSchema.getDescription());
-        attribute.setUniqueness(attributeSchema.getUniqueness());
-        attribute.setURI(attributeSchema.getURI());
+        //the attribute shares the characteristics of its schema instead of holding its own copies
+        attribute.setAttributeSchema(attributeSchema);
 
         //Default attribute factory knows about SCIMAttribute schema
         try {
-            //set data type of the attribute value, if simple attribute
+            //validate the data type of the attribute value, if simple attribute
             if (attribute instanceof SimpleAttribute) {
                 return createSimpleAttribute(attributeSchema, (SimpleAttribute) attribute);
-            } else {
-                attribute.setType(attributeSchema.getType());
             }
             return attribute;
         } catch (CharonException e) {
@@ -80,7 +72,6 @@ public class DefaultAttributeFactory {
             throws CharonException, BadRequestException {
         if (simpleAttribute.getValue() != null) {
             if (isAttributeDataTypeValid(simpleAttribute.getValue(), attributeSchema.getType())) {
-                simpleAttribute.setType(attributeSchema.getType());
                 return simpleAttribute;
             } else {
                 throw new BadRequestException(ResponseCodeConstants.INVALID_VALUE);
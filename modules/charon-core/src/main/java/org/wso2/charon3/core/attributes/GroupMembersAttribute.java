@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.attributes;
+
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMSchemaDefinitions;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The members attribute of a group. A group may have hundreds of thousands of members, so instead of a complex
+ * attribute with its own simple attributes per member, the members are held as a map from their value to the
+ * remaining sub attribute values, which makes looking up, adding and removing a member by its value O(1).
+ * <p>
+ * The complex attributes of the members are only created when the values are accessed like the values of any other
+ * multi valued attribute. From then on the attribute holds those values and behaves like a plain multi valued
+ * attribute, until it is copied, which brings the copy back to the compact form.
+ * <p>
+ * A frozen attribute is shared between readers, e.g. by a store holding snapshots of the groups. It never changes:
+ * its mutators and the lists of values it hands out throw UnsupportedOperationException. The values are created on
+ * every access and are not part of the attribute, so a copy of the attribute has to be modified instead.
+ */
+public class GroupMembersAttribute extends MultiValuedAttribute {
+
+    private static final long serialVersionUID = -2893460616290390318L;
+
+    //the members by their value while the attribute is compact, null once the values were created
+    private LinkedHashMap<String, Member> members = new LinkedHashMap<String, Member>();
+    //the member map is also used by a copy of this attribute and must be copied before it is modified
+    private transient boolean sharedMembers;
+    private transient boolean frozen;
+
+    public GroupMembersAttribute() {
+        super(SCIMConstants.GroupSchemaConstants.MEMBERS);
+        this.attributeValues = null;
+    }
+
+    /*
+     * create the members attribute holding the values of the given members attribute in the compact form.
+     * @param membersAttribute
+     * @return the new attribute, or null if the values can not be held in the compact form
+     */
+    public static GroupMembersAttribute compact(MultiValuedAttribute membersAttribute) {
+        GroupMembersAttribute compactAttribute = new GroupMembersAttribute();
+        compactAttribute.name = membersAttribute.getName();
+        compactAttribute.attributeSchema = membersAttribute.getAttributeSchema();
+        if (membersAttribute instanceof GroupMembersAttribute
+                && ((GroupMembersAttribute) membersAttribute).isCompact()) {
+            //share the members until one of the attributes is modified
+            GroupMembersAttribute source = (GroupMembersAttribute) membersAttribute;
+            compactAttribute.members = source.members;
+            compactAttribute.sharedMembers = true;
+            if (!source.frozen) {
+                source.sharedMembers = true;
+            }
+            return compactAttribute;
+        }
+        List<Object> primitiveValues = membersAttribute.getAttributePrimitiveValues();
+        if (primitiveValues != null && !primitiveValues.isEmpty()) {
+            return null;
+        }
+        List<Attribute> values = membersAttribute.getAttributeValues();
+        for (int i = 0; values != null && i < values.size(); i++) {
+            if (!(values.get(i) instanceof ComplexAttribute)) {
+                return null;
+            }
+            Map<String, Attribute> subAttributes = ((ComplexAttribute) values.get(i)).getSubAttributesList();
+            String value = subAttributes == null ? null
+                    : getStringValue(subAttributes, SCIMConstants.CommonSchemaConstants.VALUE);
+            if (value == null || compactAttribute.members.containsKey(value) || subAttributes.size() !=
+                    countMemberSubAttributes(subAttributes)) {
+                return null;
+            }
+            compactAttribute.members.put(value, Member.of(
+                    getStringValue(subAttributes, SCIMConstants.CommonSchemaConstants.DISPLAY),
+                    getStringValue(subAttributes, SCIMConstants.CommonSchemaConstants.REF),
+                    getStringValue(subAttributes, SCIMConstants.CommonSchemaConstants.TYPE)));
+        }
+        return compactAttribute;
+    }
+
+    /*
+     * @return whether the members are held in the compact form
+     */
+    public boolean isCompact() {
+        return members != null;
+    }
+
+    /*
+     * make the attribute unmodifiable, so it can be shared between readers.
+     */
+    public void freeze() {
+        this.frozen = true;
+    }
+
+    public boolean containsMember(String value) {
+        if (members != null) {
+            return members.containsKey(value);
+        }
+        return indexOf(value) >= 0;
+    }
+
+    /*
+     * add a member, or replace the member with the same value.
+     * @param value
+     * @param display
+     * @param ref
+     * @param type
+     */
+    public void putMember(String value, String display, String ref, String type) {
+        checkNotFrozen();
+        if (members != null) {
+            modifiableMembers().put(value, Member.of(display, ref, type));
+            return;
+        }
+        int index = indexOf(value);
+        if (index >= 0) {
+            attributeValues.set(index, createValue(value, Member.of(display, ref, type)));
+        } else {
+            attributeValues.add(createValue(value, Member.of(display, ref, type)));
+        }
+    }
+
+    /*
+     * @param value
+     * @return true if there was a member with the given value
+     */
+    public boolean removeMember(String value) {
+        checkNotFrozen();
+        if (members != null) {
+            return members.containsKey(value) && modifiableMembers().remove(value) != null;
+        }
+        return attributeValues.removeIf(
+                memberValue -> value.equals(getValue(memberValue, SCIMConstants.CommonSchemaConstants.VALUE)));
+    }
+
+    /*
+     * @return the number of members
+     */
+    public int getMemberCount() {
+        return members != null ? members.size() : getAttributeValues().size();
+    }
+
+    /*
+     * @param type - the type of the members, null for all members
+     * @return the values of the members
+     */
+    public List<String> getMemberValues(String type) {
+        List<String> memberValues = new ArrayList<String>();
+        if (members != null) {
+            for (Map.Entry<String, Member> member : members.entrySet()) {
+                if (type == null || type.equals(member.getValue().type)) {
+                    memberValues.add(member.getKey());
+                }
+            }
+            return memberValues;
+        }
+        for (Attribute memberValue : attributeValues) {
+            String value = getValue(memberValue, SCIMConstants.CommonSchemaConstants.VALUE);
+            if (value != null && (type == null
+                    || type.equals(getValue(memberValue, SCIMConstants.CommonSchemaConstants.TYPE)))) {
+                memberValues.add(value);
+            }
+        }
+        return memberValues;
+    }
+
+    /*
+     * check whether any member has a value for the given sub attribute that is accepted by the predicate. The
+     * values are not created for that.
+     * @param subAttributeName
+     * @param predicate - is called with the non null values of the sub attribute
+     * @return
+     */
+    public boolean anySubAttributeValueMatches(String subAttributeName, Predicate<Object> predicate) {
+        if (members == null) {
+            for (Attribute memberValue : attributeValues) {
+                String value = getValue(memberValue, subAttributeName);
+                if (value != null && predicate.test(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (Map.Entry<String, Member> member : members.entrySet()) {
+            String value = member.getValue().get(member.getKey(), subAttributeName);
+            if (value != null && predicate.test(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * the values of a compact attribute are created on access. Unless the attribute is frozen it keeps them and
+     * is no longer compact.
+     * @return the values, unmodifiable if the attribute is frozen
+     */
+    @Override
+    public List<Attribute> getAttributeValues() {
+        if (members == null) {
+            return frozen && attributeValues != null ? Collections.unmodifiableList(attributeValues)
+                    : attributeValues;
+        }
+        List<Attribute> values = new ArrayList<Attribute>(members.size());
+        for (Map.Entry<String, Member> member : members.entrySet()) {
+            values.add(createValue(member.getKey(), member.getValue()));
+        }
+        if (frozen) {
+            return Collections.unmodifiableList(values);
+        }
+        attributeValues = values;
+        members = null;
+        return values;
+    }
+
+    /*
+     * @return the primitive values, unmodifiable if the attribute is frozen
+     */
+    @Override
+    public List<Object> getAttributePrimitiveValues() {
+        return frozen && attributePrimitiveValues != null ? Collections.unmodifiableList(attributePrimitiveValues)
+                : attributePrimitiveValues;
+    }
+
+    @Override
+    public void setAttributePrimitiveValues(List<Object> attributePrimitiveValues) {
+        checkNotFrozen();
+        super.setAttributePrimitiveValues(attributePrimitiveValues);
+    }
+
+    @Override
+    public void setAttributePrimitiveValue(Object value) {
+        checkNotFrozen();
+        super.setAttributePrimitiveValue(value);
+    }
+
+    @Override
+    public void deletePrimitiveValues() throws CharonException {
+        checkNotFrozen();
+        super.deletePrimitiveValues();
+    }
+
+    @Override
+    public void setAttributeValues(List<Attribute> attributeValues) {
+        checkNotFrozen();
+        this.attributeValues = attributeValues;
+        this.members = null;
+    }
+
+    @Override
+    public void setAttributeValue(Attribute attributeValue) {
+        checkNotFrozen();
+        getAttributeValues().add(attributeValue);
+    }
+
+    @Override
+    public void setComplexValueWithSetOfSubAttributes(Map<String, Attribute> subAttributes) {
+        checkNotFrozen();
+        getAttributeValues();
+        super.setComplexValueWithSetOfSubAttributes(subAttributes);
+    }
+
+    @Override
+    public void deleteSubAttributes() {
+        checkNotFrozen();
+        if (members != null) {
+            members = new LinkedHashMap<String, Member>();
+            sharedMembers = false;
+        } else {
+            attributeValues.clear();
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("The members attribute is frozen and can not be modified");
+        }
+    }
+
+    private LinkedHashMap<String, Member> modifiableMembers() {
+        if (sharedMembers) {
+            members = new LinkedHashMap<String, Member>(members);
+            sharedMembers = false;
+        }
+        return members;
+    }
+
+    private int indexOf(String value) {
+        for (int i = 0; i < attributeValues.size(); i++) {
+            if (value.equals(getValue(attributeValues.get(i), SCIMConstants.CommonSchemaConstants.VALUE))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String getValue(Attribute memberValue, String subAttributeName) {
+        if (!(memberValue instanceof ComplexAttribute)) {
+            return null;
+        }
+        Map<String, Attribute> subAttributes = ((ComplexAttribute) memberValue).getSubAttributesList();
+        return subAttributes == null ? null : getStringValue(subAttributes, subAttributeName);
+    }
+
+    private static String getStringValue(Map<String, Attribute> subAttributes, String subAttributeName) {
+        Attribute subAttribute = subAttributes.get(subAttributeName);
+        if (subAttribute instanceof SimpleAttribute && ((SimpleAttribute) subAttribute).getValue() instanceof String) {
+            return (String) ((SimpleAttribute) subAttribute).getValue();
+        }
+        return null;
+    }
+
+    /*
+     * count the sub attributes a compact member can hold, i.e. string values of value, display, $ref and type.
+     * @param subAttributes
+     * @return
+     */
+    private static int countMemberSubAttributes(Map<String, Attribute> subAttributes) {
+        int count = 0;
+        for (String subAttributeName : new String[]{SCIMConstants.CommonSchemaConstants.VALUE,
+                SCIMConstants.CommonSchemaConstants.DISPLAY, SCIMConstants.CommonSchemaConstants.REF,
+                SCIMConstants.CommonSchemaConstants.TYPE}) {
+            if (subAttributes.containsKey(subAttributeName)) {
+                count++;
+                if (getStringValue(subAttributes, subAttributeName) == null) {
+                    //an attribute without a string value would be lost
+                    return -1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /*
+     * create the complex value of a member the way Group#setMember does.
+     * @param value
+     * @param member
+     * @return
+     */
+    private static ComplexAttribute createValue(String value, Member member) {
+        ComplexAttribute complexAttribute = new ComplexAttribute();
+        complexAttribute.setName(SCIMConstants.GroupSchemaConstants.MEMBERS + "_" + value + SCIMConstants.DEFAULT);
+        complexAttribute.setAttributeSchema(SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.MEMBERS);
+        addSubAttribute(complexAttribute, SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.VALUE, value);
+        addSubAttribute(complexAttribute, SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.DISPLAY, member.display);
+        addSubAttribute(complexAttribute, SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.REF, member.ref);
+        addSubAttribute(complexAttribute, SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.TYPE, member.type);
+        return complexAttribute;
+    }
+
+    private static void addSubAttribute(ComplexAttribute complexAttribute,
+                                        AttributeSchema attributeSchema, String value) {
+        if (value != null) {
+            SimpleAttribute simpleAttribute = new SimpleAttribute(attributeSchema.getName(), value);
+            simpleAttribute.setAttributeSchema(attributeSchema);
+            complexAttribute.getSubAttributesList().put(simpleAttribute.getName(), simpleAttribute);
+        }
+    }
+
+    /**
+     * The sub attribute values of a member besides its value. Members with none of them share one instance.
+     */
+    private static final class Member implements Serializable {
+
+        private static final long serialVersionUID = 4410265815429046581L;
+        private static final Member VALUE_ONLY = new Member(null, null, null);
+
+        private final String display;
+        private final String ref;
+        private final String type;
+
+        private Member(String display, String ref, String type) {
+            this.display = display;
+            this.ref = ref;
+            this.type = type;
+        }
+
+        static Member of(String display, String ref, String type) {
+            //the types of the members are repeated for every member, keep only the constants
+            if (SCIMConstants.USER.equals(type)) {
+                type = SCIMConstants.USER;
+            } else if (SCIMConstants.GROUP.equals(type)) {
+                type = SCIMConstants.GROUP;
+            }
+            return display == null && ref == null && type == null ? VALUE_ONLY : new Member(display, ref, type);
+        }
+
+        String get(String value, String subAttributeName) {
+            switch (subAttributeName) {
+                case SCIMConstants.CommonSchemaConstants.VALUE:
+                    return value;
+                case SCIMConstants.CommonSchemaConstants.DISPLAY:
+                    return display;
+                case SCIMConstants.CommonSchemaConstants.REF:
+                    return ref;
+                case SCIMConstants.CommonSchemaConstants.TYPE:
+                    return type;
+                default:
+                    return null;
+            }
+        }
+
+        private Object readResolve() {
+            return display == null && ref == null && type == null ? VALUE_ONLY : this;
+        }
+    }
+}
@@ -26,7 +26,7 @@ import java.util.Map;
  */
 public class MultiValuedAttribute extends AbstractAttribute {
 
-    private static final long serialVersionUID = 6106269076155338045L;
+    private static final long serialVersionUID = -5528960932571284632L;
     //Multi valued attributes can have VALUES as an array of complex or simple attributes.
     protected List<Attribute> attributeValues = new ArrayList<Attribute>();
 
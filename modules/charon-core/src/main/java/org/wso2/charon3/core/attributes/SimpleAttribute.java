@@ -26,7 +26,7 @@ import java.util.Date;
  */
 public class SimpleAttribute extends AbstractAttribute {
 
-    private static final long serialVersionUID = 6106269076155338045L;
+    private static final long serialVersionUID = 7312864213096553341L;
     //In a simple attribute, only one attribute value is present.
     private Object value;
 
@@ -75,9 +75,9 @@ public class SimpleAttribute extends AbstractAttribute {
      * @throws CharonException
      */
     public String getStringValue() throws CharonException {
-        if (this.type == null) {
+        if (getType() == null) {
             return null;
-        } else if (this.type.equals(SCIMDefinitions.DataType.STRING)) {
+        } else if (getType().equals(SCIMDefinitions.DataType.STRING)) {
             return (String) value;
         } else {
             throw new CharonException("Mismatch in requested data type");
@@ -101,7 +101,7 @@ public class SimpleAttribute extends AbstractAttribute {
      * @throws CharonException
      */
     public Instant getInstantValue() throws CharonException {
-        if (this.type.equals(SCIMDefinitions.DataType.DATE_TIME)) {
+        if (getType().equals(SCIMDefinitions.DataType.DATE_TIME)) {
             return (Instant) this.value;
         } else {
             throw new CharonException("Datatype doesn\'t match the datatype of the attribute value");
@@ -116,7 +116,7 @@ public class SimpleAttribute extends AbstractAttribute {
      * @throws CharonException
      */
     public Boolean getBooleanValue() throws CharonException {
-        if (this.type.equals(SCIMDefinitions.DataType.BOOLEAN)) {
+        if (getType().equals(SCIMDefinitions.DataType.BOOLEAN)) {
             return (Boolean) this.value;
         } else {
             throw new CharonException("Datatype doesn\'t match the datatype of the attribute value");
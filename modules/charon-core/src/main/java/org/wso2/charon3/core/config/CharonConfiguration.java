@@ -17,6 +17,7 @@ package org.wso2.charon3.core.config;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class contains the charon related configurations.
@@ -35,17 +36,25 @@ public class CharonConfiguration implements Configuration {
     private int maxOperations;
     private int maxPayLoadSize;
     private int maxResults;
+    //limits of the filters accepted from clients, 0 means unlimited
+    private int maxFilterDepth;
+    private int maxFilterClauses;
+    private int maxFilterCost;
     private ArrayList<Object[]> authenticationSchemes = new ArrayList<Object[]>();
 
     //default count value for pagination
     private int count;
 
+    //changed by every setter, so that documents rendered from this configuration can tell when they are stale.
+    private final AtomicInteger version = new AtomicInteger();
+
     /*
      * set documentationURL
      * @param documentationURL
      */
     public void setDocumentationURL(String documentationURL) {
         this.documentationURL = documentationURL;
+        version.incrementAndGet();
     }
 
     /*
@@ -54,6 +63,7 @@ public class CharonConfiguration implements Configuration {
      */
     public void setPatchSupport(boolean supported) {
         this.patchSupport = supported;
+        version.incrementAndGet();
     }
 
     /*
@@ -66,6 +76,7 @@ public class CharonConfiguration implements Configuration {
         this.bulkSupport = supported;
         this.maxOperations = maxOperations;
         this.maxPayLoadSize = maxPayLoadSize;
+        version.incrementAndGet();
     }
 
     /*
@@ -76,6 +87,33 @@ public class CharonConfiguration implements Configuration {
     public void setFilterSupport(boolean supported, int maxResults) {
         this.filterSupport = supported;
         this.maxResults = maxResults;
+        version.incrementAndGet();
+    }
+
+    /*
+     * set the limits of the filters accepted from clients. Filters exceeding one of them are rejected with the
+     * tooMany error type. A limit of 0 means unlimited.
+     * @param maxDepth - maximum nesting depth of a filter
+     * @param maxClauses - maximum number of attribute expressions of a filter
+     * @param maxCost - maximum estimated cost of a filter, see FilterCost
+     */
+    public void setFilterLimits(int maxDepth, int maxClauses, int maxCost) {
+        this.maxFilterDepth = maxDepth;
+        this.maxFilterClauses = maxClauses;
+        this.maxFilterCost = maxCost;
+        version.incrementAndGet();
+    }
+
+    public int getMaxFilterDepth() {
+        return maxFilterDepth;
+    }
+
+    public int getMaxFilterClauses() {
+        return maxFilterClauses;
+    }
+
+    public int getMaxFilterCost() {
+        return maxFilterCost;
     }
 
     /*
@@ -84,6 +122,7 @@ public class CharonConfiguration implements Configuration {
      */
     public void setChangePasswordSupport(boolean supported) {
         this.changePasswordSupport = supported;
+        version.incrementAndGet();
     }
 
     /*
@@ -92,6 +131,16 @@ public class CharonConfiguration implements Configuration {
      */
     public void setETagSupport(boolean supported) {
         this.eTagSupport = supported;
+        version.incrementAndGet();
+    }
+
+    /*
+     * if ETags are supported, resources are given a version which is returned as ETag header, and the If-Match and
+     * If-None-Match headers are honoured.
+     * @return
+     */
+    public boolean isETagSupported() {
+        return eTagSupport;
     }
 
     /*
@@ -100,6 +149,7 @@ public class CharonConfiguration implements Configuration {
      */
     public void setSortSupport(boolean supported) {
         this.sortSupport = supported;
+        version.incrementAndGet();
     }
 
     /*
@@ -108,6 +158,7 @@ public class CharonConfiguration implements Configuration {
      */
     public void setAuthenticationSchemes(ArrayList<Object[]> authenticationSchemes) {
         this.authenticationSchemes = authenticationSchemes;
+        version.incrementAndGet();
     }
 
     /*
@@ -117,6 +168,7 @@ public class CharonConfiguration implements Configuration {
     @Override
     public void setCountValueForPagination(int count) {
         this.count = count;
+        version.incrementAndGet();
     }
 
     /*
@@ -142,11 +194,22 @@ public class CharonConfiguration implements Configuration {
         configMap.put(SCIMConfigConstants.MAX_OPERATIONS, maxOperations);
         configMap.put(SCIMConfigConstants.MAX_PAYLOAD_SIZE, maxPayLoadSize);
         configMap.put(SCIMConfigConstants.MAX_RESULTS, maxResults);
+        configMap.put(SCIMConfigConstants.MAX_FILTER_DEPTH, maxFilterDepth);
+        configMap.put(SCIMConfigConstants.MAX_FILTER_CLAUSES, maxFilterClauses);
+        configMap.put(SCIMConfigConstants.MAX_FILTER_COST, maxFilterCost);
         configMap.put(SCIMConfigConstants.PATCH, patchSupport);
         configMap.put(SCIMConfigConstants.AUTHENTICATION_SCHEMES, authenticationSchemes);
         return  configMap;
     }
 
+    /*
+     * return the version of this configuration. It changes whenever one of the setters is called.
+     * @return
+     */
+    public int getVersion() {
+        return version.get();
+    }
+
     /*
      * return the instance of CharonConfiguration
      * @return
@@ -44,6 +44,9 @@ public class SCIMConfigConstants {
     public static final String MAX_OPERATIONS = "maxOperations";
     public static final String MAX_PAYLOAD_SIZE = "maxPayLaodSize";
     public static final String MAX_RESULTS = "maxResults";
+    public static final String MAX_FILTER_DEPTH = "maxFilterDepth";
+    public static final String MAX_FILTER_CLAUSES = "maxFilterClauses";
+    public static final String MAX_FILTER_COST = "maxFilterCost";
     public static final String AUTHENTICATION_SCHEMES = "authenticationSchemes";
     public static final String SCIM_SCHEMA_EXTENSION_CONFIG = "scim2-schema-extension.config";
 
@@ -47,8 +47,8 @@ public class SCIMUserSchemaExtensionBuilder {
     String extensionRootAttributeName = null;
     // built schema map
     private static Map<String, AttributeSchema> attributeSchemas = new HashMap<String, AttributeSchema>();
-    // extension root attribute schema
-    private AttributeSchema extensionSchema = null;
+    // extension root attribute schema, replaced as a whole once the extension is (re)built
+    private volatile AttributeSchema extensionSchema = null;
 
     public static SCIMUserSchemaExtensionBuilder getInstance() {
         return configReader;
@@ -15,6 +15,9 @@
  */
 package org.wso2.charon3.core.encoder;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -29,19 +32,29 @@ import org.wso2.charon3.core.exceptions.AbstractCharonException;
 import org.wso2.charon3.core.exceptions.BadRequestException;
 import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.exceptions.InternalErrorException;
+import org.wso2.charon3.core.objects.ListedResource;
 import org.wso2.charon3.core.objects.SCIMObject;
 import org.wso2.charon3.core.objects.bulk.BulkResponseContent;
 import org.wso2.charon3.core.objects.bulk.BulkResponseData;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMAttributeSchema;
 import org.wso2.charon3.core.schema.SCIMConstants;
 import org.wso2.charon3.core.schema.SCIMDefinitions;
 import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.utils.AttributeUtil;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -53,6 +66,10 @@ public class JSONEncoder {
     private String format;
     private static final Logger logger = LoggerFactory.getLogger(JSONEncoder.class);
 
+    //the streams handed to the streaming methods belong to the caller, so they are flushed but not closed.
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
     public JSONEncoder() {
         format = SCIMConstants.JSON;
     }
@@ -315,6 +332,12 @@ public class JSONEncoder {
                 config.get(SCIMConfigConstants.FILTER));
         filterObject.put(SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_RESULTS,
                 config.get(SCIMConfigConstants.MAX_RESULTS));
+        putLimit(filterObject, SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_DEPTH,
+                config.get(SCIMConfigConstants.MAX_FILTER_DEPTH));
+        putLimit(filterObject, SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_CLAUSES,
+                config.get(SCIMConfigConstants.MAX_FILTER_CLAUSES));
+        putLimit(filterObject, SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_COST,
+                config.get(SCIMConfigConstants.MAX_FILTER_COST));
 
         JSONObject patchObject = new JSONObject();
         patchObject.put(SCIMConstants.ServiceProviderConfigSchemaConstants.SUPPORTED,
@@ -376,6 +399,15 @@ public class JSONEncoder {
 
     }
 
+    /*
+     * limits that are not configured (0) are not advertised.
+     */
+    private void putLimit(JSONObject jsonObject, String name, Object limit) throws JSONException {
+        if (limit instanceof Integer && (Integer) limit > 0) {
+            jsonObject.put(name, limit);
+        }
+    }
+
     /*
      *  Build the user resource type json representation.
      * @return
@@ -436,6 +468,74 @@ public class JSONEncoder {
         return groupResourceTypeObject.toString();
     }
 
+    /*
+     * Build the json representation of a schema as served by the schemas endpoint.
+     * @param id - the schema uri
+     * @param name
+     * @param description
+     * @param attributeSchemas - the attributes defined by the schema
+     * @param location
+     * @return
+     * @throws CharonException
+     */
+    public String buildSchemaJsonBody(String id, String name, String description,
+                                      List<AttributeSchema> attributeSchemas, String location)
+            throws CharonException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart(SCIMConstants.CommonSchemaConstants.SCHEMAS);
+            generator.writeString(SCIMConstants.SCHEMA_SCHEMA_URI);
+            generator.writeEndArray();
+            generator.writeStringField(SCIMConstants.SchemaSchemaConstants.ID, id);
+            writeOptionalStringField(SCIMConstants.SchemaSchemaConstants.NAME, name, generator);
+            writeOptionalStringField(SCIMConstants.SchemaSchemaConstants.DESCRIPTION, description, generator);
+            generator.writeArrayFieldStart(SCIMConstants.SchemaSchemaConstants.ATTRIBUTES);
+            for (AttributeSchema attributeSchema : attributeSchemas) {
+                writeAttributeSchema(attributeSchema, generator);
+            }
+            generator.writeEndArray();
+            generator.writeObjectFieldStart(SCIMConstants.CommonSchemaConstants.META);
+            generator.writeStringField(SCIMConstants.CommonSchemaConstants.RESOURCE_TYPE, SCIMConstants.SCHEMA);
+            writeOptionalStringField(SCIMConstants.CommonSchemaConstants.LOCATION, location, generator);
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new CharonException("Error in encoding the schema", e);
+        }
+        return writer.toString();
+    }
+
+    /*
+     * Build the list response of the schemas endpoint out of already built schema representations.
+     * @param schemaJsonBodies
+     * @return
+     * @throws CharonException
+     */
+    public String buildSchemasListJsonBody(List<String> schemaJsonBodies) throws CharonException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart(SCIMConstants.CommonSchemaConstants.SCHEMAS);
+            generator.writeString(SCIMConstants.LISTED_RESOURCE_CORE_SCHEMA_URI);
+            generator.writeEndArray();
+            generator.writeNumberField(SCIMConstants.ListedResourceSchemaConstants.TOTAL_RESULTS,
+                    schemaJsonBodies.size());
+            generator.writeNumberField(SCIMConstants.ListedResourceSchemaConstants.ITEMS_PER_PAGE,
+                    schemaJsonBodies.size());
+            generator.writeNumberField(SCIMConstants.ListedResourceSchemaConstants.START_INDEX, 1);
+            generator.writeArrayFieldStart(SCIMConstants.ListedResourceSchemaConstants.RESOURCES);
+            for (String schemaJsonBody : schemaJsonBodies) {
+                generator.writeRawValue(schemaJsonBody);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new CharonException("Error in encoding the schemas", e);
+        }
+        return writer.toString();
+    }
+
     /*
      * Encode given bulkResponseData object and return the encoded string
      *
@@ -504,8 +604,529 @@ public class JSONEncoder {
         operationResponseList.add(operationObject);
 
     }
-}
 
+    /*
+     * Streaming mode. The following methods write the same representations as the methods above directly to the
+     * given stream instead of building a JSONObject tree and a String first.
+     */
+
+    /*
+     * encode the scim object and write it to the given output stream as UTF-8.
+     * @param scimObject
+     * @param outputStream
+     * @throws CharonException
+     */
+    public void encodeSCIMObject(SCIMObject scimObject, OutputStream outputStream) throws CharonException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            writeSCIMObject(scimObject, generator);
+        } catch (IOException e) {
+            throw new CharonException("Error in encoding resource..", e);
+        }
+    }
+
+    /*
+     * encode the scim object and write it to the given writer.
+     * @param scimObject
+     * @param writer
+     * @throws CharonException
+     */
+    public void encodeSCIMObject(SCIMObject scimObject, Writer writer) throws CharonException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            writeSCIMObject(scimObject, generator);
+        } catch (IOException e) {
+            throw new CharonException("Error in encoding resource..", e);
+        }
+    }
+
+    /*
+     * encode the scim exception and write it to the given output stream as UTF-8.
+     * @param exception
+     * @param outputStream
+     * @throws CharonException
+     */
+    public void encodeSCIMException(AbstractCharonException exception, OutputStream outputStream)
+            throws CharonException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            writeSCIMException(exception, generator);
+        } catch (IOException e) {
+            throw new CharonException("SCIMException encoding error", e);
+        }
+    }
+
+    /*
+     * encode the scim exception and write it to the given writer.
+     * @param exception
+     * @param writer
+     * @throws CharonException
+     */
+    public void encodeSCIMException(AbstractCharonException exception, Writer writer) throws CharonException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            writeSCIMException(exception, generator);
+        } catch (IOException e) {
+            throw new CharonException("SCIMException encoding error", e);
+        }
+    }
+
+    /*
+     * encode the bulk response and write it to the given output stream as UTF-8.
+     * @param bulkResponseData
+     * @param outputStream
+     * @throws InternalErrorException
+     */
+    public void encodeBulkResponseData(BulkResponseData bulkResponseData, OutputStream outputStream)
+            throws InternalErrorException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            writeBulkResponseData(bulkResponseData, generator);
+        } catch (IOException e) {
+            throw new InternalErrorException("Error in encoding the response");
+        }
+    }
+
+    /*
+     * encode the bulk response and write it to the given writer.
+     * @param bulkResponseData
+     * @param writer
+     * @throws InternalErrorException
+     */
+    public void encodeBulkResponseData(BulkResponseData bulkResponseData, Writer writer)
+            throws InternalErrorException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            writeBulkResponseData(bulkResponseData, generator);
+        } catch (IOException e) {
+            throw new InternalErrorException("Error in encoding the response");
+        }
+    }
+
+    /*
+     * encode a list response and write it to the given output stream as UTF-8. The envelope is written first, then
+     * each resource is taken from the given resources, handed to the handler and encoded one at a time. So only one
+     * resource has to be held in memory if the resources are loaded while they are iterated. The stream is flushed
+     * for the first time once the first resource is encoded, see StreamingSCIMResponse. If a later resource fails,
+     * the list is left unterminated, so it can not be taken for a complete response.
+     * @param totalResults
+     * @param startIndex
+     * @param resources
+     * @param handler - prepares each resource right before it is encoded
+     * @param outputStream
+     * @throws CharonException
+     */
+    public void encodeListedResource(int totalResults, int startIndex, Iterable<?> resources,
+                                     ListedResourceHandler handler, OutputStream outputStream)
+            throws CharonException {
+        writeListedResource(totalResults, startIndex, null, resources, handler, outputStream);
+    }
+
+    /*
+     * encode a page of a cursor paginated list response and write it to the given output stream as UTF-8. The total
+     * results and the next cursor are only written if the listed resource has them.
+     * @param listedResource
+     * @param handler - prepares each resource right before it is encoded
+     * @param outputStream
+     * @throws CharonException
+     */
+    public void encodeListedResource(ListedResource listedResource, ListedResourceHandler handler,
+                                     OutputStream outputStream) throws CharonException {
+        Integer totalResults = listedResource.isAttributeExist(
+                SCIMConstants.ListedResourceSchemaConstants.TOTAL_RESULTS) ? listedResource.getTotalResults() : null;
+        writeListedResource(totalResults, null, listedResource.getNextCursor(), listedResource.getResources(),
+                handler, outputStream);
+    }
+
+    private void writeListedResource(Integer totalResults, Integer startIndex, String nextCursor,
+                                     Iterable<?> resources, ListedResourceHandler handler,
+                                     OutputStream outputStream) throws CharonException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            //if a resource fails, the open array and object must not be closed and the stream must not be flushed
+            //when the generator is closed, so that a partly written list never looks like a complete one.
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.writeStartObject();
+            writeArrayOfValues(SCIMConstants.CommonSchemaConstants.SCHEMAS,
+                    new Object[]{SCIMConstants.LISTED_RESOURCE_CORE_SCHEMA_URI}, generator);
+            if (totalResults != null) {
+                generator.writeNumberField(SCIMConstants.ListedResourceSchemaConstants.TOTAL_RESULTS, totalResults);
+            }
+            if (startIndex != null) {
+                generator.writeNumberField(SCIMConstants.ListedResourceSchemaConstants.START_INDEX, startIndex);
+            }
+            if (nextCursor != null) {
+                generator.writeStringField(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR, nextCursor);
+            }
+            int itemsPerPage = 0;
+            for (Object resource : resources) {
+                SCIMObject scimObject = (SCIMObject) resource;
+                handler.handle(scimObject);
+                if (itemsPerPage == 0) {
+                    generator.writeFieldName(SCIMConstants.ListedResourceSchemaConstants.RESOURCES);
+                    generator.writeStartArray();
+                }
+                //the resources are encoded as plain complex values, just as in a ListedResource.
+                generator.writeStartObject();
+                writeAttributes(scimObject.getAttributeList(), generator);
+                generator.writeEndObject();
+                if (itemsPerPage++ == 0) {
+                    //the first resource is encoded, so the response is let go out. Until then a failure can still
+                    //be answered with an error response, later ones abort the response.
+                    generator.flush();
+                    outputStream.flush();
+                }
+            }
+            if (itemsPerPage > 0) {
+                generator.writeEndArray();
+            }
+            //the page size is only known after the last resource
+            generator.writeNumberField(SCIMConstants.ListedResourceSchemaConstants.ITEMS_PER_PAGE, itemsPerPage);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new CharonException("Error in encoding resource..", e);
+        } catch (BadRequestException e) {
+            throw new CharonException(e.getDetail(), e);
+        }
+    }
+
+    /*
+     * write the given SCIM object as json object.
+     * @param scimObject
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeSCIMObject(SCIMObject scimObject, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        //encode schemas
+        writeArrayOfValues(SCIMConstants.CommonSchemaConstants.SCHEMAS, scimObject.getSchemaList().toArray(),
+                generator);
+        //encode attribute list
+        Map<String, Attribute> attributes = scimObject.getAttributeList();
+        if (attributes != null) {
+            writeAttributes(attributes, generator);
+        }
+        generator.writeEndObject();
+    }
+
+    /*
+     * write the given attributes as fields of the current json object.
+     * @param attributes
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeAttributes(Map<String, Attribute> attributes, JsonGenerator generator) throws IOException {
+        for (Attribute attribute : attributes.values()) {
+            //using instanceof instead of polymorphic way, in order to make encoder pluggable.
+            if (attribute instanceof SimpleAttribute) {
+                writeSimpleAttribute((SimpleAttribute) attribute, generator);
+
+            } else if (attribute instanceof ComplexAttribute) {
+                writeComplexAttribute((ComplexAttribute) attribute, generator);
+
+            } else if (attribute instanceof MultiValuedAttribute) {
+                writeMultiValuedAttribute((MultiValuedAttribute) attribute, generator);
+            }
+        }
+    }
+
+    /*
+     * write array of values as field of the current json object.
+     * @param arrayName
+     * @param arrayValues
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeArrayOfValues(String arrayName, Object[] arrayValues, JsonGenerator generator)
+            throws IOException {
+        generator.writeFieldName(arrayName);
+        generator.writeStartArray();
+        for (Object arrayValue : arrayValues) {
+            writeValue(arrayValue, generator);
+        }
+        generator.writeEndArray();
+    }
+
+    /*
+     * write the simple attribute as field of the current json object.
+     * @param attribute
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeSimpleAttribute(SimpleAttribute attribute, JsonGenerator generator) throws IOException {
+        if (attribute.getValue() != null) {
+            generator.writeFieldName(attribute.getName());
+            writeSimpleAttributeValue(attribute, generator);
+        }
+    }
+
+    /*
+     * write the value of the simple attribute. If type is DateTime, convert before encoding.
+     * @param attribute
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeSimpleAttributeValue(SimpleAttribute attribute, JsonGenerator generator) throws IOException {
+        if (attribute.getType() == SCIMDefinitions.DataType.DATE_TIME) {
+            generator.writeString(AttributeUtil.formatDateTime((Instant) attribute.getValue()));
+        } else {
+            writeValue(attribute.getValue(), generator);
+        }
+    }
+
+    /*
+     * write the complex attribute as field of the current json object.
+     * @param complexAttribute
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeComplexAttribute(ComplexAttribute complexAttribute, JsonGenerator generator)
+            throws IOException {
+        Map<String, Attribute> subAttributes = complexAttribute.getSubAttributesList();
+        //a complex attribute without sub attributes is not encoded at all
+        if (subAttributes.isEmpty()) {
+            return;
+        }
+        generator.writeFieldName(complexAttribute.getName());
+        generator.writeStartObject();
+        writeAttributes(subAttributes, generator);
+        generator.writeEndObject();
+    }
+
+    /*
+     * write the multivalued attribute as field of the current json object.
+     * @param multiValuedAttribute
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeMultiValuedAttribute(MultiValuedAttribute multiValuedAttribute, JsonGenerator generator)
+            throws IOException {
+        generator.writeFieldName(multiValuedAttribute.getName());
+        generator.writeStartArray();
+        List<Attribute> attributeValues = multiValuedAttribute.getAttributeValues();
+        if (attributeValues != null) {
+            for (Attribute attributeValue : attributeValues) {
+                if (attributeValue instanceof SimpleAttribute) {
+                    SimpleAttribute simpleAttributeValue = (SimpleAttribute) attributeValue;
+                    if (simpleAttributeValue.getValue() != null) {
+                        generator.writeStartObject();
+                        writeSimpleAttribute(simpleAttributeValue, generator);
+                        generator.writeEndObject();
+                    }
+
+                } else if (attributeValue instanceof ComplexAttribute) {
+                    generator.writeStartObject();
+                    writeAttributes(((ComplexAttribute) attributeValue).getSubAttributesList(), generator);
+                    generator.writeEndObject();
+                }
+            }
+        }
+        List<Object> primitiveValues = multiValuedAttribute.getAttributePrimitiveValues();
+        if (primitiveValues != null) {
+            for (Object primitiveValue : primitiveValues) {
+                if (primitiveValue instanceof SCIMObject) {
+                    writeSCIMObject((SCIMObject) primitiveValue, generator);
+                } else {
+                    writeValue(primitiveValue, generator);
+                }
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    /*
+     * write a plain value with the json type that matches its java type.
+     * @param value
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeValue(Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Instant) {
+            generator.writeString(AttributeUtil.formatDateTime((Instant) value));
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            generator.writeRawValue(value.toString());
+        } else {
+            generator.writeString(String.valueOf(value));
+        }
+    }
+
+    /*
+     * write the scim exception as json object.
+     * @param exception
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeSCIMException(AbstractCharonException exception, JsonGenerator generator)
+            throws IOException {
+        generator.writeStartObject();
+        writeArrayOfValues(ResponseCodeConstants.SCHEMAS, new Object[]{exception.getSchemas()}, generator);
+        if (exception instanceof BadRequestException) {
+            writeOptionalStringField(ResponseCodeConstants.SCIM_TYPE, ((BadRequestException) exception).getScimType(),
+                    generator);
+        }
+        generator.writeStringField(ResponseCodeConstants.DETAIL, String.valueOf(exception.getDetail()));
+        generator.writeStringField(ResponseCodeConstants.STATUS, String.valueOf(exception.getStatus()));
+        generator.writeEndObject();
+    }
+
+    /*
+     * write the bulk response as json object.
+     * @param bulkResponseData
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeBulkResponseData(BulkResponseData bulkResponseData, JsonGenerator generator)
+            throws IOException {
+        generator.writeStartObject();
+        //set the [schemas]
+        writeArrayOfValues(SCIMConstants.CommonSchemaConstants.SCHEMAS, bulkResponseData.getSchemas().toArray(),
+                generator);
+        //[Operations] - multi value attribute
+        generator.writeFieldName(SCIMConstants.OperationalConstants.OPERATIONS);
+        generator.writeStartArray();
+        for (BulkResponseContent userOperationResponse : bulkResponseData.getUserOperationResponse()) {
+            writeResponseContent(userOperationResponse, generator);
+        }
+        for (BulkResponseContent groupOperationResponse : bulkResponseData.getGroupOperationResponse()) {
+            writeResponseContent(groupOperationResponse, generator);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writeResponseContent(BulkResponseContent responseContent, JsonGenerator generator)
+            throws IOException {
+        int statusCode = responseContent.getScimResponse().getResponseStatus();
 
+        generator.writeStartObject();
+        writeOptionalStringField(SCIMConstants.CommonSchemaConstants.LOCATION, responseContent.getLocation(),
+                generator);
+        writeOptionalStringField(SCIMConstants.OperationalConstants.METHOD, responseContent.getMethod(), generator);
+        writeOptionalStringField(SCIMConstants.OperationalConstants.BULK_ID, responseContent.getBulkID(), generator);
+        generator.writeFieldName(SCIMConstants.OperationalConstants.STATUS);
+        generator.writeStartObject();
+        generator.writeNumberField(SCIMConstants.OperationalConstants.CODE, statusCode);
+        generator.writeEndObject();
 
+        //When indicating a response with an HTTP status other than a 200-series response,
+        // the response body MUST be included.
+        if (statusCode != 200 && statusCode != 201 && statusCode != 204) {
+            writeOptionalStringField(SCIMConstants.OperationalConstants.RESPONSE,
+                    responseContent.getScimResponse().getResponseMessage(), generator);
+        }
+        generator.writeEndObject();
+    }
 
+    /*
+     * fields without value are left out, just as JSONObject does for null values.
+     */
+    private void writeOptionalStringField(String fieldName, String value, JsonGenerator generator)
+            throws IOException {
+        if (value != null) {
+            generator.writeStringField(fieldName, value);
+        }
+    }
+
+    /*
+     * write the definition of an attribute and its sub attributes in the form of the schema representation.
+     * @param attributeSchema
+     * @param generator
+     * @throws IOException
+     */
+    protected void writeAttributeSchema(AttributeSchema attributeSchema, JsonGenerator generator)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(SCIMConstants.SchemaSchemaConstants.NAME, attributeSchema.getName());
+        generator.writeStringField(SCIMConstants.SchemaSchemaConstants.TYPE,
+                toSchemaValue(attributeSchema.getType()));
+        generator.writeBooleanField(SCIMConstants.SchemaSchemaConstants.MULTI_VALUED,
+                attributeSchema.getMultiValued());
+        writeOptionalStringField(SCIMConstants.SchemaSchemaConstants.DESCRIPTION, attributeSchema.getDescription(),
+                generator);
+        generator.writeBooleanField(SCIMConstants.SchemaSchemaConstants.REQUIRED, attributeSchema.getRequired());
+        if (attributeSchema.getType() != SCIMDefinitions.DataType.COMPLEX) {
+            generator.writeBooleanField(SCIMConstants.SchemaSchemaConstants.CASE_EXACT,
+                    attributeSchema.getCaseExact());
+        }
+        generator.writeStringField(SCIMConstants.SchemaSchemaConstants.MUTABILITY,
+                toSchemaValue(attributeSchema.getMutability()));
+        generator.writeStringField(SCIMConstants.SchemaSchemaConstants.RETURNED,
+                toSchemaValue(attributeSchema.getReturned()));
+        if (attributeSchema.getType() != SCIMDefinitions.DataType.COMPLEX) {
+            generator.writeStringField(SCIMConstants.SchemaSchemaConstants.UNIQUENESS,
+                    toSchemaValue(attributeSchema.getUniqueness()));
+        }
+        if (attributeSchema instanceof SCIMAttributeSchema) {
+            SCIMAttributeSchema scimAttributeSchema = (SCIMAttributeSchema) attributeSchema;
+            if (scimAttributeSchema.getCanonicalValues() != null
+                    && !scimAttributeSchema.getCanonicalValues().isEmpty()) {
+                generator.writeArrayFieldStart(SCIMConstants.SchemaSchemaConstants.CANONICAL_VALUES);
+                for (String canonicalValue : scimAttributeSchema.getCanonicalValues()) {
+                    generator.writeString(canonicalValue);
+                }
+                generator.writeEndArray();
+            }
+            if (attributeSchema.getType() == SCIMDefinitions.DataType.REFERENCE
+                    && scimAttributeSchema.getReferenceTypes() != null
+                    && !scimAttributeSchema.getReferenceTypes().isEmpty()) {
+                generator.writeArrayFieldStart(SCIMConstants.SchemaSchemaConstants.REFERENCE_TYPES);
+                for (SCIMDefinitions.ReferenceType referenceType : scimAttributeSchema.getReferenceTypes()) {
+                    generator.writeString(toSchemaValue(referenceType));
+                }
+                generator.writeEndArray();
+            }
+        }
+        List<AttributeSchema> subAttributeSchemas = attributeSchema.getSubAttributeSchemas();
+        if (subAttributeSchemas != null && !subAttributeSchemas.isEmpty()) {
+            generator.writeArrayFieldStart(SCIMConstants.SchemaSchemaConstants.SUB_ATTRIBUTES);
+            for (AttributeSchema subAttributeSchema : subAttributeSchemas) {
+                writeAttributeSchema(subAttributeSchema, generator);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /*
+     * the schema representation uses the spelling of the spec, e.g. DATE_TIME becomes dateTime and the resource
+     * reference types keep their resource names.
+     */
+    private String toSchemaValue(Enum<?> value) {
+        if (value == null) {
+            return null;
+        }
+        if (value == SCIMDefinitions.ReferenceType.USER) {
+            return SCIMConstants.USER;
+        } else if (value == SCIMDefinitions.ReferenceType.GROUP) {
+            return SCIMConstants.GROUP;
+        }
+        StringBuilder schemaValue = new StringBuilder();
+        for (String part : value.name().toLowerCase(Locale.ENGLISH).split("_")) {
+            if (schemaValue.length() == 0) {
+                schemaValue.append(part);
+            } else {
+                schemaValue.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return schemaValue.toString();
+    }
+
+    /**
+     * Prepares a resource of a list response right before it is encoded, e.g. validates it and removes the
+     * attributes that are not to be returned.
+     */
+    @FunctionalInterface
+    public interface ListedResourceHandler {
+
+        void handle(SCIMObject resource) throws CharonException, BadRequestException;
+    }
+}
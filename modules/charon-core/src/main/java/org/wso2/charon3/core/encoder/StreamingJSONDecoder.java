@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.encoder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.ComplexAttribute;
+import org.wso2.charon3.core.attributes.DefaultAttributeFactory;
+import org.wso2.charon3.core.attributes.MultiValuedAttribute;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.exceptions.InternalErrorException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.ResourceTypeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A JSONDecoder that decodes resources in a single pass over the payload with a pull parser. Each key of the payload
+ * is resolved against a precomputed index of the resource schema and the attributes are built directly from the
+ * parser tokens, instead of parsing the payload into a JSONObject first and looking up every attribute schema in it.
+ * <p>
+ * Attribute names are matched ignoring the case, an exact match takes precedence. Invalid payloads are rejected
+ * with the same exceptions as the JSONDecoder. Select it with
+ * {@link org.wso2.charon3.core.protocol.endpoints.AbstractResourceManager#setDecoder(JSONDecoder)}.
+ */
+public class StreamingJSONDecoder extends JSONDecoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingJSONDecoder.class);
+
+    //accept and reject the same syntax as the JSONObject parser, which rejects duplicate keys but is lenient
+    //about quotes and trailing commas.
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION)
+            .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
+            .enable(JsonParser.Feature.ALLOW_TRAILING_COMMA);
+
+    //a key matching the attribute name exactly wins over one matching it ignoring the case, which wins over the URI
+    private static final int EXACT_NAME_MATCH = 0;
+    private static final int NAME_MATCH = 1;
+    private static final int URI_MATCH = 2;
+
+    //indexes of the schemas of SCIMResourceSchemaManager, these are never modified once built.
+    private static final Map<ResourceTypeSchema, AttributeKeyIndex> KEY_INDEXES =
+            Collections.synchronizedMap(new WeakHashMap<ResourceTypeSchema, AttributeKeyIndex>());
+
+    /**
+     * Decode the resource string sent in the SCIM request payload.
+     *
+     * @param scimResourceString - json encoded string of user info
+     * @param resourceSchema     - SCIM defined user schema
+     * @param scimObject         - a container holding the attributes and schema list
+     * @return SCIMObject
+     */
+    @Override
+    public <T extends AbstractSCIMObject> T decodeResource(String scimResourceString,
+                                                           ResourceTypeSchema resourceSchema,
+                                                           T scimObject)
+            throws BadRequestException, CharonException, InternalErrorException {
+        AttributeKeyIndex keyIndex = getKeyIndex(resourceSchema);
+        Map<AttributeSchema, Attribute> decodedAttributes = new IdentityHashMap<AttributeSchema, Attribute>();
+        Map<AttributeSchema, Integer> matches = new IdentityHashMap<AttributeSchema, Integer>();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(scimResourceString)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                logger.error("json error in decoding the resource");
+                throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                AttributeSchema attributeSchema = keyIndex.get(key);
+                int match = keyIndex.getMatch(key, attributeSchema);
+                Integer previousMatch = attributeSchema == null ? null : matches.get(attributeSchema);
+                if (attributeSchema == null || (previousMatch != null && previousMatch <= match)) {
+                    //not an attribute of the resource or already given by a better matching key
+                    parser.skipChildren();
+                    continue;
+                }
+                matches.put(attributeSchema, match);
+                decodedAttributes.put(attributeSchema, decodeAttribute(attributeSchema, parser));
+            }
+        } catch (IOException e) {
+            logger.error("json error in decoding the resource");
+            throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+        }
+
+        //set the schemas in scimobject
+        for (String schema : resourceSchema.getSchemasList()) {
+            scimObject.setSchema(schema);
+        }
+        //set the attributes in the order of the schema
+        for (AttributeSchema attributeSchema : resourceSchema.getAttributesList()) {
+            Attribute attribute = decodedAttributes.get(attributeSchema);
+            if (attribute != null) {
+                scimObject.setAttribute(attribute, resourceSchema);
+            }
+        }
+        return scimObject;
+    }
+
+    /*
+     * decode the value the parser is positioned at as attribute of the resource.
+     * @param attributeSchema
+     * @param parser
+     * @return the attribute
+     */
+    private Attribute decodeAttribute(AttributeSchema attributeSchema, JsonParser parser)
+            throws IOException, BadRequestException, CharonException, InternalErrorException {
+        JsonToken token = parser.getCurrentToken();
+        if (!SCIMDefinitions.DataType.COMPLEX.equals(attributeSchema.getType())) {
+            if (!attributeSchema.getMultiValued()) {
+                Object attributeValue = readSimpleValue(parser);
+                if (attributeValue == null) {
+                    logger.error("Error decoding the simple attribute");
+                    throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+                }
+                //if the corresponding schema data type is String/Boolean/Binary/Decimal/Integer/DataTime
+                // or Reference, it is a SimpleAttribute.
+                return buildSimpleAttribute(attributeSchema, attributeValue);
+            }
+            if (token != JsonToken.START_ARRAY) {
+                logger.error("Error decoding the primitive multivalued attribute");
+                throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            return readPrimitiveMultiValuedAttribute(attributeSchema, parser);
+        }
+        if (attributeSchema.getMultiValued()) {
+            if (token != JsonToken.START_ARRAY) {
+                logger.error("Error decoding the complex multivalued attribute");
+                throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            return readComplexMultiValuedAttribute(attributeSchema, parser);
+        }
+        if (token != JsonToken.START_OBJECT) {
+            logger.error("Error decoding the complex attribute");
+            throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+        }
+        return readComplexAttribute(attributeSchema, parser);
+    }
+
+    /*
+     * read a value that is accepted for a simple attribute: a string, a boolean, an integer or null.
+     * @param parser
+     * @return the value, JSONObject.NULL for null or null if the value is of any other type
+     */
+    private Object readSimpleValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return JSONObject.NULL;
+        }
+        Object value = readPrimitiveValue(parser);
+        return value instanceof Double ? null : value;
+    }
+
+    /*
+     * read a value that is accepted as primitive value of a multivalued attribute: a string, a boolean, an integer
+     * or a decimal number.
+     * @param parser
+     * @return the value or null if the value is of any other type, including null
+     */
+    private Object readPrimitiveValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NUMBER_INT:
+                //longer numbers are read as Long by the JSONObject parser which is not accepted either.
+                return parser.getNumberType() == JsonParser.NumberType.INT ? parser.getIntValue() : null;
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Return a primitive type multi valued attribute with the values of the array the parser is positioned at.
+     * @param attributeSchema
+     * @param parser
+     * @return MultiValuedAttribute
+     */
+    private MultiValuedAttribute readPrimitiveMultiValuedAttribute(AttributeSchema attributeSchema, JsonParser parser)
+            throws IOException, BadRequestException, CharonException {
+        MultiValuedAttribute multiValuedAttribute = new MultiValuedAttribute(attributeSchema.getName());
+        List<Object> primitiveValues = new ArrayList<Object>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            Object attributeValue = readSimpleValue(parser);
+            if (attributeValue == null || JSONObject.NULL.equals(attributeValue)) {
+                String error = "Unknown JSON representation for the MultiValued attribute " +
+                        attributeSchema.getName() + " which has data type as " + attributeSchema.getType();
+                throw new BadRequestException(error, ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            primitiveValues.add(attributeValue);
+        }
+        multiValuedAttribute.setAttributePrimitiveValues(primitiveValues);
+        return (MultiValuedAttribute) DefaultAttributeFactory.createAttribute(attributeSchema, multiValuedAttribute);
+    }
+
+    /*
+     * Return a complex type multi valued attribute with the values of the array the parser is positioned at.
+     * @param attributeSchema
+     * @param parser
+     * @return MultiValuedAttribute
+     */
+    private MultiValuedAttribute readComplexMultiValuedAttribute(AttributeSchema attributeSchema, JsonParser parser)
+            throws IOException, BadRequestException, CharonException {
+        MultiValuedAttribute multiValuedAttribute = new MultiValuedAttribute(attributeSchema.getName());
+        List<Attribute> complexAttributeValues = new ArrayList<Attribute>();
+        List<Object> simpleAttributeValues = new ArrayList<Object>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                complexAttributeValues.add(readComplexValue(attributeSchema, parser));
+                continue;
+            }
+            Object attributeValue = readPrimitiveValue(parser);
+            if (attributeValue == null) {
+                String error = "Unknown JSON representation for the MultiValued attribute " +
+                        attributeSchema.getName() + " which has data type as " + attributeSchema.getType();
+                throw new BadRequestException(error, ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            simpleAttributeValues.add(attributeValue);
+        }
+        multiValuedAttribute.setAttributeValues(complexAttributeValues);
+        multiValuedAttribute.setAttributePrimitiveValues(simpleAttributeValues);
+        return (MultiValuedAttribute) DefaultAttributeFactory.createAttribute(attributeSchema, multiValuedAttribute);
+    }
+
+    /*
+     * Return a complex attribute with the sub attributes of the object the parser is positioned at.
+     * @param complexAttributeSchema
+     * @param parser
+     * @return ComplexAttribute
+     */
+    private ComplexAttribute readComplexAttribute(AttributeSchema complexAttributeSchema, JsonParser parser)
+            throws IOException, BadRequestException, CharonException, InternalErrorException {
+        //As according to the spec we have complex attribute inside complex attribute only for extension,
+        //complex sub attributes are a schema violation anywhere else
+        boolean extension = complexAttributeSchema.getName().equals(
+                SCIMResourceSchemaManager.getInstance().getExtensionName());
+        for (AttributeSchema subAttributeSchema : complexAttributeSchema.getSubAttributeSchemas()) {
+            if (SCIMDefinitions.DataType.COMPLEX.equals(subAttributeSchema.getType())) {
+                if (!extension) {
+                    throw new InternalErrorException("Complex attribute can not have complex sub attributes");
+                }
+                for (AttributeSchema attributeSchema : subAttributeSchema.getSubAttributeSchemas()) {
+                    if (SCIMDefinitions.DataType.COMPLEX.equals(attributeSchema.getType())) {
+                        throw new InternalErrorException("Complex attribute can not have complex sub attributes");
+                    }
+                }
+            }
+        }
+
+        Map<String, Attribute> subAttributesMap = new HashMap<String, Attribute>();
+        Map<AttributeSchema, Integer> matches = new IdentityHashMap<AttributeSchema, Integer>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            parser.nextToken();
+            AttributeSchema subAttributeSchema = getSubAttributeSchema(complexAttributeSchema, key);
+            Integer previousMatch = subAttributeSchema == null ? null : matches.get(subAttributeSchema);
+            int match = subAttributeSchema == null || subAttributeSchema.getName().equals(key) ?
+                    EXACT_NAME_MATCH : NAME_MATCH;
+            if (subAttributeSchema == null || (previousMatch != null && previousMatch <= match)) {
+                parser.skipChildren();
+                continue;
+            }
+            matches.put(subAttributeSchema, match);
+            subAttributesMap.remove(subAttributeSchema.getName());
+            Attribute subAttribute = readSubAttribute(subAttributeSchema, parser);
+            if (subAttribute != null) {
+                subAttributesMap.put(subAttributeSchema.getName(), subAttribute);
+            }
+        }
+        ComplexAttribute complexAttribute = new ComplexAttribute(complexAttributeSchema.getName());
+        complexAttribute.setSubAttributesList(subAttributesMap);
+        return (ComplexAttribute) DefaultAttributeFactory.createAttribute(complexAttributeSchema, complexAttribute);
+    }
+
+    /*
+     * read the value the parser is positioned at as sub attribute of a complex attribute.
+     * @param subAttributeSchema
+     * @param parser
+     * @return the sub attribute or null if the payload defines no value for it
+     */
+    private Attribute readSubAttribute(AttributeSchema subAttributeSchema, JsonParser parser)
+            throws IOException, BadRequestException, CharonException, InternalErrorException {
+        JsonToken token = parser.getCurrentToken();
+        if (!SCIMDefinitions.DataType.COMPLEX.equals(subAttributeSchema.getType())) {
+            if (!subAttributeSchema.getMultiValued()) {
+                Object attributeValue = readSimpleValue(parser);
+                if (attributeValue == null) {
+                    logger.error("Error decoding the sub attribute");
+                    throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+                }
+                return buildSimpleAttribute(subAttributeSchema, attributeValue);
+            }
+            if (token != JsonToken.START_ARRAY) {
+                logger.error("Error decoding the sub attribute");
+                throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            return readPrimitiveMultiValuedAttribute(subAttributeSchema, parser);
+        }
+        //this case is only valid for the extension schema
+        if (subAttributeSchema.getMultiValued()) {
+            if (token != JsonToken.START_ARRAY) {
+                logger.error("Error decoding the extension sub attribute");
+                throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+            }
+            List<Attribute> complexAttributeValues = new ArrayList<Attribute>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                    String error = "Unknown JSON representation for the MultiValued attribute " +
+                            subAttributeSchema.getName() + " which has data type as " + subAttributeSchema.getType();
+                    throw new BadRequestException(error, ResponseCodeConstants.INVALID_SYNTAX);
+                }
+                complexAttributeValues.add(readComplexValue(subAttributeSchema, parser));
+            }
+            //an empty array does not define a value
+            if (complexAttributeValues.isEmpty()) {
+                return null;
+            }
+            MultiValuedAttribute multiValuedAttribute = new MultiValuedAttribute(subAttributeSchema.getName());
+            multiValuedAttribute.setAttributeValues(complexAttributeValues);
+            return DefaultAttributeFactory.createAttribute(subAttributeSchema, multiValuedAttribute);
+        }
+        if (token != JsonToken.START_OBJECT) {
+            logger.error("Error decoding the extension sub attribute");
+            throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+        }
+        return readComplexAttribute(subAttributeSchema, parser);
+    }
+
+    /*
+     * To build a complex type value of a Multi Valued Attribute from the object the parser is positioned at.
+     * (eg. Email with value,type,primary as sub attributes)
+     * @param attributeSchema
+     * @param parser
+     * @return ComplexAttribute
+     */
+    private ComplexAttribute readComplexValue(AttributeSchema attributeSchema, JsonParser parser)
+            throws IOException, BadRequestException, CharonException {
+        Map<String, Attribute> subAttributesMap = new HashMap<String, Attribute>();
+        Map<AttributeSchema, Integer> matches = new IdentityHashMap<AttributeSchema, Integer>();
+        //the raw values of value and type, they make up the name of the complex value
+        Object value = null;
+        Object type = null;
+        boolean exactType = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            parser.nextToken();
+            AttributeSchema subAttributeSchema = getSubAttributeSchema(attributeSchema, key);
+            if (SCIMConstants.CommonSchemaConstants.TYPE.equalsIgnoreCase(key) && !exactType) {
+                exactType = SCIMConstants.CommonSchemaConstants.TYPE.equals(key);
+                type = parser.getCurrentToken() == JsonToken.VALUE_NULL ? JSONObject.NULL : readPrimitiveValue(parser);
+            }
+            Integer previousMatch = subAttributeSchema == null ? null : matches.get(subAttributeSchema);
+            int match = subAttributeSchema == null || subAttributeSchema.getName().equals(key) ?
+                    EXACT_NAME_MATCH : NAME_MATCH;
+            if (subAttributeSchema == null || (previousMatch != null && previousMatch <= match)) {
+                parser.skipChildren();
+                continue;
+            }
+            matches.put(subAttributeSchema, match);
+
+            Attribute subAttribute;
+            if (subAttributeSchema.getMultiValued()) {
+                if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                    throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+                }
+                subAttribute = readPrimitiveMultiValuedAttribute(subAttributeSchema, parser);
+            } else {
+                Object subAttributeValue = readSimpleValue(parser);
+                if (subAttributeValue == null) {
+                    throw new BadRequestException(ResponseCodeConstants.INVALID_SYNTAX);
+                }
+                if (SCIMConstants.CommonSchemaConstants.VALUE.equals(subAttributeSchema.getName())) {
+                    value = subAttributeValue;
+                }
+                subAttribute = buildSimpleAttribute(subAttributeSchema, subAttributeValue);
+            }
+            subAttributesMap.put(subAttributeSchema.getName(), subAttribute);
+        }
+
+        ComplexAttribute complexAttribute = new ComplexAttribute(attributeSchema.getName());
+        //setting up a name for the complex attribute for the reference purpose,
+        //(value,type) pair is considered as a primary key for each entry
+        if (attributeSchema.getSubAttributeSchema(SCIMConstants.CommonSchemaConstants.VALUE) != null) {
+            complexAttribute.setName(attributeSchema.getName() + "_" +
+                    (value != null ? value : SCIMConstants.DEFAULT) + "_" +
+                    (type != null ? type : SCIMConstants.DEFAULT));
+        }
+        complexAttribute.setSubAttributesList(subAttributesMap);
+        return (ComplexAttribute) DefaultAttributeFactory.createAttribute(attributeSchema, complexAttribute);
+    }
+
+    /*
+     * return the sub attribute schema with the given name, an exact match takes precedence over one ignoring the
+     * case.
+     * @param attributeSchema
+     * @param name
+     * @return
+     */
+    private AttributeSchema getSubAttributeSchema(AttributeSchema attributeSchema, String name) {
+        AttributeSchema match = null;
+        for (AttributeSchema subAttributeSchema : attributeSchema.getSubAttributeSchemas()) {
+            if (subAttributeSchema.getName().equals(name)) {
+                return subAttributeSchema;
+            }
+            if (match == null && subAttributeSchema.getName().equalsIgnoreCase(name)) {
+                match = subAttributeSchema;
+            }
+        }
+        return match;
+    }
+
+    /*
+     * return the key index of the given schema. Only the indexes of the schemas managed by
+     * SCIMResourceSchemaManager are kept, any other schema may still be modified by its owner.
+     * @param resourceSchema
+     * @return
+     */
+    private static AttributeKeyIndex getKeyIndex(ResourceTypeSchema resourceSchema) {
+        AttributeKeyIndex keyIndex = KEY_INDEXES.get(resourceSchema);
+        if (keyIndex != null) {
+            return keyIndex;
+        }
+        keyIndex = new AttributeKeyIndex(resourceSchema);
+        if (resourceSchema instanceof SCIMResourceTypeSchema && SCIMResourceSchemaManager.getInstance()
+                .getSchemaIndex((SCIMResourceTypeSchema) resourceSchema) != null) {
+            KEY_INDEXES.put(resourceSchema, keyIndex);
+        }
+        return keyIndex;
+    }
+
+    /**
+     * The top level attribute schemas of a resource schema by their lower cased name and by their URI.
+     */
+    private static class AttributeKeyIndex {
+
+        private final Map<String, AttributeSchema> byName = new HashMap<String, AttributeSchema>();
+        private final Map<String, AttributeSchema> byURI = new HashMap<String, AttributeSchema>();
+
+        AttributeKeyIndex(ResourceTypeSchema resourceSchema) {
+            for (AttributeSchema attributeSchema : resourceSchema.getAttributesList()) {
+                byName.putIfAbsent(attributeSchema.getName().toLowerCase(Locale.ENGLISH), attributeSchema);
+                if (attributeSchema.getURI() != null) {
+                    byURI.putIfAbsent(attributeSchema.getURI(), attributeSchema);
+                }
+            }
+        }
+
+        AttributeSchema get(String key) {
+            AttributeSchema attributeSchema = byName.get(key.toLowerCase(Locale.ENGLISH));
+            return attributeSchema != null ? attributeSchema : byURI.get(key);
+        }
+
+        int getMatch(String key, AttributeSchema attributeSchema) {
+            if (attributeSchema == null || attributeSchema.getName().equals(key)) {
+                return EXACT_NAME_MATCH;
+            }
+            return attributeSchema.getName().equalsIgnoreCase(key) ? NAME_MATCH : URI_MATCH;
+        }
+    }
+}
@@ -20,13 +20,17 @@ import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.exceptions.ConflictException;
 import org.wso2.charon3.core.exceptions.NotFoundException;
 import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.exceptions.PreConditionFailedException;
 import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.ListedResource;
 import org.wso2.charon3.core.objects.User;
 import org.wso2.charon3.core.utils.codeutils.Node;
 import org.wso2.charon3.core.utils.codeutils.SearchRequest;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This is the interface for usermanager extension.
@@ -46,6 +50,22 @@ public interface UserManager {
     public void deleteUser(String userId)
             throws NotFoundException, CharonException, NotImplementedException, BadRequestException;
 
+    /*
+     * delete the user only if its version matches the If-Match header of the request, see
+     * ResourceManagerUtil#matchesETag. The version has to be checked and the user deleted atomically. User managers
+     * that can not do so keep the default, the resource manager then checks the version of the user it read before
+     * the delete, which does not detect a change stored in between.
+     * @param userId
+     * @param ifMatch - the value of the If-Match header
+     * @throws PreConditionFailedException if the version does not match
+     * @throws NotImplementedException if conditional deletes are not supported
+     */
+    default void deleteUserIfMatch(String userId, String ifMatch)
+            throws NotFoundException, CharonException, NotImplementedException, BadRequestException,
+            PreConditionFailedException {
+        throw new NotImplementedException("Conditional deletes are not supported for users");
+    }
+
     default List<Object> listUsersWithGET(Node node, Integer startIndex, Integer count, String sortBy, String sortOrder,
             String domainName, Map<String, Boolean> requiredAttributes)
             throws CharonException, NotImplementedException, BadRequestException {
@@ -79,9 +99,47 @@ public interface UserManager {
     public List<Object> listUsersWithPost(SearchRequest searchRequest, Map<String, Boolean> requiredAttributes)
             throws CharonException, NotImplementedException, BadRequestException;
 
+    /*
+     * list one page of users with cursor pagination. The cursor is an opaque value this user manager handed out as
+     * the next cursor of the previous page, an empty cursor requests the first page. The returned listed resource
+     * holds the users of the page, the next cursor unless the page is the last one and the total number of results
+     * if it is known.
+     * @param node - the filter, may be null
+     * @param cursor
+     * @param count - the maximum number of users of the page, null if not specified in the request
+     * @param sortBy
+     * @param sortOrder
+     * @param domainName
+     * @param requiredAttributes
+     * @return
+     */
+    default ListedResource listUsersWithCursor(Node node, String cursor, Integer count, String sortBy,
+            String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        throw new NotImplementedException("Cursor pagination is not supported for users");
+    }
+
     public User updateUser(User updatedUser, Map<String, Boolean> requiredAttributes)
             throws NotImplementedException, CharonException, BadRequestException, NotFoundException;
 
+    /*
+     * compare and set update of a user: the user is only updated if the version of the stored user matches the
+     * If-Match header of the request, see ResourceManagerUtil#matchesETag. The version has to be checked and the
+     * user updated atomically. User managers that can not do so keep the default, the resource manager then checks
+     * the version of the user it read before the update, which does not detect a change stored in between.
+     * @param updatedUser
+     * @param ifMatch - the value of the If-Match header
+     * @param requiredAttributes
+     * @return
+     * @throws PreConditionFailedException if the version does not match
+     * @throws NotImplementedException if conditional updates are not supported
+     */
+    default User updateUserIfMatch(User updatedUser, String ifMatch, Map<String, Boolean> requiredAttributes)
+            throws NotImplementedException, CharonException, BadRequestException, NotFoundException,
+            PreConditionFailedException {
+        throw new NotImplementedException("Conditional updates are not supported for users");
+    }
+
     public User getMe(String userName, Map<String, Boolean> requiredAttributes)
             throws CharonException, BadRequestException, NotFoundException;
 
@@ -95,6 +153,15 @@ public interface UserManager {
             throws NotImplementedException, CharonException, BadRequestException, NotFoundException;
 
 
+    /*
+     * return the URIs of the attributes this user manager can look up without scanning all resources, e.g. because
+     * they are backed by a database index. They make a filter cheaper when it is checked against the filter limits
+     * of the CharonConfiguration.
+     */
+    default Set<String> getIndexedAttributes() {
+        return Collections.emptySet();
+    }
+
    /* ****************Group manipulation operations.********************/
 
     public Group createGroup(Group group, Map<String, Boolean> requiredAttributes)
@@ -106,6 +173,19 @@ public interface UserManager {
     public void deleteGroup(String id)
             throws NotFoundException, CharonException, NotImplementedException, BadRequestException;
 
+    /*
+     * delete the group only if its version matches the If-Match header of the request, see deleteUserIfMatch.
+     * @param id
+     * @param ifMatch - the value of the If-Match header
+     * @throws PreConditionFailedException if the version does not match
+     * @throws NotImplementedException if conditional deletes are not supported
+     */
+    default void deleteGroupIfMatch(String id, String ifMatch)
+            throws NotFoundException, CharonException, NotImplementedException, BadRequestException,
+            PreConditionFailedException {
+        throw new NotImplementedException("Conditional deletes are not supported for groups");
+    }
+
     default List<Object> listGroupsWithGET(Node node, Integer startIndex, Integer count, String sortBy,
             String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
             throws CharonException, NotImplementedException, BadRequestException {
@@ -135,9 +215,35 @@ public interface UserManager {
         return listGroupsWithGET(node, startIndex, count, sortBy, sortOrder, null, requiredAttributes);
     }
 
+    /*
+     * list one page of groups with cursor pagination, see listUsersWithCursor.
+     */
+    default ListedResource listGroupsWithCursor(Node node, String cursor, Integer count, String sortBy,
+            String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        throw new NotImplementedException("Cursor pagination is not supported for groups");
+    }
+
     public Group updateGroup(Group oldGroup, Group newGroup, Map<String, Boolean> requiredAttributes)
             throws NotImplementedException, BadRequestException, CharonException, NotFoundException;
 
+    /*
+     * compare and set update of a group, see updateUserIfMatch.
+     * @param oldGroup
+     * @param newGroup
+     * @param ifMatch - the value of the If-Match header
+     * @param requiredAttributes
+     * @return
+     * @throws PreConditionFailedException if the version does not match
+     * @throws NotImplementedException if conditional updates are not supported
+     */
+    default Group updateGroupIfMatch(Group oldGroup, Group newGroup, String ifMatch,
+            Map<String, Boolean> requiredAttributes)
+            throws NotImplementedException, BadRequestException, CharonException, NotFoundException,
+            PreConditionFailedException {
+        throw new NotImplementedException("Conditional updates are not supported for groups");
+    }
+
     public List<Object> listGroupsWithPost(SearchRequest searchRequest, Map<String, Boolean> requiredAttributes)
             throws NotImplementedException, BadRequestException, CharonException;;
 }
@@ -84,6 +84,15 @@ public class AbstractSCIMObject extends ScimAttributeAware implements SCIMObject
     public Map<String, Attribute> getAttributeList() {
         return attributeList; }
 
+    /**
+     * Replace the map holding the attributes of this resource.
+     *
+     * @param attributeList
+     */
+    public void setAttributeList(Map<String, Attribute> attributeList) {
+        this.attributeList = attributeList;
+    }
+
     public void setSchema(String schema) {
         schemaList.add(schema);
     }
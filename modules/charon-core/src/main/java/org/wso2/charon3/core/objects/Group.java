@@ -18,6 +18,7 @@ package org.wso2.charon3.core.objects;
 import org.wso2.charon3.core.attributes.Attribute;
 import org.wso2.charon3.core.attributes.ComplexAttribute;
 import org.wso2.charon3.core.attributes.DefaultAttributeFactory;
+import org.wso2.charon3.core.attributes.GroupMembersAttribute;
 import org.wso2.charon3.core.attributes.MultiValuedAttribute;
 import org.wso2.charon3.core.attributes.SimpleAttribute;
 import org.wso2.charon3.core.exceptions.BadRequestException;
@@ -88,7 +89,11 @@ public class Group extends AbstractSCIMObject {
      */
     public List<Object> getMembers() {
         List<Object> memberList = new ArrayList<>();
-        if (this.isAttributeExist(SCIMConstants.GroupSchemaConstants.MEMBERS)) {
+        if (this.attributeList.get(SCIMConstants.GroupSchemaConstants.MEMBERS) instanceof GroupMembersAttribute) {
+            memberList.addAll(((GroupMembersAttribute) this.attributeList.get(
+                    SCIMConstants.GroupSchemaConstants.MEMBERS)).getMemberValues(null));
+            return memberList;
+        } else if (this.isAttributeExist(SCIMConstants.GroupSchemaConstants.MEMBERS)) {
             MultiValuedAttribute members = (MultiValuedAttribute) this.attributeList.get(
                     SCIMConstants.GroupSchemaConstants.MEMBERS);
             List<Attribute> subValuesList = members.getAttributeValues();
@@ -159,11 +164,15 @@ public class Group extends AbstractSCIMObject {
     public void setMember(String value, String display, String ref, String type)
            throws BadRequestException, CharonException {
         if (!isAttributeExist(SCIMConstants.GroupSchemaConstants.MEMBERS)) {
-          MultiValuedAttribute members = new MultiValuedAttribute(SCIMConstants.GroupSchemaConstants.MEMBERS);
+          GroupMembersAttribute members = new GroupMembersAttribute();
           DefaultAttributeFactory.createAttribute(SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.MEMBERS, members);
           setAttribute(members);
         }
         MultiValuedAttribute members = (MultiValuedAttribute) getAttribute(SCIMConstants.GroupSchemaConstants.MEMBERS);
+        if (members instanceof GroupMembersAttribute && value != null) {
+            ((GroupMembersAttribute) members).putMember(value, display, ref, type);
+            return;
+        }
         ComplexAttribute complexAttribute = setMemberCommon(value, display, ref, type);
         members.setAttributeValue(complexAttribute);
     }
@@ -217,13 +226,15 @@ public class Group extends AbstractSCIMObject {
      */
     public void setMember(User user) throws BadRequestException, CharonException {
 
-        if (this.isAttributeExist(SCIMConstants.GroupSchemaConstants.MEMBERS)) {
-            MultiValuedAttribute members = (MultiValuedAttribute) this.attributeList
-                    .get(SCIMConstants.GroupSchemaConstants.MEMBERS);
+        Attribute membersAttribute = this.attributeList.get(SCIMConstants.GroupSchemaConstants.MEMBERS);
+        if (user.getId() != null && (membersAttribute == null || membersAttribute instanceof GroupMembersAttribute)) {
+            setMember(user.getId(), user.getUserName(), user.getLocation(), null);
+        } else if (membersAttribute != null) {
+            MultiValuedAttribute members = (MultiValuedAttribute) membersAttribute;
             ComplexAttribute complexAttribute = setMemberCommon(user);
             members.setAttributeValue(complexAttribute);
         } else {
-            MultiValuedAttribute members = new MultiValuedAttribute(SCIMConstants.GroupSchemaConstants.MEMBERS);
+            MultiValuedAttribute members = new GroupMembersAttribute();
             DefaultAttributeFactory.createAttribute(SCIMSchemaDefinitions.SCIMGroupSchemaDefinition.MEMBERS, members);
             ComplexAttribute complexAttribute = setMemberCommon(user);
             members.setAttributeValue(complexAttribute);
@@ -277,6 +288,47 @@ public class Group extends AbstractSCIMObject {
         return complexAttribute;
     }
 
+    /*
+     * remove a member (user or group) from the group. The members attribute is removed along with the last member.
+     * @param memberId - the value of the member
+     * @return true if the group had the member
+     */
+    public boolean removeMember(String memberId) {
+        if (!isAttributeExist(MEMBERS)) {
+            return false;
+        }
+        if (attributeList.get(MEMBERS) instanceof GroupMembersAttribute) {
+            GroupMembersAttribute members = (GroupMembersAttribute) attributeList.get(MEMBERS);
+            boolean removed = members.removeMember(memberId);
+            if (members.getMemberCount() == 0) {
+                deleteAttribute(MEMBERS);
+            }
+            return removed;
+        }
+        MultiValuedAttribute members = (MultiValuedAttribute) attributeList.get(MEMBERS);
+        boolean removed = members.getAttributeValues().removeIf(member -> {
+            Attribute value = ((ComplexAttribute) member).getSubAttributesList().get(VALUE);
+            return value != null && memberId.equals(((SimpleAttribute) value).getValue());
+        });
+        if (members.getAttributeValues().isEmpty()) {
+            deleteAttribute(MEMBERS);
+        }
+        return removed;
+    }
+
+    /*
+     * check whether a user or group is a direct member of the group.
+     * @param memberId - the value of the member
+     * @return
+     */
+    public boolean isMember(String memberId) {
+        if (attributeList.get(MEMBERS) instanceof GroupMembersAttribute) {
+            return ((GroupMembersAttribute) attributeList.get(MEMBERS)).containsMember(memberId);
+        }
+        List<Object> members = getMembers();
+        return members != null && members.contains(memberId);
+    }
+
     /**
      * set the schemas for scim object -group
      */
@@ -318,6 +370,9 @@ public class Group extends AbstractSCIMObject {
         if (membersAttribute == null) {
             return Collections.emptyList();
         }
+        if (membersAttribute instanceof GroupMembersAttribute) {
+            return ((GroupMembersAttribute) membersAttribute).getMemberValues(searchType);
+        }
         List<Attribute> memberList = membersAttribute.getAttributeValues();
         for (Attribute memberListEntry : memberList) {
             ComplexAttribute memberComplexAttribute = (ComplexAttribute) memberListEntry;
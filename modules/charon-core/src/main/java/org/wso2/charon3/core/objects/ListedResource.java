@@ -130,6 +130,37 @@ public class ListedResource extends AbstractSCIMObject {
         }
     }
 
+    /**
+     * @return the cursor of the next page of a cursor paginated listed resource, null on the last page
+     */
+    public String getNextCursor() {
+        if (!isAttributeExist(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR)) {
+            return null;
+        } else {
+            String nextCursorString = SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR;
+            SimpleAttribute nextCursorAttribute = ((SimpleAttribute) attributeList.get(nextCursorString));
+            return (String) nextCursorAttribute.getValue();
+        }
+    }
+
+    /**
+     * cursor paginated listed resource next cursor settings. The last page has no next cursor.
+     *
+     * @param nextCursor
+     */
+    public void setNextCursor(String nextCursor) {
+        if (nextCursor == null) {
+            deleteAttribute(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR);
+        } else if (!isAttributeExist(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR)) {
+            SimpleAttribute nextCursorAttribute =
+                new SimpleAttribute(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR, nextCursor);
+            attributeList.put(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR, nextCursorAttribute);
+        } else {
+            ((SimpleAttribute) attributeList.get(SCIMConstants.ListedResourceSchemaConstants.NEXT_CURSOR))
+                .setValue(nextCursor);
+        }
+    }
+
     /**
      * set the listed resources
      *
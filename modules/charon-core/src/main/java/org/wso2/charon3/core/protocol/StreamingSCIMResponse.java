@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.protocol;
+
+import org.wso2.charon3.core.encoder.JSONEncoder;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.schema.SCIMConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A SCIMResponse whose body is not held as a String but written to the output stream of the transport when the
+ * response is sent. Callers that still ask for the response message get the body encoded into a String once.
+ * <p>
+ * Nothing reaches the stream of the transport before the body writer flushes it for the first time, or returns. A
+ * list response, for example, is flushed after its first resource is encoded. So if the body writer fails before
+ * that, the transport can still send an error response instead. If it fails later, the status and a part of the
+ * body are already sent, and the transport has to abort the response, see {@link #isCommitted()}.
+ */
+public class StreamingSCIMResponse extends SCIMResponse {
+
+    private final ResponseBodyWriter bodyWriter;
+    private boolean committed;
+
+    /*
+     * Constructor with three params
+     *
+     * @param responseStatus - HTTP status code corresponding to the operation status
+     * @param bodyWriter - writes the json encoded response message
+     * @param headerMap - HTTP headers (eg-Content-type)
+     */
+    public StreamingSCIMResponse(int responseStatus, ResponseBodyWriter bodyWriter, Map<String, String> headerMap) {
+        super(responseStatus, null, headerMap);
+        this.bodyWriter = bodyWriter;
+    }
+
+    /*
+     * write the response message to the given stream. If this fails, isCommitted tells whether anything was written
+     * to the stream before.
+     * @param outputStream
+     * @throws CharonException
+     */
+    public void writeResponseMessage(OutputStream outputStream) throws CharonException {
+        DeferredOutputStream deferredStream = new DeferredOutputStream(outputStream);
+        bodyWriter.write(deferredStream);
+        try {
+            deferredStream.flush();
+        } catch (IOException e) {
+            throw new CharonException("Error in writing the response message", e);
+        }
+    }
+
+    /*
+     * whether the status and a part of the response message were sent by writeResponseMessage. If it failed after
+     * that, the response can not be turned into an error response anymore and has to be aborted.
+     * @return
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /*
+     * encode the response message into a String. If encoding fails, this response turns into the error response of
+     * the failure, so its status and headers are those of the error once the message was asked for.
+     * @return
+     */
+    @Override
+    public String getResponseMessage() {
+        if (responseMessage == null) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try {
+                bodyWriter.write(outputStream);
+                responseMessage = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+            } catch (CharonException e) {
+                responseStatus = e.getStatus();
+                headerParamMap = new HashMap<String, String>();
+                headerParamMap.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                responseMessage = new JSONEncoder().encodeSCIMException(e);
+            }
+        }
+        return responseMessage;
+    }
+
+    /**
+     * Writes the body of a streaming response.
+     */
+    @FunctionalInterface
+    public interface ResponseBodyWriter {
+
+        void write(OutputStream outputStream) throws CharonException;
+    }
+
+    /**
+     * Holds what is written to it until it is flushed for the first time, and passes everything written after that
+     * on to the stream of the transport right away.
+     */
+    private class DeferredOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        DeferredOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer != null) {
+                buffer.write(b);
+            } else {
+                outputStream.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (buffer != null) {
+                buffer.write(bytes, offset, length);
+            } else {
+                outputStream.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer != null) {
+                committed = true;
+                buffer.writeTo(outputStream);
+                buffer = null;
+            }
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() {
+            //the stream of the transport is closed by the transport.
+        }
+    }
+}
@@ -17,13 +17,17 @@ package org.wso2.charon3.core.protocol.endpoints;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wso2.charon3.core.config.CharonConfiguration;
 import org.wso2.charon3.core.encoder.JSONDecoder;
 import org.wso2.charon3.core.encoder.JSONEncoder;
 import org.wso2.charon3.core.exceptions.AbstractCharonException;
 import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.exceptions.NotFoundException;
+import org.wso2.charon3.core.exceptions.PreConditionFailedException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
 import org.wso2.charon3.core.protocol.SCIMResponse;
 import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.utils.ResourceManagerUtil;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -64,6 +68,15 @@ public abstract class AbstractResourceManager implements ResourceManager {
         return decoder;
     }
 
+    /*
+     * Sets the decoder for json, e.g. a StreamingJSONDecoder to decode resources in a single pass.
+     *
+     * @param decoder - An json decoder for decoding data
+     */
+    public static void setDecoder(JSONDecoder decoder) {
+        AbstractResourceManager.decoder = decoder;
+    }
+
     /*
      * Returns the endpoint according to the resource.
      *
@@ -83,6 +96,44 @@ public abstract class AbstractResourceManager implements ResourceManager {
         AbstractResourceManager.endpointURLMap = endpointURLMap;
     }
 
+    /*
+     * Returns the value of an If-Match or If-None-Match request header to be honoured.
+     *
+     * @param header - the value of the header, may be null
+     * @return the value of the header, null if there is none or ETags are not supported
+     */
+    protected static String getConditionalHeader(String header) {
+        return header != null && CharonConfiguration.getInstance().isETagSupported() ? header : null;
+    }
+
+    /*
+     * Adds the version of the resource as ETag header, if ETags are supported and the resource has a version.
+     *
+     * @param responseHeaders
+     * @param resource
+     */
+    protected static void addETagHeader(Map<String, String> responseHeaders, AbstractSCIMObject resource) {
+        String version = resource.getVersion();
+        if (version != null && CharonConfiguration.getInstance().isETagSupported()) {
+            responseHeaders.put(SCIMConstants.ETAG_HEADER, version);
+        }
+    }
+
+    /*
+     * Fails fast if the If-Match header does not match the version the resource had when it was read. The user
+     * manager checks the version again when the change is stored.
+     *
+     * @param ifMatch  - the value of the If-Match header, null if there is none
+     * @param resource - the resource as it was read before the change
+     * @throws PreConditionFailedException
+     */
+    protected static void checkIfMatch(String ifMatch, AbstractSCIMObject resource)
+            throws PreConditionFailedException {
+        if (ifMatch != null && !ResourceManagerUtil.matchesETag(ifMatch, resource.getVersion())) {
+            throw new PreConditionFailedException();
+        }
+    }
+
     /*
      * Returns SCIM Response object after json encoding the exception
      *
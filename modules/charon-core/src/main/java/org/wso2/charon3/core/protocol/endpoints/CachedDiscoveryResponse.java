@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.protocol.endpoints;
+
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.protocol.StreamingSCIMResponse;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.utils.ResourceManagerUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A discovery document (e.g. the service provider config) that has been rendered once into an immutable byte array
+ * together with a strong ETag. The document remembers the state it was rendered from, so the resource manager can
+ * tell when it has to be rendered again.
+ */
+class CachedDiscoveryResponse {
+
+    private final List<Object> state;
+    private final String location;
+    private final byte[] body;
+    private final String eTag;
+
+    /*
+     * @param state - the values the document was rendered from, compared with equals
+     * @param location - the location header of the document
+     * @param encodedObject - the json encoded document
+     * @throws CharonException
+     */
+    CachedDiscoveryResponse(Object[] state, String location, String encodedObject) throws CharonException {
+        this.state = Arrays.asList(state);
+        this.location = location;
+        this.body = encodedObject.getBytes(StandardCharsets.UTF_8);
+        this.eTag = createETag(body);
+    }
+
+    /*
+     * check whether this document was rendered from the given state.
+     * @param currentState
+     * @return
+     */
+    boolean isRenderedFrom(Object[] currentState) {
+        return state.equals(Arrays.asList(currentState));
+    }
+
+    /*
+     * create the response for a request. If the client already holds the current version of the document, a
+     * 304 response without a body is returned.
+     * @param ifNoneMatch - value of the If-None-Match request header, may be null
+     * @return
+     */
+    SCIMResponse toResponse(String ifNoneMatch) {
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        responseHeaders.put(SCIMConstants.LOCATION_HEADER, location);
+        responseHeaders.put(SCIMConstants.ETAG_HEADER, eTag);
+        if (ifNoneMatch != null && ResourceManagerUtil.matchesETag(ifNoneMatch, eTag)) {
+            return new SCIMResponse(ResponseCodeConstants.CODE_NOT_MODIFIED, null, responseHeaders);
+        }
+        responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+        return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK, outputStream -> {
+            try {
+                outputStream.write(body);
+            } catch (IOException e) {
+                throw new CharonException("Error in writing the response message", e);
+            }
+        }, responseHeaders);
+    }
+
+    private static String createETag(byte[] body) throws CharonException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder eTag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                eTag.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                eTag.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return eTag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CharonException("Error in creating the ETag of the response", e);
+        }
+    }
+}
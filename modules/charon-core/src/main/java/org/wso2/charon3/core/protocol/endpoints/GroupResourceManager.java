@@ -26,19 +26,23 @@ import org.wso2.charon3.core.exceptions.ConflictException;
 import org.wso2.charon3.core.exceptions.InternalErrorException;
 import org.wso2.charon3.core.exceptions.NotFoundException;
 import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.exceptions.PreConditionFailedException;
 import org.wso2.charon3.core.extensions.UserManager;
 import org.wso2.charon3.core.objects.Group;
 import org.wso2.charon3.core.objects.ListedResource;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.protocol.StreamingSCIMResponse;
 import org.wso2.charon3.core.schema.SCIMConstants;
 import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 import org.wso2.charon3.core.schema.SCIMSchemaDefinitions;
 import org.wso2.charon3.core.schema.ServerSideValidator;
+import org.wso2.charon3.core.utils.CopyOnWriteUtil;
 import org.wso2.charon3.core.utils.CopyUtil;
 import org.wso2.charon3.core.utils.PatchOperationUtil;
 import org.wso2.charon3.core.utils.ResourceManagerUtil;
+import org.wso2.charon3.core.utils.codeutils.FilterOptimizer;
 import org.wso2.charon3.core.utils.codeutils.FilterTreeManager;
 import org.wso2.charon3.core.utils.codeutils.Node;
 import org.wso2.charon3.core.utils.codeutils.PatchOperation;
@@ -72,16 +76,28 @@ public class GroupResourceManager extends AbstractResourceManager {
      */
     @Override
     public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes) {
-        JSONEncoder encoder = null;
+        return get(id, userManager, attributes, excludeAttributes, null);
+    }
+
+    /*
+     * Retrieves a group resource given an unique group id. Mapped to HTTP GET request. A client that already holds
+     * the current version of the group gets a 304 response without a body.
+     *
+     * @param id          - unique resource id
+     * @param usermanager
+     * @param attributes
+     * @param excludeAttributes
+     * @param ifNoneMatch - value of the If-None-Match request header, may be null
+     * @return SCIM response to be returned.
+     */
+    public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes,
+                            String ifNoneMatch) {
         try {
-            //obtain the correct encoder according to the format requested.
-            encoder = getEncoder();
             // returns core-group schema
             SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                    CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
 
             //API user should pass a usermanager usermanager to GroupResourceEndpoint.
             //retrieve the group from the provided usermanager.
@@ -93,13 +109,19 @@ public class GroupResourceManager extends AbstractResourceManager {
                 throw new NotFoundException(message);
             }
 
-            ServerSideValidator.validateRetrievedSCIMObjectInList(group, schema, attributes, excludeAttributes);
-            //convert the group into specific format.
-            String encodedGroup = encoder.encodeSCIMObject(group);
             //if there are any http headers to be added in the response header.
             Map<String, String> httpHeaders = new HashMap<String, String>();
+            addETagHeader(httpHeaders, group);
+            //the client already holds this version, so the group is neither validated nor encoded.
+            ifNoneMatch = getConditionalHeader(ifNoneMatch);
+            if (ifNoneMatch != null && ResourceManagerUtil.matchesETag(ifNoneMatch, group.getVersion())) {
+                return new SCIMResponse(ResponseCodeConstants.CODE_NOT_MODIFIED, null, httpHeaders);
+            }
+            ServerSideValidator.validateRetrievedSCIMObjectInList(group, schema, attributes, excludeAttributes);
             httpHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-            return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedGroup, httpHeaders);
+            //the group is encoded when the response is written.
+            return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                    outputStream -> getEncoder().encodeSCIMObject(group, outputStream), httpHeaders);
         } catch (NotFoundException e) {
             return encodeSCIMException(e);
         } catch (BadRequestException e) {
@@ -136,8 +158,7 @@ public class GroupResourceManager extends AbstractResourceManager {
             SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                    CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
             //decode the SCIM group object, encoded in the submitted payload.
             Group group = (Group) decoder.decodeResource(scimObjectString, schema, new Group());
             //validate decoded group
@@ -157,6 +178,7 @@ public class GroupResourceManager extends AbstractResourceManager {
                 httpHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                         SCIMConstants.GROUP_ENDPOINT) + "/" + createdGroup.getId());
                 httpHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                addETagHeader(httpHeaders, createdGroup);
 
             } else {
                 String message = "Newly created Group resource is null..";
@@ -190,11 +212,23 @@ public class GroupResourceManager extends AbstractResourceManager {
      */
     @Override
     public SCIMResponse delete(String id, UserManager userManager) {
-        JSONEncoder encoder = null;
+        return delete(id, userManager, null);
+    }
+
+    /*
+     * Method of the ResourceManager that is mapped to HTTP Delete method. With an If-Match header the group is only
+     * deleted if it was not changed since the client read it.
+     *
+     * @param id - unique resource id
+     * @param usermanager - usermanager instance defined by the external implementor of charon
+     * @param ifMatch - value of the If-Match request header, may be null
+     * @return
+     */
+    public SCIMResponse delete(String id, UserManager userManager, String ifMatch) {
         try {
             if (userManager != null) {
             /*handover the SCIM User object to the user usermanager provided by the SP for the delete operation*/
-                userManager.deleteGroup(id);
+                deleteGroup(userManager, id, getConditionalHeader(ifMatch));
                 //on successful deletion SCIMResponse only has 204 No Content status code.
                 return new SCIMResponse(ResponseCodeConstants.CODE_NO_CONTENT, null, null);
             } else {
@@ -212,6 +246,8 @@ public class GroupResourceManager extends AbstractResourceManager {
             return encodeSCIMException(e);
         } catch (BadRequestException e) {
             return encodeSCIMException(e);
+        } catch (PreConditionFailedException e) {
+            return encodeSCIMException(e);
         }
     }
 
@@ -256,11 +292,12 @@ public class GroupResourceManager extends AbstractResourceManager {
 
             // Get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil
-                    .getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema) CopyUtil.deepCopy(schema), attributes,
+                    .getOnlyRequiredAttributesURIs(schema, attributes,
                             excludeAttributes);
 
             // API group should pass a user manager to GroupResourceEndpoint.
             if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(rootNode, userManager);
                 List<Object> tempList = userManager
                         .listGroupsWithGET(rootNode, startIndex, count, sortBy, sortOrder, domainName,
                                 requiredAttributes);
@@ -320,7 +357,7 @@ public class GroupResourceManager extends AbstractResourceManager {
 
         if (filter != null) {
             FilterTreeManager filterTreeManager = new FilterTreeManager(filter, schema);
-            return filterTreeManager.buildTree();
+            return FilterOptimizer.optimize(filterTreeManager.buildTree(), schema);
         }
         return null;
     }
@@ -365,11 +402,12 @@ public class GroupResourceManager extends AbstractResourceManager {
 
             // Get the URIs of required attributes which must be given a value.
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil
-                    .getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema) CopyUtil.deepCopy(schema), attributes,
+                    .getOnlyRequiredAttributesURIs(schema, attributes,
                             excludeAttributes);
 
             // API group should pass a user manager to GroupResourceEndpoint.
             if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(rootNode, userManager);
                 List<Object> tempList = userManager
                         .listGroupsWithGET(rootNode, startIndex, count, sortBy, sortOrder, domainName,
                                 requiredAttributes);
@@ -390,6 +428,61 @@ public class GroupResourceManager extends AbstractResourceManager {
         }
     }
 
+    /**
+     * Method to list groups at the Groups endpoint with cursor pagination.
+     * An empty cursor requests the first page, the following pages are requested with the next cursor of the
+     * previous page. When the count value is not specified (null) the user manager decides on the size of the page.
+     *
+     * @param userManager       User manager
+     * @param filter            Filter to be executed
+     * @param cursor            Cursor of the requested page
+     * @param countInt          Number of required results
+     * @param sortBy            SortBy
+     * @param sortOrder         Sorting order
+     * @param domainName        Domain name
+     * @param attributes        Attributes in the request
+     * @param excludeAttributes Exclude attributes
+     * @return SCIM response
+     */
+    public SCIMResponse listWithCursor(UserManager userManager, String filter, String cursor, Integer countInt,
+            String sortBy, String sortOrder, String domainName, String attributes, String excludeAttributes) {
+
+        try {
+            Integer count = ResourceManagerUtil.processCount(countInt);
+
+            // Resolve sorting order.
+            sortOrder = resolveSortOrder(sortOrder, sortBy);
+
+            SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
+
+            // Build node for filtering.
+            Node rootNode = buildNode(filter, schema);
+
+            // Get the URIs of required attributes which must be given a value.
+            Map<String, Boolean> requiredAttributes = ResourceManagerUtil
+                    .getOnlyRequiredAttributesURIs(schema, attributes,
+                            excludeAttributes);
+
+            // API user should pass a user manager to GroupResourceEndpoint.
+            if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(rootNode, userManager);
+                ListedResource listedResource = userManager.listGroupsWithCursor(rootNode,
+                        cursor == null ? "" : cursor, count, sortBy, sortOrder, domainName, requiredAttributes);
+                return processGroupPage(listedResource, getEncoder(), schema, attributes, excludeAttributes);
+            } else {
+                String error = "Provided user manager handler is null.";
+                // Throw internal server error.
+                throw new InternalErrorException(error);
+            }
+        } catch (CharonException | InternalErrorException | BadRequestException | NotImplementedException e) {
+            return AbstractResourceManager.encodeSCIMException(e);
+        } catch (IOException e) {
+            String error = "Error in tokenization of the input filter";
+            CharonException charonException = new CharonException(error);
+            return AbstractResourceManager.encodeSCIMException(charonException);
+        }
+    }
+
     /**
      * Method to process a list and return a SCIM response.
      *
@@ -428,21 +521,40 @@ public class GroupResourceManager extends AbstractResourceManager {
             totalResults = tempList.size();
         }
         returnedGroups = tempList;
+        int resultCount = totalResults;
+        // If there are any http headers to be added in the response header.
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+        // The list response is written when the response is sent. Each group is validated on the service provider
+        // side and encoded one at a time, instead of copying the whole page into a listed resource first.
+        return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                outputStream -> encoder.encodeListedResource(resultCount, startIndex, returnedGroups,
+                        group -> ServerSideValidator.validateRetrievedSCIMObjectInList((Group) group,
+                                SCIMSchemaDefinitions.SCIM_GROUP_SCHEMA, attributes, excludeAttributes),
+                        outputStream), responseHeaders);
+    }
 
-        for (Object group : returnedGroups) {
-            // Perform service provider side validation.
-            ServerSideValidator
-                    .validateRetrievedSCIMObjectInList((Group) group, SCIMSchemaDefinitions.SCIM_GROUP_SCHEMA,
-                            attributes, excludeAttributes);
-        }
-        // Create a listed resource object out of the returned groups list.
-        ListedResource listedResource = createListedResource(returnedGroups, startIndex, totalResults);
-        // Convert the listed resource into specific format.
-        String encodedListedResource = encoder.encodeSCIMObject(listedResource);
+    /**
+     * Method to process a page of a cursor paginated group list and return a SCIM response.
+     *
+     * @param listedResource    The page returned by the user manager
+     * @param encoder           Json encoder
+     * @param schema            Schema
+     * @param attributes        Required attributes
+     * @param excludeAttributes Exclude attributes
+     * @return SCIM response
+     */
+    private SCIMResponse processGroupPage(ListedResource listedResource, JSONEncoder encoder,
+            SCIMResourceTypeSchema schema, String attributes, String excludeAttributes) {
+
+        ListedResource page = listedResource == null ? new ListedResource() : listedResource;
         // If there are any http headers to be added in the response header.
         Map<String, String> responseHeaders = new HashMap<String, String>();
         responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-        return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedListedResource, responseHeaders);
+        return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                outputStream -> encoder.encodeListedResource(page,
+                        group -> ServerSideValidator.validateRetrievedSCIMObjectInList((Group) group, schema,
+                                attributes, excludeAttributes), outputStream), responseHeaders);
     }
 
     /*
@@ -454,11 +566,8 @@ public class GroupResourceManager extends AbstractResourceManager {
 
     @Override
     public SCIMResponse listWithPOST(String resourceString, UserManager userManager) {
-        JSONEncoder encoder = null;
         JSONDecoder decoder = null;
         try {
-            //obtain the json encoder
-            encoder = getEncoder();
             //obtain the json decoder
             decoder = getDecoder();
 
@@ -467,6 +576,7 @@ public class GroupResourceManager extends AbstractResourceManager {
 
             //create the search request object
             SearchRequest searchRequest = decoder.decodeSearchRequestBody(resourceString, schema);
+            searchRequest.setFilter(FilterOptimizer.optimize(searchRequest.getFilter(), schema));
             searchRequest.setCount(ResourceManagerUtil.processCount(searchRequest.getCountStr()));
             searchRequest.setStartIndex(ResourceManagerUtil.processStartIndex(searchRequest.getStartIndexStr()));
 
@@ -492,35 +602,40 @@ public class GroupResourceManager extends AbstractResourceManager {
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), searchRequest.getAttributesAsString(),
+                    schema, searchRequest.getAttributesAsString(),
                     searchRequest.getExcludedAttributesAsString());
 
             List<Object> returnedGroups;
             int totalResults = 0;
             //API user should pass a usermanager usermanager to UserResourceEndpoint.
             if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(searchRequest.getFilter(), userManager);
+                if (searchRequest.getCursor() != null) {
+                    ListedResource listedResource = userManager.listGroupsWithCursor(searchRequest.getFilter(),
+                            searchRequest.getCursor(), searchRequest.getCount(), searchRequest.getSortBy(),
+                            searchRequest.getSortOder(), searchRequest.getDomainName(), requiredAttributes);
+                    return processGroupPage(listedResource, getEncoder(), schema,
+                            searchRequest.getAttributesAsString(), searchRequest.getExcludedAttributesAsString());
+                }
                 List<Object> tempList = userManager.listGroupsWithPost(searchRequest, requiredAttributes);
 
                 totalResults = (int) tempList.get(0);
                 tempList.remove(0);
 
                 returnedGroups = tempList;
+                int resultCount = totalResults;
 
-                for (Object group : returnedGroups) {
-                    //perform service provider side validation.
-                    ServerSideValidator.validateRetrievedSCIMObjectInList((Group) group, schema,
-                            searchRequest.getAttributesAsString(), searchRequest.getExcludedAttributesAsString());
-                }
-                //create a listed resource object out of the returned users list.
-                ListedResource listedResource = createListedResource(
-                        returnedGroups, searchRequest.getStartIndex(), totalResults);
-                //convert the listed resource into specific format.
-                String encodedListedResource = encoder.encodeSCIMObject(listedResource);
                 //if there are any http headers to be added in the response header.
                 Map<String, String> responseHeaders = new HashMap<String, String>();
                 responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-                return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedListedResource, responseHeaders);
+                //the list response is written when the response is sent, each group is validated on the service
+                //provider side and encoded one at a time.
+                return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                        outputStream -> getEncoder().encodeListedResource(resultCount, searchRequest.getStartIndex(),
+                                returnedGroups, group -> ServerSideValidator.validateRetrievedSCIMObjectInList(
+                                        (Group) group, schema, searchRequest.getAttributesAsString(),
+                                        searchRequest.getExcludedAttributesAsString()), outputStream),
+                        responseHeaders);
 
             } else {
                 String error = "Provided user manager handler is null.";
@@ -529,8 +644,6 @@ public class GroupResourceManager extends AbstractResourceManager {
             }
         } catch (CharonException e) {
             return AbstractResourceManager.encodeSCIMException(e);
-        } catch (NotFoundException e) {
-            return AbstractResourceManager.encodeSCIMException(e);
         } catch (InternalErrorException e) {
             return AbstractResourceManager.encodeSCIMException(e);
         } catch (BadRequestException e) {
@@ -552,6 +665,22 @@ public class GroupResourceManager extends AbstractResourceManager {
     @Override
     public SCIMResponse updateWithPUT(String existingId, String scimObjectString,
                                       UserManager userManager, String attributes, String excludeAttributes) {
+        return updateWithPUT(existingId, scimObjectString, userManager, attributes, excludeAttributes, null);
+    }
+
+    /*
+     * method which corresponds to HTTP PUT - update the group. With an If-Match header the group is only updated if
+     * it was not changed since the client read it.
+     * @param existingId
+     * @param scimObjectString
+     * @param usermanager
+     * @param attributes
+     * @param excludeAttributes
+     * @param ifMatch - value of the If-Match request header, may be null
+     * @return
+     */
+    public SCIMResponse updateWithPUT(String existingId, String scimObjectString, UserManager userManager,
+                                      String attributes, String excludeAttributes, String ifMatch) {
         //needs to validate the incoming object. eg: id can not be set by the consumer.
 
         JSONEncoder encoder = null;
@@ -566,8 +695,7 @@ public class GroupResourceManager extends AbstractResourceManager {
             SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                    CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
             //decode the SCIM User object, encoded in the submitted payload.
             Group group = (Group) decoder.decodeResource(scimObjectString, schema, new Group());
             Group updatedGroup = null;
@@ -575,8 +703,10 @@ public class GroupResourceManager extends AbstractResourceManager {
                 //retrieve the old object
                 Group oldGroup = userManager.getGroup(existingId, ResourceManagerUtil.getAllAttributeURIs(schema));
                 if (oldGroup != null) {
+                    ifMatch = getConditionalHeader(ifMatch);
+                    checkIfMatch(ifMatch, oldGroup);
                     Group newGroup = (Group) ServerSideValidator.validateUpdatedSCIMObject(oldGroup, group, schema);
-                    updatedGroup = userManager.updateGroup(oldGroup, newGroup, requiredAttributes);
+                    updatedGroup = updateGroup(userManager, oldGroup, newGroup, ifMatch, requiredAttributes);
 
                 } else {
                     String error = "No user exists with the given id: " + existingId;
@@ -600,6 +730,7 @@ public class GroupResourceManager extends AbstractResourceManager {
                 httpHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                         SCIMConstants.GROUP_ENDPOINT) + "/" + updatedGroup.getId());
                 httpHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                addETagHeader(httpHeaders, updatedGroup);
 
             } else {
                 String error = "Updated Group resource is null.";
@@ -619,6 +750,8 @@ public class GroupResourceManager extends AbstractResourceManager {
             return encodeSCIMException(e);
         } catch (NotImplementedException e) {
             return encodeSCIMException(e);
+        } catch (PreConditionFailedException e) {
+            return encodeSCIMException(e);
         }
     }
 
@@ -634,6 +767,22 @@ public class GroupResourceManager extends AbstractResourceManager {
      */
     public SCIMResponse updateWithPATCH(String existingId, String scimObjectString, UserManager userManager,
                                         String attributes, String excludeAttributes) {
+        return updateWithPATCH(existingId, scimObjectString, userManager, attributes, excludeAttributes, null);
+    }
+
+    /*
+     * method which corresponds to HTTP PATCH - patch the group. With an If-Match header the group is only updated
+     * if it was not changed since the client read it.
+     * @param existingId
+     * @param scimObjectString
+     * @param usermanager
+     * @param attributes
+     * @param excludeAttributes
+     * @param ifMatch - value of the If-Match request header, may be null
+     * @return
+     */
+    public SCIMResponse updateWithPATCH(String existingId, String scimObjectString, UserManager userManager,
+                                        String attributes, String excludeAttributes, String ifMatch) {
         try {
             if (userManager == null) {
                 String error = "Provided user manager handler is null.";
@@ -650,64 +799,46 @@ public class GroupResourceManager extends AbstractResourceManager {
             if (oldGroup == null) {
                 throw new NotFoundException("No group with the id : " + existingId + " in the user store.");
             }
-            //make a copy of the original group
-            Group copyOfOldGroup = (Group) CopyUtil.deepCopy(oldGroup);
-            //make another copy of original group.
-            //this will be used to restore to the original condition if failure occurs.
-            Group originalGroup = (Group) CopyUtil.deepCopy(copyOfOldGroup);
+            ifMatch = getConditionalHeader(ifMatch);
+            checkIfMatch(ifMatch, oldGroup);
+            //the original group is never modified, it is used to restore to the original condition if failure occurs.
+            //every operation works on a copy which shares the attributes the operation does not touch with the
+            //state before the operation, that state is kept for validating the operation. Single valued attributes,
+            //e.g. meta, are copied for every operation and the validation gives the result own copies of the read only
+            //attributes of the original.
+            Group originalGroup = oldGroup;
+            Group copyOfOldGroup = oldGroup;
 
             Group newGroup = null;
 
             for (PatchOperation operation : opList) {
 
-                if (operation.getOperation().equals(SCIMConstants.OperationalConstants.ADD)) {
-                    if (newGroup == null) {
-                        newGroup = (Group) PatchOperationUtil.doPatchAdd
-                                (operation, getDecoder(), oldGroup, copyOfOldGroup, schema);
-                        copyOfOldGroup = (Group) CopyUtil.deepCopy(newGroup);
-
-                    } else {
-                        newGroup = (Group) PatchOperationUtil.doPatchAdd
-                                (operation, getDecoder(), newGroup, copyOfOldGroup, schema);
-                        copyOfOldGroup = (Group) CopyUtil.deepCopy(newGroup);
+                Group patchedGroup = (Group) CopyOnWriteUtil.shallowCopy(copyOfOldGroup);
+                CopyOnWriteUtil.prepareForOperation(patchedGroup, operation, schema);
 
-                    }
+                if (operation.getOperation().equals(SCIMConstants.OperationalConstants.ADD)) {
+                    newGroup = (Group) PatchOperationUtil.doPatchAdd
+                            (operation, getDecoder(), patchedGroup, copyOfOldGroup, schema);
                 } else if (operation.getOperation().equals(SCIMConstants.OperationalConstants.REMOVE)) {
-                    if (newGroup == null) {
-                        newGroup = (Group) PatchOperationUtil.doPatchRemove
-                                (operation, oldGroup, copyOfOldGroup, schema);
-                        copyOfOldGroup = (Group) CopyUtil.deepCopy(newGroup);
-
-                    } else {
-                        newGroup = (Group) PatchOperationUtil.doPatchRemove
-                                (operation, newGroup, copyOfOldGroup, schema);
-                        copyOfOldGroup = (Group) CopyUtil.deepCopy(newGroup);
-                    }
+                    newGroup = (Group) PatchOperationUtil.doPatchRemove
+                            (operation, patchedGroup, copyOfOldGroup, schema);
                 } else if (operation.getOperation().equals(SCIMConstants.OperationalConstants.REPLACE)) {
-                    if (newGroup == null) {
-                        newGroup = (Group) PatchOperationUtil.doPatchReplace
-                                (operation, getDecoder(), oldGroup, copyOfOldGroup, schema);
-                        copyOfOldGroup = (Group) CopyUtil.deepCopy(newGroup);
-
-                    } else {
-                        newGroup = (Group) PatchOperationUtil.doPatchReplace
-                                (operation, getDecoder(), newGroup, copyOfOldGroup, schema);
-                        copyOfOldGroup = (Group) CopyUtil.deepCopy(newGroup);
-                    }
-                } else  {
+                    newGroup = (Group) PatchOperationUtil.doPatchReplace
+                            (operation, getDecoder(), patchedGroup, copyOfOldGroup, schema);
+                } else {
                     throw new BadRequestException("Unknown operation.", ResponseCodeConstants.INVALID_SYNTAX);
                 }
+                copyOfOldGroup = newGroup;
             }
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes =
-                    ResourceManagerUtil.getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    ResourceManagerUtil.getOnlyRequiredAttributesURIs(schema, attributes, excludeAttributes);
 
 
             Group validatedGroup = (Group) ServerSideValidator.validateUpdatedSCIMObject
                     (originalGroup, newGroup, schema);
-            newGroup = userManager.updateGroup(originalGroup, validatedGroup, requiredAttributes);
+            newGroup = updateGroup(userManager, originalGroup, validatedGroup, ifMatch, requiredAttributes);
 
             //encode the newly created SCIM group object and add id attribute to Location header.
             String encodedGroup;
@@ -722,6 +853,7 @@ public class GroupResourceManager extends AbstractResourceManager {
                 httpHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                         SCIMConstants.USER_ENDPOINT) + "/" + newGroup.getId());
                 httpHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                addETagHeader(httpHeaders, newGroup);
 
             } else {
                 String error = "Updated group resource is null.";
@@ -740,6 +872,8 @@ public class GroupResourceManager extends AbstractResourceManager {
             return AbstractResourceManager.encodeSCIMException(e);
         } catch (InternalErrorException e) {
             return AbstractResourceManager.encodeSCIMException(e);
+        } catch (PreConditionFailedException e) {
+            return AbstractResourceManager.encodeSCIMException(e);
         } catch (RuntimeException e) {
             CharonException e1 = new CharonException("Error in performing the patch operation on group resource.", e);
             return AbstractResourceManager.encodeSCIMException(e1);
@@ -766,5 +900,58 @@ public class GroupResourceManager extends AbstractResourceManager {
         return listedResource;
     }
 
+    /*
+     * update the group, if there is an If-Match header only if the version of the stored group matches it. A user
+     * manager without conditional updates gets a plain update, the version is then only checked on the group read
+     * before the update, which does not detect a change stored in between.
+     *
+     * @param userManager
+     * @param oldGroup
+     * @param newGroup           - the validated group
+     * @param ifMatch            - the value of the If-Match header, null if there is none
+     * @param requiredAttributes
+     * @return
+     */
+    private static Group updateGroup(UserManager userManager, Group oldGroup, Group newGroup, String ifMatch,
+                                     Map<String, Boolean> requiredAttributes)
+            throws NotImplementedException, CharonException, BadRequestException, NotFoundException,
+            PreConditionFailedException {
+        if (ifMatch != null) {
+            try {
+                return userManager.updateGroupIfMatch(oldGroup, newGroup, ifMatch, requiredAttributes);
+            } catch (NotImplementedException e) {
+                logger.debug("The user manager does not support conditional updates of groups.", e);
+            }
+        }
+        return userManager.updateGroup(oldGroup, newGroup, requiredAttributes);
+    }
+
+    /*
+     * delete the group, if there is an If-Match header only if the version of the stored group matches it. A user
+     * manager without conditional deletes gets a plain delete after the version of the group was checked, which
+     * does not detect a change stored in between.
+     *
+     * @param userManager
+     * @param id
+     * @param ifMatch     - the value of the If-Match header, null if there is none
+     */
+    private static void deleteGroup(UserManager userManager, String id, String ifMatch)
+            throws NotImplementedException, CharonException, BadRequestException, NotFoundException,
+            PreConditionFailedException {
+        if (ifMatch != null) {
+            try {
+                userManager.deleteGroupIfMatch(id, ifMatch);
+                return;
+            } catch (NotImplementedException e) {
+                logger.debug("The user manager does not support conditional deletes of groups.", e);
+            }
+            Group group = userManager.getGroup(id, Collections.<String, Boolean>emptyMap());
+            if (group == null) {
+                throw new NotFoundException("No group with the id : " + id);
+            }
+            checkIfMatch(ifMatch, group);
+        }
+        userManager.deleteGroup(id);
+    }
 
 }
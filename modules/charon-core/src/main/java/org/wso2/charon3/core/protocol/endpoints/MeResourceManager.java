@@ -28,10 +28,12 @@ import org.wso2.charon3.core.extensions.UserManager;
 import org.wso2.charon3.core.objects.User;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.protocol.StreamingSCIMResponse;
 import org.wso2.charon3.core.schema.SCIMConstants;
 import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 import org.wso2.charon3.core.schema.ServerSideValidator;
+import org.wso2.charon3.core.utils.CopyOnWriteUtil;
 import org.wso2.charon3.core.utils.CopyUtil;
 import org.wso2.charon3.core.utils.PatchOperationUtil;
 import org.wso2.charon3.core.utils.ResourceManagerUtil;
@@ -52,10 +54,7 @@ public class MeResourceManager extends AbstractResourceManager {
 
     @Override
     public SCIMResponse get(String userName, UserManager userManager, String attributes, String excludeAttributes) {
-        JSONEncoder encoder = null;
         try {
-            //obtain the json encoder
-            encoder = getEncoder();
 
             //obtain the schema corresponding to user
             // unless configured returns core-user schema or else returns extended user schema)
@@ -63,8 +62,7 @@ public class MeResourceManager extends AbstractResourceManager {
             //get the URIs of required attributes which must be given a value
 
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                    CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
 
             /*API user should pass a usermanager impl to UserResourceEndpoint.
             retrieve the user from the provided UM handler.*/
@@ -77,14 +75,14 @@ public class MeResourceManager extends AbstractResourceManager {
             }
             //perform service provider side validation.
             ServerSideValidator.validateRetrievedSCIMObject(user, schema, attributes, excludeAttributes);
-            //convert the user into requested format.
-            String encodedUser = encoder.encodeSCIMObject(user);
             //if there are any http headers to be added in the response header.
             Map<String, String> responseHeaders = new HashMap<String, String>();
             responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
             responseHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                     SCIMConstants.USER_ENDPOINT) + "/" + user.getId());
-            return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedUser, responseHeaders);
+            //the user is encoded when the response is written.
+            return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                    outputStream -> getEncoder().encodeSCIMObject(user, outputStream), responseHeaders);
 
         } catch (NotFoundException e) {
             return encodeSCIMException(e);
@@ -111,8 +109,7 @@ public class MeResourceManager extends AbstractResourceManager {
             SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                    CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
             //decode the SCIM User object, encoded in the submitted payload.
             User user = (User) decoder.decodeResource(scimObjectString, schema, new User());
             //validate the created user.
@@ -224,8 +221,7 @@ public class MeResourceManager extends AbstractResourceManager {
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                    CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
             //decode the SCIM User object, encoded in the submitted payload.
             User user = (User) decoder.decodeResource(scimObjectString, schema, new User());
 
@@ -310,57 +306,39 @@ public class MeResourceManager extends AbstractResourceManager {
             if (oldUser == null) {
                 throw new NotFoundException("No associated user exits in the user store.");
             }
-            //make a copy of the original user
-            User copyOfOldUser = (User) CopyUtil.deepCopy(oldUser);
-            //make another copy of original user.
-            //this will be used to restore to the original condition if failure occurs.
-            User originalUser = (User) CopyUtil.deepCopy(copyOfOldUser);
+            //the original user is never modified, it is used to restore to the original condition if failure occurs.
+            //every operation works on a copy which shares the attributes the operation does not touch with the
+            //state before the operation, that state is kept for validating the operation. Single valued attributes,
+            //e.g. meta, are copied for every operation and the validation gives the result own copies of the read only
+            //attributes of the original.
+            User originalUser = oldUser;
+            User copyOfOldUser = oldUser;
 
             User newUser = null;
 
             for (PatchOperation operation : opList) {
 
-                if (operation.getOperation().equals(SCIMConstants.OperationalConstants.ADD)) {
-                    if (newUser == null) {
-                        newUser = (User) PatchOperationUtil.doPatchAdd
-                                (operation, getDecoder(), oldUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
+                User patchedUser = (User) CopyOnWriteUtil.shallowCopy(copyOfOldUser);
+                CopyOnWriteUtil.prepareForOperation(patchedUser, operation, schema);
 
-                    } else {
-                        newUser = (User) PatchOperationUtil.doPatchAdd
-                                (operation, getDecoder(), newUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-
-                    }
+                if (operation.getOperation().equals(SCIMConstants.OperationalConstants.ADD)) {
+                    newUser = (User) PatchOperationUtil.doPatchAdd
+                            (operation, getDecoder(), patchedUser, copyOfOldUser, schema);
                 } else if (operation.getOperation().equals(SCIMConstants.OperationalConstants.REMOVE)) {
-                    if (newUser == null) {
-                        newUser = (User) PatchOperationUtil.doPatchRemove(operation, oldUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-
-                    } else {
-                        newUser = (User) PatchOperationUtil.doPatchRemove(operation, newUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-                    }
+                    newUser = (User) PatchOperationUtil.doPatchRemove
+                            (operation, patchedUser, copyOfOldUser, schema);
                 } else if (operation.getOperation().equals(SCIMConstants.OperationalConstants.REPLACE)) {
-                    if (newUser == null) {
-                        newUser = (User) PatchOperationUtil.doPatchReplace
-                                (operation, getDecoder(), oldUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-
-                    } else {
-                        newUser = (User) PatchOperationUtil.doPatchReplace
-                                (operation, getDecoder(), newUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-                    }
-                } else  {
+                    newUser = (User) PatchOperationUtil.doPatchReplace
+                            (operation, getDecoder(), patchedUser, copyOfOldUser, schema);
+                } else {
                     throw new BadRequestException("Unknown operation.", ResponseCodeConstants.INVALID_SYNTAX);
                 }
+                copyOfOldUser = newUser;
             }
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes =
-                    ResourceManagerUtil.getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    ResourceManagerUtil.getOnlyRequiredAttributesURIs(schema, attributes, excludeAttributes);
 
 
             User validatedUser = (User) ServerSideValidator.validateUpdatedSCIMObject
@@ -18,6 +18,7 @@ package org.wso2.charon3.core.protocol.endpoints;
 import org.json.JSONException;
 import org.wso2.charon3.core.attributes.MultiValuedAttribute;
 import org.wso2.charon3.core.attributes.SimpleAttribute;
+import org.wso2.charon3.core.config.SCIMUserSchemaExtensionBuilder;
 import org.wso2.charon3.core.encoder.JSONDecoder;
 import org.wso2.charon3.core.encoder.JSONEncoder;
 import org.wso2.charon3.core.exceptions.BadRequestException;
@@ -32,10 +33,8 @@ import org.wso2.charon3.core.schema.SCIMConstants;
 import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 import org.wso2.charon3.core.schema.ServerSideValidator;
-import org.wso2.charon3.core.utils.CopyUtil;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The "RESOURCE_TYPES" schema specifies the metadata about a resource type. This is the spec compatible version of
@@ -43,6 +42,10 @@ import java.util.Map;
  */
 public class ResourceTypeResourceManager extends AbstractResourceManager {
 
+    //the rendered resource types, rebuilt only when the user schema extension or the endpoint changes.
+    private static final AtomicReference<CachedDiscoveryResponse> CACHED_RESPONSE =
+            new AtomicReference<CachedDiscoveryResponse>();
+
     /*
      * Retrieves a resource type
      *
@@ -51,62 +54,27 @@ public class ResourceTypeResourceManager extends AbstractResourceManager {
     @Override
     public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes) {
 
-        return getResourceType();
+        return getResourceType(null);
     }
 
     /*
-     * return RESOURCE_TYPE schema
+     * return RESOURCE_TYPE schema. The resource types are only rendered again after the user schema extension has
+     * changed, and a client that already holds the current version gets a 304 response.
      *
+     * @param ifNoneMatch - value of the If-None-Match request header, may be null
      * @return
      */
-    private SCIMResponse getResourceType() {
+    public SCIMResponse getResourceType(String ifNoneMatch) {
 
-        JSONEncoder encoder = null;
         try {
-            //obtain the json encoder
-            encoder = getEncoder();
-            //obtain the json decoder
-            JSONDecoder decoder = getDecoder();
-
-            // get the service provider config schema
-            SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getResourceTypeResourceSchema();
-            //create a string in json format for user resource type with relevant values
-            String scimUserObjectString = encoder.buildUserResourceTypeJsonBody();
-            //create a string in json format for group resource type with relevant values
-            String scimGroupObjectString = encoder.buildGroupResourceTypeJsonBody();
-            //build the user abstract scim object
-            AbstractSCIMObject userResourceTypeObject = (AbstractSCIMObject) decoder.decodeResource(
-                    scimUserObjectString, schema, new AbstractSCIMObject());
-            //add meta data
-            userResourceTypeObject = ServerSideValidator.validateResourceTypeSCIMObject(userResourceTypeObject);
-            //build the group abstract scim object
-            AbstractSCIMObject groupResourceTypeObject = (AbstractSCIMObject) decoder.decodeResource(
-                    scimGroupObjectString, schema, new AbstractSCIMObject());
-            //add meta data
-            groupResourceTypeObject = ServerSideValidator.validateResourceTypeSCIMObject(groupResourceTypeObject);
-            //build the root abstract scim object
-            AbstractSCIMObject resourceTypeObject = buildCombinedResourceType(userResourceTypeObject,
-                    groupResourceTypeObject);
-            //encode the newly created SCIM Resource Type object.
-            String encodedObject;
-            Map<String, String> responseHeaders = new HashMap<String, String>();
-
-            if (resourceTypeObject != null) {
-                //create a deep copy of the resource type object since we are going to change it.
-                AbstractSCIMObject copiedObject = (AbstractSCIMObject) CopyUtil.deepCopy(resourceTypeObject);
-                encodedObject = encoder.encodeSCIMObject(copiedObject);
-                //add location header
-                responseHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
-                        SCIMConstants.RESOURCE_TYPE_ENDPOINT));
-                responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-
-            } else {
-                String error = "Newly created User resource is null.";
-                throw new InternalErrorException(error);
+            Object[] state = new Object[]{SCIMUserSchemaExtensionBuilder.getInstance().getExtensionSchema(),
+                    getResourceEndpointURL(SCIMConstants.RESOURCE_TYPE_ENDPOINT)};
+            CachedDiscoveryResponse cachedResponse = CACHED_RESPONSE.get();
+            if (cachedResponse == null || !cachedResponse.isRenderedFrom(state)) {
+                cachedResponse = new CachedDiscoveryResponse(state, (String) state[1], buildResourceType());
+                CACHED_RESPONSE.set(cachedResponse);
             }
-            //put the uri of the resource type object in the response header parameter.
-            return new SCIMResponse(ResponseCodeConstants.CODE_OK,
-                    encodedObject, responseHeaders);
+            return cachedResponse.toResponse(ifNoneMatch);
         } catch (CharonException e) {
             return encodeSCIMException(e);
         } catch (BadRequestException e) {
@@ -120,6 +88,41 @@ public class ResourceTypeResourceManager extends AbstractResourceManager {
         }
     }
 
+    private String buildResourceType() throws CharonException, BadRequestException, InternalErrorException,
+            NotFoundException, JSONException {
+
+        //obtain the json encoder
+        JSONEncoder encoder = getEncoder();
+        //obtain the json decoder
+        JSONDecoder decoder = getDecoder();
+
+        // get the service provider config schema
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getResourceTypeResourceSchema();
+        //create a string in json format for user resource type with relevant values
+        String scimUserObjectString = encoder.buildUserResourceTypeJsonBody();
+        //create a string in json format for group resource type with relevant values
+        String scimGroupObjectString = encoder.buildGroupResourceTypeJsonBody();
+        //build the user abstract scim object
+        AbstractSCIMObject userResourceTypeObject = (AbstractSCIMObject) decoder.decodeResource(
+                scimUserObjectString, schema, new AbstractSCIMObject());
+        //add meta data
+        userResourceTypeObject = ServerSideValidator.validateResourceTypeSCIMObject(userResourceTypeObject);
+        //build the group abstract scim object
+        AbstractSCIMObject groupResourceTypeObject = (AbstractSCIMObject) decoder.decodeResource(
+                scimGroupObjectString, schema, new AbstractSCIMObject());
+        //add meta data
+        groupResourceTypeObject = ServerSideValidator.validateResourceTypeSCIMObject(groupResourceTypeObject);
+        //build the root abstract scim object
+        AbstractSCIMObject resourceTypeObject = buildCombinedResourceType(userResourceTypeObject,
+                groupResourceTypeObject);
+        if (resourceTypeObject == null) {
+            String error = "Newly created User resource is null.";
+            throw new InternalErrorException(error);
+        }
+        //the combined object is not shared with anyone, so it can be encoded without a copy.
+        return encoder.encodeSCIMObject(resourceTypeObject);
+    }
+
     @Override
     public SCIMResponse create(String scimObjectString, UserManager userManager, String attributes, String
             excludeAttributes) {
@@ -17,11 +17,23 @@ package org.wso2.charon3.core.protocol.endpoints;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wso2.charon3.core.config.SCIMUserSchemaExtensionBuilder;
 import org.wso2.charon3.core.exceptions.BadRequestException;
-import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.exceptions.NotFoundException;
 import org.wso2.charon3.core.extensions.UserManager;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.schema.SCIMSchemaDefinitions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The schema resource enables a service
@@ -36,21 +48,121 @@ public class SchemaResourceManager extends AbstractResourceManager {
 
     }
 
+    //the rendered schemas, rebuilt only when the user schema extension or the endpoint changes.
+    private static final AtomicReference<SchemaResponses> CACHED_RESPONSES = new AtomicReference<SchemaResponses>();
+
     /*
-     * Retrieves a schema
+     * Retrieves a schema, or all schemas if no id is given.
      *
      * @return SCIM response to be returned.
      */
     @Override
     public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes) {
 
+        return getSchema(id, null);
+    }
+
+    /*
+     * Retrieves a schema, or all schemas if no id is given. The schemas are rendered once and only rendered again
+     * after the user schema extension has changed, and a client that already holds the current version gets a 304
+     * response.
+     *
+     * @param id - the schema uri, may be null
+     * @param ifNoneMatch - value of the If-None-Match request header, may be null
+     * @return SCIM response to be returned.
+     */
+    public SCIMResponse getSchema(String id, String ifNoneMatch) {
+
         try {
-            throw new NotImplementedException();
-        } catch (NotImplementedException e) {
-            return AbstractResourceManager.encodeSCIMException(e);
+            Object[] state = new Object[]{SCIMUserSchemaExtensionBuilder.getInstance().getExtensionSchema(),
+                    getResourceEndpointURL(SCIMConstants.SCHEMAS_ENDPOINT)};
+            SchemaResponses schemaResponses = CACHED_RESPONSES.get();
+            if (schemaResponses == null || !schemaResponses.listResponse.isRenderedFrom(state)) {
+                schemaResponses = buildSchemaResponses(state);
+                CACHED_RESPONSES.set(schemaResponses);
+            }
+            if (id == null || id.isEmpty()) {
+                return schemaResponses.listResponse.toResponse(ifNoneMatch);
+            }
+            CachedDiscoveryResponse schemaResponse = schemaResponses.schemaResponses.get(id);
+            if (schemaResponse == null) {
+                throw new NotFoundException("No schema found with the id " + id);
+            }
+            return schemaResponse.toResponse(ifNoneMatch);
+        } catch (CharonException e) {
+            return encodeSCIMException(e);
+        } catch (NotFoundException e) {
+            return encodeSCIMException(e);
         }
     }
 
+    /*
+     * render the core user and group schemas and the user schema extension if one is configured.
+     *
+     * @param state - the state the schemas are rendered from
+     * @return
+     * @throws CharonException
+     */
+    private SchemaResponses buildSchemaResponses(Object[] state) throws CharonException {
+
+        Map<String, CachedDiscoveryResponse> schemaResponses =
+                new TreeMap<String, CachedDiscoveryResponse>(String.CASE_INSENSITIVE_ORDER);
+        List<String> schemaJsonBodies = new ArrayList<String>();
+
+        addSchema(SCIMConstants.USER_CORE_SCHEMA_URI, SCIMConstants.USER,
+                SCIMConstants.ResourceTypeSchemaConstants.USER_ACCOUNT,
+                getSchemaAttributes(SCIMSchemaDefinitions.SCIM_USER_SCHEMA, SCIMConstants.USER_CORE_SCHEMA_URI),
+                state, schemaResponses, schemaJsonBodies);
+        addSchema(SCIMConstants.GROUP_CORE_SCHEMA_URI, SCIMConstants.GROUP,
+                SCIMConstants.ResourceTypeSchemaConstants.GROUP,
+                getSchemaAttributes(SCIMSchemaDefinitions.SCIM_GROUP_SCHEMA, SCIMConstants.GROUP_CORE_SCHEMA_URI),
+                state, schemaResponses, schemaJsonBodies);
+        AttributeSchema extensionSchema = (AttributeSchema) state[0];
+        if (extensionSchema != null) {
+            List<AttributeSchema> extensionAttributes = extensionSchema.getSubAttributeSchemas() == null ?
+                    new ArrayList<AttributeSchema>() : extensionSchema.getSubAttributeSchemas();
+            addSchema(extensionSchema.getURI(), extensionSchema.getName(), extensionSchema.getDescription(),
+                    extensionAttributes, state, schemaResponses, schemaJsonBodies);
+        }
+
+        CachedDiscoveryResponse listResponse = new CachedDiscoveryResponse(state, (String) state[1],
+                getEncoder().buildSchemasListJsonBody(schemaJsonBodies));
+        return new SchemaResponses(listResponse, schemaResponses);
+    }
+
+    /*
+     * render a single schema and add it to the rendered schemas.
+     */
+    private void addSchema(String id, String name, String description, List<AttributeSchema> attributeSchemas,
+                           Object[] state, Map<String, CachedDiscoveryResponse> schemaResponses,
+                           List<String> schemaJsonBodies) throws CharonException {
+
+        String location = state[1] + "/" + id;
+        String schemaJsonBody = getEncoder().buildSchemaJsonBody(id, name, description, attributeSchemas,
+                location);
+        schemaJsonBodies.add(schemaJsonBody);
+        schemaResponses.put(id, new CachedDiscoveryResponse(state, location, schemaJsonBody));
+    }
+
+    /*
+     * the resource schemas also contain the common attributes like id and meta, which are not part of the schema
+     * itself.
+     *
+     * @param resourceSchema
+     * @param schemaURI
+     * @return
+     */
+    private List<AttributeSchema> getSchemaAttributes(SCIMResourceTypeSchema resourceSchema, String schemaURI) {
+
+        List<AttributeSchema> schemaAttributes = new ArrayList<AttributeSchema>();
+        for (AttributeSchema attributeSchema : resourceSchema.getAttributesList()) {
+            if (attributeSchema.getURI().startsWith(schemaURI + ":")) {
+                schemaAttributes.add(attributeSchema);
+            }
+        }
+        return schemaAttributes;
+    }
+
     @Override
     public SCIMResponse create(String scimObjectString, UserManager userManager, String attributes, String
             excludeAttributes) {
@@ -124,4 +236,19 @@ public class SchemaResourceManager extends AbstractResourceManager {
         BadRequestException badRequestException = new BadRequestException(error, ResponseCodeConstants.INVALID_PATH);
         return encodeSCIMException(badRequestException);
     }
+
+    /**
+     * The rendered list of all schemas and the rendered schemas by their id.
+     */
+    private static class SchemaResponses {
+
+        private final CachedDiscoveryResponse listResponse;
+        private final Map<String, CachedDiscoveryResponse> schemaResponses;
+
+        SchemaResponses(CachedDiscoveryResponse listResponse, Map<String, CachedDiscoveryResponse> schemaResponses) {
+
+            this.listResponse = listResponse;
+            this.schemaResponses = schemaResponses;
+        }
+    }
 }
@@ -32,10 +32,8 @@ import org.wso2.charon3.core.protocol.SCIMResponse;
 import org.wso2.charon3.core.schema.SCIMConstants;
 import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
-import org.wso2.charon3.core.utils.CopyUtil;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The service provider configuration resource enables a service
@@ -49,6 +47,10 @@ public class ServiceProviderConfigResourceManager extends AbstractResourceManage
     public ServiceProviderConfigResourceManager() {
     }
 
+    //the rendered service provider config, rebuilt only when the charon configuration or the endpoint changes.
+    private static final AtomicReference<CachedDiscoveryResponse> CACHED_RESPONSE =
+            new AtomicReference<CachedDiscoveryResponse>();
+
     /*
      * Retrieves a service provider config
      *
@@ -56,47 +58,28 @@ public class ServiceProviderConfigResourceManager extends AbstractResourceManage
      */
     @Override
     public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes) {
-        return getServiceProviderConfig();
+        return getServiceProviderConfig(null);
     }
 
-    private SCIMResponse getServiceProviderConfig() {
-        JSONEncoder encoder = null;
+    /*
+     * Retrieves a service provider config. The config is only rendered again after the charon configuration has
+     * changed, and a client that already holds the current version gets a 304 response.
+     *
+     * @param ifNoneMatch - value of the If-None-Match request header, may be null
+     * @return SCIM response to be returned.
+     */
+    public SCIMResponse getServiceProviderConfig(String ifNoneMatch) {
         try {
-            //obtain the json encoder
-            encoder = getEncoder();
-            //obtain the json decoder
-            JSONDecoder decoder = getDecoder();
-
-            // get the service provider config schema
-            SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance()
-                    .getServiceProviderConfigResourceSchema();
-            //create a string in json format with relevant values
-            String scimObjectString = encoder.buildServiceProviderConfigJsonBody(CharonConfiguration.getInstance()
-                    .getConfig());
-            //decode the SCIM service provider config object, encoded in the submitted payload.
-            AbstractSCIMObject serviceProviderConfigObject = (AbstractSCIMObject) decoder.decodeResource(
-                    scimObjectString, schema, new AbstractSCIMObject());
-
-            //encode the newly created SCIM service provider config object and add id attribute to Location header.
-            String encodedObject;
-            Map<String, String> responseHeaders = new HashMap<String, String>();
-
-            if (serviceProviderConfigObject != null) {
-                //create a deep copy of the service provider config object since we are going to change it.
-                AbstractSCIMObject copiedObject = (AbstractSCIMObject) CopyUtil.deepCopy(serviceProviderConfigObject);
-                encodedObject = encoder.encodeSCIMObject(copiedObject);
-                //add location header
-                responseHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
-                        SCIMConstants.SERVICE_PROVIDER_CONFIG_ENDPOINT));
-                responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-
-            } else {
-                String error = "Newly created User resource is null.";
-                throw new InternalErrorException(error);
+            //the version is read before the config, so a concurrent change renders the document again.
+            Object[] state = new Object[]{CharonConfiguration.getInstance().getVersion(),
+                    getResourceEndpointURL(SCIMConstants.SERVICE_PROVIDER_CONFIG_ENDPOINT)};
+            CachedDiscoveryResponse cachedResponse = CACHED_RESPONSE.get();
+            if (cachedResponse == null || !cachedResponse.isRenderedFrom(state)) {
+                cachedResponse = new CachedDiscoveryResponse(state, (String) state[1],
+                        buildServiceProviderConfig());
+                CACHED_RESPONSE.set(cachedResponse);
             }
-            //put the uri of the service provider config object in the response header parameter.
-            return new SCIMResponse(ResponseCodeConstants.CODE_OK,
-                    encodedObject, responseHeaders);
+            return cachedResponse.toResponse(ifNoneMatch);
         } catch (CharonException e) {
             return encodeSCIMException(e);
         } catch (BadRequestException e) {
@@ -110,6 +93,30 @@ public class ServiceProviderConfigResourceManager extends AbstractResourceManage
         }
     }
 
+    private String buildServiceProviderConfig() throws CharonException, BadRequestException,
+            InternalErrorException, JSONException {
+        //obtain the json encoder
+        JSONEncoder encoder = getEncoder();
+        //obtain the json decoder
+        JSONDecoder decoder = getDecoder();
+
+        // get the service provider config schema
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance()
+                .getServiceProviderConfigResourceSchema();
+        //create a string in json format with relevant values
+        String scimObjectString = encoder.buildServiceProviderConfigJsonBody(CharonConfiguration.getInstance()
+                .getConfig());
+        //decode the SCIM service provider config object, encoded in the submitted payload.
+        AbstractSCIMObject serviceProviderConfigObject = (AbstractSCIMObject) decoder.decodeResource(
+                scimObjectString, schema, new AbstractSCIMObject());
+        if (serviceProviderConfigObject == null) {
+            String error = "Newly created User resource is null.";
+            throw new InternalErrorException(error);
+        }
+        //the decoded object is not shared with anyone, so it can be encoded without a copy.
+        return encoder.encodeSCIMObject(serviceProviderConfigObject);
+    }
+
     @Override
     public SCIMResponse create(String scimObjectString, UserManager userManager, String attributes, String
             excludeAttributes) {
@@ -28,18 +28,22 @@ import org.wso2.charon3.core.exceptions.ConflictException;
 import org.wso2.charon3.core.exceptions.InternalErrorException;
 import org.wso2.charon3.core.exceptions.NotFoundException;
 import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.exceptions.PreConditionFailedException;
 import org.wso2.charon3.core.extensions.UserManager;
 import org.wso2.charon3.core.objects.ListedResource;
 import org.wso2.charon3.core.objects.User;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.protocol.StreamingSCIMResponse;
 import org.wso2.charon3.core.schema.SCIMConstants;
 import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 import org.wso2.charon3.core.schema.ServerSideValidator;
+import org.wso2.charon3.core.utils.CopyOnWriteUtil;
 import org.wso2.charon3.core.utils.CopyUtil;
 import org.wso2.charon3.core.utils.PatchOperationUtil;
 import org.wso2.charon3.core.utils.ResourceManagerUtil;
+import org.wso2.charon3.core.utils.codeutils.FilterOptimizer;
 import org.wso2.charon3.core.utils.codeutils.FilterTreeManager;
 import org.wso2.charon3.core.utils.codeutils.Node;
 import org.wso2.charon3.core.utils.codeutils.PatchOperation;
@@ -74,10 +78,21 @@ public class UserResourceManager extends AbstractResourceManager {
      * @return SCIM response to be returned.
      */
     public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes) {
-        JSONEncoder encoder = null;
+        return get(id, userManager, attributes, excludeAttributes, null);
+    }
+
+    /*
+     * Retrieves a user resource given an unique user id. Mapped to HTTP GET request. A client that already holds
+     * the current version of the user gets a 304 response without a body.
+     *
+     * @param id          - unique resource id
+     * @param usermanager - usermanager instance defined by the external implementor of charon
+     * @param ifNoneMatch - value of the If-None-Match request header, may be null
+     * @return SCIM response to be returned.
+     */
+    public SCIMResponse get(String id, UserManager userManager, String attributes, String excludeAttributes,
+                            String ifNoneMatch) {
         try {
-            //obtain the json encoder
-            encoder = getEncoder();
 
             //obtain the schema corresponding to user
             // unless configured returns core-user schema or else returns extended user schema)
@@ -85,8 +100,7 @@ public class UserResourceManager extends AbstractResourceManager {
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
 
             /*API user should pass a usermanager impl to UserResourceEndpoint.
             retrieve the user from the provided UM handler.*/
@@ -97,16 +111,22 @@ public class UserResourceManager extends AbstractResourceManager {
                 String error = "User not found in the user store.";
                 throw new NotFoundException(error);
             }
-            //perform service provider side validation.
-            ServerSideValidator.validateRetrievedSCIMObject(user, schema, attributes, excludeAttributes);
-            //convert the user into requested format.
-            String encodedUser = encoder.encodeSCIMObject(user);
             //if there are any http headers to be added in the response header.
             Map<String, String> responseHeaders = new HashMap<String, String>();
-            responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
             responseHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                     SCIMConstants.USER_ENDPOINT) + "/" + user.getId());
-            return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedUser, responseHeaders);
+            addETagHeader(responseHeaders, user);
+            //the client already holds this version, so the user is neither validated nor encoded.
+            ifNoneMatch = getConditionalHeader(ifNoneMatch);
+            if (ifNoneMatch != null && ResourceManagerUtil.matchesETag(ifNoneMatch, user.getVersion())) {
+                return new SCIMResponse(ResponseCodeConstants.CODE_NOT_MODIFIED, null, responseHeaders);
+            }
+            //perform service provider side validation.
+            ServerSideValidator.validateRetrievedSCIMObject(user, schema, attributes, excludeAttributes);
+            responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+            //the user is encoded when the response is written.
+            return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                    outputStream -> getEncoder().encodeSCIMObject(user, outputStream), responseHeaders);
 
         } catch (NotFoundException e) {
             return AbstractResourceManager.encodeSCIMException(e);
@@ -143,8 +163,7 @@ public class UserResourceManager extends AbstractResourceManager {
             ServerSideValidator.validateCreatedSCIMObject(user, schema);
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
             User createdUser;
 
             if (userManager != null) {
@@ -170,6 +189,7 @@ public class UserResourceManager extends AbstractResourceManager {
                 responseHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                         SCIMConstants.USER_ENDPOINT) + "/" + createdUser.getId());
                 responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                addETagHeader(responseHeaders, createdUser);
 
             } else {
                 String error = "Newly created User resource is null.";
@@ -207,11 +227,23 @@ public class UserResourceManager extends AbstractResourceManager {
      */
 
     public SCIMResponse delete(String id, UserManager userManager) {
-        JSONEncoder encoder = null;
+        return delete(id, userManager, null);
+    }
+
+    /*
+     * Method of the ResourceManager that is mapped to HTTP Delete method. With an If-Match header the user is only
+     * deleted if it was not changed since the client read it.
+     *
+     * @param id          - unique resource id
+     * @param usermanager - usermanager instance defined by the external implementor of charon
+     * @param ifMatch     - value of the If-Match request header, may be null
+     * @return
+     */
+    public SCIMResponse delete(String id, UserManager userManager, String ifMatch) {
         try {
             if (userManager != null) {
             /*handover the SCIM User object to the user usermanager provided by the SP for the delete operation*/
-                userManager.deleteUser(id);
+                deleteUser(userManager, id, getConditionalHeader(ifMatch));
                 //on successful deletion SCIMResponse only has 204 No Content status code.
                 return new SCIMResponse(ResponseCodeConstants.CODE_NO_CONTENT, null, null);
             } else {
@@ -229,6 +261,8 @@ public class UserResourceManager extends AbstractResourceManager {
             return AbstractResourceManager.encodeSCIMException(e);
         } catch (BadRequestException e) {
             return AbstractResourceManager.encodeSCIMException(e);
+        } catch (PreConditionFailedException e) {
+            return AbstractResourceManager.encodeSCIMException(e);
         }
     }
 
@@ -273,11 +307,12 @@ public class UserResourceManager extends AbstractResourceManager {
 
             // Get the URIs of required attributes which must be given a value.
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil
-                    .getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema) CopyUtil.deepCopy(schema), attributes,
+                    .getOnlyRequiredAttributesURIs(schema, attributes,
                             excludeAttributes);
 
             // API user should pass a user manager to UserResourceEndpoint.
             if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(rootNode, userManager);
                 List<Object> tempList = userManager
                         .listUsersWithGET(rootNode, startIndex, count, sortBy, sortOrder, domainName,
                                 requiredAttributes);
@@ -338,11 +373,12 @@ public class UserResourceManager extends AbstractResourceManager {
 
             // Get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil
-                    .getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema) CopyUtil.deepCopy(schema), attributes,
+                    .getOnlyRequiredAttributesURIs(schema, attributes,
                             excludeAttributes);
 
             // API user should pass a user manager to UserResourceEndpoint.
             if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(rootNode, userManager);
                 List<Object> tempList = userManager
                         .listUsersWithGET(rootNode, startIndex, count, sortBy, sortOrder, domainName,
                                 requiredAttributes);
@@ -363,6 +399,61 @@ public class UserResourceManager extends AbstractResourceManager {
         }
     }
 
+    /**
+     * Method to list users at the Users endpoint with cursor pagination.
+     * An empty cursor requests the first page, the following pages are requested with the next cursor of the
+     * previous page. When the count value is not specified (null) the user manager decides on the size of the page.
+     *
+     * @param userManager       User manager
+     * @param filter            Filter to be executed
+     * @param cursor            Cursor of the requested page
+     * @param countInt          Number of required results
+     * @param sortBy            SortBy
+     * @param sortOrder         Sorting order
+     * @param domainName        Domain name
+     * @param attributes        Attributes in the request
+     * @param excludeAttributes Exclude attributes
+     * @return SCIM response
+     */
+    public SCIMResponse listWithCursor(UserManager userManager, String filter, String cursor, Integer countInt,
+            String sortBy, String sortOrder, String domainName, String attributes, String excludeAttributes) {
+
+        try {
+            Integer count = ResourceManagerUtil.processCount(countInt);
+
+            // Resolve sorting order.
+            sortOrder = resolveSortOrder(sortOrder, sortBy);
+
+            SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+            // Build node for filtering.
+            Node rootNode = buildNode(filter, schema);
+
+            // Get the URIs of required attributes which must be given a value.
+            Map<String, Boolean> requiredAttributes = ResourceManagerUtil
+                    .getOnlyRequiredAttributesURIs(schema, attributes,
+                            excludeAttributes);
+
+            // API user should pass a user manager to UserResourceEndpoint.
+            if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(rootNode, userManager);
+                ListedResource listedResource = userManager.listUsersWithCursor(rootNode,
+                        cursor == null ? "" : cursor, count, sortBy, sortOrder, domainName, requiredAttributes);
+                return processUserPage(listedResource, getEncoder(), schema, attributes, excludeAttributes);
+            } else {
+                String error = "Provided user manager handler is null.";
+                // Throw internal server error.
+                throw new InternalErrorException(error);
+            }
+        } catch (CharonException | InternalErrorException | BadRequestException | NotImplementedException e) {
+            return AbstractResourceManager.encodeSCIMException(e);
+        } catch (IOException e) {
+            String error = "Error in tokenization of the input filter";
+            CharonException charonException = new CharonException(error);
+            return AbstractResourceManager.encodeSCIMException(charonException);
+        }
+    }
+
     /**
      * Build Node for filtering.
      *
@@ -376,7 +467,7 @@ public class UserResourceManager extends AbstractResourceManager {
 
         if (filter != null) {
             FilterTreeManager filterTreeManager = new FilterTreeManager(filter, schema);
-            return filterTreeManager.buildTree();
+            return FilterOptimizer.optimize(filterTreeManager.buildTree(), schema);
         }
         return null;
     }
@@ -443,18 +534,39 @@ public class UserResourceManager extends AbstractResourceManager {
             totalResults = tempList.size();
         }
         returnedUsers = tempList;
-        for (Object user : returnedUsers) {
-            // Perform service provider side validation.
-            ServerSideValidator.validateRetrievedSCIMObjectInList((User) user, schema, attributes, excludeAttributes);
-        }
-        // Create a listed resource object out of the returned users list.
-        ListedResource listedResource = createListedResource(returnedUsers, startIndex, totalResults);
-        // Convert the listed resource into specific format.
-        String encodedListedResource = encoder.encodeSCIMObject(listedResource);
+        int resultCount = totalResults;
+        // If there are any http headers to be added in the response header.
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+        // The list response is written when the response is sent. Each user is validated on the service provider
+        // side and encoded one at a time, instead of copying the whole page into a listed resource first.
+        return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                outputStream -> encoder.encodeListedResource(resultCount, startIndex, returnedUsers,
+                        user -> ServerSideValidator.validateRetrievedSCIMObjectInList((User) user, schema,
+                                attributes, excludeAttributes), outputStream), responseHeaders);
+    }
+
+    /**
+     * Method to process a page of a cursor paginated user list and return a SCIM response.
+     *
+     * @param listedResource    The page returned by the user manager
+     * @param encoder           Json encoder
+     * @param schema            Schema
+     * @param attributes        Required attributes
+     * @param excludeAttributes Exclude attributes
+     * @return SCIM response
+     */
+    private SCIMResponse processUserPage(ListedResource listedResource, JSONEncoder encoder,
+            SCIMResourceTypeSchema schema, String attributes, String excludeAttributes) {
+
+        ListedResource page = listedResource == null ? new ListedResource() : listedResource;
         // If there are any http headers to be added in the response header.
         Map<String, String> responseHeaders = new HashMap<String, String>();
         responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-        return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedListedResource, responseHeaders);
+        return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                outputStream -> encoder.encodeListedResource(page,
+                        user -> ServerSideValidator.validateRetrievedSCIMObjectInList((User) user, schema,
+                                attributes, excludeAttributes), outputStream), responseHeaders);
     }
 
     /*
@@ -465,11 +577,8 @@ public class UserResourceManager extends AbstractResourceManager {
      */
 
     public SCIMResponse listWithPOST(String resourceString, UserManager userManager) {
-        JSONEncoder encoder = null;
         JSONDecoder decoder = null;
         try {
-            //obtain the json encoder
-            encoder = getEncoder();
             //obtain the json decoder
             decoder = getDecoder();
 
@@ -477,6 +586,7 @@ public class UserResourceManager extends AbstractResourceManager {
             SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
             //create the search request object
             SearchRequest searchRequest = decoder.decodeSearchRequestBody(resourceString, schema);
+            searchRequest.setFilter(FilterOptimizer.optimize(searchRequest.getFilter(), schema));
 
             searchRequest.setCount(ResourceManagerUtil.processCount(searchRequest.getCountStr()));
             searchRequest.setStartIndex(ResourceManagerUtil.processStartIndex(searchRequest.getStartIndexStr()));
@@ -498,35 +608,40 @@ public class UserResourceManager extends AbstractResourceManager {
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), searchRequest.getAttributesAsString(),
+                    schema, searchRequest.getAttributesAsString(),
                     searchRequest.getExcludedAttributesAsString());
 
             List<Object> returnedUsers;
             int totalResults = 0;
             //API user should pass a usermanager usermanager to UserResourceEndpoint.
             if (userManager != null) {
+                ResourceManagerUtil.checkFilterLimits(searchRequest.getFilter(), userManager);
+                if (searchRequest.getCursor() != null) {
+                    ListedResource listedResource = userManager.listUsersWithCursor(searchRequest.getFilter(),
+                            searchRequest.getCursor(), searchRequest.getCount(), searchRequest.getSortBy(),
+                            searchRequest.getSortOder(), searchRequest.getDomainName(), requiredAttributes);
+                    return processUserPage(listedResource, getEncoder(), schema,
+                            searchRequest.getAttributesAsString(), searchRequest.getExcludedAttributesAsString());
+                }
                 List<Object> tempList = userManager.listUsersWithPost(searchRequest, requiredAttributes);
 
                 totalResults = (int) tempList.get(0);
                 tempList.remove(0);
 
                 returnedUsers = tempList;
+                int resultCount = totalResults;
 
-                for (Object user : returnedUsers) {
-                    //perform service provider side validation.
-                    ServerSideValidator.validateRetrievedSCIMObjectInList((User) user, schema,
-                            searchRequest.getAttributesAsString(), searchRequest.getExcludedAttributesAsString());
-                }
-                //create a listed resource object out of the returned users list.
-                ListedResource listedResource = createListedResource(
-                        returnedUsers, searchRequest.getStartIndex(), totalResults);
-                //convert the listed resource into specific format.
-                String encodedListedResource = encoder.encodeSCIMObject(listedResource);
                 //if there are any http headers to be added in the response header.
                 Map<String, String> responseHeaders = new HashMap<String, String>();
                 responseHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
-                return new SCIMResponse(ResponseCodeConstants.CODE_OK, encodedListedResource, responseHeaders);
+                //the list response is written when the response is sent, each user is validated on the service
+                //provider side and encoded one at a time.
+                return new StreamingSCIMResponse(ResponseCodeConstants.CODE_OK,
+                        outputStream -> getEncoder().encodeListedResource(resultCount, searchRequest.getStartIndex(),
+                                returnedUsers, user -> ServerSideValidator.validateRetrievedSCIMObjectInList(
+                                        (User) user, schema, searchRequest.getAttributesAsString(),
+                                        searchRequest.getExcludedAttributesAsString()), outputStream),
+                        responseHeaders);
 
             } else {
                 String error = "Provided user manager handler is null.";
@@ -535,8 +650,6 @@ public class UserResourceManager extends AbstractResourceManager {
             }
         } catch (CharonException e) {
             return AbstractResourceManager.encodeSCIMException(e);
-        } catch (NotFoundException e) {
-            return AbstractResourceManager.encodeSCIMException(e);
         } catch (InternalErrorException e) {
             return AbstractResourceManager.encodeSCIMException(e);
         } catch (BadRequestException e) {
@@ -556,6 +669,21 @@ public class UserResourceManager extends AbstractResourceManager {
      */
     public SCIMResponse updateWithPUT(String existingId, String scimObjectString, UserManager userManager,
                                       String attributes, String excludeAttributes) {
+        return updateWithPUT(existingId, scimObjectString, userManager, attributes, excludeAttributes, null);
+    }
+
+    /*
+     * To update the user by giving entire attribute set. With an If-Match header the user is only updated if it
+     * was not changed since the client read it.
+     *
+     * @param existingId
+     * @param scimObjectString
+     * @param usermanager
+     * @param ifMatch - value of the If-Match request header, may be null
+     * @return
+     */
+    public SCIMResponse updateWithPUT(String existingId, String scimObjectString, UserManager userManager,
+                                      String attributes, String excludeAttributes, String ifMatch) {
         //needs to validate the incoming object. eg: id can not be set by the consumer.
 
         JSONEncoder encoder = null;
@@ -571,8 +699,7 @@ public class UserResourceManager extends AbstractResourceManager {
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes = ResourceManagerUtil.getOnlyRequiredAttributesURIs(
-                    (SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    schema, attributes, excludeAttributes);
 
             //decode the SCIM User object, encoded in the submitted payload.
             User user = (User) decoder.decodeResource(scimObjectString, schema, new User());
@@ -581,8 +708,10 @@ public class UserResourceManager extends AbstractResourceManager {
                 //retrieve the old object
                 User oldUser = userManager.getUser(existingId, ResourceManagerUtil.getAllAttributeURIs(schema));
                 if (oldUser != null) {
+                    ifMatch = getConditionalHeader(ifMatch);
+                    checkIfMatch(ifMatch, oldUser);
                     User validatedUser = (User) ServerSideValidator.validateUpdatedSCIMObject(oldUser, user, schema);
-                    updatedUser = userManager.updateUser(validatedUser, requiredAttributes);
+                    updatedUser = updateUser(userManager, validatedUser, ifMatch, requiredAttributes);
 
                 } else {
                     String error = "No user exists with the given id: " + existingId;
@@ -606,6 +735,7 @@ public class UserResourceManager extends AbstractResourceManager {
                 httpHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                         SCIMConstants.USER_ENDPOINT) + "/" + updatedUser.getId());
                 httpHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                addETagHeader(httpHeaders, updatedUser);
 
             } else {
                 String error = "Updated User resource is null.";
@@ -625,6 +755,8 @@ public class UserResourceManager extends AbstractResourceManager {
             return AbstractResourceManager.encodeSCIMException(e);
         } catch (NotImplementedException e) {
             return AbstractResourceManager.encodeSCIMException(e);
+        } catch (PreConditionFailedException e) {
+            return AbstractResourceManager.encodeSCIMException(e);
         }
     }
 
@@ -641,6 +773,23 @@ public class UserResourceManager extends AbstractResourceManager {
 
     public SCIMResponse updateWithPATCH(String existingId, String scimObjectString, UserManager userManager,
                                         String attributes, String excludeAttributes) {
+        return updateWithPATCH(existingId, scimObjectString, userManager, attributes, excludeAttributes, null);
+    }
+
+    /*
+     * Update the user resource by sequence of operations. With an If-Match header the user is only updated if it
+     * was not changed since the client read it.
+     *
+     * @param existingId
+     * @param scimObjectString
+     * @param userManager
+     * @param attributes
+     * @param excludeAttributes
+     * @param ifMatch - value of the If-Match request header, may be null
+     * @return
+     */
+    public SCIMResponse updateWithPATCH(String existingId, String scimObjectString, UserManager userManager,
+                                        String attributes, String excludeAttributes, String ifMatch) {
         try {
             if (userManager == null) {
                 String error = "Provided user manager handler is null.";
@@ -657,62 +806,46 @@ public class UserResourceManager extends AbstractResourceManager {
             if (oldUser == null) {
                 throw new NotFoundException("No user with the id : " + existingId + " in the user store.");
             }
-            //make a copy of the original user
-            User copyOfOldUser = (User) CopyUtil.deepCopy(oldUser);
-            //make another copy of original user.
-            //this will be used to restore to the original condition if failure occurs.
-            User originalUser = (User) CopyUtil.deepCopy(copyOfOldUser);
+            ifMatch = getConditionalHeader(ifMatch);
+            checkIfMatch(ifMatch, oldUser);
+            //the original user is never modified, it is used to restore to the original condition if failure occurs.
+            //every operation works on a copy which shares the attributes the operation does not touch with the
+            //state before the operation, that state is kept for validating the operation. Single valued attributes,
+            //e.g. meta, are copied for every operation and the validation gives the result own copies of the read only
+            //attributes of the original.
+            User originalUser = oldUser;
+            User copyOfOldUser = oldUser;
 
             User newUser = null;
 
             for (PatchOperation operation : opList) {
 
-                if (operation.getOperation().equals(SCIMConstants.OperationalConstants.ADD)) {
-                    if (newUser == null) {
-                        newUser = (User) PatchOperationUtil.doPatchAdd
-                                (operation, getDecoder(), oldUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-
-                    } else {
-                        newUser = (User) PatchOperationUtil.doPatchAdd
-                                (operation, getDecoder(), newUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
+                User patchedUser = (User) CopyOnWriteUtil.shallowCopy(copyOfOldUser);
+                CopyOnWriteUtil.prepareForOperation(patchedUser, operation, schema);
 
-                    }
+                if (operation.getOperation().equals(SCIMConstants.OperationalConstants.ADD)) {
+                    newUser = (User) PatchOperationUtil.doPatchAdd
+                            (operation, getDecoder(), patchedUser, copyOfOldUser, schema);
                 } else if (operation.getOperation().equals(SCIMConstants.OperationalConstants.REMOVE)) {
-                    if (newUser == null) {
-                        newUser = (User) PatchOperationUtil.doPatchRemove(operation, oldUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-
-                    } else {
-                        newUser = (User) PatchOperationUtil.doPatchRemove(operation, newUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-                    }
+                    newUser = (User) PatchOperationUtil.doPatchRemove
+                            (operation, patchedUser, copyOfOldUser, schema);
                 } else if (operation.getOperation().equals(SCIMConstants.OperationalConstants.REPLACE)) {
-                    if (newUser == null) {
-                        newUser = (User) PatchOperationUtil.doPatchReplace
-                                (operation, getDecoder(), oldUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-
-                    } else {
-                        newUser = (User) PatchOperationUtil.doPatchReplace
-                                (operation, getDecoder(), newUser, copyOfOldUser, schema);
-                        copyOfOldUser = (User) CopyUtil.deepCopy(newUser);
-                    }
+                    newUser = (User) PatchOperationUtil.doPatchReplace
+                            (operation, getDecoder(), patchedUser, copyOfOldUser, schema);
                 } else {
                     throw new BadRequestException("Unknown operation.", ResponseCodeConstants.INVALID_SYNTAX);
                 }
+                copyOfOldUser = newUser;
             }
 
             //get the URIs of required attributes which must be given a value
             Map<String, Boolean> requiredAttributes =
-                    ResourceManagerUtil.getOnlyRequiredAttributesURIs((SCIMResourceTypeSchema)
-                            CopyUtil.deepCopy(schema), attributes, excludeAttributes);
+                    ResourceManagerUtil.getOnlyRequiredAttributesURIs(schema, attributes, excludeAttributes);
 
 
             User validatedUser = (User) ServerSideValidator.validateUpdatedSCIMObject
                     (originalUser, newUser, schema);
-            newUser = userManager.updateUser(validatedUser, requiredAttributes);
+            newUser = updateUser(userManager, validatedUser, ifMatch, requiredAttributes);
 
             //encode the newly created SCIM user object and add id attribute to Location header.
             String encodedUser;
@@ -727,6 +860,7 @@ public class UserResourceManager extends AbstractResourceManager {
                 httpHeaders.put(SCIMConstants.LOCATION_HEADER, getResourceEndpointURL(
                         SCIMConstants.USER_ENDPOINT) + "/" + newUser.getId());
                 httpHeaders.put(SCIMConstants.CONTENT_TYPE_HEADER, SCIMConstants.APPLICATION_JSON);
+                addETagHeader(httpHeaders, newUser);
 
             } else {
                 String error = "Updated User resource is null.";
@@ -744,6 +878,8 @@ public class UserResourceManager extends AbstractResourceManager {
             return AbstractResourceManager.encodeSCIMException(e);
         } catch (InternalErrorException e) {
             return AbstractResourceManager.encodeSCIMException(e);
+        } catch (PreConditionFailedException e) {
+            return AbstractResourceManager.encodeSCIMException(e);
         } catch (RuntimeException e) {
             CharonException e1 = new CharonException("Error in performing the patch operation on user resource.", e);
             return AbstractResourceManager.encodeSCIMException(e1);
@@ -774,4 +910,57 @@ public class UserResourceManager extends AbstractResourceManager {
         return listedResource;
     }
 
+    /*
+     * update the user, if there is an If-Match header only if the version of the stored user matches it. A user
+     * manager without conditional updates gets a plain update, the version is then only checked on the user read
+     * before the update, which does not detect a change stored in between.
+     *
+     * @param userManager
+     * @param user               - the validated user
+     * @param ifMatch            - the value of the If-Match header, null if there is none
+     * @param requiredAttributes
+     * @return
+     */
+    private static User updateUser(UserManager userManager, User user, String ifMatch,
+                                   Map<String, Boolean> requiredAttributes)
+            throws NotImplementedException, CharonException, BadRequestException, NotFoundException,
+            PreConditionFailedException {
+        if (ifMatch != null) {
+            try {
+                return userManager.updateUserIfMatch(user, ifMatch, requiredAttributes);
+            } catch (NotImplementedException e) {
+                logger.debug("The user manager does not support conditional updates of users.", e);
+            }
+        }
+        return userManager.updateUser(user, requiredAttributes);
+    }
+
+    /*
+     * delete the user, if there is an If-Match header only if the version of the stored user matches it. A user
+     * manager without conditional deletes gets a plain delete after the version of the user was checked, which does
+     * not detect a change stored in between.
+     *
+     * @param userManager
+     * @param id
+     * @param ifMatch     - the value of the If-Match header, null if there is none
+     */
+    private static void deleteUser(UserManager userManager, String id, String ifMatch)
+            throws NotImplementedException, CharonException, BadRequestException, NotFoundException,
+            PreConditionFailedException {
+        if (ifMatch != null) {
+            try {
+                userManager.deleteUserIfMatch(id, ifMatch);
+                return;
+            } catch (NotImplementedException e) {
+                logger.debug("The user manager does not support conditional deletes of users.", e);
+            }
+            User user = userManager.getUser(id, Collections.<String, Boolean>emptyMap());
+            if (user == null) {
+                throw new NotFoundException("No user with the id : " + id);
+            }
+            checkIfMatch(ifMatch, user);
+        }
+        userManager.deleteUser(id);
+    }
+
 }
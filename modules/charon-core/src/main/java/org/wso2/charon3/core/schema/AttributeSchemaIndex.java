@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Precomputed lookup tables for the attribute schemas of a resource type schema.
+ * An index is built once for a schema snapshot that is never modified afterwards (see
+ * {@link SCIMResourceSchemaManager}), so lookups do not have to rescan the attribute lists on every request.
+ */
+public class AttributeSchemaIndex {
+
+    private final SCIMResourceTypeSchema resourceTypeSchema;
+    //top level attribute schemas by their lower cased name
+    private final Map<String, AttributeSchema> attributesByName;
+    //attribute schemas of all levels by their URI
+    private final Map<String, AttributeSchema> attributesByURI;
+    //attribute schemas by their dotted path, e.g. name.givenName
+    private final Map<String, AttributeSchema> attributesByPath;
+    //attribute URIs by the exact name, dotted path or URI used in a filter
+    private final Map<String, String> attributeURIsByKey;
+    //attribute URIs by the name or dotted path used in a filter, ignoring the case
+    private final Map<String, String> attributeURIsByName;
+
+    public AttributeSchemaIndex(SCIMResourceTypeSchema resourceTypeSchema) {
+        this.resourceTypeSchema = resourceTypeSchema;
+        Map<String, AttributeSchema> byName = new HashMap<String, AttributeSchema>();
+        Map<String, AttributeSchema> byURI = new HashMap<String, AttributeSchema>();
+        Map<String, AttributeSchema> byPath = new HashMap<String, AttributeSchema>();
+        for (AttributeSchema attributeSchema : resourceTypeSchema.getAttributesList()) {
+            byName.putIfAbsent(attributeSchema.getName().toLowerCase(Locale.ENGLISH), attributeSchema);
+            byPath.putIfAbsent(attributeSchema.getName(), attributeSchema);
+            indexURIs(attributeSchema, byURI);
+            if (SCIMDefinitions.DataType.COMPLEX.equals(attributeSchema.getType())) {
+                indexSubAttributePaths(attributeSchema, byPath);
+            }
+        }
+        this.attributesByName = Collections.unmodifiableMap(byName);
+        this.attributesByURI = Collections.unmodifiableMap(byURI);
+        this.attributesByPath = Collections.unmodifiableMap(byPath);
+
+        List<String[]> filterKeys = new ArrayList<String[]>();
+        for (AttributeSchema attributeSchema : resourceTypeSchema.getAttributesList()) {
+            addFilterKeys(attributeSchema, filterKeys);
+        }
+        Map<String, String> byKey = new HashMap<String, String>();
+        Map<String, String> byIgnoredCaseName = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (String[] filterKey : filterKeys) {
+            if (filterKey[1] != null) {
+                byIgnoredCaseName.putIfAbsent(filterKey[1], filterKey[2]);
+            }
+        }
+        for (String[] filterKey : filterKeys) {
+            for (String key : new String[]{filterKey[0], filterKey[1]}) {
+                if (key != null && !byKey.containsKey(key)) {
+                    byKey.put(key, resolveFilterKey(key, filterKeys));
+                }
+            }
+        }
+        this.attributeURIsByKey = Collections.unmodifiableMap(byKey);
+        this.attributeURIsByName = Collections.unmodifiableMap(byIgnoredCaseName);
+    }
+
+    /*
+     * collect the keys an attribute can be referred to with in a filter, in the order AttributeUtil#getAttributeURI
+     * checks them: the name and URI of a top level attribute, then the dotted paths and URIs of its sub attributes
+     * and the dotted paths of the sub attributes of complex sub attributes. Each key is {URI, name or path, URI the
+     * key resolves to}, where the URI only matches exactly and the name or path ignoring the case.
+     * @param attributeSchema
+     * @param filterKeys
+     */
+    private static void addFilterKeys(AttributeSchema attributeSchema, List<String[]> filterKeys) {
+        filterKeys.add(new String[]{attributeSchema.getURI(), attributeSchema.getName(), attributeSchema.getURI()});
+        List<AttributeSchema> subAttributeSchemas = attributeSchema.getSubAttributeSchemas();
+        if (subAttributeSchemas == null) {
+            return;
+        }
+        for (AttributeSchema subAttributeSchema : subAttributeSchemas) {
+            String subAttributePath = attributeSchema.getName() + "." + subAttributeSchema.getName();
+            filterKeys.add(new String[]{subAttributeSchema.getURI(), subAttributePath, subAttributeSchema.getURI()});
+            if (SCIMDefinitions.DataType.COMPLEX.equals(subAttributeSchema.getType())
+                    && subAttributeSchema.getSubAttributeSchemas() != null) {
+                for (AttributeSchema subSubAttributeSchema : subAttributeSchema.getSubAttributeSchemas()) {
+                    filterKeys.add(new String[]{null, subAttributePath + "." + subSubAttributeSchema.getName(),
+                            subSubAttributeSchema.getURI()});
+                }
+            }
+        }
+    }
+
+    /*
+     * resolve a key the way AttributeUtil#getAttributeURI does: the first key that matches wins.
+     * @param key
+     * @param filterKeys
+     * @return
+     */
+    private static String resolveFilterKey(String key, List<String[]> filterKeys) {
+        for (String[] filterKey : filterKeys) {
+            if (key.equals(filterKey[0]) || key.equalsIgnoreCase(filterKey[1])) {
+                return filterKey[2];
+            }
+        }
+        return null;
+    }
+
+    /*
+     * index the URI of the given schema and all of its sub attribute schemas
+     * @param attributeSchema
+     * @param byURI
+     */
+    private static void indexURIs(AttributeSchema attributeSchema, Map<String, AttributeSchema> byURI) {
+        if (attributeSchema.getURI() != null) {
+            byURI.putIfAbsent(attributeSchema.getURI(), attributeSchema);
+        }
+        List<AttributeSchema> subAttributeSchemas = attributeSchema.getSubAttributeSchemas();
+        if (subAttributeSchemas != null) {
+            for (AttributeSchema subAttributeSchema : subAttributeSchemas) {
+                indexURIs(subAttributeSchema, byURI);
+            }
+        }
+    }
+
+    /*
+     * index the dotted paths of a complex attribute. The third level is only valid for the extension schema, hence
+     * it is only indexed for single valued complex attributes.
+     * @param attributeSchema
+     * @param byPath
+     */
+    private static void indexSubAttributePaths(AttributeSchema attributeSchema, Map<String, AttributeSchema> byPath) {
+        List<AttributeSchema> subAttributeSchemas = attributeSchema.getSubAttributeSchemas();
+        if (subAttributeSchemas == null) {
+            return;
+        }
+        for (AttributeSchema subAttributeSchema : subAttributeSchemas) {
+            String subAttributePath = attributeSchema.getName() + "." + subAttributeSchema.getName();
+            byPath.putIfAbsent(subAttributePath, subAttributeSchema);
+            if (!attributeSchema.getMultiValued() &&
+                    SCIMDefinitions.DataType.COMPLEX.equals(subAttributeSchema.getType()) &&
+                    subAttributeSchema.getSubAttributeSchemas() != null) {
+                for (AttributeSchema subSubAttributeSchema : subAttributeSchema.getSubAttributeSchemas()) {
+                    byPath.putIfAbsent(subAttributePath + "." + subSubAttributeSchema.getName(),
+                            subSubAttributeSchema);
+                }
+            }
+        }
+    }
+
+    public SCIMResourceTypeSchema getResourceTypeSchema() {
+        return resourceTypeSchema;
+    }
+
+    /*
+     * return the top level attribute schema with the given name, ignoring the case
+     * @param attributeName
+     * @return
+     */
+    public AttributeSchema getAttributeSchemaByName(String attributeName) {
+        if (attributeName == null) {
+            return null;
+        }
+        return attributesByName.get(attributeName.toLowerCase(Locale.ENGLISH));
+    }
+
+    /*
+     * return the attribute schema of any level with the given URI
+     * @param attributeURI
+     * @return
+     */
+    public AttributeSchema getAttributeSchemaByURI(String attributeURI) {
+        if (attributeURI == null) {
+            return null;
+        }
+        return attributesByURI.get(attributeURI);
+    }
+
+    /*
+     * return the attribute schema for the given dotted path, e.g. emails.value
+     * @param attributePath
+     * @return
+     */
+    public AttributeSchema getAttributeSchemaByPath(String attributePath) {
+        if (attributePath == null) {
+            return null;
+        }
+        return attributesByPath.get(attributePath);
+    }
+
+    /*
+     * return the URI of the attribute a filter refers to by its name, dotted path (ignoring the case) or URI. The
+     * lookup does not allocate.
+     * @param attributeName
+     * @return the URI or null if the name is not one of the indexed names
+     */
+    public String getAttributeURI(String attributeName) {
+        if (attributeName == null) {
+            return null;
+        }
+        String attributeURI = attributeURIsByKey.get(attributeName);
+        return attributeURI != null ? attributeURI : attributeURIsByName.get(attributeName);
+    }
+}
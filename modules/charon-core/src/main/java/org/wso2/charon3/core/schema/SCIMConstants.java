@@ -28,6 +28,7 @@ public class SCIMConstants {
     public static final String SERVICE_PROVIDER_CONFIG_SCHEMA_URI =
             "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig";
     public static final String RESOURCE_TYPE_SCHEMA_URI = "urn:ietf:params:scim:schemas:core:2.0:ResourceType";
+    public static final String SCHEMA_SCHEMA_URI = "urn:ietf:params:scim:schemas:core:2.0:Schema";
     public static final String SEARCH_SCHEMA_URI = "urn:ietf:params:scim:api:messages:2.0:SearchRequest";
     public static final String BULK_RESPONSE_URI = "urn:ietf:params:scim:api:messages:2.0:BulkResponse";
 
@@ -45,17 +46,22 @@ public class SCIMConstants {
     public static final String USER = "User";
     public static final String GROUP = "Group";
     public static final String RESOURCE_TYPE = "ResourceType";
+    public static final String SCHEMA = "Schema";
 
     /*Resource endpoints relative to the base SCIM URL*/
     public static final String USER_ENDPOINT = "/Users";
     public static final String GROUP_ENDPOINT = "/Groups";
     public static final String SERVICE_PROVIDER_CONFIG_ENDPOINT = "/ServiceProviderConfig";
     public static final String RESOURCE_TYPE_ENDPOINT = "/RESOURCE_TYPES";
+    public static final String SCHEMAS_ENDPOINT = "/Schemas";
 
 
     //HTTP Headers used in SCIM request/response other than auth headers.
     public static final String LOCATION_HEADER = "Location";
     public static final String CONTENT_TYPE_HEADER = "Content-Type";
+    public static final String ETAG_HEADER = "ETag";
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    public static final String IF_MATCH_HEADER = "If-Match";
 
     public static final String DEFAULT = "default";
 
@@ -117,6 +123,7 @@ public class SCIMConstants {
         public static final String RESOURCES = "Resources";
         public static final String ITEMS_PER_PAGE = "itemsPerPage";
         public static final String START_INDEX = "startIndex";
+        public static final String NEXT_CURSOR = "nextCursor";
     }
 
     /**
@@ -253,6 +260,7 @@ public class SCIMConstants {
         public static final String ADDRESSES_PRIMARY_URI = "urn:ietf:params:scim:schemas:core:2.0:User:addresses" +
                 ".primary";
 
+        public static final String GROUPS_URI = "urn:ietf:params:scim:schemas:core:2.0:User:groups";
         public static final String GROUPS_VALUE_URI = "urn:ietf:params:scim:schemas:core:2.0:User:groups.value";
         public static final String GROUPS_DISPLAY_URI = "urn:ietf:params:scim:schemas:core:2.0:User:groups.display";
         public static final String GROUPS_TYPE_URI = "urn:ietf:params:scim:schemas:core:2.0:User:groups.type";
@@ -511,6 +519,15 @@ public class SCIMConstants {
         public static final String MAX_RESULTS = "maxResults";
         public static final String MAX_RESULTS_URI =
                 "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig:filter.maxResults";
+        public static final String MAX_DEPTH = "maxDepth";
+        public static final String MAX_DEPTH_URI =
+                "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig:filter.maxDepth";
+        public static final String MAX_CLAUSES = "maxClauses";
+        public static final String MAX_CLAUSES_URI =
+                "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig:filter.maxClauses";
+        public static final String MAX_COST = "maxCost";
+        public static final String MAX_COST_URI =
+                "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig:filter.maxCost";
         public static final String NAME = "name";
         public static final String NAME_URI =
                 "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig:authenticationSchemes.name";
@@ -564,6 +581,12 @@ public class SCIMConstants {
                 "bytes.";
         public static final String MAX_RESULTS_DESC = "An integer value specifying the maximum number of resources " +
                 "returned in a response.";
+        public static final String MAX_DEPTH_DESC = "An integer value specifying the maximum nesting depth of a " +
+                "filter.";
+        public static final String MAX_CLAUSES_DESC = "An integer value specifying the maximum number of " +
+                "attribute expressions in a filter.";
+        public static final String MAX_COST_DESC = "An integer value specifying the maximum estimated cost of a " +
+                "filter.";
         public static final String NAME_DESC = "The common authentication scheme name,e.g., HTTP Basic.";
         public static final String DESCRIPTION_DESC = "A description of the authentication scheme.";
         public static final String SPEC_URI_DESC = "An HTTP-addressable URL pointing to the authentication scheme's " +
@@ -616,6 +639,29 @@ public class SCIMConstants {
         public static final String GROUP = "Group";
     }
 
+    /**
+     * Constants found in the schema representation served by the schemas endpoint.
+     */
+    public static class SchemaSchemaConstants {
+
+        public static final String ID = "id";
+        public static final String NAME = "name";
+        public static final String DESCRIPTION = "description";
+        public static final String ATTRIBUTES = "attributes";
+
+        //characteristics of an attribute definition
+        public static final String TYPE = "type";
+        public static final String MULTI_VALUED = "multiValued";
+        public static final String REQUIRED = "required";
+        public static final String CASE_EXACT = "caseExact";
+        public static final String MUTABILITY = "mutability";
+        public static final String RETURNED = "returned";
+        public static final String UNIQUENESS = "uniqueness";
+        public static final String CANONICAL_VALUES = "canonicalValues";
+        public static final String REFERENCE_TYPES = "referenceTypes";
+        public static final String SUB_ATTRIBUTES = "subAttributes";
+    }
+
     /**
      * Constants found in operations.
      */
@@ -656,6 +702,7 @@ public class SCIMConstants {
         public static final String EXCLUDED_ATTRIBUTES = "excludedAttributes";
         public static final String COUNT = "count";
         public static final String START_INDEX = "startIndex";
+        public static final String CURSOR = "cursor";
         public static final String SORT_BY = "sortBy";
         public static final String SORT_ORDER = "sortOrder";
         public static final String FILTER = "filter";
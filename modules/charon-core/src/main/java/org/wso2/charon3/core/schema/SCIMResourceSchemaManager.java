@@ -21,6 +21,7 @@ import org.wso2.charon3.core.config.SCIMUserSchemaExtensionBuilder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
 * This is to check for extension schema for the user and buildTree a custom user schema with it.
@@ -30,6 +31,19 @@ public class SCIMResourceSchemaManager {
 
     private static SCIMResourceSchemaManager manager = new SCIMResourceSchemaManager();
 
+    private final AttributeSchemaIndex coreUserSchemaIndex =
+            new AttributeSchemaIndex(SCIMSchemaDefinitions.SCIM_USER_SCHEMA);
+
+    private final AttributeSchemaIndex groupSchemaIndex =
+            new AttributeSchemaIndex(SCIMSchemaDefinitions.SCIM_GROUP_SCHEMA);
+
+    /*
+     * the composed user schema is shared by all requests, so it must not be modified. Callers that need to modify
+     * it have to work on a copy.
+     */
+    private final AtomicReference<UserSchemaSnapshot> userSchemaSnapshot =
+            new AtomicReference<UserSchemaSnapshot>();
+
     public static SCIMResourceSchemaManager getInstance() {
         return manager;
     }
@@ -40,37 +54,103 @@ public class SCIMResourceSchemaManager {
      * @return SCIMResourceTypeSchema
      */
     public SCIMResourceTypeSchema getUserResourceSchema() {
+        return getUserSchemaSnapshot().schema;
+    }
+
+    /*
+     * return the lookup index of the SCIM User Resource Schema
+     *
+     * @return
+     */
+    public AttributeSchemaIndex getUserResourceSchemaIndex() {
+        return getUserSchemaSnapshot().index;
+    }
+
+    /*
+     * return the lookup index for the given schema if it is one of the schemas handed out by this manager. Copies
+     * of those schemas may have been modified, so no index is returned for them.
+     *
+     * @param schema
+     * @return the index or null
+     */
+    public AttributeSchemaIndex getSchemaIndex(ResourceTypeSchema schema) {
+        if (schema == null) {
+            return null;
+        }
+        UserSchemaSnapshot snapshot = getUserSchemaSnapshot();
+        if (schema == snapshot.schema) {
+            return snapshot.index;
+        }
+        if (schema == SCIMSchemaDefinitions.SCIM_GROUP_SCHEMA) {
+            return groupSchemaIndex;
+        }
+        if (schema == SCIMSchemaDefinitions.SCIM_USER_SCHEMA) {
+            return coreUserSchemaIndex;
+        }
+        return null;
+    }
 
+    /*
+     * return the attribute schema of any level with the given URI from the user or the group schema handed out by
+     * this manager.
+     *
+     * @param attributeURI
+     * @return the schema or null
+     */
+    public AttributeSchema getAttributeSchemaByURI(String attributeURI) {
+        AttributeSchema attributeSchema = getUserSchemaSnapshot().index.getAttributeSchemaByURI(attributeURI);
+        return attributeSchema != null ? attributeSchema : groupSchemaIndex.getAttributeSchemaByURI(attributeURI);
+    }
 
+    /*
+     * return the current user schema snapshot. The snapshot is rebuilt and swapped whenever the extension schema
+     * of the SCIMUserSchemaExtensionBuilder is (re)built.
+     *
+     * @return
+     */
+    private UserSchemaSnapshot getUserSchemaSnapshot() {
         AttributeSchema schemaExtension = SCIMUserSchemaExtensionBuilder.getInstance().getExtensionSchema();
-        if (schemaExtension != null) {
-            return SCIMResourceTypeSchema.createSCIMResourceSchema(
-                    new ArrayList<String>(Arrays.asList(SCIMConstants.USER_CORE_SCHEMA_URI, schemaExtension.getURI())),
-                    SCIMSchemaDefinitions.ID, SCIMSchemaDefinitions.EXTERNAL_ID, SCIMSchemaDefinitions.META,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.USERNAME,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.NAME,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.DISPLAY_NAME,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.NICK_NAME,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PROFILE_URL,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.TITLE,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.USER_TYPE,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PREFERRED_LANGUAGE,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.LOCALE,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.TIME_ZONE,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ACTIVE,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PASSWORD,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAILS,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PHONE_NUMBERS,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.IMS,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PHOTOS,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ADDRESSES,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.GROUPS,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ENTITLEMENTS,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ROLES,
-                    SCIMSchemaDefinitions.SCIMUserSchemaDefinition.X509CERTIFICATES,
-                    schemaExtension);
+        UserSchemaSnapshot snapshot = userSchemaSnapshot.get();
+        while (snapshot == null || snapshot.extension != schemaExtension) {
+            UserSchemaSnapshot newSnapshot = buildUserSchemaSnapshot(schemaExtension);
+            if (userSchemaSnapshot.compareAndSet(snapshot, newSnapshot)) {
+                return newSnapshot;
+            }
+            snapshot = userSchemaSnapshot.get();
+        }
+        return snapshot;
+    }
+
+    private UserSchemaSnapshot buildUserSchemaSnapshot(AttributeSchema schemaExtension) {
+        if (schemaExtension == null) {
+            return new UserSchemaSnapshot(null, SCIMSchemaDefinitions.SCIM_USER_SCHEMA, coreUserSchemaIndex);
         }
-        return SCIMSchemaDefinitions.SCIM_USER_SCHEMA;
+        SCIMResourceTypeSchema schema = SCIMResourceTypeSchema.createSCIMResourceSchema(
+                new ArrayList<String>(Arrays.asList(SCIMConstants.USER_CORE_SCHEMA_URI, schemaExtension.getURI())),
+                SCIMSchemaDefinitions.ID, SCIMSchemaDefinitions.EXTERNAL_ID, SCIMSchemaDefinitions.META,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.USERNAME,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.NAME,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.DISPLAY_NAME,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.NICK_NAME,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PROFILE_URL,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.TITLE,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.USER_TYPE,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PREFERRED_LANGUAGE,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.LOCALE,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.TIME_ZONE,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ACTIVE,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PASSWORD,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAILS,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PHONE_NUMBERS,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.IMS,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.PHOTOS,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ADDRESSES,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.GROUPS,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ENTITLEMENTS,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.ROLES,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.X509CERTIFICATES,
+                schemaExtension);
+        return new UserSchemaSnapshot(schemaExtension, schema, new AttributeSchemaIndex(schema));
     }
 
     /*
@@ -149,4 +229,19 @@ public class SCIMResourceSchemaManager {
         return SCIMSchemaDefinitions.SCIM_RESOURCE_TYPE_SCHEMA;
     }
 
+    /**
+     * The user schema composed for one extension schema along with its lookup index.
+     */
+    private static class UserSchemaSnapshot {
+
+        private final AttributeSchema extension;
+        private final SCIMResourceTypeSchema schema;
+        private final AttributeSchemaIndex index;
+
+        UserSchemaSnapshot(AttributeSchema extension, SCIMResourceTypeSchema schema, AttributeSchemaIndex index) {
+            this.extension = extension;
+            this.schema = schema;
+            this.index = index;
+        }
+    }
 }
@@ -980,6 +980,33 @@ public class SCIMSchemaDefinitions {
                         SCIMDefinitions.Mutability.READ_ONLY, SCIMDefinitions.Returned.DEFAULT,
                         SCIMDefinitions.Uniqueness.NONE, null, null, null);
 
+        public static final SCIMAttributeSchema MAX_DEPTH =
+                SCIMAttributeSchema.createSCIMAttributeSchema(
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_DEPTH_URI,
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_DEPTH,
+                        SCIMDefinitions.DataType.INTEGER, false,
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_DEPTH_DESC, false, false,
+                        SCIMDefinitions.Mutability.READ_ONLY, SCIMDefinitions.Returned.DEFAULT,
+                        SCIMDefinitions.Uniqueness.NONE, null, null, null);
+
+        public static final SCIMAttributeSchema MAX_CLAUSES =
+                SCIMAttributeSchema.createSCIMAttributeSchema(
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_CLAUSES_URI,
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_CLAUSES,
+                        SCIMDefinitions.DataType.INTEGER, false,
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_CLAUSES_DESC, false, false,
+                        SCIMDefinitions.Mutability.READ_ONLY, SCIMDefinitions.Returned.DEFAULT,
+                        SCIMDefinitions.Uniqueness.NONE, null, null, null);
+
+        public static final SCIMAttributeSchema MAX_COST =
+                SCIMAttributeSchema.createSCIMAttributeSchema(
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_COST_URI,
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_COST,
+                        SCIMDefinitions.DataType.INTEGER, false,
+                        SCIMConstants.ServiceProviderConfigSchemaConstants.MAX_COST_DESC, false, false,
+                        SCIMDefinitions.Mutability.READ_ONLY, SCIMDefinitions.Returned.DEFAULT,
+                        SCIMDefinitions.Uniqueness.NONE, null, null, null);
+
 
         public static final SCIMAttributeSchema NAME =
                 SCIMAttributeSchema.createSCIMAttributeSchema(
@@ -1083,7 +1110,8 @@ public class SCIMSchemaDefinitions {
                         SCIMConstants.ServiceProviderConfigSchemaConstants.FILTERS_DESC, true, false,
                         SCIMDefinitions.Mutability.READ_ONLY, SCIMDefinitions.Returned.DEFAULT,
                         SCIMDefinitions.Uniqueness.NONE, null, null,
-                        new ArrayList<AttributeSchema>(Arrays.asList(FILTER_SUPPORTED, MAX_RESULTS)));
+                        new ArrayList<AttributeSchema>(Arrays.asList(FILTER_SUPPORTED, MAX_RESULTS, MAX_DEPTH,
+                                MAX_CLAUSES, MAX_COST)));
 
         public static final SCIMAttributeSchema CHANGE_PASSWORD =
                 SCIMAttributeSchema.createSCIMAttributeSchema(
@@ -16,6 +16,7 @@
 package org.wso2.charon3.core.schema;
 
 import org.wso2.charon3.core.attributes.SimpleAttribute;
+import org.wso2.charon3.core.config.CharonConfiguration;
 import org.wso2.charon3.core.exceptions.BadRequestException;
 import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.exceptions.NotFoundException;
@@ -26,6 +27,7 @@ import org.wso2.charon3.core.utils.AttributeUtil;
 
 import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Server Side Validator.
@@ -58,6 +60,8 @@ public class ServerSideValidator extends AbstractValidator {
         scimObject.setCreatedInstant(AttributeUtil.parseDateTime(AttributeUtil.formatDateTime(now)));
         //creates date and the last modified are the same if not updated.
         scimObject.setLastModifiedInstant(AttributeUtil.parseDateTime(AttributeUtil.formatDateTime(now)));
+        //set the first version
+        stampVersion(scimObject);
         //set location and resourceType
         if (resourceSchema.isSchemaAvailable(SCIMConstants.USER_CORE_SCHEMA_URI)) {
             String location = createLocationHeader(AbstractResourceManager.getResourceEndpointURL(
@@ -75,6 +79,41 @@ public class ServerSideValidator extends AbstractValidator {
         validateSchemaList(scimObject, resourceSchema);
     }
 
+    /*
+     * give the resource a new version if ETags are supported. The version is the last modified time of the resource
+     * in microseconds. A resource changed again within the same microsecond, or after the clock was turned back,
+     * gets the version following its previous one instead, so every change gives the resource a greater version.
+     * Versions are only compared for the same resource, hence neither the id nor other resources take part.
+     *
+     * @param scimObject - the resource, holding its previous version if it is updated
+     */
+    private static void stampVersion(AbstractSCIMObject scimObject) {
+        if (CharonConfiguration.getInstance().isETagSupported()) {
+            Instant lastModified = scimObject.getLastModifiedInstant();
+            long version = TimeUnit.SECONDS.toMicros(lastModified.getEpochSecond())
+                    + TimeUnit.NANOSECONDS.toMicros(lastModified.getNano());
+            version = Math.max(version, parseVersion(scimObject.getVersion()) + 1);
+            scimObject.replaceVersion("W/\"" + Long.toHexString(version) + "\"");
+        }
+    }
+
+    /*
+     * return the number of a version given by stampVersion, or -1 if the resource has no such version.
+     *
+     * @param version
+     * @return
+     */
+    private static long parseVersion(String version) {
+        if (version == null || version.length() < 5 || !version.startsWith("W/\"") || !version.endsWith("\"")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(version.substring(3, version.length() - 1), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /*
      * create location header from location and resourceID
      *
@@ -153,6 +192,8 @@ public class ServerSideValidator extends AbstractValidator {
         validatedObject.setAttribute(oldObject.getAttribute(SCIMConstants.CommonSchemaConstants.ID));
         //edit last modified date
         validatedObject.setLastModifiedInstant(Instant.now());
+        //every update gives a new version
+        stampVersion(validatedObject);
         //check for required attributes.
         validateSCIMObjectForRequiredAttributes(newObject, resourceSchema);
         //check for schema list
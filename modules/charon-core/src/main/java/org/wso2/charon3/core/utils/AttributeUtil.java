@@ -20,7 +20,9 @@ import org.wso2.charon3.core.exceptions.BadRequestException;
 import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.AttributeSchemaIndex;
 import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 
 import java.time.DateTimeException;
@@ -174,6 +176,14 @@ public class AttributeUtil {
     public static String getAttributeURI(String attributeName, SCIMResourceTypeSchema schema) throws
             BadRequestException {
 
+        // the schemas handed out by the schema manager come with a lookup table of all names, paths and URIs
+        AttributeSchemaIndex schemaIndex = SCIMResourceSchemaManager.getInstance().getSchemaIndex(schema);
+        if (schemaIndex != null) {
+            String attributeURI = schemaIndex.getAttributeURI(attributeName);
+            if (attributeURI != null) {
+                return attributeURI;
+            }
+        }
         Iterator<AttributeSchema> attributeSchemas = schema.getAttributesList().iterator();
         while (attributeSchemas.hasNext()) {
             AttributeSchema attributeSchema = attributeSchemas.next();
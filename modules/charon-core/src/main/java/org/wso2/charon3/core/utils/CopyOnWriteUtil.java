@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils;
+
+import org.json.JSONObject;
+import org.wso2.charon3.core.attributes.AbstractAttribute;
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.MultiValuedAttribute;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.utils.codeutils.PatchOperation;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Copy-on-write support for patching SCIM resources and for handing out resources that must not be modified.
+ * A patch works on a shallow copy of the resource that shares the attributes of the original. Before every
+ * operation {@link #prepareForOperation} replaces the attributes that operation (or the validation after it) may
+ * modify with private copies, so the previous version of the resource stays intact without copying the whole
+ * resource. Multi valued attributes which are not touched by an operation, e.g. the members of a large group, are
+ * never copied.
+ */
+public class CopyOnWriteUtil {
+
+    /*
+     * create a new resource of the same type, sharing the attributes of the given resource.
+     * @param scimObject
+     * @return
+     * @throws CharonException
+     */
+    public static AbstractSCIMObject shallowCopy(AbstractSCIMObject scimObject) throws CharonException {
+        AbstractSCIMObject newObject;
+        if (scimObject.getClass() == User.class) {
+            newObject = new User();
+        } else if (scimObject.getClass() == Group.class) {
+            newObject = new Group();
+        } else if (scimObject.getClass() == AbstractSCIMObject.class) {
+            newObject = new AbstractSCIMObject();
+        } else {
+            //we can not share the state of unknown resource types
+            return (AbstractSCIMObject) CopyUtil.deepCopy(scimObject);
+        }
+        //the attributes of a read only view are shared as they are, prepareForOperation copies them as needed
+        for (Map.Entry<String, Attribute> entry : sharedEntries(scimObject.getAttributeList())) {
+            newObject.getAttributeList().put(entry.getKey(), entry.getValue());
+        }
+        newObject.getSchemaList().addAll(scimObject.getSchemaList());
+        return newObject;
+    }
+
+    /*
+     * create a view of a resource that must not be modified, e.g. a resource held by a store. The view shares the
+     * attributes of the snapshot and copies an attribute the first time it is accessed, be it by its name or by
+     * iterating the attribute map of the view, so callers may modify every attribute they get from the view.
+     * @param snapshot
+     * @return
+     * @throws CharonException
+     */
+    public static AbstractSCIMObject readOnlyView(AbstractSCIMObject snapshot) throws CharonException {
+        AbstractSCIMObject view;
+        if (snapshot.getClass() == User.class) {
+            view = new User();
+        } else if (snapshot.getClass() == Group.class) {
+            view = new Group();
+        } else if (snapshot.getClass() == AbstractSCIMObject.class) {
+            view = new AbstractSCIMObject();
+        } else {
+            //we can not share the state of unknown resource types
+            return (AbstractSCIMObject) CopyUtil.deepCopy(snapshot);
+        }
+        view.setAttributeList(new CopyOnAccessAttributeMap(snapshot.getAttributeList()));
+        view.getSchemaList().addAll(snapshot.getSchemaList());
+        return view;
+    }
+
+    /*
+     * the entries of an attribute map, without copying the attributes of a read only view. Only for callers which
+     * do not modify the attributes, or copy them anyway.
+     * @param attributes
+     * @return
+     */
+    static Set<Map.Entry<String, Attribute>> sharedEntries(Map<String, Attribute> attributes) {
+        return attributes instanceof CopyOnAccessAttributeMap ? ((CopyOnAccessAttributeMap) attributes).sharedEntrySet()
+                : attributes.entrySet();
+    }
+
+    /*
+     * give the resource private copies of all attributes the given operation may modify. Must be called on a
+     * resource obtained from shallowCopy before the operation is applied to it.
+     * @param scimObject
+     * @param operation
+     * @param schema
+     * @throws CharonException
+     */
+    public static void prepareForOperation(AbstractSCIMObject scimObject, PatchOperation operation,
+                                           SCIMResourceTypeSchema schema) throws CharonException {
+
+        Map<String, Boolean> touchedAttributes = getTouchedAttributes(operation, schema);
+        Map<String, Attribute> attributeList = scimObject.getAttributeList();
+
+        for (Map.Entry<String, Attribute> entry : attributeList.entrySet()) {
+            Attribute attribute = entry.getValue();
+            if (attribute == null) {
+                continue;
+            }
+            Boolean copyWholeAttribute = touchedAttributes == null ? Boolean.TRUE :
+                    touchedAttributes.get(entry.getKey().toLowerCase(Locale.ENGLISH));
+
+            if (!(attribute instanceof MultiValuedAttribute) || Boolean.TRUE.equals(copyWholeAttribute) ||
+                    isModifiedOnValidation(scimObject, attribute, schema)) {
+                //single valued attributes are small and may be modified by the validation, always copy them
+                entry.setValue((Attribute) CopyUtil.deepCopy(attribute));
+            } else if (copyWholeAttribute != null) {
+                //the operation only adds, removes or replaces values of this attribute as a whole
+                entry.setValue(copyValueList((MultiValuedAttribute) attribute));
+            }
+        }
+    }
+
+    /*
+     * return the names (in lower case) of the top level attributes the given operation refers to, mapped to
+     * whether the values of the attribute may be modified in place. Null is returned if that can not be told.
+     * @param operation
+     * @param schema
+     * @return
+     */
+    static Map<String, Boolean> getTouchedAttributes(PatchOperation operation, SCIMResourceTypeSchema schema) {
+        Map<String, Boolean> touchedAttributes = new HashMap<>();
+        String path = operation.getPath();
+
+        if (path != null && !SCIMConstants.OperationalConstants.ADD.equals(operation.getOperation())) {
+            if (path.contains(":")) {
+                return null;
+            }
+            String[] parts = path.split("[\\[\\]]");
+            String attributeName = parts[0].split("\\.")[0];
+            //sub attribute paths modify the values of the attribute, so do filters except for removing values
+            boolean subAttributePath = parts[0].contains(".") || (parts.length > 2 && !parts[2].isEmpty());
+            boolean inPlace = subAttributePath || (path.contains("[") &&
+                    !SCIMConstants.OperationalConstants.REMOVE.equals(operation.getOperation()));
+            touchedAttributes.put(attributeName.toLowerCase(Locale.ENGLISH), inPlace);
+            return touchedAttributes;
+        }
+        //operations without a path, and add operations, carry the attributes in the value
+        if (!(operation.getValues() instanceof JSONObject)) {
+            return null;
+        }
+        Iterator<String> keys = ((JSONObject) operation.getValues()).keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (SCIMConstants.CommonSchemaConstants.SCHEMAS.equals(key)) {
+                continue;
+            }
+            AttributeSchema attributeSchema = getTopLevelAttributeSchema(key, schema);
+            if (attributeSchema == null) {
+                return null;
+            }
+            touchedAttributes.put(attributeSchema.getName().toLowerCase(Locale.ENGLISH), false);
+        }
+        return touchedAttributes;
+    }
+
+    private static AttributeSchema getTopLevelAttributeSchema(String nameOrURI, SCIMResourceTypeSchema schema) {
+        for (AttributeSchema attributeSchema : schema.getAttributesList()) {
+            if (attributeSchema.getName().equalsIgnoreCase(nameOrURI) || nameOrURI.equals(attributeSchema.getURI())) {
+                return attributeSchema;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * the validation of an updated user sets the display sub attribute of complex multi valued attributes
+     * @param scimObject
+     * @param attribute
+     * @param schema
+     * @return
+     */
+    private static boolean isModifiedOnValidation(AbstractSCIMObject scimObject, Attribute attribute,
+                                                  SCIMResourceTypeSchema schema) {
+        if (!(scimObject instanceof User) || !SCIMDefinitions.DataType.COMPLEX.equals(attribute.getType())) {
+            return false;
+        }
+        AttributeSchema attributeSchema = getTopLevelAttributeSchema(attribute.getName(), schema);
+        return attributeSchema == null ||
+                attributeSchema.getSubAttributeSchema(SCIMConstants.CommonSchemaConstants.DISPLAY) != null;
+    }
+
+    /*
+     * copy the value lists of a multi valued attribute, but share the values themselves.
+     * @param attribute
+     * @return
+     * @throws CharonException
+     */
+    private static Attribute copyValueList(MultiValuedAttribute attribute) throws CharonException {
+        if (attribute.getClass() != MultiValuedAttribute.class) {
+            return (Attribute) CopyUtil.deepCopy(attribute);
+        }
+        MultiValuedAttribute newAttribute = new MultiValuedAttribute();
+        CopyUtil.copyAttributeMetadata((AbstractAttribute) attribute, newAttribute);
+        if (attribute.getAttributeValues() != null) {
+            newAttribute.setAttributeValues(new ArrayList<>(attribute.getAttributeValues()));
+        }
+        if (attribute.getAttributePrimitiveValues() != null) {
+            newAttribute.setAttributePrimitiveValues(new ArrayList<>(attribute.getAttributePrimitiveValues()));
+        }
+        return newAttribute;
+    }
+
+    /**
+     * Attribute map of a read only view. The attributes of the snapshot are copied when they are accessed for the
+     * first time, by their name or through the views and bulk operations of the map; attributes that are put into
+     * the map or removed from it are no longer shared.
+     */
+    private static class CopyOnAccessAttributeMap extends HashMap<String, Attribute> {
+
+        private static final long serialVersionUID = -3236148025627423372L;
+        //names of the attributes that are still shared with the snapshot
+        private transient Set<String> sharedAttributes;
+
+        CopyOnAccessAttributeMap(Map<String, Attribute> snapshotAttributes) {
+            super(snapshotAttributes);
+            this.sharedAttributes = new HashSet<>(snapshotAttributes.keySet());
+        }
+
+        @Override
+        public Attribute get(Object key) {
+            Attribute attribute = super.get(key);
+            if (attribute != null && sharedAttributes != null && sharedAttributes.remove(key)) {
+                try {
+                    attribute = (Attribute) CopyUtil.deepCopy(attribute);
+                } catch (CharonException e) {
+                    throw new IllegalStateException("Error in copying the attribute " + key, e);
+                }
+                //replacing the value of a key is no structural modification, so iterations over the map go on
+                super.put((String) key, attribute);
+            }
+            return attribute;
+        }
+
+        @Override
+        public Attribute getOrDefault(Object key, Attribute defaultValue) {
+            return containsKey(key) ? get(key) : defaultValue;
+        }
+
+        @Override
+        public Attribute put(String key, Attribute value) {
+            unshare(key);
+            return super.put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends Attribute> attributes) {
+            for (Map.Entry<? extends String, ? extends Attribute> entry : attributes.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public Attribute putIfAbsent(String key, Attribute value) {
+            Attribute attribute = get(key);
+            return attribute != null ? attribute : put(key, value);
+        }
+
+        @Override
+        public Attribute remove(Object key) {
+            unshare(key);
+            return super.remove(key);
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            get(key);
+            return super.remove(key, value);
+        }
+
+        @Override
+        public Attribute replace(String key, Attribute value) {
+            return containsKey(key) ? put(key, value) : null;
+        }
+
+        @Override
+        public boolean replace(String key, Attribute oldValue, Attribute newValue) {
+            get(key);
+            return super.replace(key, oldValue, newValue);
+        }
+
+        @Override
+        public Attribute computeIfAbsent(String key, Function<? super String, ? extends Attribute> mappingFunction) {
+            get(key);
+            return super.computeIfAbsent(key, mappingFunction);
+        }
+
+        @Override
+        public Attribute computeIfPresent(String key,
+                                          BiFunction<? super String, ? super Attribute, ? extends Attribute>
+                                                  remappingFunction) {
+            get(key);
+            return super.computeIfPresent(key, remappingFunction);
+        }
+
+        @Override
+        public Attribute compute(String key,
+                                 BiFunction<? super String, ? super Attribute, ? extends Attribute> remappingFunction) {
+            get(key);
+            return super.compute(key, remappingFunction);
+        }
+
+        @Override
+        public Attribute merge(String key, Attribute value,
+                               BiFunction<? super Attribute, ? super Attribute, ? extends Attribute>
+                                       remappingFunction) {
+            get(key);
+            return super.merge(key, value, remappingFunction);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super String, ? super Attribute> action) {
+            for (String key : keySet()) {
+                action.accept(key, get(key));
+            }
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super String, ? super Attribute, ? extends Attribute> function) {
+            for (String key : keySet()) {
+                get(key);
+            }
+            super.replaceAll(function);
+        }
+
+        @Override
+        public Collection<Attribute> values() {
+            return new AbstractCollection<Attribute>() {
+                @Override
+                public Iterator<Attribute> iterator() {
+                    Iterator<Map.Entry<String, Attribute>> entries = entrySet().iterator();
+                    return new Iterator<Attribute>() {
+                        @Override
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        @Override
+                        public Attribute next() {
+                            return entries.next().getValue();
+                        }
+
+                        @Override
+                        public void remove() {
+                            entries.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return CopyOnAccessAttributeMap.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Set<Map.Entry<String, Attribute>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Attribute>>() {
+                @Override
+                public Iterator<Map.Entry<String, Attribute>> iterator() {
+                    Iterator<String> keys = keySet().iterator();
+                    return new Iterator<Map.Entry<String, Attribute>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return keys.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Attribute> next() {
+                            return new CopyOnAccessEntry(keys.next());
+                        }
+
+                        @Override
+                        public void remove() {
+                            keys.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return CopyOnAccessAttributeMap.this.size();
+                }
+            };
+        }
+
+        @Override
+        public void clear() {
+            sharedAttributes = null;
+            super.clear();
+        }
+
+        Set<Map.Entry<String, Attribute>> sharedEntrySet() {
+            return super.entrySet();
+        }
+
+        private void unshare(Object key) {
+            if (sharedAttributes != null) {
+                sharedAttributes.remove(key);
+            }
+        }
+
+        /**
+         * Entry of the map that copies the attribute when its value is read.
+         */
+        private class CopyOnAccessEntry implements Map.Entry<String, Attribute> {
+
+            private final String key;
+
+            CopyOnAccessEntry(String key) {
+                this.key = key;
+            }
+
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @Override
+            public Attribute getValue() {
+                return get(key);
+            }
+
+            @Override
+            public Attribute setValue(Attribute value) {
+                return put(key, value);
+            }
+
+            @Override
+            public boolean equals(Object object) {
+                if (!(object instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+                return Objects.equals(key, entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+            }
+
+            @Override
+            public String toString() {
+                return key + "=" + getValue();
+            }
+        }
+    }
+}
@@ -17,24 +17,278 @@ package org.wso2.charon3.core.utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wso2.charon3.core.attributes.AbstractAttribute;
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.ComplexAttribute;
+import org.wso2.charon3.core.attributes.GroupMembersAttribute;
+import org.wso2.charon3.core.attributes.MultiValuedAttribute;
+import org.wso2.charon3.core.attributes.SimpleAttribute;
 import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMAttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * This is to create a deep copy of the object using java serialization.
- * SCIMObject instances have complex object graphs and hard to deep copy by
- * overriding clone method. Hence, using serialization to do the deep copy.
+ * This is to create a deep copy of SCIM objects, attributes and schemas.
+ * The known parts of the model (resources, the attribute tree and the attribute schemas) are copied by walking the
+ * structure directly. Anything else falls back to a java serialization round trip, which used to be the only way
+ * of copying here and is considerably more expensive.
  */
 public class CopyUtil {
 
     private static final Logger log = LoggerFactory.getLogger(CopyUtil.class);
 
     public static Object deepCopy(Object oldObject) throws CharonException {
+        if (oldObject == null) {
+            return null;
+        }
+        return copyObject(oldObject, new IdentityHashMap<>());
+    }
+
+    /*
+     * dispatch the copy according to the type of the given object
+     * @param oldObject
+     * @param copiedSchemas schemas that are already copied within this call, so shared references stay shared
+     * @return
+     */
+    private static Object copyObject(Object oldObject, Map<Object, Object> copiedSchemas) {
+        if (oldObject instanceof Attribute) {
+            return copyAttribute((Attribute) oldObject);
+        } else if (oldObject instanceof AbstractSCIMObject) {
+            return copySCIMObject((AbstractSCIMObject) oldObject);
+        } else if (oldObject instanceof AttributeSchema) {
+            return copyAttributeSchema((AttributeSchema) oldObject, copiedSchemas);
+        } else if (oldObject instanceof SCIMResourceTypeSchema) {
+            return copyResourceTypeSchema((SCIMResourceTypeSchema) oldObject, copiedSchemas);
+        } else if (oldObject.getClass() == ArrayList.class) {
+            List<?> oldList = (List<?>) oldObject;
+            List<Object> newList = new ArrayList<>(oldList.size());
+            for (Object element : oldList) {
+                newList.add(element == null ? null : copyObject(element, copiedSchemas));
+            }
+            return newList;
+        } else if (isImmutableValue(oldObject)) {
+            return oldObject;
+        } else if (oldObject instanceof Date) {
+            return new Date(((Date) oldObject).getTime());
+        }
+        return serializationCopy(oldObject);
+    }
+
+    /*
+     * copy a single attribute along with all of its sub attributes and values
+     * @param oldAttribute
+     * @return
+     */
+    private static Attribute copyAttribute(Attribute oldAttribute) {
+        Class<?> attributeClass = oldAttribute.getClass();
+        AbstractAttribute newAttribute;
+        if (attributeClass == SimpleAttribute.class) {
+            SimpleAttribute oldSimpleAttribute = (SimpleAttribute) oldAttribute;
+            newAttribute = new SimpleAttribute(oldSimpleAttribute.getName(),
+                    copyValue(oldSimpleAttribute.getValue()));
+        } else if (attributeClass == ComplexAttribute.class) {
+            ComplexAttribute complexAttribute = new ComplexAttribute();
+            complexAttribute.setSubAttributesList(
+                    copyAttributeMap(((ComplexAttribute) oldAttribute).getSubAttributesList()));
+            newAttribute = complexAttribute;
+        } else if (attributeClass == MultiValuedAttribute.class || attributeClass == GroupMembersAttribute.class) {
+            MultiValuedAttribute oldMultiValuedAttribute = (MultiValuedAttribute) oldAttribute;
+            if (attributeClass == GroupMembersAttribute.class ||
+                    SCIMConstants.GroupSchemaConstants.MEMBERS_URI.equals(oldAttribute.getURI())) {
+                //the members of a group are copied into the compact form, unless they do not fit into it
+                GroupMembersAttribute membersAttribute = GroupMembersAttribute.compact(oldMultiValuedAttribute);
+                if (membersAttribute != null) {
+                    return membersAttribute;
+                }
+            }
+            MultiValuedAttribute multiValuedAttribute = attributeClass == GroupMembersAttribute.class ?
+                    new GroupMembersAttribute() : new MultiValuedAttribute();
+            multiValuedAttribute.setAttributeValues(copyAttributeValues(oldMultiValuedAttribute.getAttributeValues()));
+            multiValuedAttribute.setAttributePrimitiveValues(
+                    copyPrimitiveValues(oldMultiValuedAttribute.getAttributePrimitiveValues()));
+            newAttribute = multiValuedAttribute;
+        } else {
+            //custom attribute implementations are unknown to us, so let serialization handle them
+            return (Attribute) serializationCopy(oldAttribute);
+        }
+        copyAttributeMetadata((AbstractAttribute) oldAttribute, newAttribute);
+        return newAttribute;
+    }
+
+    /*
+     * copy the schema related properties from one attribute to another. The referenced attribute schema is never
+     * modified through an attribute, so the copy can share it.
+     * @param source
+     * @param target
+     */
+    static void copyAttributeMetadata(AbstractAttribute source, AbstractAttribute target) {
+        target.setName(source.getName());
+        target.setAttributeSchema(source.getAttributeSchema());
+    }
+
+    /*
+     * copy a SCIM resource. Only the resource types of charon itself are copied structurally since a subclass may
+     * carry additional state we do not know about.
+     * @param oldObject
+     * @return
+     */
+    private static Object copySCIMObject(AbstractSCIMObject oldObject) {
+        Class<?> objectClass = oldObject.getClass();
+        AbstractSCIMObject newObject;
+        if (objectClass == User.class) {
+            newObject = new User();
+        } else if (objectClass == Group.class) {
+            newObject = new Group();
+        } else if (objectClass == AbstractSCIMObject.class) {
+            newObject = new AbstractSCIMObject();
+        } else {
+            return serializationCopy(oldObject);
+        }
+        newObject.getAttributeList().putAll(copyAttributeMap(oldObject.getAttributeList()));
+        newObject.getSchemaList().addAll(oldObject.getSchemaList());
+        return newObject;
+    }
+
+    private static Map<String, Attribute> copyAttributeMap(Map<String, Attribute> oldAttributes) {
+        if (oldAttributes == null) {
+            return null;
+        }
+        Map<String, Attribute> newAttributes = oldAttributes instanceof LinkedHashMap ?
+                new LinkedHashMap<>(oldAttributes.size() * 2) : new HashMap<>(oldAttributes.size() * 2);
+        //a read only view would copy its attributes when they are accessed, they are copied here anyway
+        for (Map.Entry<String, Attribute> entry : CopyOnWriteUtil.sharedEntries(oldAttributes)) {
+            Attribute value = entry.getValue();
+            newAttributes.put(entry.getKey(), value == null ? null : copyAttribute(value));
+        }
+        return newAttributes;
+    }
+
+    private static List<Attribute> copyAttributeValues(List<Attribute> oldValues) {
+        if (oldValues == null) {
+            return null;
+        }
+        List<Attribute> newValues = new ArrayList<>(oldValues.size());
+        for (Attribute value : oldValues) {
+            newValues.add(value == null ? null : copyAttribute(value));
+        }
+        return newValues;
+    }
+
+    private static List<Object> copyPrimitiveValues(List<Object> oldValues) {
+        if (oldValues == null) {
+            return null;
+        }
+        List<Object> newValues = new ArrayList<>(oldValues.size());
+        for (Object value : oldValues) {
+            newValues.add(copyValue(value));
+        }
+        return newValues;
+    }
+
+    /*
+     * copy the value of a simple attribute or a primitive value of a multi valued attribute
+     * @param value
+     * @return
+     */
+    private static Object copyValue(Object value) {
+        if (value == null || isImmutableValue(value)) {
+            return value;
+        } else if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return serializationCopy(value);
+    }
+
+    private static boolean isImmutableValue(Object value) {
+        return value instanceof String || value instanceof Boolean || value instanceof Integer
+                || value instanceof Long || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte || value instanceof Character
+                || value instanceof BigDecimal || value instanceof BigInteger || value instanceof Instant
+                || value instanceof Enum;
+    }
+
+    /*
+     * copy an attribute schema along with its sub attribute schemas
+     * @param oldSchema
+     * @param copiedSchemas
+     * @return
+     */
+    private static AttributeSchema copyAttributeSchema(AttributeSchema oldSchema, Map<Object, Object> copiedSchemas) {
+        Object alreadyCopied = copiedSchemas.get(oldSchema);
+        if (alreadyCopied != null) {
+            return (AttributeSchema) alreadyCopied;
+        }
+        if (oldSchema.getClass() != SCIMAttributeSchema.class) {
+            AttributeSchema newSchema = (AttributeSchema) serializationCopy(oldSchema);
+            copiedSchemas.put(oldSchema, newSchema);
+            return newSchema;
+        }
+        SCIMAttributeSchema source = (SCIMAttributeSchema) oldSchema;
+        SCIMAttributeSchema newSchema = SCIMAttributeSchema.createSCIMAttributeSchema(source.getURI(),
+                source.getName(), source.getType(), source.getMultiValued(), source.getDescription(),
+                source.getRequired(), source.getCaseExact(), source.getMutability(), source.getReturned(),
+                source.getUniqueness(),
+                source.getCanonicalValues() == null ? null : new ArrayList<>(source.getCanonicalValues()),
+                source.getReferenceTypes() == null ? null : new ArrayList<>(source.getReferenceTypes()),
+                null);
+        copiedSchemas.put(oldSchema, newSchema);
+        List<AttributeSchema> oldSubAttributes = source.getSubAttributeSchemas();
+        if (oldSubAttributes != null) {
+            ArrayList<AttributeSchema> newSubAttributes = new ArrayList<>(oldSubAttributes.size());
+            for (AttributeSchema subAttribute : oldSubAttributes) {
+                newSubAttributes.add(subAttribute == null ? null : copyAttributeSchema(subAttribute, copiedSchemas));
+            }
+            newSchema.setSubAttributes(newSubAttributes);
+        }
+        return newSchema;
+    }
+
+    private static SCIMResourceTypeSchema copyResourceTypeSchema(SCIMResourceTypeSchema oldSchema,
+                                                                 Map<Object, Object> copiedSchemas) {
+        List<String> schemas = oldSchema.getSchemasList() == null ? null :
+                new ArrayList<>(oldSchema.getSchemasList());
+        SCIMResourceTypeSchema newSchema = SCIMResourceTypeSchema.createSCIMResourceSchema(schemas);
+        ArrayList<AttributeSchema> oldAttributes = oldSchema.getAttributesList();
+        if (oldAttributes == null) {
+            newSchema.setAttributeList(null);
+        } else {
+            for (AttributeSchema attributeSchema : oldAttributes) {
+                newSchema.getAttributesList().add(attributeSchema == null ? null :
+                        copyAttributeSchema(attributeSchema, copiedSchemas));
+            }
+        }
+        return newSchema;
+    }
+
+    /*
+     * create a deep copy of the object using java serialization. Used for types the structural copy does not know.
+     * @param oldObject
+     * @return
+     */
+    private static Object serializationCopy(Object oldObject) {
         ObjectOutputStream objOutPutStream;
         ObjectInputStream objInputStream;
         Object newObject = null;
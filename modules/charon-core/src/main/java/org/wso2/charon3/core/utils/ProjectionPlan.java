@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of applying the 'attributes' and 'excludedAttributes' parameters to a resource type schema.
+ * A plan is compiled once by {@link ResourceManagerUtil} and shared between requests with the same parameters,
+ * hence the plan must not be modified.
+ * <p>
+ * The plan only holds the URIs of the attributes handed to the user manager. The returned resource is projected by
+ * the server side validator, which already walks the returned characteristic of every attribute of the resource, so
+ * a precompiled attribute tree would not be consumed by the encoder or the validator and is not kept.
+ */
+public class ProjectionPlan {
+
+    //URIs of the attributes to be retrieved, mapped to whether their parent is multi valued
+    private final Map<String, Boolean> requiredAttributeURIs;
+
+    ProjectionPlan(Map<String, Boolean> requiredAttributeURIs) {
+        this.requiredAttributeURIs = Collections.unmodifiableMap(requiredAttributeURIs);
+    }
+
+    public Map<String, Boolean> getRequiredAttributeURIs() {
+        return requiredAttributeURIs;
+    }
+}
@@ -19,20 +19,40 @@ package org.wso2.charon3.core.utils;
 import org.wso2.charon3.core.config.CharonConfiguration;
 import org.wso2.charon3.core.exceptions.BadRequestException;
 import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.extensions.UserManager;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.schema.AttributeSchema;
 import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.utils.codeutils.FilterCost;
+import org.wso2.charon3.core.utils.codeutils.Node;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+
 /**
  * This class will act as a support class for endpoints.
  */
 public class ResourceManagerUtil {
 
+    //maximum number of projection plans kept in the cache
+    private static final int PROJECTION_PLAN_CACHE_SIZE = 256;
+
+    private static final Map<ProjectionPlanKey, ProjectionPlan> PROJECTION_PLANS = Collections.synchronizedMap(
+            new LinkedHashMap<ProjectionPlanKey, ProjectionPlan>(PROJECTION_PLAN_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ProjectionPlanKey, ProjectionPlan> eldest) {
+                    return size() > PROJECTION_PLAN_CACHE_SIZE;
+                }
+            });
+
     /*
      * this method is to get the uri list of the attributes which need to retrieved from the databases.
      * Note that we should consider the 'attributes' and 'excludedAttributes' parameters for this process.
@@ -47,6 +67,50 @@ public class ResourceManagerUtil {
                                                                      String requestedAttributes,
                                                                      String requestedExcludingAttributes)
             throws CharonException {
+        return new HashMap<>(getProjectionPlan(schema, requestedAttributes, requestedExcludingAttributes)
+                .getRequiredAttributeURIs());
+    }
+
+    /*
+     * return the projection plan for the given 'attributes' and 'excludedAttributes' parameters. Plans of the
+     * schemas handed out by the SCIMResourceSchemaManager are cached, so a repeated combination of parameters does
+     * not copy the schema again.
+     *
+     * @param schema
+     * @param requestedAttributes
+     * @param requestedExcludingAttributes
+     * @return
+     * @throws CharonException
+     */
+    public static ProjectionPlan getProjectionPlan(SCIMResourceTypeSchema schema,
+                                                   String requestedAttributes,
+                                                   String requestedExcludingAttributes)
+            throws CharonException {
+
+        if (SCIMResourceSchemaManager.getInstance().getSchemaIndex(schema) == null) {
+            //the schema may be a modified copy, do not cache anything for it
+            return compileProjectionPlan(schema, requestedAttributes, requestedExcludingAttributes);
+        }
+        ProjectionPlanKey key = new ProjectionPlanKey(schema, requestedAttributes, requestedExcludingAttributes);
+        ProjectionPlan projectionPlan = PROJECTION_PLANS.get(key);
+        if (projectionPlan == null) {
+            projectionPlan = compileProjectionPlan(schema, requestedAttributes, requestedExcludingAttributes);
+            PROJECTION_PLANS.put(key, projectionPlan);
+        }
+        return projectionPlan;
+    }
+
+    /*
+     * remove all projection plans from the cache.
+     */
+    public static void clearProjectionPlans() {
+        PROJECTION_PLANS.clear();
+    }
+
+    private static ProjectionPlan compileProjectionPlan(SCIMResourceTypeSchema schema,
+                                                        String requestedAttributes,
+                                                        String requestedExcludingAttributes)
+            throws CharonException {
 
         ArrayList<AttributeSchema> attributeSchemaArrayList = (ArrayList<AttributeSchema>)
                 CopyUtil.deepCopy(schema.getAttributesList());
@@ -104,7 +168,7 @@ public class ResourceManagerUtil {
                     requestedAttributes, requestedExcludingAttributes,
                     requestedAttributesList, requestedExcludingAttributesList);
         }
-        return convertSchemasToURIs(attributeSchemaArrayList);
+        return new ProjectionPlan(convertSchemasToURIs(attributeSchemaArrayList));
     }
 
     /*
@@ -376,20 +440,70 @@ public class ResourceManagerUtil {
      */
     private static void removeAttributesFromList(List<AttributeSchema> attributeSchemaList, String attributeName)
             throws CharonException {
-        List<AttributeSchema> tempList = (List<AttributeSchema>) CopyUtil.deepCopy(attributeSchemaList);
-        int count = 0;
-        for (AttributeSchema attributeSchema : tempList) {
-            if (attributeSchema.getName().equals(attributeName)) {
-                attributeSchemaList.remove(count);
-            }
-            count++;
-        }
+        attributeSchemaList.removeIf(attributeSchema -> attributeSchema.getName().equals(attributeName));
     }
 
     public static Map<String, Boolean> getAllAttributeURIs(SCIMResourceTypeSchema schema) throws CharonException {
         return getOnlyRequiredAttributesURIs(schema, null, null);
     }
 
+    /*
+     * reject filters exceeding the limits set with CharonConfiguration#setFilterLimits. FilterTreeManager already
+     * stops parsing filters that are nested too deep or have too many expressions, so this mostly guards the cost
+     * and trees that were not built by the parser.
+     *
+     * @param node        the root of the filter tree, may be null
+     * @param userManager the user manager that will evaluate the filter
+     * @throws BadRequestException with the tooMany error type
+     */
+    public static void checkFilterLimits(Node node, UserManager userManager) throws BadRequestException {
+
+        CharonConfiguration configuration = CharonConfiguration.getInstance();
+        int maxDepth = configuration.getMaxFilterDepth();
+        int maxClauses = configuration.getMaxFilterClauses();
+        int maxCost = configuration.getMaxFilterCost();
+        if (node == null || (maxDepth <= 0 && maxClauses <= 0 && maxCost <= 0)) {
+            return;
+        }
+        FilterCost filterCost = FilterCost.estimate(node, userManager.getIndexedAttributes());
+        if (maxDepth > 0 && filterCost.getDepth() > maxDepth) {
+            throw new BadRequestException("The filter is nested deeper than the allowed " + maxDepth + " levels.",
+                    ResponseCodeConstants.TOO_MANY);
+        }
+        if (maxClauses > 0 && filterCost.getClauses() > maxClauses) {
+            throw new BadRequestException("The filter has more than the allowed " + maxClauses + " expressions.",
+                    ResponseCodeConstants.TOO_MANY);
+        }
+        if (maxCost > 0 && filterCost.getCost() > maxCost) {
+            throw new BadRequestException("The filter is too expensive to evaluate, its estimated cost "
+                    + filterCost.getCost() + " exceeds the allowed " + maxCost + ".", ResponseCodeConstants.TOO_MANY);
+        }
+    }
+
+    /*
+     * check whether an If-Match or If-None-Match header matches the version of a resource. The entity tags are
+     * compared weakly, so W/"1" matches "1", and "*" matches any existing resource.
+     *
+     * @param header  the value of the header, a comma separated list of entity tags
+     * @param version the version of the resource, null if it has none
+     * @return true if one of the entity tags matches
+     */
+    public static boolean matchesETag(String header, String version) {
+
+        String versionTag = version == null ? null : weakTag(version);
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || (versionTag != null && weakTag(tag).equals(versionTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weakTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
     /**
      * Process count value according to SCIM 2.0 specification
      *
@@ -482,4 +596,39 @@ public class ResourceManagerUtil {
 
         return startIndex;
     }
+
+    /**
+     * Cache key of a projection plan. Schemas are compared by reference, a rebuilt schema (e.g. after the user
+     * schema extension is reloaded) is a new version and gets its own plans.
+     */
+    private static class ProjectionPlanKey {
+
+        private final SCIMResourceTypeSchema schema;
+        private final String attributes;
+        private final String excludedAttributes;
+
+        ProjectionPlanKey(SCIMResourceTypeSchema schema, String attributes, String excludedAttributes) {
+            this.schema = schema;
+            this.attributes = attributes;
+            this.excludedAttributes = excludedAttributes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ProjectionPlanKey)) {
+                return false;
+            }
+            ProjectionPlanKey that = (ProjectionPlanKey) o;
+            return schema == that.schema && Objects.equals(attributes, that.attributes)
+                    && Objects.equals(excludedAttributes, that.excludedAttributes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(schema), attributes, excludedAttributes);
+        }
+    }
 }
@@ -19,8 +19,10 @@
 package org.wso2.charon3.core.utils;
 
 import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.AttributeSchemaIndex;
 import org.wso2.charon3.core.schema.ResourceTypeSchema;
 import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 
 import java.util.List;
@@ -40,6 +42,10 @@ public class SchemaUtil {
 
         ResourceTypeSchema resourceSchema = scimObjectType;
 
+        AttributeSchemaIndex schemaIndex = SCIMResourceSchemaManager.getInstance().getSchemaIndex(resourceSchema);
+        if (schemaIndex != null) {
+            return schemaIndex.getAttributeSchemaByPath(attributeFullName);
+        }
         if (resourceSchema != null) {
             List<AttributeSchema> attributeSchemas = resourceSchema.getAttributesList();
             for (AttributeSchema attributeSchema : attributeSchemas) {
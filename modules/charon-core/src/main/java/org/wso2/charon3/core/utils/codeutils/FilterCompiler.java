@@ -0,0 +1,660 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.ComplexAttribute;
+import org.wso2.charon3.core.attributes.GroupMembersAttribute;
+import org.wso2.charon3.core.attributes.MultiValuedAttribute;
+import org.wso2.charon3.core.attributes.SimpleAttribute;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.utils.AttributeUtil;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Compiles a filter tree built by the FilterTreeManager into a predicate that can be evaluated against resources held
+ * in memory, e.g. by a user manager that does not delegate filtering to a database.
+ * <p>
+ * The attribute paths are resolved against the schema and the filter values are converted to the data type of the
+ * attribute once, when compiling. Evaluating the predicate does not allocate. String comparisons respect the
+ * caseExact characteristic of the attribute, numbers are compared exactly and binary values by their base64
+ * encoding. A filter on a multi-valued attribute matches if any of its values matches, "ne" matches if none of the
+ * values is equal. A filter on a multi-valued complex attribute without a sub attribute, e.g. emails co
+ * "example.com", is applied to its "value" sub attribute. The filter of a value path is evaluated once per value,
+ * so emails[type eq "work" and value co "example.com"] only matches if one email is both.
+ */
+public class FilterCompiler {
+
+    private FilterCompiler() {
+    }
+
+    /*
+     * compile the filter tree into a predicate. A null tree matches every resource.
+     *
+     * @param node   the root of the filter tree
+     * @param schema the schema the filter was built with
+     * @return
+     * @throws BadRequestException if the filter uses an unknown attribute, or an operator or value that does not
+     *                             fit the data type of the attribute
+     */
+    public static Predicate<AbstractSCIMObject> compile(Node node, SCIMResourceTypeSchema schema)
+            throws BadRequestException {
+
+        if (node == null) {
+            return scimObject -> true;
+        }
+        return compile(node, leaf -> {
+            if (leaf instanceof ValuePathNode) {
+                return compileValuePath((ValuePathNode) leaf, schema);
+            }
+            return compileExpression((ExpressionNode) leaf, schema)::test;
+        });
+    }
+
+    /*
+     * compile the logical operations of the tree, the leaves, i.e. the expressions and value paths, are compiled by
+     * the given leaf compiler.
+     */
+    private static <T> Predicate<T> compile(Node node, LeafCompiler<T> leafCompiler) throws BadRequestException {
+
+        if (node instanceof ExpressionNode || node instanceof ValuePathNode) {
+            return leafCompiler.compile(node);
+        }
+        String operation = ((OperationNode) node).getOperation();
+        if (SCIMConstants.OperationalConstants.NOT.equalsIgnoreCase(operation)) {
+            return compile(node.getRightNode(), leafCompiler).negate();
+        }
+        if (node instanceof NaryOperationNode) {
+            return compileOperands(operation, ((NaryOperationNode) node).getOperands(), leafCompiler);
+        }
+        Predicate<T> left = compile(node.getLeftNode(), leafCompiler);
+        Predicate<T> right = compile(node.getRightNode(), leafCompiler);
+        if (SCIMConstants.OperationalConstants.AND.equalsIgnoreCase(operation)) {
+            return scimObject -> left.test(scimObject) && right.test(scimObject);
+        } else if (SCIMConstants.OperationalConstants.OR.equalsIgnoreCase(operation)) {
+            return scimObject -> left.test(scimObject) || right.test(scimObject);
+        }
+        throw invalidFilter("Unknown logical operator " + operation + ".");
+    }
+
+    private static <T> Predicate<T> compileOperands(String operation, List<Node> operands,
+                                                    LeafCompiler<T> leafCompiler) throws BadRequestException {
+
+        boolean and = SCIMConstants.OperationalConstants.AND.equalsIgnoreCase(operation);
+        if (!and && !SCIMConstants.OperationalConstants.OR.equalsIgnoreCase(operation)) {
+            throw invalidFilter("Unknown logical operator " + operation + ".");
+        }
+        List<Predicate<T>> predicates = new ArrayList<Predicate<T>>();
+        for (Node operand : operands) {
+            predicates.add(compile(operand, leafCompiler));
+        }
+        return scimObject -> {
+            for (Predicate<T> predicate : predicates) {
+                if (predicate.test(scimObject) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        };
+    }
+
+    /*
+     * compile a value path into a predicate that matches the value filter against each value of the attribute.
+     */
+    private static Predicate<AbstractSCIMObject> compileValuePath(ValuePathNode valuePathNode,
+                                                                  SCIMResourceTypeSchema schema)
+            throws BadRequestException {
+
+        List<AttributeSchema> path = resolvePath(valuePathNode.getAttributeValue(), schema);
+        AttributeSchema valuePathSchema = path.get(path.size() - 1);
+        if (valuePathSchema.getType() != SCIMDefinitions.DataType.COMPLEX) {
+            throw invalidFilter("Value paths are only supported for complex attributes.");
+        }
+        int depth = path.size();
+        Predicate<Attribute> valueFilter = compile(valuePathNode.getValueFilter(), leaf -> {
+            if (leaf instanceof ValuePathNode) {
+                throw invalidFilter("Value paths can not be nested.");
+            }
+            AttributePredicate attributePredicate = compileExpression((ExpressionNode) leaf, schema);
+            if (attributePredicate.names.length <= depth) {
+                throw invalidFilter("Unknown attribute " + ((ExpressionNode) leaf).getAttributeValue()
+                        + " in value path.");
+            }
+            return value -> attributePredicate.testValue(value, depth);
+        });
+        String[] names = getNames(path);
+        return scimObject -> scimObject != null
+                && anyValueMatches(scimObject.getAttribute(names[0]), names, 1, valueFilter);
+    }
+
+    /*
+     * follow the path to the attribute of a value path and match its values, a single valued complex attribute has
+     * one value.
+     */
+    private static boolean anyValueMatches(Attribute attribute, String[] names, int depth,
+                                           Predicate<Attribute> valueFilter) {
+        if (depth < names.length) {
+            if (!(attribute instanceof ComplexAttribute)
+                    || ((ComplexAttribute) attribute).getSubAttributesList() == null) {
+                return false;
+            }
+            return anyValueMatches(((ComplexAttribute) attribute).getSubAttributesList().get(names[depth]), names,
+                    depth + 1, valueFilter);
+        }
+        if (attribute instanceof MultiValuedAttribute) {
+            //the values of compact group members are created for that
+            List<Attribute> values = ((MultiValuedAttribute) attribute).getAttributeValues();
+            for (int i = 0; values != null && i < values.size(); i++) {
+                if (valueFilter.test(values.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return attribute instanceof ComplexAttribute && valueFilter.test(attribute);
+    }
+
+    private static AttributePredicate compileExpression(ExpressionNode expressionNode, SCIMResourceTypeSchema schema)
+            throws BadRequestException {
+
+        String operation = expressionNode.getOperation();
+        boolean presence = SCIMConstants.OperationalConstants.PR.trim().equalsIgnoreCase(operation);
+        List<AttributeSchema> path = resolvePath(expressionNode.getAttributeValue(), schema);
+        AttributeSchema leafSchema = path.get(path.size() - 1);
+        if (!presence && leafSchema.getType() == SCIMDefinitions.DataType.COMPLEX) {
+            AttributeSchema valueSchema = leafSchema.getSubAttributeSchema(SCIMConstants.CommonSchemaConstants.VALUE);
+            if (valueSchema == null) {
+                throw invalidFilter("Complex attribute " + leafSchema.getName() + " can not be compared.");
+            }
+            path.add(valueSchema);
+            leafSchema = valueSchema;
+        }
+        String[] names = getNames(path);
+        if (presence) {
+            return new AttributePredicate(names, null, false);
+        }
+        if (SCIMConstants.OperationalConstants.NE.trim().equalsIgnoreCase(operation)) {
+            return new AttributePredicate(names, compileValueMatcher(leafSchema,
+                    SCIMConstants.OperationalConstants.EQ.trim(), expressionNode.getValue()), true);
+        }
+        return new AttributePredicate(names, compileValueMatcher(leafSchema, operation, expressionNode.getValue()),
+                false);
+    }
+
+    /*
+     * compile a function that returns all values of an attribute of a resource, e.g. every email address for
+     * emails.value. Like in a filter, the "value" sub attribute is read for a complex attribute.
+     *
+     * @param attributeURI
+     * @param schema
+     * @return
+     * @throws BadRequestException if the attribute is not part of the schema
+     */
+    public static Function<AbstractSCIMObject, List<Object>> compileValueReader(String attributeURI,
+                                                                              SCIMResourceTypeSchema schema)
+            throws BadRequestException {
+
+        List<AttributeSchema> path = resolvePath(attributeURI, schema);
+        AttributeSchema leafSchema = path.get(path.size() - 1);
+        if (leafSchema.getType() == SCIMDefinitions.DataType.COMPLEX) {
+            AttributeSchema valueSchema = leafSchema.getSubAttributeSchema(SCIMConstants.CommonSchemaConstants.VALUE);
+            if (valueSchema == null) {
+                throw invalidFilter("Complex attribute " + leafSchema.getName() + " has no value.");
+            }
+            path.add(valueSchema);
+        }
+        String[] names = getNames(path);
+        return scimObject -> {
+            List<Object> values = new ArrayList<Object>();
+            new AttributePredicate(names, value -> !values.add(value), false).test(scimObject);
+            return values;
+        };
+    }
+
+    private static String[] getNames(List<AttributeSchema> path) {
+        String[] names = new String[path.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = path.get(i).getName();
+        }
+        return names;
+    }
+
+    /*
+     * resolve the attribute uri of a filter to the schemas of the attribute and its parents.
+     *
+     * @param attributeURI
+     * @param schema
+     * @return
+     * @throws BadRequestException
+     */
+    static List<AttributeSchema> resolvePath(String attributeURI, SCIMResourceTypeSchema schema)
+            throws BadRequestException {
+
+        List<AttributeSchema> path = new ArrayList<AttributeSchema>();
+        if (attributeURI != null && findPath(attributeURI, schema.getAttributesList(), path)) {
+            return path;
+        }
+        throw invalidFilter("Unknown attribute " + attributeURI + " in filter.");
+    }
+
+    private static boolean findPath(String attributeURI, List<AttributeSchema> attributeSchemas,
+                                    List<AttributeSchema> path) {
+
+        if (attributeSchemas == null) {
+            return false;
+        }
+        for (AttributeSchema attributeSchema : attributeSchemas) {
+            path.add(attributeSchema);
+            if (attributeURI.equals(attributeSchema.getURI())
+                    || findPath(attributeURI, attributeSchema.getSubAttributeSchemas(), path)) {
+                return true;
+            }
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+
+    /*
+     * convert the filter value to the data type of the attribute and create the comparison for the operator.
+     *
+     * @param attributeSchema
+     * @param operation
+     * @param filterValue
+     * @return
+     * @throws BadRequestException
+     */
+    private static ValueMatcher compileValueMatcher(AttributeSchema attributeSchema, String operation,
+                                                    String filterValue) throws BadRequestException {
+
+        if (filterValue == null) {
+            throw invalidFilter("Missing value for the operator " + operation + ".");
+        }
+        switch (attributeSchema.getType()) {
+            case STRING:
+            case REFERENCE:
+                return compileStringMatcher(operation, filterValue, attributeSchema.getCaseExact());
+            case BOOLEAN:
+                return compileBooleanMatcher(operation, filterValue);
+            case INTEGER:
+            case DECIMAL:
+                return compileNumberMatcher(operation, filterValue);
+            case DATE_TIME:
+                return compileDateTimeMatcher(operation, filterValue);
+            case BINARY:
+                if (isEquality(operation)) {
+                    return compileBinaryMatcher(filterValue);
+                }
+                break;
+            default:
+                break;
+        }
+        throw unsupportedOperator(attributeSchema, operation);
+    }
+
+    private static ValueMatcher compileStringMatcher(String operation, String filterValue, boolean caseExact)
+            throws BadRequestException {
+
+        switch (operation.toLowerCase(Locale.ENGLISH)) {
+            case "eq":
+                return caseExact ? value -> value instanceof String && filterValue.equals(value)
+                        : value -> value instanceof String && filterValue.equalsIgnoreCase((String) value);
+            case "co":
+                return value -> value instanceof String && contains((String) value, filterValue, !caseExact);
+            case "sw":
+                return value -> value instanceof String
+                        && ((String) value).regionMatches(!caseExact, 0, filterValue, 0, filterValue.length());
+            case "ew":
+                return value -> value instanceof String && ((String) value).regionMatches(!caseExact,
+                        ((String) value).length() - filterValue.length(), filterValue, 0, filterValue.length());
+            case "gt":
+                return value -> value instanceof String && compare((String) value, filterValue, caseExact) > 0;
+            case "ge":
+                return value -> value instanceof String && compare((String) value, filterValue, caseExact) >= 0;
+            case "lt":
+                return value -> value instanceof String && compare((String) value, filterValue, caseExact) < 0;
+            case "le":
+                return value -> value instanceof String && compare((String) value, filterValue, caseExact) <= 0;
+            default:
+                throw invalidFilter("Given filter operator is not supported.");
+        }
+    }
+
+    private static ValueMatcher compileBooleanMatcher(String operation, String filterValue)
+            throws BadRequestException {
+
+        if (!isEquality(operation)) {
+            throw invalidFilter("The operator " + operation + " is not supported for boolean attributes.");
+        }
+        if (!"true".equalsIgnoreCase(filterValue) && !"false".equalsIgnoreCase(filterValue)) {
+            throw invalidFilter("Invalid boolean value " + filterValue + " in filter.");
+        }
+        Boolean booleanValue = Boolean.valueOf(filterValue);
+        return booleanValue::equals;
+    }
+
+    /*
+     * binary values are filtered by their base64 encoding, as they are represented in json. The filter value is
+     * decoded once, so a value held as bytes is compared without encoding it.
+     */
+    private static ValueMatcher compileBinaryMatcher(String filterValue) throws BadRequestException {
+
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(filterValue);
+        } catch (IllegalArgumentException e) {
+            throw invalidFilter("Invalid base64 value " + filterValue + " in filter.");
+        }
+        return value -> {
+            if (value instanceof byte[]) {
+                return Arrays.equals((byte[]) value, bytes);
+            }
+            if (value instanceof Byte[]) {
+                return equals((Byte[]) value, bytes);
+            }
+            return value instanceof String && filterValue.equals(value);
+        };
+    }
+
+    private static ValueMatcher compileNumberMatcher(String operation, String filterValue)
+            throws BadRequestException {
+
+        NumberComparator comparator;
+        try {
+            comparator = new NumberComparator(new BigDecimal(filterValue));
+        } catch (NumberFormatException e) {
+            throw invalidFilter("Invalid number " + filterValue + " in filter.");
+        }
+        switch (operation.toLowerCase(Locale.ENGLISH)) {
+            case "eq":
+                return value -> value instanceof Number && comparator.compareTo((Number) value) == 0;
+            case "gt":
+                return value -> value instanceof Number && comparator.compareTo((Number) value) > 0;
+            case "ge":
+                return value -> value instanceof Number && comparator.compareTo((Number) value) >= 0;
+            case "lt":
+                return value -> value instanceof Number && comparator.compareTo((Number) value) < 0;
+            case "le":
+                return value -> value instanceof Number && comparator.compareTo((Number) value) <= 0;
+            default:
+                throw invalidFilter("The operator " + operation + " is not supported for numeric attributes.");
+        }
+    }
+
+    private static ValueMatcher compileDateTimeMatcher(String operation, String filterValue)
+            throws BadRequestException {
+
+        Instant instant;
+        try {
+            instant = AttributeUtil.parseDateTime(filterValue);
+        } catch (CharonException e) {
+            throw invalidFilter("Invalid date time " + filterValue + " in filter.");
+        }
+        switch (operation.toLowerCase(Locale.ENGLISH)) {
+            case "eq":
+                return value -> isDateTime(value) && compare(value, instant) == 0;
+            case "gt":
+                return value -> isDateTime(value) && compare(value, instant) > 0;
+            case "ge":
+                return value -> isDateTime(value) && compare(value, instant) >= 0;
+            case "lt":
+                return value -> isDateTime(value) && compare(value, instant) < 0;
+            case "le":
+                return value -> isDateTime(value) && compare(value, instant) <= 0;
+            default:
+                throw invalidFilter("The operator " + operation + " is not supported for date time attributes.");
+        }
+    }
+
+    private static boolean isDateTime(Object value) {
+        return value instanceof Instant || value instanceof Date;
+    }
+
+    /*
+     * compare a date time attribute value, held as Instant or as Date, with the filter value.
+     */
+    private static int compare(Object value, Instant instant) {
+        if (value instanceof Instant) {
+            return ((Instant) value).compareTo(instant);
+        }
+        return Long.compare(((Date) value).getTime(), instant.toEpochMilli());
+    }
+
+    private static boolean equals(Byte[] value, byte[] bytes) {
+        if (value.length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (value[i] == null || value[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compare(String value, String filterValue, boolean caseExact) {
+        return caseExact ? value.compareTo(filterValue) : value.compareToIgnoreCase(filterValue);
+    }
+
+    private static boolean contains(String value, String filterValue, boolean ignoreCase) {
+        int lastOffset = value.length() - filterValue.length();
+        for (int offset = 0; offset <= lastOffset; offset++) {
+            if (value.regionMatches(ignoreCase, offset, filterValue, 0, filterValue.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEquality(String operation) {
+        return SCIMConstants.OperationalConstants.EQ.trim().equalsIgnoreCase(operation);
+    }
+
+    private static BadRequestException unsupportedOperator(AttributeSchema attributeSchema, String operation) {
+        return invalidFilter("The operator " + operation + " is not supported for the attribute "
+                + attributeSchema.getName() + ".");
+    }
+
+    private static BadRequestException invalidFilter(String message) {
+        return new BadRequestException(message, ResponseCodeConstants.INVALID_FILTER);
+    }
+
+    /**
+     * Compares numeric attribute values exactly with the number of a filter. Integral values are compared as long
+     * and decimal values as double, without converting either to the other, so e.g. integers above 2^53 that map to
+     * the same double are still told apart.
+     */
+    private static class NumberComparator {
+
+        private final BigDecimal number;
+        //the number rounded down, and whether that lost a fraction, if it is within the range of long
+        private final boolean inLongRange;
+        private final long floor;
+        private final boolean integral;
+        //the closest double to the number, and how the number compares with it
+        private final double closestDouble;
+        private final int signOfClosestDouble;
+
+        NumberComparator(BigDecimal number) {
+            this.number = number;
+            BigDecimal floorDecimal = number.setScale(0, RoundingMode.FLOOR);
+            inLongRange = floorDecimal.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0
+                    && floorDecimal.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0;
+            floor = inLongRange ? floorDecimal.longValue() : 0;
+            integral = floorDecimal.compareTo(number) == 0;
+            closestDouble = number.doubleValue();
+            signOfClosestDouble = Double.isInfinite(closestDouble) ? (closestDouble > 0 ? 1 : -1)
+                    : new BigDecimal(closestDouble).compareTo(number);
+        }
+
+        /*
+         * @param value - an attribute value
+         * @return a negative number, zero or a positive number if the value is less than, equal to or greater
+         * than the number of the filter
+         */
+        int compareTo(Number value) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                return compareTo(value.longValue());
+            }
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).compareTo(number);
+            }
+            if (value instanceof BigInteger) {
+                return new BigDecimal((BigInteger) value).compareTo(number);
+            }
+            double doubleValue = value.doubleValue();
+            int comparison = Double.compare(doubleValue, closestDouble);
+            //another double compares with the number as it does with the closest one, no double lies in between
+            return comparison != 0 ? comparison : signOfClosestDouble;
+        }
+
+        private int compareTo(long value) {
+            if (!inLongRange) {
+                return number.signum() > 0 ? -1 : 1;
+            }
+            if (value != floor) {
+                return Long.compare(value, floor);
+            }
+            return integral ? 0 : -1;
+        }
+    }
+
+    /**
+     * Compares a single value of an attribute with the value of the filter.
+     */
+    @FunctionalInterface
+    private interface ValueMatcher {
+
+        boolean matches(Object value);
+    }
+
+    /**
+     * Compiles the leaves of a filter tree, i.e. its expressions and value paths.
+     *
+     * @param <T> what the compiled predicates are evaluated against
+     */
+    @FunctionalInterface
+    private interface LeafCompiler<T> {
+
+        Predicate<T> compile(Node leaf) throws BadRequestException;
+    }
+
+    /**
+     * Follows the resolved path of an attribute through the resource and matches its values. A null value matcher
+     * checks the presence of the attribute.
+     */
+    private static class AttributePredicate {
+
+        private final String[] names;
+        private final ValueMatcher valueMatcher;
+        //true for "ne", which matches if the attribute has no matching value
+        private final boolean negated;
+
+        AttributePredicate(String[] names, ValueMatcher valueMatcher, boolean negated) {
+            this.names = names;
+            this.valueMatcher = valueMatcher;
+            this.negated = negated;
+        }
+
+        boolean test(AbstractSCIMObject scimObject) {
+            return negated != (scimObject != null && matches(scimObject.getAttribute(names[0]), 1));
+        }
+
+        /*
+         * match a single value of the attribute of a value path.
+         * @param value - the complex value
+         * @param depth - the length of the path to the attribute of the value path
+         */
+        boolean testValue(Attribute value, int depth) {
+            return negated != matches(value, depth);
+        }
+
+        private boolean matches(Attribute attribute, int depth) {
+            if (attribute == null) {
+                return false;
+            }
+            if (attribute instanceof GroupMembersAttribute && ((GroupMembersAttribute) attribute).isCompact()) {
+                //read the members without creating their complex values
+                GroupMembersAttribute membersAttribute = (GroupMembersAttribute) attribute;
+                if (depth == names.length) {
+                    return valueMatcher == null && membersAttribute.getMemberCount() > 0;
+                }
+                return depth + 1 == names.length
+                        && membersAttribute.anySubAttributeValueMatches(names[depth], this::matchesValue);
+            }
+            if (attribute instanceof MultiValuedAttribute) {
+                MultiValuedAttribute multiValuedAttribute = (MultiValuedAttribute) attribute;
+                List<Object> primitiveValues = multiValuedAttribute.getAttributePrimitiveValues();
+                for (int i = 0; depth == names.length && primitiveValues != null && i < primitiveValues.size(); i++) {
+                    Object value = primitiveValues.get(i);
+                    if (valueMatcher == null ? value != null : valueMatcher.matches(value)) {
+                        return true;
+                    }
+                }
+                List<Attribute> values = multiValuedAttribute.getAttributeValues();
+                for (int i = 0; values != null && i < values.size(); i++) {
+                    if (matches(values.get(i), depth)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (attribute instanceof SimpleAttribute) {
+                if (depth != names.length) {
+                    return false;
+                }
+                return matchesValue(((SimpleAttribute) attribute).getValue());
+            }
+            if (attribute instanceof ComplexAttribute) {
+                ComplexAttribute complexAttribute = (ComplexAttribute) attribute;
+                if (complexAttribute.getSubAttributesList() == null) {
+                    return false;
+                }
+                if (depth == names.length) {
+                    return valueMatcher == null && !complexAttribute.getSubAttributesList().isEmpty();
+                }
+                return matches(complexAttribute.getSubAttributesList().get(names[depth]), depth + 1);
+            }
+            return false;
+        }
+
+        private boolean matchesValue(Object value) {
+            if (valueMatcher == null) {
+                return value != null && !(value instanceof String && ((String) value).isEmpty());
+            }
+            return valueMatcher.matches(value);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.wso2.charon3.core.schema.SCIMConstants;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An estimate of how expensive it is for a user manager to evaluate a filter tree: its depth, the number of
+ * expressions and a cost summed over the expressions.
+ * <p>
+ * An expression on an attribute the user manager has indexed costs 1 ("sw" costs 2, since it's a prefix scan).
+ * An expression on any other attribute costs 10, and "co" and "ew" cost 20 on any attribute because they have to
+ * look at every value anyway. "and" and "or" cost the sum of their operands.
+ */
+public class FilterCost {
+
+    private static final int INDEXED_COST = 1;
+    private static final int INDEXED_PREFIX_COST = 2;
+    private static final int SCAN_COST = 10;
+    private static final int SUBSTRING_COST = 20;
+
+    private int depth;
+    private int clauses;
+    private long cost;
+
+    private FilterCost() {
+    }
+
+    /*
+     * estimate the cost of the given filter tree.
+     *
+     * @param node              the root of the filter tree, may be null
+     * @param indexedAttributes URIs of the attributes the user manager can look up without a scan
+     * @return
+     */
+    public static FilterCost estimate(Node node, Set<String> indexedAttributes) {
+        FilterCost filterCost = new FilterCost();
+        if (node != null) {
+            filterCost.depth = filterCost.visit(node, indexedAttributes == null ? Collections.<String>emptySet()
+                    : indexedAttributes);
+        }
+        return filterCost;
+    }
+
+    /*
+     * add up the clauses and the cost of the subtree.
+     * @return the depth of the subtree
+     */
+    private int visit(Node node, Set<String> indexedAttributes) {
+
+        if (node instanceof ExpressionNode) {
+            clauses++;
+            cost += expressionCost((ExpressionNode) node, indexedAttributes);
+            return 1;
+        }
+        if (node instanceof ValuePathNode) {
+            return visit(((ValuePathNode) node).getValueFilter(), indexedAttributes) + 1;
+        }
+        List<Node> operands = node instanceof NaryOperationNode ? ((NaryOperationNode) node).getOperands() : null;
+        int subtreeDepth = 0;
+        if (operands != null) {
+            for (Node operand : operands) {
+                subtreeDepth = Math.max(subtreeDepth, visit(operand, indexedAttributes));
+            }
+        } else {
+            if (node.getLeftNode() != null) {
+                subtreeDepth = visit(node.getLeftNode(), indexedAttributes);
+            }
+            if (node.getRightNode() != null) {
+                subtreeDepth = Math.max(subtreeDepth, visit(node.getRightNode(), indexedAttributes));
+            }
+        }
+        return subtreeDepth + 1;
+    }
+
+    private static int expressionCost(ExpressionNode expressionNode, Set<String> indexedAttributes) {
+
+        String operation = expressionNode.getOperation();
+        if (SCIMConstants.OperationalConstants.CO.trim().equalsIgnoreCase(operation)
+                || SCIMConstants.OperationalConstants.EW.trim().equalsIgnoreCase(operation)) {
+            return SUBSTRING_COST;
+        }
+        if (!indexedAttributes.contains(expressionNode.getAttributeValue())) {
+            return SCAN_COST;
+        }
+        return SCIMConstants.OperationalConstants.SW.trim().equalsIgnoreCase(operation) ? INDEXED_PREFIX_COST
+                : INDEXED_COST;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getClauses() {
+        return clauses;
+    }
+
+    public long getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a filter tree built by the FilterTreeManager into an equivalent canonical tree, so that a user manager
+ * pushing the filter down to its backend gets the same tree for equivalent filters and can map common shapes
+ * directly to an index or a query:
+ * <ul>
+ * <li>nested "and" and "or" operations are flattened into a {@link NaryOperationNode}</li>
+ * <li>"not" is pushed down to the expressions with De Morgan's laws</li>
+ * <li>duplicate operands of an "and" or "or" are removed</li>
+ * <li>a lower and an upper bound on the same single valued attribute become a {@link RangeOperationNode}</li>
+ * <li>"eq" expressions on the same attribute joined with "or" become an {@link InOperationNode}</li>
+ * </ul>
+ * The rewritten nodes still have their left and right nodes set, so user managers that only walk binary trees keep
+ * working. "not" is kept on the expressions, not even "not (x eq v)" becomes "x ne v": "not (age gt 5)" also matches
+ * resources without an age while "age le 5" does not, and a user manager may treat a missing attribute the same
+ * way for "ne", e.g. an SQL "age != 5" does not match a NULL age.
+ */
+public class FilterOptimizer {
+
+    private FilterOptimizer() {
+    }
+
+    /*
+     * rewrite the filter tree into its canonical form. The given tree is not modified.
+     *
+     * @param node   the root of the filter tree, may be null
+     * @param schema the schema the filter was built with
+     * @return
+     */
+    public static Node optimize(Node node, SCIMResourceTypeSchema schema) {
+        return node == null ? null : normalize(node, false, schema);
+    }
+
+    private static Node normalize(Node node, boolean negate, SCIMResourceTypeSchema schema) {
+
+        if (node instanceof ExpressionNode) {
+            return negate ? not(node) : node;
+        }
+        if (node instanceof ValuePathNode) {
+            // the value filter is normalized on its own, "not" can not be pushed into it
+            ValuePathNode valuePathNode = (ValuePathNode) node;
+            Node valueFilter = normalize(valuePathNode.getValueFilter(), false, schema);
+            Node normalizedNode = valueFilter instanceof OperationNode
+                    ? new ValuePathNode(valuePathNode.getAttributeValue(), (OperationNode) valueFilter) : valueFilter;
+            return negate ? not(normalizedNode) : normalizedNode;
+        }
+        String operation = ((OperationNode) node).getOperation();
+        if (SCIMConstants.OperationalConstants.NOT.equalsIgnoreCase(operation)) {
+            return normalize(node.getRightNode(), !negate, schema);
+        }
+        boolean and = SCIMConstants.OperationalConstants.AND.equalsIgnoreCase(operation);
+        if (!and && !SCIMConstants.OperationalConstants.OR.equalsIgnoreCase(operation)) {
+            // leave what we do not know to the user manager
+            return negate ? not(node) : node;
+        }
+        List<Node> nestedOperands = new ArrayList<Node>();
+        collectOperands(node, operation, nestedOperands);
+        if (negate) {
+            and = !and;
+        }
+        List<Node> operands = new ArrayList<Node>();
+        for (Node operand : nestedOperands) {
+            addOperand(operands, normalize(operand, negate, schema), and);
+        }
+        return combine(operands, and, schema);
+    }
+
+    /*
+     * collect the operands of an operation and of the operations of the same kind nested in it, in their order. The
+     * parser builds a left deep chain for e.g. a long list of "or", which is walked in a loop and flattened at once.
+     */
+    private static void collectOperands(Node node, String operation, List<Node> operands) {
+
+        Deque<Node> pendingNodes = new ArrayDeque<Node>();
+        pendingNodes.push(node);
+        while (!pendingNodes.isEmpty()) {
+            Node pendingNode = pendingNodes.pop();
+            if (!(pendingNode instanceof OperationNode) || pendingNode instanceof ValuePathNode
+                    || !isOperation(pendingNode, operation)) {
+                operands.add(pendingNode);
+            } else if (pendingNode instanceof NaryOperationNode) {
+                List<Node> nestedOperands = ((NaryOperationNode) pendingNode).getOperands();
+                for (int i = nestedOperands.size() - 1; i >= 0; i--) {
+                    pendingNodes.push(nestedOperands.get(i));
+                }
+            } else {
+                pendingNodes.push(pendingNode.getRightNode());
+                pendingNodes.push(pendingNode.getLeftNode());
+            }
+        }
+    }
+
+    private static Node not(Node node) {
+        OperationNode notNode = new OperationNode(SCIMConstants.OperationalConstants.NOT);
+        notNode.setRightNode(node);
+        return notNode;
+    }
+
+    /*
+     * add an already normalized operand, inlining the operands of a nested operation of the same kind.
+     */
+    private static void addOperand(List<Node> operands, Node operand, boolean and) {
+
+        if (operand instanceof NaryOperationNode
+                && isOperation(operand, and ? SCIMConstants.OperationalConstants.AND
+                : SCIMConstants.OperationalConstants.OR)) {
+            operands.addAll(((NaryOperationNode) operand).getOperands());
+        } else {
+            operands.add(operand);
+        }
+    }
+
+    private static Node combine(List<Node> operands, boolean and, SCIMResourceTypeSchema schema) {
+
+        // remove duplicates, keeping the first occurrence
+        Map<String, Node> distinctOperands = new LinkedHashMap<String, Node>();
+        for (Node operand : operands) {
+            distinctOperands.putIfAbsent(key(operand), operand);
+        }
+        List<Node> result = and ? mergeRanges(distinctOperands.values(), schema)
+                : mergeEqualities(distinctOperands.values());
+        if (result.size() == 1) {
+            return result.get(0);
+        }
+        return new NaryOperationNode(and ? SCIMConstants.OperationalConstants.AND
+                : SCIMConstants.OperationalConstants.OR, result);
+    }
+
+    /*
+     * replace the first lower and the first upper bound on each single valued attribute by a range. For multi valued
+     * attributes the bounds may be met by different values, so they are left as they are.
+     */
+    private static List<Node> mergeRanges(Iterable<Node> operands, SCIMResourceTypeSchema schema) {
+
+        Map<String, ExpressionNode> lowerBounds = new LinkedHashMap<String, ExpressionNode>();
+        Map<String, ExpressionNode> upperBounds = new LinkedHashMap<String, ExpressionNode>();
+        for (Node operand : operands) {
+            if (operand instanceof ExpressionNode && isSingleValued((ExpressionNode) operand, schema)) {
+                ExpressionNode expressionNode = (ExpressionNode) operand;
+                if (isOperation(operand, SCIMConstants.OperationalConstants.GT.trim())
+                        || isOperation(operand, SCIMConstants.OperationalConstants.GE.trim())) {
+                    lowerBounds.putIfAbsent(expressionNode.getAttributeValue(), expressionNode);
+                } else if (isOperation(operand, SCIMConstants.OperationalConstants.LT.trim())
+                        || isOperation(operand, SCIMConstants.OperationalConstants.LE.trim())) {
+                    upperBounds.putIfAbsent(expressionNode.getAttributeValue(), expressionNode);
+                }
+            }
+        }
+        List<Node> result = new ArrayList<Node>();
+        for (Node operand : operands) {
+            if (!(operand instanceof ExpressionNode)) {
+                result.add(operand);
+                continue;
+            }
+            String attributeValue = ((ExpressionNode) operand).getAttributeValue();
+            ExpressionNode lowerBound = lowerBounds.get(attributeValue);
+            ExpressionNode upperBound = upperBounds.get(attributeValue);
+            if (lowerBound == null || upperBound == null) {
+                result.add(operand);
+            } else if (operand == lowerBound) {
+                result.add(new RangeOperationNode(lowerBound, upperBound));
+            } else if (operand != upperBound) {
+                result.add(operand);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * replace the "eq" expressions on an attribute compared with more than one value by a single in set.
+     */
+    private static List<Node> mergeEqualities(Iterable<Node> operands) {
+
+        Map<String, List<ExpressionNode>> equalities = new LinkedHashMap<String, List<ExpressionNode>>();
+        for (Node operand : operands) {
+            if (operand instanceof ExpressionNode
+                    && isOperation(operand, SCIMConstants.OperationalConstants.EQ.trim())) {
+                equalities.computeIfAbsent(((ExpressionNode) operand).getAttributeValue(),
+                        attributeValue -> new ArrayList<ExpressionNode>()).add((ExpressionNode) operand);
+            }
+        }
+        List<Node> result = new ArrayList<Node>();
+        for (Node operand : operands) {
+            if (operand instanceof ExpressionNode
+                    && isOperation(operand, SCIMConstants.OperationalConstants.EQ.trim())) {
+                List<ExpressionNode> expressionNodes = equalities.get(
+                        ((ExpressionNode) operand).getAttributeValue());
+                if (expressionNodes.size() == 1) {
+                    result.add(operand);
+                } else if (expressionNodes.get(0) == operand) {
+                    result.add(new InOperationNode(expressionNodes));
+                }
+            } else {
+                result.add(operand);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSingleValued(ExpressionNode expressionNode, SCIMResourceTypeSchema schema) {
+
+        try {
+            for (AttributeSchema attributeSchema : FilterCompiler.resolvePath(expressionNode.getAttributeValue(),
+                    schema)) {
+                if (attributeSchema.getMultiValued()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (BadRequestException e) {
+            // the user manager reports the unknown attribute
+            return false;
+        }
+    }
+
+    private static boolean isOperation(Node node, String operation) {
+
+        String nodeOperation = node instanceof ExpressionNode ? ((ExpressionNode) node).getOperation()
+                : ((OperationNode) node).getOperation();
+        return operation.equalsIgnoreCase(nodeOperation);
+    }
+
+    /*
+     * a string that is equal for structurally equal trees.
+     */
+    private static String key(Node node) {
+
+        StringBuilder key = new StringBuilder();
+        appendKey(node, key);
+        return key.toString();
+    }
+
+    private static void appendKey(Node node, StringBuilder key) {
+
+        if (node == null) {
+            key.append('-');
+        } else if (node instanceof ExpressionNode) {
+            ExpressionNode expressionNode = (ExpressionNode) node;
+            key.append('[').append(expressionNode.getAttributeValue()).append(' ')
+                    .append(expressionNode.getOperation()).append(' ');
+            String value = expressionNode.getValue();
+            if (value != null) {
+                key.append(value.length()).append(':').append(value);
+            }
+            key.append(']');
+        } else if (node instanceof ValuePathNode) {
+            key.append('(').append(((ValuePathNode) node).getAttributeValue()).append(" [");
+            appendKey(((ValuePathNode) node).getValueFilter(), key);
+            key.append("])");
+        } else {
+            key.append('(').append(((OperationNode) node).getOperation());
+            if (node instanceof NaryOperationNode) {
+                for (Node operand : ((NaryOperationNode) node).getOperands()) {
+                    key.append(' ');
+                    appendKey(operand, key);
+                }
+            } else {
+                key.append(' ');
+                appendKey(node.getLeftNode(), key);
+                key.append(' ');
+                appendKey(node.getRightNode(), key);
+            }
+            key.append(')');
+        }
+    }
+}
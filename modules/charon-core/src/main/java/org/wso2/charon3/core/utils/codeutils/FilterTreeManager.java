@@ -15,18 +15,25 @@
  */
 package org.wso2.charon3.core.utils.codeutils;
 
+import org.wso2.charon3.core.config.CharonConfiguration;
 import org.wso2.charon3.core.exceptions.BadRequestException;
 import org.wso2.charon3.core.protocol.ResponseCodeConstants;
 import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
 import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
 import org.wso2.charon3.core.utils.AttributeUtil;
 
 import java.io.IOException;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is basically for creating a binary tree which preserves the precedence order with simple
@@ -35,78 +42,81 @@ import java.util.regex.Pattern;
  * <p>
  * All terminals are filter expressions hence denoted by ExpressionNodes and all non terminal nodes are operators hence
  * denoted by OperatorNodes.
+ * <p>
+ * The filter is read in a single pass into tokens and parsed by precedence climbing, "and" binding stronger than
+ * "or". Quoted values may contain operators, keywords, brackets and whitespace. The attributes of a value path are
+ * resolved relative to it, e.g. emails[type eq "work"] gives the same tree as emails.type eq "work". A value path
+ * with more than a single expression becomes a {@link ValuePathNode}, since all of its expressions have to match the
+ * same value.
+ * <p>
+ * Filters that only differ in their comparison values share a template. The parsed tree of a template, with the
+ * attribute URIs already resolved, is kept in a bounded cache and only the values are bound per filter.
+ * <p>
+ * The limits of CharonConfiguration#setFilterLimits on the depth and the number of expressions are checked while
+ * parsing, so a filter nested too deeply is rejected before it can exhaust the stack of the parser. The depth counts
+ * the nesting of parentheses, "not" and value paths.
  */
 
 public class FilterTreeManager {
 
-    private StreamTokenizer input;
-    protected List<String> tokenList = null;
-    private String symbol;
-    private Node root;
-    private SCIMResourceTypeSchema schema;
+    private static final int LEFT_PAREN = 0;
+    private static final int RIGHT_PAREN = 1;
+    private static final int LEFT_BRACKET = 2;
+    private static final int RIGHT_BRACKET = 3;
+    private static final int WORD = 4;
+    private static final int QUOTED = 5;
+    private static final int VALUE_SLOT = 6;
+
+    //maximum number of filter templates kept in the cache
+    private static final int TEMPLATE_CACHE_SIZE = 256;
+
+    private static final Map<TemplateKey, FilterTemplate> TEMPLATES = Collections.synchronizedMap(
+            new LinkedHashMap<TemplateKey, FilterTemplate>(TEMPLATE_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TemplateKey, FilterTemplate> eldest) {
+                    return size() > TEMPLATE_CACHE_SIZE;
+                }
+            });
+
+    private static final AtomicLong TEMPLATE_CACHE_HITS = new AtomicLong();
+    private static final AtomicLong TEMPLATE_CACHE_MISSES = new AtomicLong();
+
+    /*
+     * the filter split into parentheses, logical operators and the text of the expressions in between, e.g.
+     * "userName eq john". It is not used to build the tree any more.
+     *
+     * @deprecated the tree is built from the tokens of the single pass lexer
+     */
+    @Deprecated
+    protected List<String> tokenList;
+    private final SCIMResourceTypeSchema schema;
+    private final List<Token> filterTokens;
+    //the error found while reading the filter, reported by buildTree
+    private final BadRequestException filterError;
+    private List<Token> tokens;
+    private int position;
+    //the expression nodes of a template by the index of their value slot
+    private Map<ExpressionNode, Integer> valueSlots;
+    private int maxDepth;
+    private int maxClauses;
+    private int depth;
+    private int deepest;
+    private int clauses;
 
     public FilterTreeManager(String filterString, SCIMResourceTypeSchema schema) throws IOException {
 
         this.schema = schema;
-        input = new StreamTokenizer(new StringReader(filterString));
-        input.resetSyntax();
-        // Default settings in StreamTokenizer syntax initializer.
-        input.wordChars('a', 'z');
-        input.wordChars('A', 'Z');
-        // Specifies that all extended ASCII characters defined in HTML 4 standard, are word constituents.
-        input.wordChars(128 + 32, 255);
-        input.whitespaceChars(0, ' ');
-        input.commentChar('/');
-        input.quoteChar('"');
-        input.quoteChar('\'');
-
-        //Adding other string possible values
-        input.wordChars('@', '@');
-        input.wordChars(':', ':');
-        input.wordChars('_', '_');
-        input.wordChars('0', '9');
-        input.wordChars('-', '-');
-        input.wordChars('+', '+');
-        input.wordChars('.', '.');
-        input.wordChars('*', '*');
-        input.wordChars('/', '/');
-        
-        tokenList = new ArrayList<String>();
-        String concatenatedString = "";
-
-        while (input.nextToken() != StreamTokenizer.TT_EOF) {
-            //ttype 40 is for the '('
-            if (input.ttype == 40) {
-                tokenList.add("(");
-            } else if (input.ttype == 41) {
-                //ttype 40 is for the ')'
-                concatenatedString = concatenatedString.trim();
-                tokenList.add(concatenatedString);
-                concatenatedString = "";
-                tokenList.add(")");
-            } else if (input.ttype == StreamTokenizer.TT_WORD) {
-                if (!(input.sval.equalsIgnoreCase(SCIMConstants.OperationalConstants.AND)
-                        || input.sval.equalsIgnoreCase(SCIMConstants.OperationalConstants.OR) ||
-                        input.sval.equalsIgnoreCase(SCIMConstants.OperationalConstants.NOT))) {
-                    //concatenate the string by adding spaces in between
-                    concatenatedString += " " + input.sval;
-
-                } else {
-                    concatenatedString = concatenatedString.trim();
-                    if (!concatenatedString.equals("")) {
-                        tokenList.add(concatenatedString);
-                        concatenatedString = "";
-                    }
-                    tokenList.add(input.sval);
-                }
-            } else if (input.ttype == '\"' || input.ttype == '\'') {
-                concatenatedString += " " + input.sval;
-            }
-        }
-        //Add to the list, if the filter is a simple filter
-        if (!(concatenatedString.equals(""))) {
-            tokenList.add(concatenatedString);
+        List<Token> filterTokens;
+        BadRequestException filterError = null;
+        try {
+            filterTokens = tokenize(filterString);
+        } catch (BadRequestException e) {
+            filterTokens = Collections.emptyList();
+            filterError = e;
         }
+        this.filterTokens = filterTokens;
+        this.filterError = filterError;
+        tokenList = toSymbols(filterTokens);
     }
 
     /*
@@ -116,192 +126,561 @@ public class FilterTreeManager {
      * @throws BadRequestException
      */
     public Node buildTree() throws BadRequestException {
-        expression();
+        CharonConfiguration configuration = CharonConfiguration.getInstance();
+        maxDepth = configuration.getMaxFilterDepth();
+        maxClauses = configuration.getMaxFilterClauses();
+        if (filterError != null) {
+            throw filterError;
+        }
+        if (SCIMResourceSchemaManager.getInstance().getSchemaIndex(schema) == null) {
+            //the schema may be a modified copy, do not cache anything for it
+            return parse(filterTokens);
+        }
+        List<String> values = new ArrayList<String>();
+        List<Token> templateTokens = toTemplateTokens(filterTokens, values);
+        TemplateKey key = new TemplateKey(schema, templateTokens);
+        FilterTemplate template = TEMPLATES.get(key);
+        if (template != null) {
+            TEMPLATE_CACHE_HITS.incrementAndGet();
+            if (maxDepth > 0 && template.depth > maxDepth) {
+                throw tooDeep();
+            }
+            if (maxClauses > 0 && template.clauses > maxClauses) {
+                throw tooManyClauses();
+            }
+            return template.bind(template.tree, values);
+        }
+        TEMPLATE_CACHE_MISSES.incrementAndGet();
+        valueSlots = new IdentityHashMap<ExpressionNode, Integer>();
+        Node tree;
+        try {
+            tree = parse(templateTokens);
+        } catch (BadRequestException e) {
+            //report exactly the error of the filter itself
+            valueSlots = null;
+            return parse(filterTokens);
+        }
+        template = new FilterTemplate(tree, valueSlots, deepest, clauses);
+        TEMPLATES.put(key, template);
+        return template.bind(tree, values);
+    }
+
+    /*
+     * returns the first item in the list and rearrange the list
+     *
+     * @return
+     * @deprecated the tree is built by {@link #buildTree()} without the symbols of the filter
+     */
+    @Deprecated
+    public String nextSymbol() {
+        if (tokenList.size() == 0) {
+            //no tokens are present in the list anymore/at all
+            return String.valueOf(-1);
+        } else {
+            String value = tokenList.get(0);
+            tokenList.remove(0);
+            return value;
+        }
+    }
+
+    /*
+     * return the number of filters whose tree was built from a cached template.
+     */
+    public static long getTemplateCacheHits() {
+        return TEMPLATE_CACHE_HITS.get();
+    }
+
+    /*
+     * return the number of filters whose template had to be parsed.
+     */
+    public static long getTemplateCacheMisses() {
+        return TEMPLATE_CACHE_MISSES.get();
+    }
+
+    /*
+     * remove all filter templates from the cache.
+     */
+    public static void clearTemplateCache() {
+        TEMPLATES.clear();
+    }
+
+    private Node parse(List<Token> filterTokens) throws BadRequestException {
+        tokens = filterTokens;
+        position = 0;
+        depth = 0;
+        deepest = 0;
+        clauses = 0;
+        if (tokens.isEmpty()) {
+            throw new BadRequestException("Filter is empty.", ResponseCodeConstants.INVALID_FILTER);
+        }
+        enter();
+        Node root = parseFilter(1, null);
+        if (position < tokens.size()) {
+            throw invalidFilter("Unexpected '" + tokens.get(position).text + "' in filter.");
+        }
         return root;
     }
 
-    /**
-     * We build the parser using the recursive descent parser technique.
+    /*
+     * Replaces the comparison values, i.e. the tokens following an attribute and an operator other than "pr", by
+     * value slots and collects the values in the order of the slots. Only words and quoted strings are values, any
+     * other token is left in place so the template is rejected exactly like the filter.
      *
-     * @throws BadRequestException
+     * @param filterTokens
+     * @param values
+     * @return
      */
-    private void expression() throws BadRequestException {
-        term();
-        while (symbol.equals(String.valueOf(SCIMConstants.OperationalConstants.OR))) {
-            OperationNode or = new OperationNode(SCIMConstants.OperationalConstants.OR);
-            or.setLeftNode(root);
-            term();
-            or.setRightNode(root);
-            root = or;
+    private static List<Token> toTemplateTokens(List<Token> filterTokens, List<String> values) {
+        List<Token> templateTokens = new ArrayList<Token>(filterTokens);
+        int i = 0;
+        while (i + 1 < templateTokens.size()) {
+            Token token = templateTokens.get(i);
+            Token operatorToken = templateTokens.get(i + 1);
+            if (token.type != WORD || getLogicalOperator(token) != null
+                    || token.text.equalsIgnoreCase(SCIMConstants.OperationalConstants.NOT)
+                    || operatorToken.type != WORD || getAttributeOperator(operatorToken.text) == null) {
+                i++;
+            } else if (operatorToken.text.equalsIgnoreCase(SCIMConstants.OperationalConstants.PR.trim())) {
+                i += 2;
+            } else {
+                if (i + 2 < templateTokens.size() && isValue(templateTokens.get(i + 2))) {
+                    values.add(templateTokens.get(i + 2).text);
+                    templateTokens.set(i + 2, new Token(VALUE_SLOT, String.valueOf(values.size() - 1)));
+                }
+                i += 3;
+            }
         }
+        return templateTokens;
     }
 
     /*
-     * We build the parser using the recursive descent parser technique.
+     * Joins the tokens between parentheses and logical operators into the symbols of {@link #tokenList}.
      *
+     * @param filterTokens
+     * @return
+     */
+    private static List<String> toSymbols(List<Token> filterTokens) {
+        List<String> symbols = new ArrayList<String>();
+        StringBuilder expression = new StringBuilder();
+        for (Token token : filterTokens) {
+            boolean parenthesis = token.type == LEFT_PAREN || token.type == RIGHT_PAREN;
+            if (parenthesis || getLogicalOperator(token) != null
+                    || token.type == WORD && token.text.equalsIgnoreCase(SCIMConstants.OperationalConstants.NOT)) {
+                if (expression.length() > 0) {
+                    symbols.add(expression.toString());
+                    expression.setLength(0);
+                }
+                symbols.add(token.text);
+            } else {
+                boolean bracket = token.type == LEFT_BRACKET || token.type == RIGHT_BRACKET;
+                if (expression.length() > 0 && !bracket && expression.charAt(expression.length() - 1) != '[') {
+                    expression.append(' ');
+                }
+                expression.append(token.text);
+            }
+        }
+        if (expression.length() > 0) {
+            symbols.add(expression.toString());
+        }
+        return symbols;
+    }
+
+    private static boolean isValue(Token token) {
+        return token.type == WORD || token.type == QUOTED;
+    }
+
+    /*
+     * Parses logical expressions whose operators bind at least as strong as the given precedence.
+     *
+     * @param minPrecedence 1 for "or", 2 for "and"
+     * @param valuePath     the attribute of the enclosing value path or null
+     * @return
      * @throws BadRequestException
      */
-    private void term() throws BadRequestException {
-        factor();
-        while (symbol.equals(String.valueOf(SCIMConstants.OperationalConstants.AND))) {
-            OperationNode and = new OperationNode(SCIMConstants.OperationalConstants.AND);
-            and.setLeftNode(root);
-            factor();
-            and.setRightNode(root);
-            root = and;
+    private Node parseFilter(int minPrecedence, String valuePath) throws BadRequestException {
+        Node left = parseFactor(valuePath);
+        while (position < tokens.size()) {
+            String operator = getLogicalOperator(tokens.get(position));
+            int precedence = SCIMConstants.OperationalConstants.AND.equals(operator) ? 2 : 1;
+            if (operator == null || precedence < minPrecedence) {
+                break;
+            }
+            position++;
+            OperationNode operationNode = new OperationNode(operator);
+            operationNode.setLeftNode(left);
+            operationNode.setRightNode(parseFilter(precedence + 1, valuePath));
+            left = operationNode;
         }
+        return left;
     }
 
     /*
-     * We build the parser using the recursive descent parser technique.
+     * Parses a negation, a filter in parentheses, a value path or a single attribute expression.
      *
+     * @param valuePath the attribute of the enclosing value path or null
+     * @return
      * @throws BadRequestException
      */
-    private void factor() throws BadRequestException {
-        symbol = nextSymbol();
-        if (symbol.equals(String.valueOf(SCIMConstants.OperationalConstants.NOT))) {
+    private Node parseFactor(String valuePath) throws BadRequestException {
+        Token token = nextToken();
+        if (token.type == LEFT_PAREN) {
+            enter();
+            Node node = parseFilter(1, valuePath);
+            expect(RIGHT_PAREN, ")");
+            depth--;
+            return node;
+        }
+        if (token.type != WORD) {
+            throw invalidFilter("Unexpected '" + token.text + "' in filter.");
+        }
+        if (token.text.equalsIgnoreCase(SCIMConstants.OperationalConstants.NOT)) {
             OperationNode not = new OperationNode(SCIMConstants.OperationalConstants.NOT);
-            factor();
-            not.setRightNode(root);
-            root = not;
-        } else if (symbol.equals(String.valueOf(SCIMConstants.OperationalConstants.LEFT))) {
-            expression();
-            symbol = nextSymbol(); // we don't care about ')'
-        } else {
-            if (!(symbol.equals(String.valueOf(SCIMConstants.OperationalConstants.RIGHT)))) {
-                ExpressionNode expressionNode = new ExpressionNode();
-                validateAndBuildFilterExpression(symbol, expressionNode);
-                root = expressionNode;
-                symbol = nextSymbol();
-            } else {
+            enter();
+            not.setRightNode(parseFactor(valuePath));
+            depth--;
+            return not;
+        }
+        String attribute = valuePath == null ? token.text : valuePath + "." + token.text;
+        if (position < tokens.size() && tokens.get(position).type == LEFT_BRACKET) {
+            if (valuePath != null) {
+                throw invalidFilter("Value paths can not be nested.");
             }
-
+            position++;
+            enter();
+            Node node = parseFilter(1, attribute);
+            expect(RIGHT_BRACKET, "]");
+            depth--;
+            if (node instanceof OperationNode) {
+                return new ValuePathNode(AttributeUtil.getAttributeURI(attribute, schema), (OperationNode) node);
+            }
+            return node;
         }
+        return parseExpression(attribute);
     }
 
     /*
-     * Validate the simple filter and build a ExpressionNode
+     * Parses the operator and the value of a simple filter and builds a ExpressionNode
      *
-     * @param filterString
-     * @param expressionNode
+     * @param attribute
+     * @return
      * @throws BadRequestException
      */
-    private void validateAndBuildFilterExpression(String filterString, ExpressionNode expressionNode)
-            throws BadRequestException {
-        //verify filter string. validation should be case insensitive
-        if (!(Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.EQ),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.NE),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.CO),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.SW),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.EW),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.PR),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.GT),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.GE),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.LT),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find() ||
-                Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.LE),
-                        Pattern.CASE_INSENSITIVE).matcher(filterString).find())) {
+    private ExpressionNode parseExpression(String attribute) throws BadRequestException {
+        clauses++;
+        if (maxClauses > 0 && clauses > maxClauses) {
+            throw tooManyClauses();
+        }
+        Token operatorToken = nextToken();
+        String operator = operatorToken.type == WORD ? getAttributeOperator(operatorToken.text) : null;
+        if (operator == null) {
             String message = "Given filter operator is not supported.";
             throw new BadRequestException(message, ResponseCodeConstants.INVALID_FILTER);
         }
+        ExpressionNode expressionNode = new ExpressionNode();
+        expressionNode.setAttributeValue(AttributeUtil.getAttributeURI(attribute, schema));
+        expressionNode.setOperation(operator);
+        if (!operator.equals(SCIMConstants.OperationalConstants.PR.trim())) {
+            Token valueToken = nextToken();
+            if (valueToken.type == VALUE_SLOT && valueSlots != null) {
+                valueSlots.put(expressionNode, Integer.valueOf(valueToken.text));
+            } else if (!isValue(valueToken)) {
+                throw invalidFilter("Missing value for the operator " + operator + ".");
+            } else {
+                expressionNode.setValue(valueToken.text);
+            }
+        }
+        return expressionNode;
+    }
 
-        String trimmedFilter = filterString.trim();
-        String[] filterParts = null;
-
-        if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.EQ),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" eq | EQ | eQ | Eq ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.EQ, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.NE),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" ne | NE | nE | Ne ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.NE, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.CO),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" co | CO | cO | Co ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.CO, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.SW),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" sw | SW | sW | Sw ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.SW, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.EW),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" ew | EW | eW | Ew ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.EW, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.PR),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            //with filter PR, there should not be whitespace after.
-            filterParts = trimmedFilter.split(" pr| PR| pR| Pr");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.PR, null, expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.GT),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" gt | GT | gT | Gt ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.GT, filterParts[1],
-                    expressionNode);
-
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.GE),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" ge | GE | gE | Ge ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.GE, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.LT),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" lt | LT | lT | Lt ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.LT, filterParts[1],
-                    expressionNode);
-        } else if (Pattern.compile(Pattern.quote(SCIMConstants.OperationalConstants.LE),
-                Pattern.CASE_INSENSITIVE).matcher(filterString).find()) {
-            filterParts = trimmedFilter.split(" le | LE | lE | Le ");
-            setExpressionNodeValues(filterParts[0], SCIMConstants.OperationalConstants.LE, filterParts[1],
-                    expressionNode);
-        } else {
-            throw new BadRequestException(ResponseCodeConstants.INVALID_FILTER);
+    /*
+     * enter a nested level of the filter.
+     *
+     * @throws BadRequestException if the filter is nested deeper than allowed
+     */
+    private void enter() throws BadRequestException {
+        deepest = Math.max(deepest, ++depth);
+        if (maxDepth > 0 && depth > maxDepth) {
+            throw tooDeep();
+        }
+    }
+
+    private BadRequestException tooDeep() {
+        return new BadRequestException("The filter is nested deeper than the allowed " + maxDepth + " levels.",
+                ResponseCodeConstants.TOO_MANY);
+    }
+
+    private BadRequestException tooManyClauses() {
+        return new BadRequestException("The filter has more than the allowed " + maxClauses + " expressions.",
+                ResponseCodeConstants.TOO_MANY);
+    }
+
+    private Token nextToken() throws BadRequestException {
+        if (position >= tokens.size()) {
+            throw invalidFilter("Unexpected end of filter.");
         }
+        return tokens.get(position++);
+    }
+
+    private void expect(int type, String text) throws BadRequestException {
+        if (position >= tokens.size() || tokens.get(position).type != type) {
+            throw invalidFilter("Missing '" + text + "' in filter.");
+        }
+        position++;
+    }
+
+    private BadRequestException invalidFilter(String message) {
+        return new BadRequestException(message, ResponseCodeConstants.INVALID_FILTER);
     }
 
     /*
-     * create a expression node from the given values
+     * return the logical operator the token stands for, or null
      *
-     * @param attributeValue
-     * @param operation
-     * @param value
-     * @param expressionNode
+     * @param token
+     * @return
      */
-    private void setExpressionNodeValues(String attributeValue, String operation,
-                                         String value, ExpressionNode expressionNode) throws BadRequestException {
-        expressionNode.setAttributeValue(AttributeUtil.getAttributeURI(attributeValue.trim(), schema));
-        expressionNode.setOperation(operation.trim());
-        if (value != null) {
-            expressionNode.setValue(value.trim());
+    private static String getLogicalOperator(Token token) {
+        if (token.type != WORD) {
+            return null;
+        }
+        if (token.text.equalsIgnoreCase(SCIMConstants.OperationalConstants.AND)) {
+            return SCIMConstants.OperationalConstants.AND;
+        } else if (token.text.equalsIgnoreCase(SCIMConstants.OperationalConstants.OR)) {
+            return SCIMConstants.OperationalConstants.OR;
         }
+        return null;
     }
 
     /*
-     * returns the first item in the list and rearrange the list
+     * return the attribute operator the word stands for, e.g. "eq", or null
      *
+     * @param word
      * @return
      */
-    public String nextSymbol() {
-        if (tokenList.size() == 0) {
-            //no tokens are present in the list anymore/at all
-            return String.valueOf(-1);
-        } else {
-            String value = tokenList.get(0);
-            tokenList.remove(0);
-            return value;
+    private static String getAttributeOperator(String word) {
+        if (word.length() != 2) {
+            return null;
+        }
+        for (String operator : new String[]{SCIMConstants.OperationalConstants.EQ,
+                SCIMConstants.OperationalConstants.NE, SCIMConstants.OperationalConstants.CO,
+                SCIMConstants.OperationalConstants.SW, SCIMConstants.OperationalConstants.EW,
+                SCIMConstants.OperationalConstants.PR, SCIMConstants.OperationalConstants.GT,
+                SCIMConstants.OperationalConstants.GE, SCIMConstants.OperationalConstants.LT,
+                SCIMConstants.OperationalConstants.LE}) {
+            if (operator.trim().equalsIgnoreCase(word)) {
+                return operator.trim();
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Splits the filter into parentheses, brackets, words and quoted strings in a single pass. The quotes are
+     * removed from quoted strings and json escapes are resolved.
+     *
+     * @param filter
+     * @return
+     * @throws BadRequestException
+     */
+    private static List<Token> tokenize(String filter) throws BadRequestException {
+        List<Token> tokens = new ArrayList<Token>();
+        int length = filter.length();
+        int i = 0;
+        while (i < length) {
+            char c = filter.charAt(i);
+            if (c <= ' ') {
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(LEFT_PAREN, "("));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(RIGHT_PAREN, ")"));
+                i++;
+            } else if (c == '[') {
+                tokens.add(new Token(LEFT_BRACKET, "["));
+                i++;
+            } else if (c == ']') {
+                tokens.add(new Token(RIGHT_BRACKET, "]"));
+                i++;
+            } else if (c == '"' || c == '\'') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (i < length && filter.charAt(i) != c) {
+                    char valueChar = filter.charAt(i++);
+                    if (valueChar == '\\' && i < length) {
+                        i = unescape(filter, i, value);
+                    } else {
+                        value.append(valueChar);
+                    }
+                }
+                if (i >= length) {
+                    throw new BadRequestException("Unterminated string in filter.",
+                            ResponseCodeConstants.INVALID_FILTER);
+                }
+                i++;
+                tokens.add(new Token(QUOTED, value.toString()));
+            } else {
+                int start = i;
+                while (i < length && !isDelimiter(filter.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(WORD, filter.substring(start, i)));
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c <= ' ' || c == '(' || c == ')' || c == '[' || c == ']' || c == '"' || c == '\'';
+    }
+
+    /*
+     * resolve the escape sequence starting at the given index, right after the backslash.
+     *
+     * @return the index after the escape sequence
+     */
+    private static int unescape(String filter, int index, StringBuilder value) throws BadRequestException {
+        char c = filter.charAt(index);
+        switch (c) {
+            case 'b':
+                value.append('\b');
+                break;
+            case 'f':
+                value.append('\f');
+                break;
+            case 'n':
+                value.append('\n');
+                break;
+            case 'r':
+                value.append('\r');
+                break;
+            case 't':
+                value.append('\t');
+                break;
+            case 'u':
+                if (index + 5 > filter.length()) {
+                    throw new BadRequestException("Invalid escape sequence in filter.",
+                            ResponseCodeConstants.INVALID_FILTER);
+                }
+                try {
+                    value.append((char) Integer.parseInt(filter.substring(index + 1, index + 5), 16));
+                } catch (NumberFormatException e) {
+                    throw new BadRequestException("Invalid escape sequence in filter.",
+                            ResponseCodeConstants.INVALID_FILTER);
+                }
+                return index + 5;
+            default:
+                value.append(c);
+        }
+        return index + 1;
+    }
+
+    /**
+     * A token of the filter string.
+     */
+    private static class Token {
+
+        private final int type;
+        private final String text;
+
+        Token(int type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The parsed tree of a filter template. The tree itself is never handed out, every filter gets a copy with
+     * its own values.
+     */
+    private static class FilterTemplate {
+
+        private final Node tree;
+        private final Map<ExpressionNode, Integer> valueSlots;
+        //the nesting depth and the number of expressions, to check the limits of the filters using the template
+        private final int depth;
+        private final int clauses;
+
+        FilterTemplate(Node tree, Map<ExpressionNode, Integer> valueSlots, int depth, int clauses) {
+            this.tree = tree;
+            this.valueSlots = valueSlots;
+            this.depth = depth;
+            this.clauses = clauses;
+        }
+
+        private Node bind(Node node, List<String> values) {
+            if (node == null) {
+                return null;
+            }
+            if (node instanceof ExpressionNode) {
+                ExpressionNode expressionNode = (ExpressionNode) node;
+                ExpressionNode boundNode = new ExpressionNode();
+                boundNode.setAttributeValue(expressionNode.getAttributeValue());
+                boundNode.setOperation(expressionNode.getOperation());
+                Integer valueSlot = valueSlots.get(expressionNode);
+                boundNode.setValue(valueSlot == null ? expressionNode.getValue() : values.get(valueSlot));
+                return boundNode;
+            }
+            if (node instanceof ValuePathNode) {
+                ValuePathNode valuePathNode = (ValuePathNode) node;
+                return new ValuePathNode(valuePathNode.getAttributeValue(),
+                        (OperationNode) bind(valuePathNode.getValueFilter(), values));
+            }
+            //the parser builds a left deep chain for a list of "and" or "or", which is bound in a loop
+            Deque<OperationNode> chain = new ArrayDeque<OperationNode>();
+            Node leftNode = node;
+            while (leftNode instanceof OperationNode && !(leftNode instanceof ValuePathNode)) {
+                chain.push((OperationNode) leftNode);
+                leftNode = leftNode.getLeftNode();
+            }
+            Node boundNode = bind(leftNode, values);
+            while (!chain.isEmpty()) {
+                OperationNode operationNode = chain.pop();
+                OperationNode boundOperationNode = new OperationNode(operationNode.getOperation());
+                boundOperationNode.setLeftNode(boundNode);
+                boundOperationNode.setRightNode(bind(operationNode.getRightNode(), values));
+                boundNode = boundOperationNode;
+            }
+            return boundNode;
+        }
+    }
+
+    /**
+     * Cache key of a filter template. Schemas are compared by reference, a rebuilt schema (e.g. after the user
+     * schema extension is reloaded) is a new version and gets its own templates.
+     */
+    private static class TemplateKey {
+
+        private final SCIMResourceTypeSchema schema;
+        private final String template;
+
+        TemplateKey(SCIMResourceTypeSchema schema, List<Token> templateTokens) {
+            this.schema = schema;
+            StringBuilder template = new StringBuilder();
+            for (Token token : templateTokens) {
+                template.append((char) ('0' + token.type));
+                if (token.type != VALUE_SLOT) {
+                    template.append(token.text);
+                }
+                template.append('\u0000');
+            }
+            this.template = template.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey that = (TemplateKey) o;
+            return schema == that.schema && template.equals(that.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(schema), template);
         }
     }
 }
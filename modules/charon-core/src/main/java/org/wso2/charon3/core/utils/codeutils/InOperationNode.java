@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.wso2.charon3.core.schema.SCIMConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An "or" over "eq" expressions on the same attribute, i.e. the attribute is equal to one of the given values. The
+ * operands are the "eq" expressions themselves.
+ */
+public class InOperationNode extends NaryOperationNode {
+
+    private final String attributeValue;
+    private final List<String> values;
+
+    public InOperationNode(List<ExpressionNode> expressionNodes) {
+        super(SCIMConstants.OperationalConstants.OR, new ArrayList<Node>(expressionNodes));
+        this.attributeValue = expressionNodes.get(0).getAttributeValue();
+        List<String> values = new ArrayList<String>();
+        for (ExpressionNode expressionNode : expressionNodes) {
+            values.add(expressionNode.getValue());
+        }
+        this.values = Collections.unmodifiableList(values);
+    }
+
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+}
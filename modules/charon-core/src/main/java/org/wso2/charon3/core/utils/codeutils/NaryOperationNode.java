@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An "and" or "or" operation over any number of operands, as built by the FilterOptimizer.
+ * <p>
+ * For user managers that only know binary trees, the left and right nodes are set as well: the left node holds the
+ * operation over all operands but the last one, as a chain of binary operation nodes, and the right node the last
+ * operand.
+ */
+public class NaryOperationNode extends OperationNode {
+
+    private final List<Node> operands;
+
+    public NaryOperationNode(String operation, List<Node> operands) {
+        super(operation);
+        if (operands.size() < 2) {
+            throw new IllegalArgumentException("An operation needs at least two operands.");
+        }
+        this.operands = Collections.unmodifiableList(new ArrayList<Node>(operands));
+        //the left deep chain is built in a loop, a long list of operands must not copy the list per operand
+        int last = operands.size() - 1;
+        Node leftNode = operands.get(0);
+        for (int i = 1; i < last; i++) {
+            OperationNode operationNode = new OperationNode(operation);
+            operationNode.setLeftNode(leftNode);
+            operationNode.setRightNode(operands.get(i));
+            leftNode = operationNode;
+        }
+        setLeftNode(leftNode);
+        setRightNode(operands.get(last));
+    }
+
+    public List<Node> getOperands() {
+        return operands;
+    }
+}
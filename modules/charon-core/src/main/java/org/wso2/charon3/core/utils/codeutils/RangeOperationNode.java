@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.wso2.charon3.core.schema.SCIMConstants;
+
+import java.util.Arrays;
+
+/**
+ * An "and" of a lower ("gt" or "ge") and an upper ("lt" or "le") bound on the same single valued attribute. The
+ * operands are the two bound expressions themselves.
+ */
+public class RangeOperationNode extends NaryOperationNode {
+
+    private final ExpressionNode lowerBound;
+    private final ExpressionNode upperBound;
+
+    public RangeOperationNode(ExpressionNode lowerBound, ExpressionNode upperBound) {
+        super(SCIMConstants.OperationalConstants.AND, Arrays.<Node>asList(lowerBound, upperBound));
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    public String getAttributeValue() {
+        return lowerBound.getAttributeValue();
+    }
+
+    public String getLowerBound() {
+        return lowerBound.getValue();
+    }
+
+    public boolean isLowerBoundInclusive() {
+        return SCIMConstants.OperationalConstants.GE.trim().equalsIgnoreCase(lowerBound.getOperation());
+    }
+
+    public String getUpperBound() {
+        return upperBound.getValue();
+    }
+
+    public boolean isUpperBoundInclusive() {
+        return SCIMConstants.OperationalConstants.LE.trim().equalsIgnoreCase(upperBound.getOperation());
+    }
+}
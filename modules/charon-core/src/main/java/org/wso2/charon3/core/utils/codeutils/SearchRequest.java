@@ -36,6 +36,7 @@ public class SearchRequest {
     private int startIndex;
     private String countStr;
     private String startIndexStr;
+    private String cursor;
     private Node filter;
     private String sortBy;
     private String sortOder;
@@ -57,6 +58,18 @@ public class SearchRequest {
         this.startIndexStr = startIndexStr;
     }
 
+    /*
+     * @return the cursor of the requested page, an empty string for the first page and null if the request does not
+     * use cursor pagination
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public String getSchema() {
         return schema;
     }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+/**
+ * A value path whose filter is more than a single expression, e.g. emails[type eq "work" and value co "@example.com"].
+ * It matches a resource if one value of the attribute matches the whole value filter. The expressions of the value
+ * filter hold the full attribute URIs, e.g. the one of emails.type.
+ * <p>
+ * For user managers that only know binary trees, the operation and the left and right nodes are those of the root of
+ * the value filter, so they see the filter as if its expressions were not bound to the same value.
+ */
+public class ValuePathNode extends OperationNode {
+
+    private final String attributeValue;
+    private final OperationNode valueFilter;
+
+    /*
+     * @param attributeValue - the URI of the attribute the value path selects the values of
+     * @param valueFilter - the root of the filter the values are matched with
+     */
+    public ValuePathNode(String attributeValue, OperationNode valueFilter) {
+        super(valueFilter.getOperation());
+        this.attributeValue = attributeValue;
+        this.valueFilter = valueFilter;
+        setLeftNode(valueFilter.getLeftNode());
+        setRightNode(valueFilter.getRightNode());
+    }
+
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+
+    public OperationNode getValueFilter() {
+        return valueFilter;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.attributes;
+
+import org.junit.Test;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMAttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMSchemaDefinitions;
+import org.wso2.charon3.core.utils.CopyUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the schema sharing of attributes.
+ */
+public class AbstractAttributeTest {
+
+    private static final SCIMAttributeSchema EMAIL_TYPE = SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAIL_TYPE;
+
+    @Test
+    public void testCreatedAttributeSharesSchema() throws Exception {
+        SimpleAttribute attribute = createEmailType("work");
+
+        assertSame(EMAIL_TYPE, attribute.getAttributeSchema());
+        assertEquals(EMAIL_TYPE.getURI(), attribute.getURI());
+        assertEquals(SCIMDefinitions.Returned.DEFAULT, attribute.getReturned());
+    }
+
+    @Test
+    public void testSettersDetachOnceAndKeepTheWholeSchema() throws Exception {
+        SimpleAttribute attribute = createEmailType("work");
+
+        attribute.setRequired(true);
+        AttributeSchema detached = attribute.attributeSchema;
+        attribute.setReturned(SCIMDefinitions.Returned.ALWAYS);
+        attribute.setMutability(SCIMDefinitions.Mutability.READ_ONLY);
+
+        assertSame("later setters modify the private copy", detached, attribute.attributeSchema);
+        assertNotSame(EMAIL_TYPE, detached);
+        assertEquals(EMAIL_TYPE.getCanonicalValues(), ((SCIMAttributeSchema) detached).getCanonicalValues());
+        assertEquals(EMAIL_TYPE.getDescription(), detached.getDescription());
+        assertTrue(attribute.getRequired());
+        assertEquals(SCIMDefinitions.Returned.ALWAYS, attribute.getReturned());
+        assertEquals(SCIMDefinitions.Mutability.READ_ONLY, attribute.getMutability());
+        //the shared schema is untouched
+        assertEquals(false, EMAIL_TYPE.getRequired());
+        assertEquals(SCIMDefinitions.Returned.DEFAULT, EMAIL_TYPE.getReturned());
+    }
+
+    @Test
+    public void testComplexAttributeKeepsSubAttributeSchemas() throws Exception {
+        ComplexAttribute attribute = new ComplexAttribute(SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAILS
+                .getName());
+        attribute.setAttributeSchema(SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAILS);
+
+        attribute.setDescription("changed");
+
+        assertEquals(SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAILS.getSubAttributeSchemas(),
+                attribute.attributeSchema.getSubAttributeSchemas());
+        assertEquals(SCIMConstants.UserSchemaConstants.EMAILS_DESC,
+                SCIMSchemaDefinitions.SCIMUserSchemaDefinition.EMAILS.getDescription());
+    }
+
+    @Test
+    public void testCopiesDoNotShareAPrivateSchema() throws Exception {
+        SimpleAttribute attribute = createEmailType("work");
+        attribute.setRequired(true);
+
+        SimpleAttribute copy = (SimpleAttribute) CopyUtil.deepCopy(attribute);
+        attribute.setRequired(false);
+        copy.setCaseExact(true);
+
+        assertTrue(copy.getRequired());
+        assertEquals(false, attribute.getCaseExact());
+    }
+
+    @Test
+    public void testSerializationResolvesSharedSchema() throws Exception {
+        SimpleAttribute attribute = createEmailType("home");
+
+        byte[] bytes = serialize(attribute);
+        SimpleAttribute copy = (SimpleAttribute) deserialize(bytes);
+
+        assertSame(EMAIL_TYPE, copy.getAttributeSchema());
+        assertEquals("home", copy.getValue());
+        //only the URI of the schema is written, not its description and canonical values
+        assertTrue(bytes.length < serialize(EMAIL_TYPE).length);
+    }
+
+    @Test
+    public void testSerializationKeepsPrivateSchema() throws Exception {
+        SimpleAttribute attribute = createEmailType("home");
+        attribute.setReturned(SCIMDefinitions.Returned.NEVER);
+
+        SimpleAttribute copy = (SimpleAttribute) deserialize(serialize(attribute));
+
+        assertEquals(SCIMDefinitions.Returned.NEVER, copy.getReturned());
+        assertEquals(EMAIL_TYPE.getURI(), copy.getURI());
+        assertEquals(SCIMDefinitions.Returned.DEFAULT, EMAIL_TYPE.getReturned());
+    }
+
+    private static SimpleAttribute createEmailType(String value) throws Exception {
+        return (SimpleAttribute) DefaultAttributeFactory.createAttribute(EMAIL_TYPE,
+                new SimpleAttribute(EMAIL_TYPE.getName(), value));
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
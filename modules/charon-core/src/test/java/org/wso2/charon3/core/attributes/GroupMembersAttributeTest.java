@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.attributes;
+
+import org.junit.Test;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.utils.CopyUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the compact and the frozen form of the members attribute of a group.
+ */
+public class GroupMembersAttributeTest {
+
+    @Test
+    public void testCompactMembersKeepTheirSubAttributes() throws Exception {
+        GroupMembersAttribute members = createMembers();
+
+        assertTrue(members.isCompact());
+        assertEquals(2, members.getMemberCount());
+        assertEquals(Collections.singletonList("2"), members.getMemberValues(SCIMConstants.GROUP));
+        ComplexAttribute first = (ComplexAttribute) members.getAttributeValues().get(0);
+        assertEquals("alice", ((SimpleAttribute) first.getSubAttribute(SCIMConstants.CommonSchemaConstants.DISPLAY))
+                .getValue());
+        assertFalse(members.isCompact());
+
+        GroupMembersAttribute compactAgain = GroupMembersAttribute.compact(members);
+        assertTrue(compactAgain.isCompact());
+        assertEquals(Arrays.asList("1", "2"), compactAgain.getMemberValues(null));
+    }
+
+    @Test
+    public void testFrozenMembersCanNotBeModified() throws Exception {
+        GroupMembersAttribute members = createMembers();
+        members.freeze();
+
+        assertModificationFails(() -> members.putMember("3", null, null, null));
+        assertModificationFails(() -> members.removeMember("1"));
+        assertModificationFails(() -> members.getAttributeValues().remove(0));
+        assertModificationFails(() -> members.getAttributeValues().add(new ComplexAttribute()));
+        assertModificationFails(() -> members.setAttributeValue(new ComplexAttribute()));
+        assertModificationFails(() -> members.setAttributePrimitiveValue("3"));
+        assertModificationFails(members::deleteSubAttributes);
+        assertTrue(members.isCompact());
+        assertEquals(2, members.getMemberCount());
+    }
+
+    @Test
+    public void testCopyOfFrozenMembersCanBeModified() throws Exception {
+        GroupMembersAttribute members = createMembers();
+        members.freeze();
+
+        GroupMembersAttribute copy = (GroupMembersAttribute) CopyUtil.deepCopy(members);
+        copy.removeMember("1");
+        ((ComplexAttribute) copy.getAttributeValues().get(0)).removeSubAttribute(
+                SCIMConstants.CommonSchemaConstants.DISPLAY);
+
+        assertEquals(1, copy.getMemberCount());
+        assertNull(((ComplexAttribute) copy.getAttributeValues().get(0)).getSubAttribute(
+                SCIMConstants.CommonSchemaConstants.DISPLAY));
+        assertEquals(Arrays.asList("1", "2"), members.getMemberValues(null));
+        ComplexAttribute second = (ComplexAttribute) members.getAttributeValues().get(1);
+        assertEquals("bob", ((SimpleAttribute) second.getSubAttribute(SCIMConstants.CommonSchemaConstants.DISPLAY))
+                .getValue());
+    }
+
+    private static GroupMembersAttribute createMembers() {
+        GroupMembersAttribute members = new GroupMembersAttribute();
+        members.putMember("1", "alice", null, SCIMConstants.USER);
+        members.putMember("2", "bob", null, SCIMConstants.GROUP);
+        return members;
+    }
+
+    private static void assertModificationFails(Modification modification) throws Exception {
+        try {
+            modification.run();
+            fail("A frozen members attribute must not be modified");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    /**
+     * A modification of the attribute.
+     */
+    private interface Modification {
+
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.encoder;
+
+import org.junit.Test;
+import org.wso2.charon3.core.exceptions.AbstractCharonException;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.SCIMObject;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link StreamingJSONDecoder} decodes resources like the JSONDecoder and rejects invalid payloads
+ * with the same errors.
+ */
+public class StreamingJSONDecoderTest {
+
+    private static final String USER_SCHEMAS = "\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"]";
+
+    private static final String[] VALID_USERS = {
+            "{" + USER_SCHEMAS + ",\"userName\":\"bob\"}",
+            "{" + USER_SCHEMAS + ",\"userName\":\"bob\",\"emails\":[{\"value\":\"a@b.c\",\"type\":\"work\","
+                    + "\"primary\":true},{\"value\":\"d@e.f\"}],\"unknown\":{\"a\":[1,2]}}",
+            "{" + USER_SCHEMAS + ",\"" + SCIMConstants.USER_CORE_SCHEMA_URI + ":userName\":\"bob\","
+                    + "\"nickName\":\"\\u0062\\\"ob\\n\"}",
+            "{" + USER_SCHEMAS + ",\"userName\":\"bob\",\"meta\":{\"lastModified\":\"2016-01-01T00:00:00Z\"},"
+                    + "\"x509Certificates\":[{\"value\":\"YWJj\"}]}",
+            "{" + USER_SCHEMAS + ",\"userName\":\"bob\",\"emails\":[],\"name\":{},\"title\":null}",
+            "{" + USER_SCHEMAS + ",userName:'bob',}",
+            //values of the wrong type and missing schemas are converted or left to the validation by both
+            "{" + USER_SCHEMAS + ",\"userName\":5,\"active\":\"yes\"}",
+            "{" + USER_SCHEMAS + ",\"emails\":[\"a@b.c\"]}",
+            "{" + USER_SCHEMAS + ",\"emails\":[{\"primary\":\"true\"}]}",
+            "{\"schemas\":\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\",\"userName\":\"bob\"}",
+            "{\"userName\":\"bob\"}",
+    };
+
+    private static final String[] INVALID_USERS = {
+            "",
+            "not json",
+            "[]",
+            "{" + USER_SCHEMAS + ",\"userName\":\"bob\"",
+            "{" + USER_SCHEMAS + ",\"userName\":[\"bob\"]}",
+            "{" + USER_SCHEMAS + ",\"name\":\"Bob\"}",
+            "{" + USER_SCHEMAS + ",\"name\":{\"givenName\":{\"a\":1}}}",
+            "{" + USER_SCHEMAS + ",\"emails\":{\"value\":\"a@b.c\"}}",
+            "{" + USER_SCHEMAS + ",\"meta\":{\"lastModified\":\"yesterday\"}}",
+    };
+
+    @Test
+    public void testValidUsersDecodeAlike() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        for (String payload : VALID_USERS) {
+            User expected = new JSONDecoder().decodeResource(payload, schema, new User());
+            User actual = new StreamingJSONDecoder().decodeResource(payload, schema, new User());
+            assertEquals(payload, encode(expected), encode(actual));
+        }
+    }
+
+    @Test
+    public void testValidGroupDecodesAlike() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
+        String payload = "{\"schemas\":[\"" + SCIMConstants.GROUP_CORE_SCHEMA_URI + "\"],\"displayName\":\"g\","
+                + "\"members\":[{\"value\":\"1\",\"display\":\"a\"},{\"value\":\"2\"}]}";
+
+        Group expected = new JSONDecoder().decodeResource(payload, schema, new Group());
+        Group actual = new StreamingJSONDecoder().decodeResource(payload, schema, new Group());
+
+        assertEquals(encode(expected), encode(actual));
+    }
+
+    @Test
+    public void testNamesIgnoreTheCase() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+        User user = new StreamingJSONDecoder().decodeResource("{" + USER_SCHEMAS + ",\"USERNAME\":\"bob\","
+                + "\"Active\":true,\"name\":{\"GivenName\":\"Bob\"},\"nickname\":\"b\",\"nickName\":\"c\"}",
+                schema, new User());
+
+        assertEquals("bob", user.getUserName());
+        assertTrue(user.getActive());
+        assertEquals("Bob", user.getName().getGivenName());
+        //an exact match wins over a match ignoring the case
+        assertEquals("c", user.getNickName());
+    }
+
+    @Test
+    public void testDuplicateKeysAreRejected() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+        //rejected like the JSONObject parser of the JSONDecoder does
+        AbstractCharonException error = decodeError(new StreamingJSONDecoder(),
+                "{" + USER_SCHEMAS + ",\"userName\":\"bob\",\"userName\":\"alice\"}", schema);
+
+        assertNotNull(error);
+        assertEquals(ResponseCodeConstants.CODE_BAD_REQUEST, error.getStatus());
+        assertEquals(ResponseCodeConstants.INVALID_SYNTAX, error.getScimType());
+    }
+
+    @Test
+    public void testInvalidUsersFailAlike() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        for (String payload : INVALID_USERS) {
+            AbstractCharonException expected = decodeError(new JSONDecoder(), payload, schema);
+            AbstractCharonException actual = decodeError(new StreamingJSONDecoder(), payload, schema);
+            assertNotNull(payload, expected);
+            assertNotNull(payload, actual);
+            assertEquals(payload, expected.getClass(), actual.getClass());
+            assertEquals(payload, expected.getStatus(), actual.getStatus());
+            assertEquals(payload, expected.getScimType(), actual.getScimType());
+            assertEquals(payload, expected.getDetail(), actual.getDetail());
+        }
+    }
+
+    private static AbstractCharonException decodeError(JSONDecoder decoder, String payload,
+                                                       SCIMResourceTypeSchema schema) {
+        try {
+            decoder.decodeResource(payload, schema, new User());
+            return null;
+        } catch (AbstractCharonException e) {
+            return e;
+        }
+    }
+
+    private static String encode(SCIMObject scimObject) throws Exception {
+        return new JSONEncoder().encodeSCIMObject(scimObject);
+    }
+}
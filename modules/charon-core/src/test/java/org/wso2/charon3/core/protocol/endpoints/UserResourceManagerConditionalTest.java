@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.protocol.endpoints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.charon3.core.config.CharonConfiguration;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.exceptions.NotFoundException;
+import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.extensions.UserManager;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.schema.ServerSideValidator;
+import org.wso2.charon3.core.utils.codeutils.SearchRequest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests conditional requests with a user manager that does not support conditional updates and deletes.
+ */
+public class UserResourceManagerConditionalTest {
+
+    private static final String PUT_BODY = "{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI
+            + "\"],\"userName\":\"bob\",\"title\":\"%s\"}";
+
+    private boolean eTagSupported;
+    private SingleUserManager userManager;
+
+    @Before
+    public void setUp() throws Exception {
+        AbstractResourceManager.setEndpointURLMap(
+                Collections.singletonMap(SCIMConstants.USER_ENDPOINT, "https://localhost/scim/v2/Users"));
+        eTagSupported = CharonConfiguration.getInstance().isETagSupported();
+        CharonConfiguration.getInstance().setETagSupport(true);
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        User user = new JSONDecoder().decodeResource(String.format(PUT_BODY, "0"), schema, new User());
+        ServerSideValidator.validateCreatedSCIMObject(user, schema);
+        userManager = new SingleUserManager(user);
+    }
+
+    @After
+    public void tearDown() {
+        AbstractResourceManager.setEndpointURLMap(null);
+        CharonConfiguration.getInstance().setETagSupport(eTagSupported);
+    }
+
+    @Test
+    public void testStalePutFails() throws Exception {
+        String version = userManager.user.getVersion();
+        UserResourceManager userResourceManager = new UserResourceManager();
+
+        SCIMResponse response = userResourceManager.updateWithPUT(userManager.user.getId(),
+                String.format(PUT_BODY, "1"), userManager, null, null, version);
+        assertEquals(ResponseCodeConstants.CODE_OK, response.getResponseStatus());
+        String newVersion = response.getHeaderParamMap().get(SCIMConstants.ETAG_HEADER);
+        assertNotEquals(version, newVersion);
+        assertEquals(newVersion, userManager.user.getVersion());
+
+        response = userResourceManager.updateWithPUT(userManager.user.getId(), String.format(PUT_BODY, "2"),
+                userManager, null, null, version);
+        assertEquals(ResponseCodeConstants.CODE_PRECONDITION_FAILED, response.getResponseStatus());
+        assertEquals("1", userManager.user.getTitle());
+    }
+
+    @Test
+    public void testStalePatchFails() throws Exception {
+        String patch = "{\"schemas\":[\"urn:ietf:params:scim:api:messages:2.0:PatchOp\"],\"Operations\":["
+                + "{\"op\":\"replace\",\"path\":\"title\",\"value\":\"3\"}]}";
+
+        SCIMResponse response = new UserResourceManager().updateWithPATCH(userManager.user.getId(), patch,
+                userManager, null, null, "W/\"0\"");
+
+        assertEquals(ResponseCodeConstants.CODE_PRECONDITION_FAILED, response.getResponseStatus());
+        assertEquals("0", userManager.user.getTitle());
+    }
+
+    @Test
+    public void testStaleDeleteFails() throws Exception {
+        UserResourceManager userResourceManager = new UserResourceManager();
+
+        SCIMResponse response = userResourceManager.delete(userManager.user.getId(), userManager, "W/\"0\"");
+        assertEquals(ResponseCodeConstants.CODE_PRECONDITION_FAILED, response.getResponseStatus());
+
+        response = userResourceManager.delete(userManager.user.getId(), userManager, userManager.user.getVersion());
+        assertEquals(ResponseCodeConstants.CODE_NO_CONTENT, response.getResponseStatus());
+        assertNull(userManager.user);
+    }
+
+    @Test
+    public void testVersionGrowsWithinTheSameInstant() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        User user = userManager.user;
+        //a version far ahead of the clock, e.g. given before the clock was turned back
+        user.replaceVersion("W/\"7fffffffffff0000\"");
+
+        User updatedUser = (User) ServerSideValidator.validateUpdatedSCIMObject(user,
+                new JSONDecoder().decodeResource(String.format(PUT_BODY, "1"), schema, new User()), schema);
+
+        assertEquals("W/\"7fffffffffff0001\"", updatedUser.getVersion());
+        assertTrue(userManager.user.getVersion().endsWith("0000\""));
+    }
+
+    /**
+     * User manager that holds a single user and keeps the default conditional updates and deletes.
+     */
+    private static class SingleUserManager implements UserManager {
+
+        private User user;
+
+        SingleUserManager(User user) {
+            this.user = user;
+        }
+
+        @Override
+        public User getUser(String id, Map<String, Boolean> requiredAttributes) {
+            return user != null && user.getId().equals(id) ? user : null;
+        }
+
+        @Override
+        public User updateUser(User updatedUser, Map<String, Boolean> requiredAttributes) throws NotFoundException {
+            getExisting(updatedUser.getId());
+            user = updatedUser;
+            return user;
+        }
+
+        @Override
+        public void deleteUser(String userId) throws NotFoundException {
+            getExisting(userId);
+            user = null;
+        }
+
+        private void getExisting(String id) throws NotFoundException {
+            if (getUser(id, null) == null) {
+                throw new NotFoundException();
+            }
+        }
+
+        @Override
+        public User createUser(User user, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("Not supported.");
+        }
+
+        @Override
+        public List<Object> listUsersWithPost(SearchRequest searchRequest, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public User getMe(String userName, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("Not supported.");
+        }
+
+        @Override
+        public User createMe(User user, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("Not supported.");
+        }
+
+        @Override
+        public void deleteMe(String userName) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public User updateMe(User updatedUser, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public Group createGroup(Group group, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public Group getGroup(String id, Map<String, Boolean> requiredAttributes) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public void deleteGroup(String id) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public Group updateGroup(Group oldGroup, Group newGroup, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public List<Object> listGroupsWithPost(SearchRequest searchRequest, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+    }
+}
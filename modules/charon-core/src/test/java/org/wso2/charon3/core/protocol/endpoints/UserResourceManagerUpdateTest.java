@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.protocol.endpoints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.charon3.core.config.CharonConfiguration;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.extensions.UserManager;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.schema.ServerSideValidator;
+import org.wso2.charon3.core.utils.codeutils.SearchRequest;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that a failed PATCH or PUT leaves the user held by the user manager as it was.
+ */
+public class UserResourceManagerUpdateTest {
+
+    private static final Instant LAST_MODIFIED = Instant.parse("2016-01-01T00:00:00Z");
+
+    private boolean eTagSupported;
+
+    @Before
+    public void setUp() {
+        AbstractResourceManager.setEndpointURLMap(
+                Collections.singletonMap(SCIMConstants.USER_ENDPOINT, "https://localhost/scim/v2/Users"));
+        eTagSupported = CharonConfiguration.getInstance().isETagSupported();
+        CharonConfiguration.getInstance().setETagSupport(true);
+    }
+
+    @After
+    public void tearDown() {
+        AbstractResourceManager.setEndpointURLMap(null);
+        CharonConfiguration.getInstance().setETagSupport(eTagSupported);
+    }
+
+    @Test
+    public void testFailedPatchKeepsTheOriginalUser() throws Exception {
+        User user = createUser();
+        String version = user.getVersion();
+
+        SCIMResponse response = new UserResourceManager().updateWithPATCH(user.getId(),
+                "{\"schemas\":[\"urn:ietf:params:scim:api:messages:2.0:PatchOp\"],\"Operations\":["
+                        + "{\"op\":\"replace\",\"path\":\"name.givenName\",\"value\":\"Robert\"},"
+                        + "{\"op\":\"remove\",\"path\":\"emails[type eq \\\"work\\\"]\"}]}",
+                new FailingUserManager(user), null, null);
+
+        assertEquals(ResponseCodeConstants.CODE_INTERNAL_ERROR, response.getResponseStatus());
+        assertEquals(LAST_MODIFIED, user.getLastModifiedInstant());
+        assertEquals(version, user.getVersion());
+        assertEquals(1, user.getEmails().size());
+        assertNull(user.getAttribute("name"));
+    }
+
+    @Test
+    public void testFailedPutKeepsTheOriginalUser() throws Exception {
+        User user = createUser();
+        String version = user.getVersion();
+
+        SCIMResponse response = new UserResourceManager().updateWithPUT(user.getId(),
+                "{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"],\"userName\":\"bob\"}",
+                new FailingUserManager(user), null, null);
+
+        assertEquals(ResponseCodeConstants.CODE_INTERNAL_ERROR, response.getResponseStatus());
+        assertEquals(LAST_MODIFIED, user.getLastModifiedInstant());
+        assertEquals(version, user.getVersion());
+        assertEquals(1, user.getEmails().size());
+    }
+
+    private static User createUser() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        User user = new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI
+                + "\"],\"userName\":\"bob\",\"emails\":[{\"value\":\"bob@example.com\",\"type\":\"work\"}]}",
+                schema, new User());
+        ServerSideValidator.validateCreatedSCIMObject(user, schema);
+        user.setLastModifiedInstant(LAST_MODIFIED);
+        assertNotNull(user.getVersion());
+        return user;
+    }
+
+    /**
+     * User manager that holds a single user and fails to update it.
+     */
+    private static class FailingUserManager implements UserManager {
+
+        private final User user;
+
+        FailingUserManager(User user) {
+            this.user = user;
+        }
+
+        @Override
+        public User getUser(String id, Map<String, Boolean> requiredAttributes) {
+            return user.getId().equals(id) ? user : null;
+        }
+
+        @Override
+        public User updateUser(User updatedUser, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("The user store is not available.");
+        }
+
+        @Override
+        public User createUser(User user, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("Not supported.");
+        }
+
+        @Override
+        public void deleteUser(String userId) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public List<Object> listUsersWithPost(SearchRequest searchRequest, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public User getMe(String userName, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("Not supported.");
+        }
+
+        @Override
+        public User createMe(User user, Map<String, Boolean> requiredAttributes) throws CharonException {
+            throw new CharonException("Not supported.");
+        }
+
+        @Override
+        public void deleteMe(String userName) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public User updateMe(User updatedUser, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public Group createGroup(Group group, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public Group getGroup(String id, Map<String, Boolean> requiredAttributes) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public void deleteGroup(String id) throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public Group updateGroup(Group oldGroup, Group newGroup, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public List<Object> listGroupsWithPost(SearchRequest searchRequest, Map<String, Boolean> requiredAttributes)
+                throws NotImplementedException {
+            throw new NotImplementedException();
+        }
+    }
+}
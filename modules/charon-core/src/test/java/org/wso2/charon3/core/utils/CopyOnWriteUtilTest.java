@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.wso2.charon3.core.attributes.AbstractAttribute;
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.MultiValuedAttribute;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.utils.codeutils.PatchOperation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests which attributes a patch operation works on copies of.
+ */
+public class CopyOnWriteUtilTest {
+
+    private static final SCIMResourceTypeSchema SCHEMA =
+            SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+    @Test
+    public void testFilteredRemoveOnlyCopiesTheValueList() {
+        assertEquals(touched("emails", false),
+                getTouchedAttributes(SCIMConstants.OperationalConstants.REMOVE, "emails[type eq \"work\"]", null));
+    }
+
+    @Test
+    public void testFilteredReplaceCopiesTheValues() {
+        assertEquals(touched("emails", true),
+                getTouchedAttributes(SCIMConstants.OperationalConstants.REPLACE, "emails[type eq \"work\"]", null));
+    }
+
+    @Test
+    public void testFilteredSubAttributePathCopiesTheValues() {
+        assertEquals(touched("emails", true), getTouchedAttributes(SCIMConstants.OperationalConstants.REMOVE,
+                "emails[type eq \"work\"].display", null));
+        assertEquals(touched("addresses", true), getTouchedAttributes(SCIMConstants.OperationalConstants.REPLACE,
+                "addresses[type eq \"home\"].streetAddress", "Main Street"));
+    }
+
+    @Test
+    public void testSubAttributePathCopiesTheValues() {
+        assertEquals(touched("name", true),
+                getTouchedAttributes(SCIMConstants.OperationalConstants.REPLACE, "name.givenName", "Bob"));
+        assertEquals(touched("emails", true),
+                getTouchedAttributes(SCIMConstants.OperationalConstants.REMOVE, "Emails.Display", null));
+    }
+
+    @Test
+    public void testAttributePathCopiesTheValueList() {
+        assertEquals(touched("emails", false),
+                getTouchedAttributes(SCIMConstants.OperationalConstants.REMOVE, "emails", null));
+    }
+
+    @Test
+    public void testFilterValueWithBracketsIsNotTakenForValueList() {
+        //a bracket in the filter value looks like a sub attribute path, which copies more than needed but is safe
+        assertEquals(touched("emails", true), getTouchedAttributes(SCIMConstants.OperationalConstants.REMOVE,
+                "emails[value eq \"a]b@example.com\"]", null));
+    }
+
+    @Test
+    public void testExtensionPathCopiesEverything() {
+        assertNull(getTouchedAttributes(SCIMConstants.OperationalConstants.REPLACE,
+                "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:employeeNumber", "42"));
+        assertNull(getTouchedAttributes(SCIMConstants.OperationalConstants.REMOVE,
+                "emails[value eq \"urn:x\"]", null));
+    }
+
+    @Test
+    public void testAddCopiesTheValueListsOfTheAttributesInTheValue() {
+        JSONObject value = new JSONObject();
+        value.put(SCIMConstants.CommonSchemaConstants.SCHEMAS, new JSONArray());
+        value.put("emails", new JSONArray());
+        value.put("urn:ietf:params:scim:schemas:core:2.0:User:nickName", "bob");
+
+        Map<String, Boolean> expected = touched("emails", false);
+        expected.put("nickname", false);
+        assertEquals(expected, getTouchedAttributes(SCIMConstants.OperationalConstants.ADD, "emails", value));
+    }
+
+    @Test
+    public void testUnknownValuesCopyEverything() {
+        JSONObject value = new JSONObject();
+        value.put("unknown", "x");
+        assertNull(getTouchedAttributes(SCIMConstants.OperationalConstants.ADD, null, value));
+        assertNull(getTouchedAttributes(SCIMConstants.OperationalConstants.REPLACE, null, new JSONArray()));
+    }
+
+    @Test
+    public void testPrepareForOperationSharesUntouchedValues() throws Exception {
+        SCIMResourceTypeSchema groupSchema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
+        Group group = new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.GROUP_CORE_SCHEMA_URI
+                + "\"],\"displayName\":\"admins\",\"members\":[{\"value\":\"1\"},{\"value\":\"2\"}]}",
+                groupSchema, new Group());
+        Group patched = (Group) CopyOnWriteUtil.shallowCopy(group);
+
+        CopyOnWriteUtil.prepareForOperation(patched,
+                operation(SCIMConstants.OperationalConstants.REMOVE, "members[value eq \"1\"]", null), groupSchema);
+
+        MultiValuedAttribute members = (MultiValuedAttribute) patched.getAttribute("members");
+        MultiValuedAttribute originalMembers = (MultiValuedAttribute) group.getAttribute("members");
+        assertNotSame(originalMembers, members);
+        assertNotSame(originalMembers.getAttributeValues(), members.getAttributeValues());
+        assertSame(originalMembers.getAttributeValues().get(0), members.getAttributeValues().get(0));
+        assertNotSame(group.getAttribute("displayName"), patched.getAttribute("displayName"));
+    }
+
+    @Test
+    public void testPrepareForOperationCopiesValuesTheValidationModifies() throws Exception {
+        User user = new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI
+                + "\"],\"userName\":\"bob\",\"emails\":[{\"value\":\"bob@example.com\",\"type\":\"work\"}]}",
+                SCHEMA, new User());
+        User patched = (User) CopyOnWriteUtil.shallowCopy(user);
+
+        CopyOnWriteUtil.prepareForOperation(patched,
+                operation(SCIMConstants.OperationalConstants.REMOVE, "emails[type eq \"work\"]", null), SCHEMA);
+
+        //the validation sets the display of emails, so the values must not be shared
+        MultiValuedAttribute emails = (MultiValuedAttribute) patched.getAttribute("emails");
+        MultiValuedAttribute originalEmails = (MultiValuedAttribute) user.getAttribute("emails");
+        assertNotSame(originalEmails.getAttributeValues().get(0), emails.getAttributeValues().get(0));
+    }
+
+    @Test
+    public void testReadOnlyViewCopiesAttributesReadByName() throws Exception {
+        User snapshot = createUser();
+        User view = (User) CopyOnWriteUtil.readOnlyView(snapshot);
+
+        Attribute emails = view.getAttributeList().get("emails");
+        assertNotSame(snapshot.getAttribute("emails"), emails);
+        assertSame(emails, view.getAttributeList().get("emails"));
+        assertSame(emails, view.getAttributeList().getOrDefault("emails", null));
+    }
+
+    @Test
+    public void testReadOnlyViewCopiesIteratedAttributes() throws Exception {
+        User snapshot = createUser();
+        User view = (User) CopyOnWriteUtil.readOnlyView(snapshot);
+
+        for (Attribute attribute : view.getAttributeList().values()) {
+            assertNotSame(snapshot.getAttribute(attribute.getName()), attribute);
+            ((AbstractAttribute) attribute).setName("modified");
+        }
+        for (Map.Entry<String, Attribute> entry : view.getAttributeList().entrySet()) {
+            assertNotSame(snapshot.getAttribute(entry.getKey()), entry.getValue());
+            assertEquals("modified", entry.getValue().getName());
+        }
+        for (Attribute attribute : snapshot.getAttributeList().values()) {
+            assertNotEquals("modified", attribute.getName());
+        }
+    }
+
+    @Test
+    public void testReadOnlyViewCopiesAttributesOfBulkOperations() throws Exception {
+        User snapshot = createUser();
+        User view = (User) CopyOnWriteUtil.readOnlyView(snapshot);
+        Map<String, Attribute> attributes = view.getAttributeList();
+
+        attributes.forEach((name, attribute) -> assertNotSame(snapshot.getAttribute(name), attribute));
+        User otherView = (User) CopyOnWriteUtil.readOnlyView(snapshot);
+        otherView.getAttributeList().computeIfPresent("emails", (name, attribute) -> {
+            assertNotSame(snapshot.getAttribute(name), attribute);
+            return attribute;
+        });
+        otherView.getAttributeList().replaceAll((name, attribute) -> {
+            assertNotSame(snapshot.getAttribute(name), attribute);
+            return attribute;
+        });
+        assertNotSame(snapshot.getAttribute("userName"),
+                CopyOnWriteUtil.readOnlyView(snapshot).getAttributeList().putIfAbsent("userName", null));
+    }
+
+    @Test
+    public void testShallowCopyOfReadOnlyViewSharesTheSnapshot() throws Exception {
+        User snapshot = createUser();
+        User view = (User) CopyOnWriteUtil.readOnlyView(snapshot);
+
+        User copy = (User) CopyOnWriteUtil.shallowCopy(view);
+        assertSame(snapshot.getAttribute("emails"), copy.getAttributeList().get("emails"));
+        //the deep copy of a view copies the snapshot only once
+        User deepCopy = (User) CopyUtil.deepCopy(view);
+        assertNotSame(snapshot.getAttribute("emails"), deepCopy.getAttributeList().get("emails"));
+        assertEquals(snapshot.getAttributeList().keySet(), deepCopy.getAttributeList().keySet());
+    }
+
+    private static User createUser() throws Exception {
+        return new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI
+                + "\"],\"userName\":\"bob\",\"emails\":[{\"value\":\"bob@example.com\",\"type\":\"work\"}]}",
+                SCHEMA, new User());
+    }
+
+    private static Map<String, Boolean> getTouchedAttributes(String operation, String path, Object value) {
+        return CopyOnWriteUtil.getTouchedAttributes(operation(operation, path, value), SCHEMA);
+    }
+
+    private static PatchOperation operation(String operation, String path, Object value) {
+        PatchOperation patchOperation = new PatchOperation();
+        patchOperation.setOperation(operation);
+        patchOperation.setPath(path);
+        patchOperation.setValues(value);
+        return patchOperation;
+    }
+
+    private static Map<String, Boolean> touched(String attributeName, boolean inPlace) {
+        return new HashMap<>(Collections.singletonMap(attributeName, inPlace));
+    }
+}
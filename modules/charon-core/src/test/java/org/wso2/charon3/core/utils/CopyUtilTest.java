@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils;
+
+import org.junit.Test;
+import org.wso2.charon3.core.attributes.AbstractAttribute;
+import org.wso2.charon3.core.attributes.GroupMembersAttribute;
+import org.wso2.charon3.core.attributes.MultiValuedAttribute;
+import org.wso2.charon3.core.attributes.SimpleAttribute;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.encoder.JSONEncoder;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the structural deep copy of {@link CopyUtil}.
+ */
+public class CopyUtilTest {
+
+    @Test
+    public void testUserCopyEncodesLikeTheOriginal() throws Exception {
+        User user = decodeUser("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"],\"userName\":\"bob\","
+                + "\"active\":true,\"name\":{\"givenName\":\"Bob\",\"familyName\":\"Smith\"},"
+                + "\"emails\":[{\"value\":\"bob@example.com\",\"type\":\"work\",\"primary\":true}],"
+                + "\"meta\":{\"lastModified\":\"2016-01-01T00:00:00Z\"}}");
+
+        User copy = (User) CopyUtil.deepCopy(user);
+
+        assertNotSame(user, copy);
+        assertEquals(new JSONEncoder().encodeSCIMObject(user), new JSONEncoder().encodeSCIMObject(copy));
+        assertEquals(user.getSchemaList(), copy.getSchemaList());
+        assertNotSame(user.getSchemaList(), copy.getSchemaList());
+        //the attribute schemas are never modified through an attribute and are shared
+        AbstractAttribute emails = (AbstractAttribute) user.getAttribute("emails");
+        AbstractAttribute copiedEmails = (AbstractAttribute) copy.getAttribute("emails");
+        assertNotSame(emails, copiedEmails);
+        assertSame(emails.getAttributeSchema(), copiedEmails.getAttributeSchema());
+    }
+
+    @Test
+    public void testUserCopyIsIndependent() throws Exception {
+        User user = decodeUser("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"],\"userName\":\"bob\","
+                + "\"emails\":[{\"value\":\"bob@example.com\",\"type\":\"work\"}]}");
+
+        User copy = (User) CopyUtil.deepCopy(user);
+        ((MultiValuedAttribute) copy.getAttribute("emails")).getAttributeValues().clear();
+        ((SimpleAttribute) copy.getAttribute("userName")).setValue("alice");
+        copy.deleteAttribute("emails");
+
+        assertEquals("bob", user.getUserName());
+        assertEquals(1, user.getEmails().size());
+        assertEquals(1, ((MultiValuedAttribute) user.getAttribute("emails")).getAttributeValues().size());
+    }
+
+    @Test
+    public void testGroupMembersAreCopied() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getGroupResourceSchema();
+        Group group = new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.GROUP_CORE_SCHEMA_URI
+                + "\"],\"displayName\":\"g\",\"members\":[{\"value\":\"1\",\"display\":\"a\"},{\"value\":\"2\"}]}",
+                schema, new Group());
+
+        Group copy = (Group) CopyUtil.deepCopy(group);
+
+        assertEquals(new JSONEncoder().encodeSCIMObject(group), new JSONEncoder().encodeSCIMObject(copy));
+        assertTrue(copy.getAttribute(SCIMConstants.GroupSchemaConstants.MEMBERS) instanceof GroupMembersAttribute);
+        assertNotSame(group.getAttribute(SCIMConstants.GroupSchemaConstants.MEMBERS),
+                copy.getAttribute(SCIMConstants.GroupSchemaConstants.MEMBERS));
+        assertEquals(Arrays.asList("1", "2"), copy.getMembers());
+    }
+
+    @Test
+    public void testMutableValuesAreCopied() throws Exception {
+        Date date = new Date(1000);
+        byte[] bytes = {1, 2, 3};
+
+        SimpleAttribute dateCopy = (SimpleAttribute) CopyUtil.deepCopy(new SimpleAttribute("date", date));
+        SimpleAttribute bytesCopy = (SimpleAttribute) CopyUtil.deepCopy(new SimpleAttribute("bytes", bytes));
+        SimpleAttribute stringCopy = (SimpleAttribute) CopyUtil.deepCopy(new SimpleAttribute("string", "value"));
+
+        assertEquals(date, dateCopy.getValue());
+        assertNotSame(date, dateCopy.getValue());
+        assertArrayEquals(bytes, (byte[]) bytesCopy.getValue());
+        assertNotSame(bytes, bytesCopy.getValue());
+        assertSame("value", stringCopy.getValue());
+        assertEquals("string", stringCopy.getName());
+    }
+
+    @Test
+    public void testSharedSchemasStayShared() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        AttributeSchema emails = schema.getAttributesList().stream()
+                .filter(attributeSchema -> "emails".equals(attributeSchema.getName())).findFirst().get();
+        List<AttributeSchema> schemas = new ArrayList<>(Arrays.asList(emails, emails));
+
+        @SuppressWarnings("unchecked")
+        List<AttributeSchema> copy = (List<AttributeSchema>) CopyUtil.deepCopy(schemas);
+
+        assertNotSame(emails, copy.get(0));
+        assertSame(copy.get(0), copy.get(1));
+        assertEquals(emails.getURI(), copy.get(0).getURI());
+        assertEquals(emails.getSubAttributeSchemas().size(), copy.get(0).getSubAttributeSchemas().size());
+        assertNotSame(emails.getSubAttributeSchemas().get(0), copy.get(0).getSubAttributeSchemas().get(0));
+
+        SCIMResourceTypeSchema schemaCopy = (SCIMResourceTypeSchema) CopyUtil.deepCopy(schema);
+        assertEquals(schema.getSchemasList(), schemaCopy.getSchemasList());
+        assertEquals(schema.getAttributesList().size(), schemaCopy.getAttributesList().size());
+        assertNotSame(schema.getAttributesList().get(0), schemaCopy.getAttributesList().get(0));
+    }
+
+    @Test
+    public void testUnknownTypesAreSerialized() throws Exception {
+        Map<String, List<String>> map = new HashMap<>();
+        map.put("key", new ArrayList<>(Arrays.asList("a", "b")));
+
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> copy = (Map<String, List<String>>) CopyUtil.deepCopy(map);
+
+        assertEquals(map, copy);
+        assertNotSame(map.get("key"), copy.get("key"));
+        assertNull(CopyUtil.deepCopy(null));
+    }
+
+    private static User decodeUser(String json) throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+        return new JSONDecoder().decodeResource(json, schema, new User());
+    }
+}
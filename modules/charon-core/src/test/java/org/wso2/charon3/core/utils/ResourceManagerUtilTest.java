@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the projection plans cached by {@link ResourceManagerUtil}.
+ */
+public class ResourceManagerUtilTest {
+
+    @After
+    public void clearPlans() {
+        ResourceManagerUtil.clearProjectionPlans();
+    }
+
+    @Test
+    public void testPlanIsReusedForSameParameters() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+        ProjectionPlan plan = ResourceManagerUtil.getProjectionPlan(schema, "userName,emails", null);
+
+        assertSame(plan, ResourceManagerUtil.getProjectionPlan(schema, "userName,emails", null));
+        assertNotSame(plan, ResourceManagerUtil.getProjectionPlan(schema, "userName", null));
+        assertNotSame(plan, ResourceManagerUtil.getProjectionPlan(schema, null, "userName,emails"));
+    }
+
+    @Test
+    public void testPlanMatchesUncachedResult() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+        Map<String, Boolean> cached = ResourceManagerUtil.getProjectionPlan(schema, "userName", null)
+                .getRequiredAttributeURIs();
+        ResourceManagerUtil.clearProjectionPlans();
+        Map<String, Boolean> compiled = ResourceManagerUtil.getOnlyRequiredAttributesURIs(schema, "userName", null);
+
+        assertEquals(compiled, cached);
+        assertTrue(cached.keySet().stream().anyMatch(uri -> uri.endsWith("userName")));
+        assertFalse(cached.keySet().stream().anyMatch(uri -> uri.endsWith("emails")));
+    }
+
+    @Test
+    public void testCallersCannotModifyCachedPlan() throws Exception {
+        SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+        Map<String, Boolean> uris = ResourceManagerUtil.getOnlyRequiredAttributesURIs(schema, "userName", null);
+        uris.clear();
+
+        assertFalse(ResourceManagerUtil.getProjectionPlan(schema, "userName", null).getRequiredAttributeURIs()
+                .isEmpty());
+        try {
+            ResourceManagerUtil.getProjectionPlan(schema, "userName", null).getRequiredAttributeURIs().clear();
+            throw new AssertionError("the plan must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            //the plan is shared between requests
+        }
+    }
+}
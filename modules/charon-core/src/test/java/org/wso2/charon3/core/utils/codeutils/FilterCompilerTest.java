@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.junit.Test;
+import org.wso2.charon3.core.attributes.SimpleAttribute;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.SCIMAttributeSchema;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the predicates compiled by {@link FilterCompiler}.
+ */
+public class FilterCompilerTest {
+
+    private static final String TEST_SCHEMA = "urn:test:schema";
+
+    private static final SCIMResourceTypeSchema TEST_RESOURCE_SCHEMA = SCIMResourceTypeSchema.createSCIMResourceSchema(
+            Collections.singletonList(TEST_SCHEMA), createAttributeSchema("count", SCIMDefinitions.DataType.INTEGER),
+            createAttributeSchema("ratio", SCIMDefinitions.DataType.DECIMAL),
+            createAttributeSchema("blob", SCIMDefinitions.DataType.BINARY));
+
+    private final SCIMResourceTypeSchema userSchema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+    @Test
+    public void testStringsRespectCaseExact() throws Exception {
+        User user = createUser();
+
+        assertTrue(matches("userName eq BOB", user));
+        assertTrue(matches("userName sw B and userName ew OB and userName co O", user));
+        assertTrue(matches("userName gt alice and userName lt carol", user));
+        assertFalse(matches("userName ne BOB", user));
+        //the external id is case exact
+        assertTrue(matches("externalId eq Ext-1", user));
+        assertFalse(matches("externalId eq ext-1", user));
+        assertFalse(matches("externalId co EXT", user));
+    }
+
+    @Test
+    public void testMultiValuedAttributesMatchAnyValue() throws Exception {
+        User user = createUser();
+
+        assertTrue(matches("emails.value ew example.org", user));
+        assertTrue(matches("emails co example.com", user));
+        assertTrue(matches("emails pr", user));
+        assertFalse(matches("emails.value eq nobody@example.com", user));
+        assertFalse(matches("emails.value ne bob@example.com", user));
+        assertTrue(matches("emails.value ne nobody@example.com", user));
+        //both expressions of a value path have to match the same email
+        assertTrue(matches("emails.type eq home and emails.value ew example.com", user));
+        assertFalse(matches("emails[type eq home and value ew example.com]", user));
+        assertTrue(matches("emails[type eq home and value ew example.org]", user));
+    }
+
+    @Test
+    public void testLogicalOperators() throws Exception {
+        User user = createUser();
+
+        assertTrue(matches("userName eq bob and (title pr or nickName eq b)", user));
+        assertFalse(matches("userName eq bob and title pr", user));
+        assertTrue(matches("not (title pr)", user));
+        assertTrue(matches("title eq x or active eq true", user));
+        assertTrue(FilterCompiler.compile(null, userSchema).test(user));
+    }
+
+    @Test
+    public void testBooleansAndDates() throws Exception {
+        User user = createUser();
+
+        assertTrue(matches("active eq TRUE", user));
+        assertFalse(matches("active eq false", user));
+        assertTrue(matches("meta.lastModified gt \"2015-12-31T23:59:59Z\"", user));
+        assertTrue(matches("meta.lastModified eq \"2016-01-01T01:00:00+01:00\"", user));
+        assertFalse(matches("meta.lastModified lt \"2016-01-01T00:00:00Z\"", user));
+    }
+
+    @Test
+    public void testNumbersAreComparedExactly() throws Exception {
+        AbstractSCIMObject resource = createResource("count", 9007199254740993L);
+
+        assertTrue(matches("count", "eq", "9007199254740993", resource));
+        assertFalse(matches("count", "eq", "9007199254740992", resource));
+        assertTrue(matches("count", "gt", "9007199254740992.5", resource));
+        assertTrue(matches("count", "lt", "1e30", resource));
+
+        resource = createResource("ratio", 1.5d);
+        assertTrue(matches("ratio", "eq", "1.50", resource));
+        assertFalse(matches("ratio", "eq", "1.5000000000000001", resource));
+        assertTrue(matches("ratio", "lt", "1.5000000000000001", resource));
+        assertTrue(matches("ratio", "ge", "-2", createResource("ratio", new BigDecimal("-1.99"))));
+    }
+
+    @Test
+    public void testBinaryValuesAreComparedByBase64() throws Exception {
+        assertTrue(matches("blob", "eq", "YWJj", createResource("blob", new byte[]{'a', 'b', 'c'})));
+        assertTrue(matches("blob", "eq", "YWJj", createResource("blob", new Byte[]{'a', 'b', 'c'})));
+        assertTrue(matches("blob", "eq", "YWJj", createResource("blob", "YWJj")));
+        assertFalse(matches("blob", "eq", "YWJk", createResource("blob", new byte[]{'a', 'b', 'c'})));
+        assertTrue(matches("blob", "ne", "YWJk", createResource("blob", new byte[]{'a', 'b', 'c'})));
+    }
+
+    @Test
+    public void testInvalidFilters() throws Exception {
+        assertInvalid(new FilterTreeManager("active eq yes", userSchema).buildTree(), userSchema);
+        assertInvalid(new FilterTreeManager("active gt true", userSchema).buildTree(), userSchema);
+        assertInvalid(new FilterTreeManager("meta.lastModified gt yesterday", userSchema).buildTree(), userSchema);
+        assertInvalid(new FilterTreeManager("name eq Bob", userSchema).buildTree(), userSchema);
+        assertInvalid(expression("unknown", "eq", "1"), TEST_RESOURCE_SCHEMA);
+        assertInvalid(expression("count", "eq", "ten"), TEST_RESOURCE_SCHEMA);
+        assertInvalid(expression("count", "co", "1"), TEST_RESOURCE_SCHEMA);
+        assertInvalid(expression("blob", "eq", "not base64!"), TEST_RESOURCE_SCHEMA);
+        assertInvalid(expression("blob", "gt", "YWJj"), TEST_RESOURCE_SCHEMA);
+        assertInvalid(expression("ratio", "eq", null), TEST_RESOURCE_SCHEMA);
+    }
+
+    private boolean matches(String filter, AbstractSCIMObject resource) throws Exception {
+        return FilterCompiler.compile(new FilterTreeManager(filter, userSchema).buildTree(), userSchema)
+                .test(resource);
+    }
+
+    private static boolean matches(String name, String operation, String value, AbstractSCIMObject resource)
+            throws Exception {
+        return FilterCompiler.compile(expression(name, operation, value), TEST_RESOURCE_SCHEMA).test(resource);
+    }
+
+    private static void assertInvalid(Node node, SCIMResourceTypeSchema schema) {
+        try {
+            FilterCompiler.compile(node, schema);
+            fail("filter should be rejected");
+        } catch (BadRequestException e) {
+            assertEquals(ResponseCodeConstants.INVALID_FILTER, e.getScimType());
+        }
+    }
+
+    private static ExpressionNode expression(String name, String operation, String value) {
+        ExpressionNode expressionNode = new ExpressionNode();
+        expressionNode.setAttributeValue(TEST_SCHEMA + ":" + name);
+        expressionNode.setOperation(operation);
+        expressionNode.setValue(value);
+        return expressionNode;
+    }
+
+    private User createUser() throws Exception {
+        return new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"],"
+                + "\"userName\":\"bob\",\"externalId\":\"Ext-1\",\"active\":true,\"nickName\":\"b\","
+                + "\"emails\":[{\"value\":\"bob@example.com\",\"type\":\"work\"},"
+                + "{\"value\":\"bob@example.org\",\"type\":\"home\"}],"
+                + "\"meta\":{\"lastModified\":\"2016-01-01T00:00:00Z\"}}", userSchema, new User());
+    }
+
+    private static AbstractSCIMObject createResource(String name, Object value) {
+        AbstractSCIMObject resource = new AbstractSCIMObject();
+        resource.getAttributeList().put(name, new SimpleAttribute(name, value));
+        return resource;
+    }
+
+    private static AttributeSchema createAttributeSchema(String name, SCIMDefinitions.DataType type) {
+        return SCIMAttributeSchema.createSCIMAttributeSchema(TEST_SCHEMA + ":" + name, name, type, false, name,
+                false, false, SCIMDefinitions.Mutability.READ_WRITE, SCIMDefinitions.Returned.DEFAULT,
+                SCIMDefinitions.Uniqueness.NONE, null, null, null);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.junit.Test;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the canonical trees built by {@link FilterOptimizer}.
+ */
+public class FilterOptimizerTest {
+
+    private static final String USER = "urn:ietf:params:scim:schemas:core:2.0:User:";
+
+    private final SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+    @Test
+    public void testEqualitiesBecomeInSet() throws Exception {
+        NaryOperationNode or = (NaryOperationNode) optimize(
+                "userName eq a or title eq x or userName eq b or (userName eq c or userName eq a)");
+
+        assertEquals("or", or.getOperation());
+        assertEquals(2, or.getOperands().size());
+        InOperationNode in = (InOperationNode) or.getOperands().get(0);
+        assertEquals(USER + "userName", in.getAttributeValue());
+        assertEquals(Arrays.asList("a", "b", "c"), in.getValues());
+        assertExpression(or.getOperands().get(1), USER + "title", "eq", "x");
+    }
+
+    @Test
+    public void testEqualitiesJoinedWithAndStayApart() throws Exception {
+        NaryOperationNode and = (NaryOperationNode) optimize("userName eq a and userName eq b");
+
+        assertEquals("and", and.getOperation());
+        assertFalse(and instanceof InOperationNode);
+        assertExpression(and.getOperands().get(0), USER + "userName", "eq", "a");
+        assertExpression(and.getOperands().get(1), USER + "userName", "eq", "b");
+    }
+
+    @Test
+    public void testBoundsBecomeRange() throws Exception {
+        NaryOperationNode and = (NaryOperationNode) optimize("title ge a and nickName pr and title lt m");
+
+        assertEquals(2, and.getOperands().size());
+        RangeOperationNode range = (RangeOperationNode) and.getOperands().get(0);
+        assertEquals(USER + "title", range.getAttributeValue());
+        assertEquals("a", range.getLowerBound());
+        assertTrue(range.isLowerBoundInclusive());
+        assertEquals("m", range.getUpperBound());
+        assertFalse(range.isUpperBoundInclusive());
+        assertExpression(and.getOperands().get(1), USER + "nickName", "pr", null);
+
+        range = (RangeOperationNode) optimize("title lt z and title gt b");
+        assertEquals("b", range.getLowerBound());
+        assertFalse(range.isLowerBoundInclusive());
+        assertEquals("z", range.getUpperBound());
+    }
+
+    @Test
+    public void testBoundsOnMultiValuedAttributeStayApart() throws Exception {
+        NaryOperationNode and = (NaryOperationNode) optimize("emails.value gt a and emails.value lt m");
+
+        assertFalse(and instanceof RangeOperationNode);
+        assertExpression(and.getOperands().get(0), USER + "emails.value", "gt", "a");
+        assertExpression(and.getOperands().get(1), USER + "emails.value", "lt", "m");
+    }
+
+    @Test
+    public void testNotIsPushedDown() throws Exception {
+        NaryOperationNode and = (NaryOperationNode) optimize("not (userName eq a or userName eq b)");
+
+        //"not" flips the "or" into an "and", which is not an in set
+        assertEquals("and", and.getOperation());
+        assertNot(and.getOperands().get(0), "a");
+        assertNot(and.getOperands().get(1), "b");
+
+        assertExpression(optimize("not (not (userName eq a))"), USER + "userName", "eq", "a");
+    }
+
+    @Test
+    public void testNegatedBoundsStayApart() throws Exception {
+        NaryOperationNode and = (NaryOperationNode) optimize("not (title lt a or title gt m)");
+
+        assertFalse(and instanceof RangeOperationNode);
+        assertEquals(2, and.getOperands().size());
+    }
+
+    @Test
+    public void testDuplicatesAreRemoved() throws Exception {
+        assertExpression(optimize("userName eq a and (userName eq a and userName eq a)"), USER + "userName", "eq",
+                "a");
+    }
+
+    @Test
+    public void testBinaryTreeIsKept() throws Exception {
+        NaryOperationNode or = (NaryOperationNode) optimize("title eq a or nickName eq b or displayName eq c");
+
+        List<Node> operands = or.getOperands();
+        assertSame(operands.get(2), or.getRightNode());
+        OperationNode left = (OperationNode) or.getLeftNode();
+        assertEquals("or", left.getOperation());
+        assertSame(operands.get(0), left.getLeftNode());
+        assertSame(operands.get(1), left.getRightNode());
+    }
+
+    @Test
+    public void testInputIsNotModified() throws Exception {
+        Node tree = new FilterTreeManager("userName eq a or userName eq b", schema).buildTree();
+        Node left = tree.getLeftNode();
+
+        FilterOptimizer.optimize(tree, schema);
+
+        assertSame(left, tree.getLeftNode());
+        assertEquals("or", ((OperationNode) tree).getOperation());
+        assertNull(FilterOptimizer.optimize(null, schema));
+    }
+
+    private Node optimize(String filter) throws Exception {
+        return FilterOptimizer.optimize(new FilterTreeManager(filter, schema).buildTree(), schema);
+    }
+
+    private static void assertNot(Node node, String value) {
+        assertEquals("not", ((OperationNode) node).getOperation());
+        assertExpression(node.getRightNode(), USER + "userName", "eq", value);
+    }
+
+    private static void assertExpression(Node node, String attribute, String operation, String value) {
+        assertTrue(node instanceof ExpressionNode);
+        ExpressionNode expressionNode = (ExpressionNode) node;
+        assertEquals(attribute, expressionNode.getAttributeValue());
+        assertEquals(operation, expressionNode.getOperation());
+        assertEquals(value, expressionNode.getValue());
+    }
+}
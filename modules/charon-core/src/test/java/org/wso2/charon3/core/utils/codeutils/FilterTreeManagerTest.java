@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.core.utils.codeutils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wso2.charon3.core.config.CharonConfiguration;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the trees built by {@link FilterTreeManager} for valid and malformed filters.
+ */
+public class FilterTreeManagerTest {
+
+    private static final String USER = "urn:ietf:params:scim:schemas:core:2.0:User:";
+
+    private final SCIMResourceTypeSchema schema = SCIMResourceSchemaManager.getInstance().getUserResourceSchema();
+
+    @After
+    public void resetLimits() {
+        CharonConfiguration.getInstance().setFilterLimits(0, 0, 0);
+        FilterTreeManager.clearTemplateCache();
+    }
+
+    @Test
+    public void testSimpleFilter() throws Exception {
+        assertExpression(build("userName eq john"), USER + "userName", "eq", "john");
+        assertExpression(build("title pr"), USER + "title", "pr", null);
+        assertExpression(build("userName EQ \"john doe\""), USER + "userName", "eq", "john doe");
+    }
+
+    @Test
+    public void testAndBindsStrongerThanOr() throws Exception {
+        OperationNode or = (OperationNode) build("userName eq a or userName eq b and title eq c");
+
+        assertEquals("or", or.getOperation());
+        assertExpression(or.getLeftNode(), USER + "userName", "eq", "a");
+        OperationNode and = (OperationNode) or.getRightNode();
+        assertEquals("and", and.getOperation());
+        assertExpression(and.getLeftNode(), USER + "userName", "eq", "b");
+        assertExpression(and.getRightNode(), USER + "title", "eq", "c");
+    }
+
+    @Test
+    public void testParenthesesAndNot() throws Exception {
+        OperationNode and = (OperationNode) build("(userName eq a or title eq b) and not (nickName pr)");
+
+        assertEquals("and", and.getOperation());
+        assertEquals("or", ((OperationNode) and.getLeftNode()).getOperation());
+        OperationNode not = (OperationNode) and.getRightNode();
+        assertEquals("not", not.getOperation());
+        assertNull(not.getLeftNode());
+        assertExpression(not.getRightNode(), USER + "nickName", "pr", null);
+    }
+
+    @Test
+    public void testQuotedValuesKeepOperatorsAndEscapes() throws Exception {
+        assertExpression(build("title eq \"a and (b) or [c]\""), USER + "title", "eq", "a and (b) or [c]");
+        assertExpression(build("title eq \"say \\\"hi\\\"\\u0021\""), USER + "title", "eq", "say \"hi\"!");
+        assertExpression(build("title eq 'single'"), USER + "title", "eq", "single");
+    }
+
+    @Test
+    public void testValuePaths() throws Exception {
+        assertExpression(build("emails[type eq work]"), USER + "emails.type", "eq", "work");
+
+        Node node = build("emails[type eq work and value co \"@example.com\"]");
+        assertTrue(node instanceof ValuePathNode);
+        ValuePathNode valuePath = (ValuePathNode) node;
+        assertEquals(USER + "emails", valuePath.getAttributeValue());
+        assertExpression(valuePath.getValueFilter().getLeftNode(), USER + "emails.type", "eq", "work");
+        assertExpression(valuePath.getValueFilter().getRightNode(), USER + "emails.value", "co", "@example.com");
+    }
+
+    @Test
+    public void testCachedTemplateBindsOwnValues() throws Exception {
+        long misses = FilterTreeManager.getTemplateCacheMisses();
+        Node first = build("userName eq a and title eq b");
+        Node second = build("userName eq c and title eq \"d\"");
+
+        assertEquals(misses + 1, FilterTreeManager.getTemplateCacheMisses());
+        assertExpression(first.getLeftNode(), USER + "userName", "eq", "a");
+        assertExpression(first.getRightNode(), USER + "title", "eq", "b");
+        assertExpression(second.getLeftNode(), USER + "userName", "eq", "c");
+        assertExpression(second.getRightNode(), USER + "title", "eq", "d");
+    }
+
+    @Test
+    public void testMalformedFilters() throws Exception {
+        for (String filter : new String[]{"", "   ", "userName eq \"john", "userName eq", "userName xx john",
+                "(userName eq john", "userName eq john)", "userName eq john and", "emails[type eq work",
+                "emails[type eq work]]", "emails[type[value eq a]]", "and userName eq john",
+                "userName eq \"\\u00zz\""}) {
+            assertInvalid(filter, ResponseCodeConstants.INVALID_FILTER);
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        CharonConfiguration.getInstance().setFilterLimits(2, 2, 0);
+
+        build("(userName eq a) and title eq b");
+        assertInvalid("((userName eq a))", ResponseCodeConstants.TOO_MANY);
+        assertInvalid("userName eq a and title eq b and nickName eq c", ResponseCodeConstants.TOO_MANY);
+        //a cached template is checked against the limits as well
+        CharonConfiguration.getInstance().setFilterLimits(1, 2, 0);
+        assertInvalid("(userName eq c) and title eq d", ResponseCodeConstants.TOO_MANY);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedSymbols() throws Exception {
+        FilterTreeManager filterTreeManager = new FilterTreeManager(
+                "(userName eq \"john doe\" or emails[type eq work]) and not title pr", schema);
+
+        assertEquals(Arrays.asList("(", "userName eq john doe", "or", "emails[type eq work]", ")", "and", "not",
+                "title pr"), filterTreeManager.tokenList);
+        assertEquals("(", filterTreeManager.nextSymbol());
+        assertEquals("userName eq john doe", filterTreeManager.nextSymbol());
+        assertEquals(6, filterTreeManager.tokenList.size());
+        //the symbols are not needed to build the tree
+        assertEquals("and", ((OperationNode) filterTreeManager.buildTree()).getOperation());
+        filterTreeManager.tokenList.clear();
+        assertEquals("-1", filterTreeManager.nextSymbol());
+    }
+
+    private Node build(String filter) throws Exception {
+        return new FilterTreeManager(filter, schema).buildTree();
+    }
+
+    private void assertInvalid(String filter, String scimType) throws Exception {
+        try {
+            build(filter);
+            fail("filter should be rejected: " + filter);
+        } catch (BadRequestException e) {
+            assertEquals(filter, scimType, e.getScimType());
+        }
+    }
+
+    private static void assertExpression(Node node, String attribute, String operation, String value) {
+        assertTrue(node instanceof ExpressionNode);
+        ExpressionNode expressionNode = (ExpressionNode) node;
+        assertEquals(attribute, expressionNode.getAttributeValue());
+        assertEquals(operation, expressionNode.getOperation());
+        assertEquals(value, expressionNode.getValue());
+    }
+}
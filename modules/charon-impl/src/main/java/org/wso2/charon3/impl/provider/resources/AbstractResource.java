@@ -22,11 +22,15 @@ import org.wso2.charon3.core.encoder.JSONEncoder;
 import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.exceptions.FormatNotSupportedException;
 import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.protocol.StreamingSCIMResponse;
 import org.wso2.charon3.core.protocol.endpoints.AbstractResourceManager;
 import org.wso2.charon3.impl.provider.util.SCIMProviderConstants;
 import org.wso2.msf4j.Microservice;
+import java.io.IOException;
 import java.util.Map;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 
 /**
@@ -107,7 +111,25 @@ public class AbstractResource implements Microservice {
             }
         }
         //set the payload of the response, if available.
-        if (scimResponse.getResponseMessage() != null) {
+        if (scimResponse instanceof StreamingSCIMResponse) {
+            //let the container write the payload directly to the connection.
+            StreamingSCIMResponse streamingResponse = (StreamingSCIMResponse) scimResponse;
+            responseBuilder.entity((StreamingOutput) outputStream -> {
+                try {
+                    streamingResponse.writeResponseMessage(outputStream);
+                } catch (CharonException e) {
+                    logger.error("Error in writing the response payload", e);
+                    if (!streamingResponse.isCommitted()) {
+                        //nothing is sent yet, so the error response is sent instead.
+                        throw new WebApplicationException(e,
+                                buildResponse(AbstractResourceManager.encodeSCIMException(e)));
+                    }
+                    //the status and a part of the payload are already sent. Failing the write aborts the
+                    //connection, so the client does not take the partial payload for a complete one.
+                    throw new IOException("The response was aborted after it was partly sent", e);
+                }
+            });
+        } else if (scimResponse.getResponseMessage() != null) {
             responseBuilder.entity(scimResponse.getResponseMessage());
         }
         return responseBuilder.build();
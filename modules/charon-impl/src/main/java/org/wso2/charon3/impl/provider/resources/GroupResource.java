@@ -40,6 +40,7 @@ import org.wso2.msf4j.Microservice;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -92,7 +93,9 @@ public class GroupResource extends AbstractResource {
                              @ApiParam(value = SCIMProviderConstants.ATTRIBUTES_DESC, required = false)
                              @QueryParam(SCIMProviderConstants.ATTRIBUTES) String attribute,
                              @ApiParam(value = SCIMProviderConstants.EXCLUDED_ATTRIBUTES_DESC, required = false)
-                             @QueryParam(SCIMProviderConstants.EXCLUDE_ATTRIBUTES) String excludedAttributes)
+                             @QueryParam(SCIMProviderConstants.EXCLUDE_ATTRIBUTES) String excludedAttributes,
+                             @ApiParam(value = SCIMProviderConstants.IF_NONE_MATCH_HEADER_DESC, required = false)
+                             @HeaderParam(SCIMProviderConstants.IF_NONE_MATCH_HEADER) String ifNoneMatch)
             throws FormatNotSupportedException, CharonException {
 
         try {
@@ -102,7 +105,8 @@ public class GroupResource extends AbstractResource {
             // create charon-SCIM group endpoint and hand-over the request.
             GroupResourceManager groupResourceManager = new GroupResourceManager();
 
-            SCIMResponse scimResponse = groupResourceManager.get(id, userManager, attribute, excludedAttributes);
+            SCIMResponse scimResponse = groupResourceManager.get(id, userManager, attribute, excludedAttributes,
+                    ifNoneMatch);
             // needs to check the code of the response and return 201 Ok or other error codes
             // appropriately.
             return buildResponse(scimResponse);
@@ -128,6 +132,8 @@ public class GroupResource extends AbstractResource {
                                 @QueryParam(SCIMProviderConstants.ATTRIBUTES) String attribute,
                                 @ApiParam(value = SCIMProviderConstants.EXCLUDED_ATTRIBUTES_DESC, required = false)
                                 @QueryParam(SCIMProviderConstants.EXCLUDE_ATTRIBUTES) String excludedAttributes,
+                                @ApiParam(value = SCIMProviderConstants.IF_MATCH_HEADER_DESC, required = false)
+                                @HeaderParam(SCIMProviderConstants.IF_MATCH_HEADER) String ifMatch,
                                 String resourceString) throws CharonException, FormatNotSupportedException {
 
         try {
@@ -160,7 +166,9 @@ public class GroupResource extends AbstractResource {
             @ApiResponse(code = 404, message = "Valid group is not found")})
 
     public Response deleteGroup(@ApiParam(value = SCIMProviderConstants.ID_DESC, required = true)
-                               @PathParam(SCIMProviderConstants.ID) String id)
+                               @PathParam(SCIMProviderConstants.ID) String id,
+                               @ApiParam(value = SCIMProviderConstants.IF_MATCH_HEADER_DESC, required = false)
+                               @HeaderParam(SCIMProviderConstants.IF_MATCH_HEADER) String ifMatch)
             throws FormatNotSupportedException, CharonException {
 
         try {
@@ -170,7 +178,7 @@ public class GroupResource extends AbstractResource {
             // create charon-SCIM group endpoint and hand-over the request.
             GroupResourceManager groupResourceManager = new GroupResourceManager();
 
-            SCIMResponse scimResponse = groupResourceManager.delete(id, userManager);
+            SCIMResponse scimResponse = groupResourceManager.delete(id, userManager, ifMatch);
             // needs to check the code of the response and return 200 0k or other error codes
             // appropriately.
             return buildResponse(scimResponse);
@@ -209,7 +217,7 @@ public class GroupResource extends AbstractResource {
             GroupResourceManager groupResourceManager = new GroupResourceManager();
 
             SCIMResponse response = groupResourceManager.updateWithPUT(
-                    id, resourceString, userManager, attribute, excludedAttributes);
+                    id, resourceString, userManager, attribute, excludedAttributes, ifMatch);
 
             return buildResponse(response);
 
@@ -271,6 +279,8 @@ public class GroupResource extends AbstractResource {
                              @QueryParam(SCIMProviderConstants.START_INDEX) int startIndex,
                              @ApiParam(value = SCIMProviderConstants.COUNT_DESC, required = false)
                              @QueryParam(SCIMProviderConstants.COUNT) int count,
+                             @ApiParam(value = SCIMProviderConstants.CURSOR_DESC, required = false)
+                             @QueryParam(SCIMProviderConstants.CURSOR) String cursor,
                              @ApiParam(value = SCIMProviderConstants.SORT_BY_DESC, required = false)
                              @QueryParam(SCIMProviderConstants.SORT_BY) String sortBy,
                              @ApiParam(value = SCIMProviderConstants.SORT_ORDER_DESC, required = false)
@@ -286,8 +296,15 @@ public class GroupResource extends AbstractResource {
             // create charon-SCIM group endpoint and hand-over the request.
             GroupResourceManager groupResourceManager = new GroupResourceManager();
 
-            SCIMResponse scimResponse = groupResourceManager.listWithGET(userManager, filter, startIndex, count,
-                    sortBy, sortOrder, domainName, attribute, excludedAttributes);
+            SCIMResponse scimResponse;
+            if (cursor != null) {
+                // a missing count is read as 0, let the user manager decide on the size of the page then
+                scimResponse = groupResourceManager.listWithCursor(userManager, filter, cursor,
+                        count > 0 ? count : null, sortBy, sortOrder, domainName, attribute, excludedAttributes);
+            } else {
+                scimResponse = groupResourceManager.listWithGET(userManager, filter, startIndex, count,
+                        sortBy, sortOrder, domainName, attribute, excludedAttributes);
+            }
 
             return buildResponse(scimResponse);
 
@@ -38,6 +38,7 @@ import org.wso2.charon3.utils.DefaultCharonManager;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -84,7 +85,9 @@ public class UserResource extends AbstractResource {
                             @ApiParam(value = SCIMProviderConstants.ATTRIBUTES_DESC, required = false)
                             @QueryParam(SCIMProviderConstants.ATTRIBUTES) String attribute,
                             @ApiParam(value = SCIMProviderConstants.EXCLUDED_ATTRIBUTES_DESC, required = false)
-                            @QueryParam(SCIMProviderConstants.EXCLUDE_ATTRIBUTES) String excludedAttributes)
+                            @QueryParam(SCIMProviderConstants.EXCLUDE_ATTRIBUTES) String excludedAttributes,
+                            @ApiParam(value = SCIMProviderConstants.IF_NONE_MATCH_HEADER_DESC, required = false)
+                            @HeaderParam(SCIMProviderConstants.IF_NONE_MATCH_HEADER) String ifNoneMatch)
             throws FormatNotSupportedException, CharonException {
 
         try {
@@ -94,7 +97,8 @@ public class UserResource extends AbstractResource {
             // create charon-SCIM user endpoint and hand-over the request.
             UserResourceManager userResourceManager = new UserResourceManager();
 
-            SCIMResponse scimResponse = userResourceManager.get(id, userManager, attribute, excludedAttributes);
+            SCIMResponse scimResponse = userResourceManager.get(id, userManager, attribute, excludedAttributes,
+                    ifNoneMatch);
             // needs to check the code of the response and return 200 0k or other error codes
             // appropriately.
             return buildResponse(scimResponse);
@@ -120,6 +124,8 @@ public class UserResource extends AbstractResource {
                                @QueryParam(SCIMProviderConstants.ATTRIBUTES) String attribute,
                                @ApiParam(value = SCIMProviderConstants.EXCLUDED_ATTRIBUTES_DESC, required = false)
                                @QueryParam(SCIMProviderConstants.EXCLUDE_ATTRIBUTES) String excludedAttributes,
+                               @ApiParam(value = SCIMProviderConstants.IF_MATCH_HEADER_DESC, required = false)
+                               @HeaderParam(SCIMProviderConstants.IF_MATCH_HEADER) String ifMatch,
                                String resourceString) throws CharonException, FormatNotSupportedException {
 
         try {
@@ -152,7 +158,9 @@ public class UserResource extends AbstractResource {
             @ApiResponse(code = 404, message = "Valid user is not found")})
 
     public Response deleteUser(@ApiParam(value = SCIMProviderConstants.ID_DESC, required = true)
-                               @PathParam(SCIMProviderConstants.ID) String id)
+                               @PathParam(SCIMProviderConstants.ID) String id,
+                               @ApiParam(value = SCIMProviderConstants.IF_MATCH_HEADER_DESC, required = false)
+                               @HeaderParam(SCIMProviderConstants.IF_MATCH_HEADER) String ifMatch)
             throws FormatNotSupportedException, CharonException {
 
         try {
@@ -162,7 +170,7 @@ public class UserResource extends AbstractResource {
             // create charon-SCIM user resource manager and hand-over the request.
             UserResourceManager userResourceManager = new UserResourceManager();
 
-            SCIMResponse scimResponse = userResourceManager.delete(id, userManager);
+            SCIMResponse scimResponse = userResourceManager.delete(id, userManager, ifMatch);
             // needs to check the code of the response and return 200 0k or other error codes
             // appropriately.
             return buildResponse(scimResponse);
@@ -192,6 +200,8 @@ public class UserResource extends AbstractResource {
                             @QueryParam(SCIMProviderConstants.START_INDEX) int startIndex,
                             @ApiParam(value = SCIMProviderConstants.COUNT_DESC, required = false)
                             @QueryParam(SCIMProviderConstants.COUNT) int count,
+                            @ApiParam(value = SCIMProviderConstants.CURSOR_DESC, required = false)
+                            @QueryParam(SCIMProviderConstants.CURSOR) String cursor,
                             @ApiParam(value = SCIMProviderConstants.SORT_BY_DESC, required = false)
                             @QueryParam(SCIMProviderConstants.SORT_BY) String sortBy,
                             @ApiParam(value = SCIMProviderConstants.SORT_ORDER_DESC, required = false)
@@ -207,8 +217,15 @@ public class UserResource extends AbstractResource {
             // create charon-SCIM user resource manager and hand-over the request.
             UserResourceManager userResourceManager = new UserResourceManager();
 
-            SCIMResponse scimResponse = userResourceManager.listWithGET(userManager, filter, startIndex, count,
-                    sortBy, sortOrder, domainName, attribute, excludedAttributes);
+            SCIMResponse scimResponse;
+            if (cursor != null) {
+                // a missing count is read as 0, let the user manager decide on the size of the page then
+                scimResponse = userResourceManager.listWithCursor(userManager, filter, cursor, count > 0 ? count : null,
+                        sortBy, sortOrder, domainName, attribute, excludedAttributes);
+            } else {
+                scimResponse = userResourceManager.listWithGET(userManager, filter, startIndex, count,
+                        sortBy, sortOrder, domainName, attribute, excludedAttributes);
+            }
 
             return buildResponse(scimResponse);
 
@@ -277,7 +294,7 @@ public class UserResource extends AbstractResource {
             UserResourceManager userResourceManager = new UserResourceManager();
 
             SCIMResponse response = userResourceManager.updateWithPUT(
-                    id, resourceString, userManager, attribute, excludedAttributes);
+                    id, resourceString, userManager, attribute, excludedAttributes, ifMatch);
 
             return buildResponse(response);
 
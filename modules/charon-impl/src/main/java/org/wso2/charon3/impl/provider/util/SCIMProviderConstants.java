@@ -27,11 +27,14 @@ public class SCIMProviderConstants {
     public static final String FILTER = "filter";
     public static final String START_INDEX = "startIndex";
     public static final String COUNT = "count";
+    public static final String CURSOR = "cursor";
     public static final String SORT_BY = "sortBy";
     public static final String SORT_ORDER = "sortOder";
     public static final String APPLICATION_SCIM_JSON = "application/scim+json";
     public static final String APPLICATION_JSON = "application/json";
     public static final String ACCEPT_HEADER = "Accept";
+    public static final String IF_MATCH_HEADER = "If-Match";
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
     public static final String ID = "id";
     public static final String DOMAIN = "domain";
 
@@ -52,6 +55,11 @@ public class SCIMProviderConstants {
             "SHALL be used to order the returned responses";
     public static final String SORT_ORDER_DESC = "The order in which the \"sortBy\" parameter is applied.";
     public static final String START_INDEX_DESC = "The 1-based index of the first query result";
+    public static final String CURSOR_DESC = "The cursor of the requested page, empty for the first page";
     public static final String DOMAIN_DESC = "Domain of the provisioning user";
+    public static final String IF_MATCH_HEADER_DESC =
+            "Versions of the resource the request is applied to, the request fails with 412 for any other version";
+    public static final String IF_NONE_MATCH_HEADER_DESC =
+            "Versions of the resource the client holds, 304 is returned without a body if one is current";
 
 }
@@ -15,45 +15,16 @@
  */
 package org.wso2.charon3.utils.supportutils;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.wso2.charon3.core.exceptions.CharonException;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
 /**
- * This is to create a deep copy of the object using java serialization.
+ * This is to create a deep copy of the object.
+ * Delegates to {@link org.wso2.charon3.core.utils.CopyUtil} which copies the SCIM model structurally and only
+ * uses java serialization for types it does not know.
  */
 public class CopyUtil {
 
-    private static final Logger logger = LoggerFactory.getLogger(CopyUtil.class);
-
     public static Object deepCopy(Object oldObject) throws CharonException {
-        ObjectOutputStream objOutPutStream;
-        ObjectInputStream objInputStream;
-        Object newObject = null;
-        try {
-            //create byte array output stream
-            ByteArrayOutputStream byteArrayOutPutStream = new ByteArrayOutputStream();
-            //create object out put stream using above
-            objOutPutStream = new ObjectOutputStream(byteArrayOutPutStream);
-            //serialize the object and write it to the byte array out put stream
-            objOutPutStream.writeObject(oldObject);
-
-            //create a byte array input stream from the content of the byte array output stream
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
-                    byteArrayOutPutStream.toByteArray());
-
-            objInputStream = new ObjectInputStream(byteArrayInputStream);
-            newObject = objInputStream.readObject();
-
-        } catch (ClassNotFoundException | IOException e) {
-            logger.error("Error occurred in CopyUtil");
-        }
-        return newObject;
+        return org.wso2.charon3.core.utils.CopyUtil.deepCopy(oldObject);
     }
 }
@@ -0,0 +1,1104 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.charon3.utils.usermanager;
+
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.GroupMembersAttribute;
+import org.wso2.charon3.core.encoder.JSONEncoder;
+import org.wso2.charon3.core.encoder.StreamingJSONDecoder;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.exceptions.InternalErrorException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.objects.ListedResource;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.AttributeSchema;
+import org.wso2.charon3.core.schema.AttributeSchemaIndex;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMDefinitions;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMResourceTypeSchema;
+import org.wso2.charon3.core.utils.AttributeUtil;
+import org.wso2.charon3.core.utils.CopyOnWriteUtil;
+import org.wso2.charon3.core.utils.CopyUtil;
+import org.wso2.charon3.core.utils.codeutils.ExpressionNode;
+import org.wso2.charon3.core.utils.codeutils.FilterCompiler;
+import org.wso2.charon3.core.utils.codeutils.NaryOperationNode;
+import org.wso2.charon3.core.utils.codeutils.Node;
+import org.wso2.charon3.core.utils.codeutils.OperationNode;
+import org.wso2.charon3.core.utils.codeutils.ValuePathNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The resources of one type held by the InMemoryUserManager, together with hash indexes for "eq" filters and
+ * ordered indexes for sorting and range filters on a configured set of attributes.
+ * <p>
+ * A filter is first narrowed down to candidates by looking up the indexed expressions ("and" intersects, "or" unites
+ * the candidates), and the compiled filter is then evaluated on the candidates only. A filter without any indexed
+ * expression is evaluated on every resource.
+ * <p>
+ * The store holds frozen snapshots of the resources which are copied once when they are written. Readers get a
+ * read only view of a snapshot that only copies the attributes the caller looks up for modification, so the stored
+ * state can not be corrupted by modifying a returned resource.
+ * <p>
+ * The changes of a store that persists to a ResourceLog are appended to the log while holding the write lock. They
+ * are kept as pending changes, which only writers see, until the log is durable up to them, and then published in the
+ * order they were appended. So readers never see a change that may be lost on a crash, and a change whose sync fails
+ * is discarded together with the changes appended after it. A change is durable and published when the writing
+ * method returns.
+ *
+ * @param <T> the type of the resources
+ */
+class InMemoryResourceStore<T extends AbstractSCIMObject> {
+
+    private static final JSONEncoder ENCODER = new JSONEncoder();
+    private static final StreamingJSONDecoder DECODER = new StreamingJSONDecoder();
+
+    private final Supplier<SCIMResourceTypeSchema> schemaSupplier;
+    private final Supplier<T> resourceFactory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    //resources by their id, in the order they were created
+    private final Map<String, T> resources;
+    private final Map<String, Long> sequences = new HashMap<String, Long>();
+    private final NavigableMap<Long, String> idsBySequence = new TreeMap<Long, String>();
+    //may be shared by stores whose lists are merged
+    private final AtomicLong sequenceGenerator;
+    //indexes by the URI of the indexed attribute
+    private final Map<String, AttributeIndex> hashIndexes = new HashMap<String, AttributeIndex>();
+    private final Map<String, AttributeIndex> orderedIndexes = new HashMap<String, AttributeIndex>();
+    //the log the changes are written to, null if the resources are not persisted
+    private ResourceLog log;
+    private byte logIndex;
+    //changes appended to the log which are not durable yet, in the order they were appended
+    private final ArrayDeque<PendingChange<T>> pendingChanges = new ArrayDeque<PendingChange<T>>();
+    //the last pending change of each resource
+    private final Map<String, PendingChange<T>> latestChanges = new HashMap<String, PendingChange<T>>();
+
+    /*
+     * @param schemaSupplier - the schema filters are compiled with and resources are decoded with
+     * @param resourceFactory - creates the resources decoded from their JSON records
+     * @param hashIndexedAttributes - URIs of the attributes to look up with "eq"
+     * @param orderedIndexedAttributes - URIs of single valued attributes to sort by and to look up with a range
+     * @param offHeap - whether to keep the resources as records outside of the heap, see OffHeapResourceMap
+     * @param sequenceGenerator - numbers the resources in the order they are created
+     */
+    InMemoryResourceStore(Supplier<SCIMResourceTypeSchema> schemaSupplier, Supplier<T> resourceFactory,
+                          List<String> hashIndexedAttributes, List<String> orderedIndexedAttributes,
+                          boolean offHeap, AtomicLong sequenceGenerator) {
+        this.schemaSupplier = schemaSupplier;
+        this.resourceFactory = resourceFactory;
+        this.sequenceGenerator = sequenceGenerator;
+        this.resources = offHeap ? new OffHeapResourceMap<T>(this) : new LinkedHashMap<String, T>();
+        SCIMResourceTypeSchema schema = schemaSupplier.get();
+        for (String attributeURI : hashIndexedAttributes) {
+            hashIndexes.put(attributeURI, new AttributeIndex(schema, attributeURI, null));
+        }
+        //the resources with the same value are kept in the order they were created
+        Comparator<String> sequenceOrder = Comparator.comparing(sequences::get);
+        for (String attributeURI : orderedIndexedAttributes) {
+            orderedIndexes.put(attributeURI, new AttributeIndex(schema, attributeURI, sequenceOrder));
+        }
+    }
+
+    /*
+     * @param id
+     * @return a read only view of the resource, null if there is no resource with the given id
+     * @throws CharonException
+     */
+    T get(String id) throws CharonException {
+        T resource;
+        lock.readLock().lock();
+        try {
+            resource = resources.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return resource == null ? null : view(resource);
+    }
+
+    /*
+     * add the resource unless there is already one with the same id.
+     * @param resource
+     * @return a read only view of the added resource, null if it was not added
+     * @throws CharonException
+     */
+    T add(T resource) throws CharonException {
+        T snapshot = freeze(resource);
+        byte[] record = putRecord(snapshot);
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            if (getLatest(snapshot.getId()) != null) {
+                return null;
+            }
+            logPosition = publishWhenDurable(append(record), snapshot.getId(), snapshot, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(logPosition);
+        return view(snapshot);
+    }
+
+    /*
+     * add the resource or replace the one with the same id.
+     * @param resource
+     * @return a read only view of the stored resource
+     * @throws CharonException
+     */
+    T put(T resource) throws CharonException {
+        T snapshot = freeze(resource);
+        byte[] record = putRecord(snapshot);
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            logPosition = publishWhenDurable(append(record), snapshot.getId(), snapshot, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(logPosition);
+        return view(snapshot);
+    }
+
+    /*
+     * add a resource moved here from another store, keeping the creation sequence it had there so it keeps its place
+     * in the listings.
+     * @param resource
+     * @param sequence - the creation sequence of the resource in the other store
+     * @return a read only view of the stored resource
+     * @throws CharonException
+     */
+    T putMoved(T resource, long sequence) throws CharonException {
+        T snapshot = freeze(resource);
+        byte[] record = putRecord(snapshot);
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            logPosition = publishWhenDurable(append(record), snapshot.getId(), snapshot, sequence);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(logPosition);
+        return view(snapshot);
+    }
+
+    /*
+     * replace the resource with the same id, if there is one.
+     * @param resource
+     * @return a read only view of the stored resource, null if it was not replaced
+     * @throws CharonException
+     */
+    T replace(T resource) throws CharonException {
+        T snapshot = freeze(resource);
+        byte[] record = putRecord(snapshot);
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            if (getLatest(snapshot.getId()) == null) {
+                return null;
+            }
+            logPosition = publishWhenDurable(append(record), snapshot.getId(), snapshot, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(logPosition);
+        return view(snapshot);
+    }
+
+    T remove(String id) throws CharonException {
+        return remove(id, true);
+    }
+
+    /*
+     * remove a resource moved to another store. Nothing is written to the log, replaying the PUT written by the other
+     * store moves the resource again.
+     * @param id
+     * @return the removed resource, null if there is no resource with the given id
+     * @throws CharonException
+     */
+    T removeMoved(String id) throws CharonException {
+        return remove(id, false);
+    }
+
+    /*
+     * @return the ids of the stored resources by their creation sequence
+     */
+    NavigableMap<Long, String> getIdsBySequence() {
+        lock.readLock().lock();
+        try {
+            return new TreeMap<Long, String>(idsBySequence);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private T remove(String id, boolean logged) throws CharonException {
+        T resource;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            resource = getLatest(id);
+            if (resource == null) {
+                return null;
+            }
+            logPosition = !logged ? -1
+                    : append(log == null ? null : ResourceLog.record(ResourceLog.REMOVE, logIndex, id));
+            logPosition = publishWhenDurable(logPosition, id, null, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(logPosition);
+        return resource;
+    }
+
+    /*
+     * write the changes to the given log from now on.
+     * @param log
+     * @param logIndex - identifies the store in the records of the log
+     */
+    void persistTo(ResourceLog log, byte logIndex) {
+        lock.writeLock().lock();
+        try {
+            this.log = log;
+            this.logIndex = logIndex;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * @param id
+     * @return the JSON of the resource as it is kept in a ResourceLog, null if there is no resource with the given id
+     * @throws CharonException
+     */
+    byte[] getRecord(String id) throws CharonException {
+        T resource;
+        lock.readLock().lock();
+        try {
+            if (resources instanceof OffHeapResourceMap) {
+                return ((OffHeapResourceMap<T>) resources).getRecord(id);
+            }
+            resource = resources.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+        //the stored resources are never modified, so they are encoded without holding the lock
+        return resource == null ? null : encode(resource);
+    }
+
+    /*
+     * @param resource
+     * @return the JSON of the resource as it is kept in a ResourceLog or an OffHeapResourceMap
+     * @throws CharonException
+     */
+    byte[] encode(T resource) throws CharonException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+        ENCODER.encodeSCIMObject(resource, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    T decode(byte[] bytes, int offset, int length) throws CharonException {
+        try {
+            return DECODER.decodeResource(new String(bytes, offset, length, StandardCharsets.UTF_8),
+                    schemaSupplier.get(), resourceFactory.get());
+        } catch (BadRequestException | InternalErrorException e) {
+            throw new CharonException("Error in decoding a resource of the resource log", e);
+        }
+    }
+
+    Set<String> getIndexedAttributes() {
+        Set<String> indexedAttributes = new HashSet<String>(hashIndexes.keySet());
+        indexedAttributes.addAll(orderedIndexes.keySet());
+        indexedAttributes.add(SCIMConstants.CommonSchemaConstants.ID_URI);
+        return indexedAttributes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T freeze(T resource) throws CharonException {
+        T snapshot = (T) CopyUtil.deepCopy(resource);
+        for (Attribute attribute : snapshot.getAttributeList().values()) {
+            if (attribute instanceof GroupMembersAttribute) {
+                //readers iterating the attributes of a view get the members of the snapshot itself
+                ((GroupMembersAttribute) attribute).freeze();
+            }
+        }
+        return snapshot;
+    }
+
+    private byte[] putRecord(T snapshot) throws CharonException {
+        return log == null ? null : ResourceLog.record(ResourceLog.PUT, logIndex, encode(snapshot));
+    }
+
+    /*
+     * append a record to the log, must be called while holding the write lock.
+     * @return the position to sync the log up to, -1 without a log
+     */
+    private long append(byte[] record) throws CharonException {
+        if (log == null) {
+            return -1;
+        }
+        try {
+            return log.append(record);
+        } catch (IOException e) {
+            throw new CharonException("Error in writing to the resource log", e);
+        }
+    }
+
+    /*
+     * @return the resource with the given id including the pending changes, null if there is none
+     */
+    private T getLatest(String id) {
+        PendingChange<T> change = latestChanges.get(id);
+        return change != null ? change.resource : resources.get(id);
+    }
+
+    /*
+     * keep a change until the log is durable up to the given position, must be called while holding the write lock.
+     * A change that is not logged is published right away, unless it has to wait for a pending change of the same
+     * resource.
+     * @param logPosition - the position returned by append, -1 if the change is not logged
+     * @param id
+     * @param resource - the new snapshot of the resource, null if it is removed
+     * @param sequence - the creation sequence of a new resource, null to number it from the sequence generator
+     * @return the position to commit, -1 if the change was published
+     */
+    private long publishWhenDurable(long logPosition, String id, T resource, Long sequence) {
+        PendingChange<T> latestChange = latestChanges.get(id);
+        if (logPosition < 0 && latestChange == null) {
+            apply(id, resource, sequence);
+            return -1;
+        }
+        //a change that is not logged is published with the last pending change
+        PendingChange<T> change = new PendingChange<T>(logPosition < 0 ? pendingChanges.getLast().logPosition
+                : logPosition, id, resource, sequence);
+        pendingChanges.add(change);
+        latestChanges.put(id, change);
+        return change.logPosition;
+    }
+
+    /*
+     * wait until the log is durable up to the given position and publish the changes appended until then, must be
+     * called without holding the lock. If the log can not be made durable, the pending changes from the given
+     * position on are discarded, the log does not accept changes anymore.
+     */
+    private void commit(long logPosition) throws CharonException {
+        if (logPosition < 0) {
+            return;
+        }
+        try {
+            log.sync(logPosition);
+        } catch (IOException e) {
+            discard(logPosition);
+            throw new CharonException("Error in writing to the resource log", e);
+        }
+        publish(logPosition);
+    }
+
+    /*
+     * publish the pending changes appended to the log up to the given position, which must be durable. Also called
+     * by a snapshot, which only sees published changes.
+     * @param logPosition
+     */
+    void publish(long logPosition) {
+        lock.writeLock().lock();
+        try {
+            while (!pendingChanges.isEmpty() && pendingChanges.peekFirst().logPosition <= logPosition) {
+                PendingChange<T> change = pendingChanges.pollFirst();
+                apply(change.id, change.resource, change.sequence);
+                latestChanges.remove(change.id, change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void discard(long logPosition) {
+        lock.writeLock().lock();
+        try {
+            while (!pendingChanges.isEmpty() && pendingChanges.peekLast().logPosition >= logPosition) {
+                pendingChanges.pollLast();
+            }
+            latestChanges.clear();
+            for (PendingChange<T> change : pendingChanges) {
+                latestChanges.put(change.id, change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(String id, T resource, Long sequence) {
+        if (resource != null) {
+            store(resource, sequence);
+        } else if (resources.containsKey(id)) {
+            unindex(id, resources.remove(id));
+            idsBySequence.remove(sequences.remove(id));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T view(T snapshot) throws CharonException {
+        return (T) CopyOnWriteUtil.readOnlyView(snapshot);
+    }
+
+    /*
+     * @param sequence - the creation sequence of a new resource, null to number it from the sequence generator
+     */
+    private void store(T resource, Long sequence) {
+        String id = resource.getId();
+        T oldResource = resources.put(id, resource);
+        if (oldResource != null) {
+            unindex(id, oldResource);
+        } else {
+            long newSequence = sequence == null ? sequenceGenerator.getAndIncrement() : sequence;
+            sequences.put(id, newSequence);
+            idsBySequence.put(newSequence, id);
+        }
+        for (AttributeIndex index : hashIndexes.values()) {
+            index.add(id, resource);
+        }
+        for (AttributeIndex index : orderedIndexes.values()) {
+            index.add(id, resource);
+        }
+    }
+
+    private void unindex(String id, T resource) {
+        for (AttributeIndex index : hashIndexes.values()) {
+            index.remove(id, resource);
+        }
+        for (AttributeIndex index : orderedIndexes.values()) {
+            index.remove(id, resource);
+        }
+    }
+
+    /*
+     * list the resources matching the filter in the requested order.
+     *
+     * @param node       the filter tree, may be null
+     * @param startIndex the 1-based index of the first resource to return
+     * @param count      the maximum number of resources to return, null for all
+     * @param sortBy     the attribute to sort by, may be null
+     * @param sortOrder  ascending or descending
+     * @return the total number of matching resources, followed by read only views of the resources of the page
+     * @throws BadRequestException if the filter or the sort attribute are invalid
+     * @throws CharonException
+     */
+    List<Object> list(Node node, int startIndex, Integer count, String sortBy, String sortOrder)
+            throws BadRequestException, CharonException {
+
+        SCIMResourceTypeSchema schema = schemaSupplier.get();
+        Predicate<AbstractSCIMObject> filter = FilterCompiler.compile(node, schema);
+        String sortAttributeURI = sortBy == null ? null : AttributeUtil.getAttributeURI(sortBy, schema);
+        boolean descending = SCIMConstants.OperationalConstants.DESCENDING.equalsIgnoreCase(sortOrder);
+        lock.readLock().lock();
+        try {
+            Set<String> candidates = node == null ? null : findCandidates(node);
+            List<Object> resourceList = new ArrayList<Object>();
+            //first item should contain the number of total results
+            resourceList.add(0);
+            int totalResults = 0;
+            for (T resource : order(candidates, sortAttributeURI, descending, schema)) {
+                if (!filter.test(resource)) {
+                    continue;
+                }
+                totalResults++;
+                if (totalResults >= startIndex && (count == null || resourceList.size() <= count)) {
+                    resourceList.add(view(resource));
+                }
+            }
+            resourceList.set(0, totalResults);
+            return resourceList;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * list one page of the resources matching the filter with cursor pagination. The cursor holds the sort key and
+     * the creation sequence of the last resource of the previous page, so the next page continues right after it
+     * even if resources were added or removed in between. Without sorting, or when sorted by an ordered index, the
+     * page is read from the position of the cursor on and costs about the size of the page.
+     *
+     * @param node       the filter tree, may be null
+     * @param cursor     the cursor of the requested page, empty for the first page
+     * @param count      the maximum number of resources to return, null for all
+     * @param sortBy     the attribute to sort by, may be null
+     * @param sortOrder  ascending or descending
+     * @return read only views of the resources of the page along with the next cursor, and the total number of
+     * results if there is no filter
+     * @throws BadRequestException if the filter, the sort attribute or the cursor are invalid
+     * @throws CharonException
+     */
+    ListedResource listWithCursor(Node node, String cursor, Integer count, String sortBy, String sortOrder)
+            throws BadRequestException, CharonException {
+
+        SCIMResourceTypeSchema schema = schemaSupplier.get();
+        Predicate<AbstractSCIMObject> filter = FilterCompiler.compile(node, schema);
+        String sortAttributeURI = sortBy == null ? null : AttributeUtil.getAttributeURI(sortBy, schema);
+        boolean descending = SCIMConstants.OperationalConstants.DESCENDING.equalsIgnoreCase(sortOrder);
+        Cursor position = Cursor.decode(cursor, sortAttributeURI, descending);
+        ListedResource listedResource = new ListedResource();
+        listedResource.setSchema(SCIMConstants.LISTED_RESOURCE_CORE_SCHEMA_URI);
+        lock.readLock().lock();
+        try {
+            Set<String> candidates = node == null ? null : findCandidates(node);
+            Function<AbstractSCIMObject, Comparable<Object>> sortKeyReader = sortAttributeURI == null ? null
+                    : sortKeyReader(sortAttributeURI, schema);
+            T lastResource = null;
+            boolean hasNextPage = false;
+            for (T resource : orderAfter(position, candidates, sortAttributeURI, descending, sortKeyReader)) {
+                if (!filter.test(resource)) {
+                    continue;
+                }
+                if (count != null && listedResource.getResources().size() >= count) {
+                    hasNextPage = true;
+                    break;
+                }
+                listedResource.addResource(view(resource));
+                lastResource = resource;
+            }
+            if (node == null) {
+                listedResource.setTotalResults(resources.size());
+            }
+            if (hasNextPage && lastResource != null) {
+                Object sortKey = sortKeyReader == null ? null : sortKeyReader.apply(lastResource);
+                listedResource.setNextCursor(new Cursor(sequences.get(lastResource.getId()), sortAttributeURI,
+                        descending, sortKey).encode(sortBy));
+            }
+            return listedResource;
+        } catch (ClassCastException e) {
+            //the sort key of the cursor does not have the type of the sort attribute
+            throw new BadRequestException("The cursor is invalid", ResponseCodeConstants.INVALID_CURSOR);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * @param id
+     * @return the number the resource was created with, null if there is no resource with the given id
+     */
+    Long getSequence(String id) {
+        lock.readLock().lock();
+        try {
+            return sequences.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * @param sortBy
+     * @return reads the key resources are sorted by, null if they are not sorted
+     * @throws BadRequestException if the sort attribute is invalid
+     */
+    Function<AbstractSCIMObject, Comparable<Object>> sortKeyReader(String sortBy) throws BadRequestException {
+        if (sortBy == null) {
+            return null;
+        }
+        SCIMResourceTypeSchema schema = schemaSupplier.get();
+        return sortKeyReader(AttributeUtil.getAttributeURI(sortBy, schema), schema);
+    }
+
+    /*
+     * the cursor of the page following the given resource, which is also understood by the stores sharing the
+     * sequences of this store.
+     * @param resource
+     * @param sequence - the number the resource was created with
+     * @param sortBy
+     * @param sortOrder
+     * @return
+     * @throws BadRequestException if resources sorted by the sort attribute can not be paged with a cursor
+     */
+    String encodeCursor(AbstractSCIMObject resource, long sequence, String sortBy, String sortOrder)
+            throws BadRequestException {
+        SCIMResourceTypeSchema schema = schemaSupplier.get();
+        String sortAttributeURI = sortBy == null ? null : AttributeUtil.getAttributeURI(sortBy, schema);
+        boolean descending = SCIMConstants.OperationalConstants.DESCENDING.equalsIgnoreCase(sortOrder);
+        Object sortKey = sortAttributeURI == null ? null : sortKeyReader(sortAttributeURI, schema).apply(resource);
+        return new Cursor(sequence, sortAttributeURI, descending, sortKey).encode(sortBy);
+    }
+
+    /*
+     * return a superset of the ids of the resources matching the filter, or null if the filter can't be narrowed
+     * down with the indexes.
+     */
+    private Set<String> findCandidates(Node node) {
+
+        if (node instanceof ExpressionNode) {
+            return lookup((ExpressionNode) node);
+        }
+        if (node instanceof ValuePathNode) {
+            //the resources matching the value filter on any of their values, the compiled filter checks the values
+            return findCandidates(((ValuePathNode) node).getValueFilter());
+        }
+        String operation = ((OperationNode) node).getOperation();
+        boolean and = SCIMConstants.OperationalConstants.AND.equalsIgnoreCase(operation);
+        if (!and && !SCIMConstants.OperationalConstants.OR.equalsIgnoreCase(operation)) {
+            return null;
+        }
+        List<Node> operands = node instanceof NaryOperationNode ? ((NaryOperationNode) node).getOperands()
+                : Arrays.asList(node.getLeftNode(), node.getRightNode());
+        Set<String> candidates = null;
+        for (Node operand : operands) {
+            Set<String> operandCandidates = findCandidates(operand);
+            if (operandCandidates == null) {
+                if (!and) {
+                    return null;
+                }
+            } else if (candidates == null) {
+                candidates = new HashSet<String>(operandCandidates);
+            } else if (and) {
+                candidates.retainAll(operandCandidates);
+            } else {
+                candidates.addAll(operandCandidates);
+            }
+        }
+        return candidates;
+    }
+
+    private Set<String> lookup(ExpressionNode expressionNode) {
+
+        String attributeURI = expressionNode.getAttributeValue();
+        String operation = expressionNode.getOperation();
+        String value = expressionNode.getValue();
+        if (value == null) {
+            return null;
+        }
+        boolean equality = SCIMConstants.OperationalConstants.EQ.trim().equalsIgnoreCase(operation);
+        if (equality && SCIMConstants.CommonSchemaConstants.ID_URI.equals(attributeURI)) {
+            return resources.containsKey(value) ? Collections.singleton(value) : Collections.<String>emptySet();
+        }
+        AttributeIndex hashIndex = hashIndexes.get(attributeURI);
+        if (equality && hashIndex != null && hashIndex.string) {
+            Set<String> ids = hashIndex.ids.get(hashIndex.key(value));
+            return ids == null ? Collections.<String>emptySet() : ids;
+        }
+        AttributeIndex orderedIndex = orderedIndexes.get(attributeURI);
+        if (orderedIndex == null || !orderedIndex.string) {
+            return null;
+        }
+        NavigableMap<Object, Set<String>> ids = (NavigableMap<Object, Set<String>>) orderedIndex.ids;
+        Object key = orderedIndex.key(value);
+        Map<Object, Set<String>> matchingIds;
+        if (equality) {
+            matchingIds = ids.subMap(key, true, key, true);
+        } else if (SCIMConstants.OperationalConstants.GT.trim().equalsIgnoreCase(operation)) {
+            matchingIds = ids.tailMap(key, false);
+        } else if (SCIMConstants.OperationalConstants.GE.trim().equalsIgnoreCase(operation)) {
+            matchingIds = ids.tailMap(key, true);
+        } else if (SCIMConstants.OperationalConstants.LT.trim().equalsIgnoreCase(operation)) {
+            matchingIds = ids.headMap(key, false);
+        } else if (SCIMConstants.OperationalConstants.LE.trim().equalsIgnoreCase(operation)) {
+            matchingIds = ids.headMap(key, true);
+        } else if (SCIMConstants.OperationalConstants.SW.trim().equalsIgnoreCase(operation)) {
+            matchingIds = new HashMap<Object, Set<String>>();
+            for (Map.Entry<Object, Set<String>> entry : ids.tailMap(key, true).entrySet()) {
+                if (!((String) entry.getKey()).startsWith((String) key)) {
+                    break;
+                }
+                matchingIds.put(entry.getKey(), entry.getValue());
+            }
+        } else {
+            return null;
+        }
+        Set<String> candidates = new HashSet<String>();
+        for (Set<String> idsOfKey : matchingIds.values()) {
+            candidates.addAll(idsOfKey);
+        }
+        return candidates;
+    }
+
+    /*
+     * return the candidates (or all resources) in the requested order. An ordered index is walked as it is, other
+     * orders need to sort the resources.
+     */
+    private Iterable<T> order(Set<String> candidates, String sortAttributeURI, boolean descending,
+                              SCIMResourceTypeSchema schema) throws BadRequestException {
+
+        AttributeIndex orderedIndex = sortAttributeURI == null ? null : orderedIndexes.get(sortAttributeURI);
+        //the resources are walked by their creation sequence, a resource moved in from another store keeps its own
+        if (candidates == null && sortAttributeURI == null) {
+            return idsBySequence.values().stream().map(resources::get)::iterator;
+        }
+        if (candidates == null && orderedIndex != null) {
+            NavigableMap<Object, Set<String>> ids = (NavigableMap<Object, Set<String>>) orderedIndex.ids;
+            Stream<String> sortedIds = (descending ? ids.descendingMap() : ids).values().stream()
+                    .flatMap(Set::stream);
+            //resources without a value come last in ascending order
+            sortedIds = descending ? Stream.concat(orderedIndex.idsWithoutValue.stream(), sortedIds)
+                    : Stream.concat(sortedIds, orderedIndex.idsWithoutValue.stream());
+            return sortedIds.map(resources::get)::iterator;
+        }
+
+        List<T> sortedResources = new ArrayList<T>();
+        if (candidates == null) {
+            for (String id : idsBySequence.values()) {
+                sortedResources.add(resources.get(id));
+            }
+        } else {
+            List<String> ids = new ArrayList<String>(candidates);
+            ids.sort(Comparator.comparing(sequences::get));
+            for (String id : ids) {
+                sortedResources.add(resources.get(id));
+            }
+        }
+        if (sortAttributeURI != null) {
+            Function<AbstractSCIMObject, Comparable<Object>> sortKeyReader = sortKeyReader(sortAttributeURI, schema);
+            Map<T, Comparable<Object>> sortKeys = new HashMap<T, Comparable<Object>>();
+            for (T resource : sortedResources) {
+                sortKeys.put(resource, sortKeyReader.apply(resource));
+            }
+            Comparator<Comparable<Object>> keyOrder =
+                    Comparator.nullsLast(Comparator.<Comparable<Object>>naturalOrder());
+            sortedResources.sort(Comparator.comparing(sortKeys::get, descending ? keyOrder.reversed() : keyOrder));
+        }
+        return sortedResources;
+    }
+
+    /*
+     * return the candidates (or all resources) that come after the position of the cursor in the requested order,
+     * the same order the resources are listed in with a start index.
+     */
+    private Iterable<T> orderAfter(Cursor position, Set<String> candidates, String sortAttributeURI,
+                                   boolean descending, Function<AbstractSCIMObject, Comparable<Object>> sortKeyReader)
+            throws BadRequestException {
+
+        if (candidates == null && sortAttributeURI == null) {
+            NavigableMap<Long, String> ids = position == null ? idsBySequence
+                    : idsBySequence.tailMap(position.sequence, false);
+            return ids.values().stream().map(resources::get)::iterator;
+        }
+        AttributeIndex orderedIndex = sortAttributeURI == null ? null : orderedIndexes.get(sortAttributeURI);
+        if (candidates == null && orderedIndex != null) {
+            NavigableMap<Object, Set<String>> ids = (NavigableMap<Object, Set<String>>) orderedIndex.ids;
+            Stream<String> sortedIds;
+            if (position != null && position.sortKey != null) {
+                //continue with the resources having the same value, then with the following values
+                NavigableMap<Object, Set<String>> followingIds = descending
+                        ? ids.headMap(position.sortKey, false).descendingMap()
+                        : ids.tailMap(position.sortKey, false);
+                sortedIds = Stream.concat(idsAfter(ids.get(position.sortKey), position),
+                        followingIds.values().stream().flatMap(Set::stream));
+                if (!descending) {
+                    sortedIds = Stream.concat(sortedIds, orderedIndex.idsWithoutValue.stream());
+                }
+            } else {
+                //resources without a value come last in ascending order
+                Stream<String> idsWithoutValue = idsAfter(orderedIndex.idsWithoutValue, position);
+                if (descending) {
+                    sortedIds = Stream.concat(idsWithoutValue,
+                            ids.descendingMap().values().stream().flatMap(Set::stream));
+                } else if (position == null) {
+                    sortedIds = Stream.concat(ids.values().stream().flatMap(Set::stream), idsWithoutValue);
+                } else {
+                    sortedIds = idsWithoutValue;
+                }
+            }
+            return sortedIds.map(resources::get)::iterator;
+        }
+
+        Iterable<T> sortedResources = order(candidates, sortAttributeURI, descending, schemaSupplier.get());
+        if (position == null) {
+            return sortedResources;
+        }
+        Comparator<Comparable<Object>> keyOrder = Comparator.nullsLast(Comparator.<Comparable<Object>>naturalOrder());
+        Comparable<Object> positionSortKey = (Comparable<Object>) position.sortKey;
+        List<T> resourcesAfter = new ArrayList<T>();
+        for (T resource : sortedResources) {
+            int order = sortKeyReader == null ? 0 : keyOrder.compare(sortKeyReader.apply(resource), positionSortKey);
+            order = descending ? -order : order;
+            if (order > 0 || (order == 0 && sequences.get(resource.getId()) > position.sequence)) {
+                resourcesAfter.add(resource);
+            }
+        }
+        return resourcesAfter;
+    }
+
+    /*
+     * the ids of a set ordered by creation that were created after the resource of the cursor.
+     */
+    private Stream<String> idsAfter(Set<String> ids, Cursor position) {
+        if (ids == null) {
+            return Stream.empty();
+        }
+        return position == null ? ids.stream() : ids.stream().filter(id -> sequences.get(id) > position.sequence);
+    }
+
+    private Function<AbstractSCIMObject, Comparable<Object>> sortKeyReader(String sortAttributeURI,
+                                                                         SCIMResourceTypeSchema schema)
+            throws BadRequestException {
+        AttributeIndex orderedIndex = orderedIndexes.get(sortAttributeURI);
+        Function<AbstractSCIMObject, List<Object>> valueReader = orderedIndex != null ? orderedIndex.valueReader
+                : FilterCompiler.compileValueReader(sortAttributeURI, schema);
+        boolean caseExact = orderedIndex != null ? orderedIndex.caseExact : isCaseExact(sortAttributeURI, schema);
+        return resource -> sortKey(valueReader.apply(resource), caseExact);
+    }
+
+    /*
+     * resources are sorted by their first value of the attribute.
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> sortKey(List<Object> values, boolean caseExact) {
+        for (Object value : values) {
+            Object key = key(value, caseExact);
+            if (key instanceof Comparable) {
+                return (Comparable<Object>) key;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCaseExact(String attributeURI, SCIMResourceTypeSchema schema) {
+        AttributeSchemaIndex schemaIndex = SCIMResourceSchemaManager.getInstance().getSchemaIndex(schema);
+        AttributeSchema attributeSchema = schemaIndex == null ? null
+                : schemaIndex.getAttributeSchemaByURI(attributeURI);
+        return attributeSchema == null || attributeSchema.getCaseExact();
+    }
+
+    /*
+     * the key a value is indexed and compared with. Strings that are not case exact are folded the same way
+     * String#equalsIgnoreCase and String#compareToIgnoreCase compare them.
+     */
+    private static Object key(Object value, boolean caseExact) {
+        if (value instanceof String && !caseExact) {
+            String string = (String) value;
+            StringBuilder key = new StringBuilder(string.length());
+            string.codePoints().forEach(codePoint ->
+                    key.appendCodePoint(Character.toLowerCase(Character.toUpperCase(codePoint))));
+            return key.toString();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).toInstant();
+        }
+        return value;
+    }
+
+    /**
+     * A change appended to the log which is published when the log is durable up to its position.
+     */
+    private static class PendingChange<T> {
+
+        private final long logPosition;
+        private final String id;
+        //null if the resource is removed
+        private final T resource;
+        private final Long sequence;
+
+        PendingChange(long logPosition, String id, T resource, Long sequence) {
+            this.logPosition = logPosition;
+            this.id = id;
+            this.resource = resource;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The position a cursor paginated listing continues from, that is the sort key and the creation sequence of the
+     * last resource of the previous page. It is handed out as an opaque url safe string, which also holds the sort
+     * attribute and order so a cursor can not be used with a different sorting.
+     */
+    private static class Cursor {
+
+        private final long sequence;
+        private final String sortAttributeURI;
+        private final boolean descending;
+        private final Object sortKey;
+
+        Cursor(long sequence, String sortAttributeURI, boolean descending, Object sortKey) {
+            this.sequence = sequence;
+            this.sortAttributeURI = sortAttributeURI;
+            this.descending = descending;
+            this.sortKey = sortKey;
+        }
+
+        String encode(String sortBy) throws BadRequestException {
+            String type;
+            if (sortKey == null) {
+                type = "-";
+            } else if (sortKey instanceof String) {
+                type = "S";
+            } else if (sortKey instanceof Instant) {
+                type = "I";
+            } else if (sortKey instanceof Boolean) {
+                type = "B";
+            } else if (sortKey instanceof Integer) {
+                type = "N";
+            } else if (sortKey instanceof Long) {
+                type = "L";
+            } else if (sortKey instanceof Double) {
+                type = "D";
+            } else if (sortKey instanceof BigDecimal) {
+                type = "M";
+            } else {
+                throw new BadRequestException("Resources sorted by " + sortBy + " can not be paged with a cursor",
+                        ResponseCodeConstants.INVALID_VALUE);
+            }
+            String position = sequence + "," + (descending ? "d" : "a") + "," +
+                    (sortAttributeURI == null ? "" : sortAttributeURI) + "," + type + "," +
+                    (sortKey == null ? "" : sortKey.toString());
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /*
+         * @return the position of the cursor, null for an empty cursor which requests the first page
+         * @throws BadRequestException if the cursor was not handed out for the same sorting
+         */
+        static Cursor decode(String cursor, String sortAttributeURI, boolean descending) throws BadRequestException {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                        .split(",", 5);
+                if (parts.length == 5 && parts[1].equals(descending ? "d" : "a") &&
+                        parts[2].equals(sortAttributeURI == null ? "" : sortAttributeURI) &&
+                        (sortAttributeURI != null || parts[3].equals("-"))) {
+                    return new Cursor(Long.parseLong(parts[0]), sortAttributeURI, descending,
+                            parseSortKey(parts[3], parts[4]));
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                //not a cursor handed out by us, rejected below
+            }
+            throw new BadRequestException("The cursor is invalid or was issued for a different sorting",
+                    ResponseCodeConstants.INVALID_CURSOR);
+        }
+
+        private static Object parseSortKey(String type, String sortKey) {
+            switch (type) {
+                case "-":
+                    return null;
+                case "S":
+                    return sortKey;
+                case "I":
+                    return Instant.parse(sortKey);
+                case "B":
+                    return Boolean.valueOf(sortKey);
+                case "N":
+                    return Integer.valueOf(sortKey);
+                case "L":
+                    return Long.valueOf(sortKey);
+                case "D":
+                    return Double.valueOf(sortKey);
+                case "M":
+                    return new BigDecimal(sortKey);
+                default:
+                    throw new IllegalArgumentException("Unknown type of sort key " + type);
+            }
+        }
+    }
+
+    /**
+     * The ids of the resources by the values of one attribute.
+     */
+    private static class AttributeIndex {
+
+        private final Function<AbstractSCIMObject, List<Object>> valueReader;
+        private final boolean caseExact;
+        //whether lookups by the string value of a filter are possible
+        private final boolean string;
+        private final Map<Object, Set<String>> ids;
+        //ids of the resources without a value, only kept by ordered indexes
+        private final Set<String> idsWithoutValue;
+        //order of the ids with the same value, only kept by ordered indexes
+        private final Comparator<String> sequenceOrder;
+
+        /*
+         * @param schema
+         * @param attributeURI
+         * @param sequenceOrder - the creation order of the resources for an ordered index, null for a hash index
+         */
+        AttributeIndex(SCIMResourceTypeSchema schema, String attributeURI, Comparator<String> sequenceOrder) {
+            try {
+                this.valueReader = FilterCompiler.compileValueReader(attributeURI, schema);
+            } catch (BadRequestException e) {
+                throw new IllegalArgumentException("Can not index the unknown attribute " + attributeURI, e);
+            }
+            AttributeSchema attributeSchema = SCIMResourceSchemaManager.getInstance().getSchemaIndex(schema)
+                    .getAttributeSchemaByURI(attributeURI);
+            this.caseExact = attributeSchema.getCaseExact();
+            this.string = attributeSchema.getType() == SCIMDefinitions.DataType.STRING;
+            this.sequenceOrder = sequenceOrder;
+            boolean ordered = sequenceOrder != null;
+            this.ids = ordered ? new TreeMap<Object, Set<String>>() : new HashMap<Object, Set<String>>();
+            this.idsWithoutValue = ordered ? new TreeSet<String>(sequenceOrder) : null;
+        }
+
+        Object key(Object value) {
+            return InMemoryResourceStore.key(value, caseExact);
+        }
+
+        void add(String id, AbstractSCIMObject resource) {
+            boolean hasValue = false;
+            for (Object value : valueReader.apply(resource)) {
+                if (value != null) {
+                    ids.computeIfAbsent(key(value), key -> sequenceOrder == null ? new LinkedHashSet<String>()
+                            : new TreeSet<String>(sequenceOrder)).add(id);
+                    hasValue = true;
+                }
+            }
+            if (!hasValue && idsWithoutValue != null) {
+                idsWithoutValue.add(id);
+            }
+        }
+
+        void remove(String id, AbstractSCIMObject resource) {
+            for (Object value : valueReader.apply(resource)) {
+                if (value != null) {
+                    Object key = key(value);
+                    Set<String> idsOfKey = ids.get(key);
+                    if (idsOfKey != null && idsOfKey.remove(id) && idsOfKey.isEmpty()) {
+                        ids.remove(key);
+                    }
+                }
+            }
+            if (idsWithoutValue != null) {
+                idsWithoutValue.remove(id);
+            }
+        }
+    }
+}
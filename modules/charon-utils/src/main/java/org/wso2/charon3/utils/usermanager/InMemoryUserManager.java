@@ -18,52 +18,165 @@
 package org.wso2.charon3.utils.usermanager;
 
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import org.wso2.charon3.core.exceptions.BadRequestException;
 import org.wso2.charon3.core.exceptions.CharonException;
 import org.wso2.charon3.core.exceptions.ConflictException;
 import org.wso2.charon3.core.exceptions.NotFoundException;
 import org.wso2.charon3.core.exceptions.NotImplementedException;
+import org.wso2.charon3.core.exceptions.PreConditionFailedException;
 import org.wso2.charon3.core.extensions.UserManager;
 import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.objects.ListedResource;
 import org.wso2.charon3.core.objects.User;
-import org.wso2.charon3.core.utils.CopyUtil;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+import org.wso2.charon3.core.schema.SCIMSchemaDefinitions;
 import org.wso2.charon3.core.utils.codeutils.Node;
 import org.wso2.charon3.core.utils.codeutils.SearchRequest;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * This is a sample dynamic user store.
+ * This is a sample dynamic user store. Filtering, sorting and pagination are done in memory, with indexes on the
+ * attributes that are commonly filtered and sorted by. The users and groups are partitioned by the user store domain
+ * their name is prefixed with, and lists requested for a domain only look at its partition.
+ * <p>
+ * The direct memberships of the groups are indexed in both directions, so the groups of a user are found without
+ * looking at any other group, and a deleted user or group is removed from the groups it was a member of.
+ * <p>
+ * Conditional updates and deletes compare the version of a resource while holding the lock of its id, so they are
+ * atomic without blocking the writes of other resources.
+ * <p>
+ * The users and groups may be persisted in a directory with a write-ahead log and periodic snapshots, see
+ * {@link #InMemoryUserManager(Path, long)}, and may be kept outside of the heap, see
+ * {@link #InMemoryUserManager(boolean)}.
  */
-public class InMemoryUserManager implements UserManager {
-    private static final Logger logger = LoggerFactory.getLogger(InMemoryUserManager.class);
+public class InMemoryUserManager implements UserManager, Closeable {
+
     //in memory user manager stores users
-    ConcurrentHashMap<String, User> inMemoryUserList = new ConcurrentHashMap<String, User>();
-    ConcurrentHashMap<String, Group> inMemoryGroupList = new ConcurrentHashMap<String, Group>();
+    private final PartitionedResourceStore<User> inMemoryUserList;
+    private final PartitionedResourceStore<Group> inMemoryGroupList;
+    //guards the membership indexes, group writes are done while holding the write lock
+    private final ReadWriteLock membershipLock = new ReentrantReadWriteLock();
+    //ids of the groups a user or group is a direct member of, by the id of the member
+    private final Map<String, Set<String>> groupIdsByMember = new HashMap<String, Set<String>>();
+    //ids of the direct members of a group, by the id of the group
+    private final Map<String, Set<String>> memberIdsByGroup = new HashMap<String, Set<String>>();
+    //the log the users and groups are persisted with, null if they are only kept in memory
+    private final ResourceLog resourceLog;
+
+    public InMemoryUserManager() {
+        this(false);
+    }
+
+    /*
+     * @param offHeap - whether to keep the users and groups as records outside of the heap. The garbage collector
+     * does not need to walk them then, but they are decoded whenever they are looked up or filtered.
+     */
+    public InMemoryUserManager(boolean offHeap) {
+        this.inMemoryUserList = createUserStore(offHeap);
+        this.inMemoryGroupList = createGroupStore(offHeap);
+        this.resourceLog = null;
+    }
+
+    /*
+     * create a user manager that persists the users and groups in the given directory. The users and groups that were
+     * persisted there before are recovered.
+     * @param dataDirectory - created if it does not exist
+     * @param snapshotIntervalMillis - the delay between two snapshots of the users and groups, which replace the log
+     * of the changes written before them. No snapshots are written periodically if it is not positive.
+     * @throws CharonException if the users and groups can not be recovered
+     */
+    public InMemoryUserManager(Path dataDirectory, long snapshotIntervalMillis) throws CharonException {
+        this(dataDirectory, snapshotIntervalMillis, false);
+    }
+
+    /*
+     * create a user manager that persists the users and groups in the given directory.
+     * @param dataDirectory - created if it does not exist
+     * @param snapshotIntervalMillis - the delay between two snapshots, no periodic snapshots if it is not positive
+     * @param offHeap - whether to keep the users and groups as records outside of the heap
+     * @throws CharonException if the users and groups can not be recovered
+     */
+    public InMemoryUserManager(Path dataDirectory, long snapshotIntervalMillis, boolean offHeap)
+            throws CharonException {
+        this.inMemoryUserList = createUserStore(offHeap);
+        this.inMemoryGroupList = createGroupStore(offHeap);
+        try {
+            this.resourceLog = new ResourceLog(dataDirectory,
+                    Arrays.<PartitionedResourceStore<?>>asList(inMemoryUserList, inMemoryGroupList),
+                    snapshotIntervalMillis);
+        } catch (IOException e) {
+            throw new CharonException("Error in recovering the users and groups from " + dataDirectory, e);
+        }
+        for (String groupId : inMemoryGroupList.getIds()) {
+            indexMembers(groupId, inMemoryGroupList.get(groupId));
+        }
+    }
 
+    /*
+     * users are partitioned by the domain of their user name.
+     */
+    private static PartitionedResourceStore<User> createUserStore(boolean offHeap) {
+        AtomicLong sequenceGenerator = new AtomicLong();
+        return new PartitionedResourceStore<User>(() -> new InMemoryResourceStore<User>(
+                () -> SCIMResourceSchemaManager.getInstance().getUserResourceSchema(), User::new,
+                Arrays.asList(SCIMConstants.UserSchemaConstants.USER_NAME_URI,
+                        SCIMConstants.CommonSchemaConstants.EXTERNAL_ID_URI,
+                        SCIMConstants.UserSchemaConstants.EMAILS_VALUE_URI),
+                Arrays.asList(SCIMConstants.UserSchemaConstants.USER_NAME_URI,
+                        SCIMConstants.UserSchemaConstants.FAMILY_NAME_URI,
+                        SCIMConstants.CommonSchemaConstants.CREATED_URI,
+                        SCIMConstants.CommonSchemaConstants.LAST_MODIFIED_URI),
+                offHeap, sequenceGenerator), SCIMConstants.UserSchemaConstants.USER_NAME);
+    }
+
+    /*
+     * groups are partitioned by the domain of their display name.
+     */
+    private static PartitionedResourceStore<Group> createGroupStore(boolean offHeap) {
+        AtomicLong sequenceGenerator = new AtomicLong();
+        return new PartitionedResourceStore<Group>(() -> new InMemoryResourceStore<Group>(
+                () -> SCIMSchemaDefinitions.SCIM_GROUP_SCHEMA, Group::new,
+                Arrays.asList(SCIMConstants.GroupSchemaConstants.DISPLAY_NAME_URI,
+                        SCIMConstants.CommonSchemaConstants.EXTERNAL_ID_URI),
+                Arrays.asList(SCIMConstants.GroupSchemaConstants.DISPLAY_NAME_URI,
+                        SCIMConstants.CommonSchemaConstants.CREATED_URI,
+                        SCIMConstants.CommonSchemaConstants.LAST_MODIFIED_URI),
+                offHeap, sequenceGenerator), SCIMConstants.GroupSchemaConstants.DISPLAY_NAME);
+    }
 
     @Override
     public User createUser(User user, Map<String, Boolean> map)
             throws CharonException, ConflictException, BadRequestException {
-        if (inMemoryUserList.get(user.getId()) != null) {
+        User createdUser = inMemoryUserList.add(user);
+        if (createdUser == null) {
             throw new ConflictException("User with the id : " + user.getId() + "already exists");
         } else {
-            inMemoryUserList.put(user.getId(), user);
-            return (User) CopyUtil.deepCopy(user);
+            return withGroups(createdUser, map);
         }
     }
 
     @Override
     public User getUser(String id, Map<String, Boolean> map)
             throws CharonException, BadRequestException, NotFoundException {
-       if (inMemoryUserList.get(id) != null) {
-           return (User) CopyUtil.deepCopy(inMemoryUserList.get(id));
+       User user = inMemoryUserList.get(id);
+       if (user != null) {
+           return withGroups(user, map);
        } else {
            throw new NotFoundException("No user with the id : " + id);
        }
@@ -72,43 +185,39 @@ public class InMemoryUserManager implements UserManager {
     @Override
     public void deleteUser(String id)
             throws NotFoundException, CharonException, NotImplementedException, BadRequestException {
-        if (inMemoryUserList.get(id) == null) {
+        if (inMemoryUserList.remove(id) == null) {
             throw new NotFoundException("No user with the id : " + id);
-        } else {
-            inMemoryUserList.remove(id);
         }
+        removeMemberships(id);
     }
 
     @Override
-    public List<Object> listUsersWithGET(Node rootNode, int startIndex, int count, String sortBy,
-                                         String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
-            throws CharonException, NotImplementedException, BadRequestException {
-        if (sortBy != null || sortOrder != null) {
-            throw new NotImplementedException("Sorting is not supported");
-        }  else if (startIndex != 1) {
-            throw new NotImplementedException("Pagination is not supported");
-        } else if (rootNode != null) {
-            throw new NotImplementedException("Filtering is not supported");
-        } else {
-            return listUsers(requiredAttributes);
+    public void deleteUserIfMatch(String id, String ifMatch)
+            throws NotFoundException, CharonException, NotImplementedException, BadRequestException,
+            PreConditionFailedException {
+        if (inMemoryUserList.remove(id, ifMatch) == null) {
+            throw new NotFoundException("No user with the id : " + id);
         }
+        removeMemberships(id);
     }
 
-    private List<Object> listUsers(Map<String, Boolean> requiredAttributes) {
-        List<Object> userList = new ArrayList<>();
-        userList.add(0);
-        //first item should contain the number of total results
-        for (Map.Entry<String, User> entry : inMemoryUserList.entrySet()) {
-            userList.add(entry.getValue());
-        }
-        userList.set(0, userList.size() - 1);
-        try {
-            return (List<Object>) CopyUtil.deepCopy(userList);
-        } catch (CharonException e) {
-            logger.error("Error in listing users");
-            return  null;
-        }
+    @Override
+    public List<Object> listUsersWithGET(Node rootNode, Integer startIndex, Integer count, String sortBy,
+                                         String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        return withGroups(inMemoryUserList.list(rootNode, startIndex == null ? 1 : startIndex, count, sortBy,
+                sortOrder, domainName), requiredAttributes);
+    }
 
+    /*
+     * the int parameters can't tell a missing count from a count of 0, so 0 returns all users.
+     */
+    @Override
+    public List<Object> listUsersWithGET(Node rootNode, int startIndex, int count, String sortBy,
+                                         String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        return withGroups(inMemoryUserList.list(rootNode, startIndex, count > 0 ? count : null, sortBy, sortOrder,
+                domainName), requiredAttributes);
     }
 
     @Override
@@ -120,17 +229,44 @@ public class InMemoryUserManager implements UserManager {
                 requiredAttributes);
     }
 
+    @Override
+    public ListedResource listUsersWithCursor(Node rootNode, String cursor, Integer count, String sortBy,
+                                              String sortOrder, String domainName,
+                                              Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        ListedResource listedResource = inMemoryUserList.listWithCursor(rootNode, cursor, count, sortBy, sortOrder,
+                domainName);
+        if (isGroupsRequired(requiredAttributes)) {
+            for (Object user : listedResource.getResources()) {
+                setGroups((User) user);
+            }
+        }
+        return listedResource;
+    }
+
     @Override
     public User updateUser(User user, Map<String, Boolean> map)
             throws NotImplementedException, CharonException, BadRequestException, NotFoundException {
-       if (user.getId() != null) {
-           inMemoryUserList.replace(user.getId(), user);
-           return (User) CopyUtil.deepCopy(user);
+       User updatedUser = user.getId() == null ? null : inMemoryUserList.replace(user);
+       if (updatedUser != null) {
+           return withGroups(updatedUser, map);
        } else {
            throw new NotFoundException("No user with the id : " + user.getId());
        }
     }
 
+    @Override
+    public User updateUserIfMatch(User user, String ifMatch, Map<String, Boolean> map)
+            throws NotImplementedException, CharonException, BadRequestException, NotFoundException,
+            PreConditionFailedException {
+        User updatedUser = user.getId() == null ? null : inMemoryUserList.replace(user, ifMatch);
+        if (updatedUser != null) {
+            return withGroups(updatedUser, map);
+        } else {
+            throw new NotFoundException("No user with the id : " + user.getId());
+        }
+    }
+
     @Override
     public User getMe(String s, Map<String, Boolean> map)
             throws CharonException, BadRequestException, NotFoundException {
@@ -158,15 +294,22 @@ public class InMemoryUserManager implements UserManager {
     @Override
     public Group createGroup(Group group, Map<String, Boolean> map)
             throws CharonException, ConflictException, NotImplementedException, BadRequestException {
-        inMemoryGroupList.put(group.getId(), group);
-        return (Group) CopyUtil.deepCopy(group);
+        membershipLock.writeLock().lock();
+        try {
+            Group createdGroup = inMemoryGroupList.put(group);
+            indexMembers(createdGroup.getId(), group);
+            return createdGroup;
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
     }
 
     @Override
     public Group getGroup(String id, Map<String, Boolean> map)
             throws NotImplementedException, BadRequestException, CharonException, NotFoundException {
-        if (inMemoryGroupList.get(id) != null) {
-            return (Group) CopyUtil.deepCopy(inMemoryGroupList.get(id));
+        Group group = inMemoryGroupList.get(id);
+        if (group != null) {
+            return group;
         } else {
             throw new NotFoundException("No user with the id : " + id);
         }
@@ -175,52 +318,93 @@ public class InMemoryUserManager implements UserManager {
     @Override
     public void deleteGroup(String id)
             throws NotFoundException, CharonException, NotImplementedException, BadRequestException {
-        if (inMemoryGroupList.get(id) == null) {
-            throw new NotFoundException("No user with the id : " + id);
-        } else {
-            inMemoryGroupList.remove(id);
+        membershipLock.writeLock().lock();
+        try {
+            if (inMemoryGroupList.remove(id) == null) {
+                throw new NotFoundException("No user with the id : " + id);
+            }
+            indexMembers(id, null);
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+        removeMemberships(id);
+    }
+
+    @Override
+    public void deleteGroupIfMatch(String id, String ifMatch)
+            throws NotFoundException, CharonException, NotImplementedException, BadRequestException,
+            PreConditionFailedException {
+        membershipLock.writeLock().lock();
+        try {
+            if (inMemoryGroupList.remove(id, ifMatch) == null) {
+                throw new NotFoundException("No group with the id : " + id);
+            }
+            indexMembers(id, null);
+        } finally {
+            membershipLock.writeLock().unlock();
         }
+        removeMemberships(id);
     }
 
+    @Override
+    public List<Object> listGroupsWithGET(Node rootNode, Integer startIndex, Integer count, String sortBy,
+                                          String sortOrder, String domainName, Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        return inMemoryGroupList.list(rootNode, startIndex == null ? 1 : startIndex, count, sortBy, sortOrder,
+                domainName);
+    }
+
+    /*
+     * the int parameters can't tell a missing count from a count of 0, so 0 returns all groups.
+     */
     @Override
     public List<Object> listGroupsWithGET(Node rootNode, int startIndex, int count, String sortBy, String sortOrder,
                                           String domainName, Map<String, Boolean> requiredAttributes)
             throws CharonException, NotImplementedException, BadRequestException {
-        if (sortBy != null || sortOrder != null) {
-            throw new NotImplementedException("Sorting is not supported");
-        }  else if (startIndex != 1) {
-            throw new NotImplementedException("Pagination is not supported");
-        } else if (rootNode != null) {
-            throw new NotImplementedException("Filtering is not supported");
-        } else {
-            return listGroups(requiredAttributes);
-        }
+        return inMemoryGroupList.list(rootNode, startIndex, count > 0 ? count : null, sortBy, sortOrder,
+                domainName);
     }
 
-    private List<Object> listGroups(Map<String, Boolean> requiredAttributes) {
-        List<Object> groupList = new ArrayList<>();
-        groupList.add(0, 0);
-        for (Group group : inMemoryGroupList.values()) {
-            groupList.add(group);
-        }
-        groupList.set(0, groupList.size() - 1);
+    @Override
+    public ListedResource listGroupsWithCursor(Node rootNode, String cursor, Integer count, String sortBy,
+                                               String sortOrder, String domainName,
+                                               Map<String, Boolean> requiredAttributes)
+            throws CharonException, NotImplementedException, BadRequestException {
+        return inMemoryGroupList.listWithCursor(rootNode, cursor, count, sortBy, sortOrder, domainName);
+    }
+
+    @Override
+    public Group updateGroup(Group oldGroup, Group newGroup, Map<String, Boolean> map)
+            throws NotImplementedException, BadRequestException, CharonException, NotFoundException {
+        membershipLock.writeLock().lock();
         try {
-            return (List<Object>) CopyUtil.deepCopy(groupList);
-        } catch (CharonException e) {
-            logger.error("Error in listing groups");
-            return  null;
+            Group updatedGroup = newGroup.getId() == null ? null : inMemoryGroupList.replace(newGroup);
+            if (updatedGroup != null) {
+                indexMembers(updatedGroup.getId(), newGroup);
+                return updatedGroup;
+            } else {
+                throw new NotFoundException("No user with the id : " + newGroup.getId());
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
         }
-
     }
 
     @Override
-    public Group updateGroup(Group group, Group group1, Map<String, Boolean> map)
-            throws NotImplementedException, BadRequestException, CharonException, NotFoundException {
-        if (group.getId() != null) {
-            inMemoryGroupList.replace(group.getId(), group);
-            return (Group) CopyUtil.deepCopy(group);
-        } else {
-            throw new NotFoundException("No user with the id : " + group.getId());
+    public Group updateGroupIfMatch(Group oldGroup, Group newGroup, String ifMatch, Map<String, Boolean> map)
+            throws NotImplementedException, BadRequestException, CharonException, NotFoundException,
+            PreConditionFailedException {
+        membershipLock.writeLock().lock();
+        try {
+            Group updatedGroup = newGroup.getId() == null ? null : inMemoryGroupList.replace(newGroup, ifMatch);
+            if (updatedGroup != null) {
+                indexMembers(updatedGroup.getId(), newGroup);
+                return updatedGroup;
+            } else {
+                throw new NotFoundException("No group with the id : " + newGroup.getId());
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
         }
     }
 
@@ -232,4 +416,159 @@ public class InMemoryUserManager implements UserManager {
                 searchRequest.getCount(), searchRequest.getSortBy(), searchRequest.getSortOder(),
                 searchRequest.getDomainName(), requiredAttributes);
     }
+
+    /*
+     * write a snapshot of the users and groups now, if they are persisted and changed since the last snapshot.
+     * @throws CharonException
+     */
+    public void snapshot() throws CharonException {
+        if (resourceLog != null) {
+            try {
+                resourceLog.snapshot();
+            } catch (IOException e) {
+                throw new CharonException("Error in writing the snapshot of the users and groups", e);
+            }
+        }
+    }
+
+    /*
+     * stop persisting the users and groups. Changes made afterwards fail.
+     */
+    @Override
+    public void close() throws IOException {
+        if (resourceLog != null) {
+            resourceLog.close();
+        }
+    }
+
+    @Override
+    public Set<String> getIndexedAttributes() {
+        Set<String> indexedAttributes = inMemoryUserList.getIndexedAttributes();
+        indexedAttributes.addAll(inMemoryGroupList.getIndexedAttributes());
+        return indexedAttributes;
+    }
+
+    /*
+     * replace the indexed members of a group with the members of the given group. Must be called while holding the
+     * write lock of the memberships.
+     * @param groupId
+     * @param group - the group as it was stored, null if the group was removed
+     */
+    private void indexMembers(String groupId, Group group) {
+        Set<String> memberIds = new LinkedHashSet<String>();
+        List<Object> members = group == null ? null : group.getMembers();
+        if (members != null) {
+            for (Object member : members) {
+                if (member != null) {
+                    memberIds.add(member.toString());
+                }
+            }
+        }
+        Set<String> oldMemberIds = memberIds.isEmpty() ? memberIdsByGroup.remove(groupId)
+                : memberIdsByGroup.put(groupId, memberIds);
+        if (oldMemberIds != null) {
+            for (String memberId : oldMemberIds) {
+                if (!memberIds.contains(memberId)) {
+                    Set<String> groupIds = groupIdsByMember.get(memberId);
+                    groupIds.remove(groupId);
+                    if (groupIds.isEmpty()) {
+                        groupIdsByMember.remove(memberId);
+                    }
+                }
+            }
+        }
+        for (String memberId : memberIds) {
+            groupIdsByMember.computeIfAbsent(memberId, id -> new LinkedHashSet<String>()).add(groupId);
+        }
+    }
+
+    /*
+     * remove a deleted user or group from the groups it was a direct member of.
+     * @param memberId
+     * @throws CharonException
+     */
+    private void removeMemberships(String memberId) throws CharonException, BadRequestException {
+        membershipLock.writeLock().lock();
+        try {
+            Set<String> groupIds = groupIdsByMember.remove(memberId);
+            if (groupIds == null) {
+                return;
+            }
+            for (String groupId : groupIds) {
+                Set<String> memberIds = memberIdsByGroup.get(groupId);
+                memberIds.remove(memberId);
+                if (memberIds.isEmpty()) {
+                    memberIdsByGroup.remove(groupId);
+                }
+                Group group = inMemoryGroupList.get(groupId);
+                if (group != null && group.removeMember(memberId)) {
+                    group.setLastModifiedInstant(Instant.now());
+                    inMemoryGroupList.replace(group);
+                }
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * the groups of a user are only looked up if they are going to be returned.
+     * @param requiredAttributes - URIs of the attributes to be returned, null for all
+     * @return
+     */
+    private static boolean isGroupsRequired(Map<String, Boolean> requiredAttributes) {
+        if (requiredAttributes == null) {
+            return true;
+        }
+        for (String attributeURI : requiredAttributes.keySet()) {
+            if (attributeURI.equals(SCIMConstants.UserSchemaConstants.GROUPS_URI)
+                    || attributeURI.startsWith(SCIMConstants.UserSchemaConstants.GROUPS_URI + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private User withGroups(User user, Map<String, Boolean> requiredAttributes)
+            throws CharonException, BadRequestException {
+        if (isGroupsRequired(requiredAttributes)) {
+            setGroups(user);
+        }
+        return user;
+    }
+
+    private List<Object> withGroups(List<Object> userList, Map<String, Boolean> requiredAttributes)
+            throws CharonException, BadRequestException {
+        if (isGroupsRequired(requiredAttributes)) {
+            //the first item is the number of total results
+            for (Object user : userList.subList(1, userList.size())) {
+                setGroups((User) user);
+            }
+        }
+        return userList;
+    }
+
+    /*
+     * set the groups of the user from the membership index, replacing whatever groups the user was stored with.
+     * @param user
+     * @throws CharonException
+     * @throws BadRequestException
+     */
+    private void setGroups(User user) throws CharonException, BadRequestException {
+        List<String> groupIds;
+        membershipLock.readLock().lock();
+        try {
+            groupIds = new ArrayList<String>(groupIdsByMember.getOrDefault(user.getId(),
+                    Collections.<String>emptySet()));
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+        user.deleteAttribute(SCIMConstants.UserSchemaConstants.GROUPS);
+        for (String groupId : groupIds) {
+            Group group = inMemoryGroupList.get(groupId);
+            if (group != null) {
+                user.setGroup(SCIMConstants.UserSchemaConstants.DIRECT_MEMBERSHIP, group);
+            }
+        }
+    }
 }
@@ -0,0 +1,320 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.charon3.utils.usermanager;
+
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The resources of an InMemoryResourceStore kept as JSON records outside of the heap, so a large store does not
+ * make the garbage collector walk the object graphs of all resources. Only the address of the record of each id is
+ * kept on the heap, the resources are decoded whenever they are looked up.
+ * <p>
+ * The records are allocated in direct buffers of 4 MB (slabs) in blocks of fixed size classes, two per power of two.
+ * Freed blocks are kept in a free list per size class and reused for records of the same class. A record larger than
+ * a slab gets a buffer of its own, which is released when the record is freed.
+ * <p>
+ * Like the LinkedHashMap it replaces, the map iterates in insertion order and is not thread safe. Reads may be done
+ * concurrently as long as there is no write, so it is guarded by the read write lock of the store.
+ *
+ * @param <T> the type of the resources
+ */
+class OffHeapResourceMap<T extends AbstractSCIMObject> extends AbstractMap<String, T> {
+
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_BLOCK_SIZE = 32;
+    //the block holds the length of the record followed by the record
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final int SIZE_CLASSES = sizeClass(SLAB_SIZE) + 1;
+
+    private final InMemoryResourceStore<T> store;
+    //addresses of the records by the id of the resources, in insertion order
+    private final Map<String, Long> addresses = new LinkedHashMap<String, Long>();
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    //indexes of the slabs of released large records, reused for new slabs
+    private final LongStack freeSlabs = new LongStack();
+    private final LongStack[] freeBlocks = new LongStack[SIZE_CLASSES];
+    //the slab blocks are carved from once the free lists are empty
+    private int currentSlab = -1;
+    private int currentSlabOffset = SLAB_SIZE;
+    private long allocatedBytes;
+
+    /*
+     * @param store - encodes and decodes the records
+     */
+    OffHeapResourceMap(InMemoryResourceStore<T> store) {
+        this.store = store;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBlocks[i] = new LongStack();
+        }
+    }
+
+    @Override
+    public int size() {
+        return addresses.size();
+    }
+
+    @Override
+    public boolean containsKey(Object id) {
+        return addresses.containsKey(id);
+    }
+
+    @Override
+    public T get(Object id) {
+        Long address = addresses.get(id);
+        return address == null ? null : decode(address);
+    }
+
+    @Override
+    public T put(String id, T resource) {
+        byte[] record;
+        try {
+            record = store.encode(resource);
+        } catch (CharonException e) {
+            throw new IllegalArgumentException("Can not encode the resource " + id, e);
+        }
+        long address = allocate(RECORD_HEADER_SIZE + record.length);
+        ByteBuffer block = block(address);
+        block.putInt(record.length);
+        block.put(record);
+        Long oldAddress = addresses.put(id, address);
+        if (oldAddress == null) {
+            return null;
+        }
+        T oldResource = decode(oldAddress);
+        free(oldAddress);
+        return oldResource;
+    }
+
+    @Override
+    public T remove(Object id) {
+        Long address = addresses.remove(id);
+        if (address == null) {
+            return null;
+        }
+        T resource = decode(address);
+        free(address);
+        return resource;
+    }
+
+    @Override
+    public void clear() {
+        addresses.clear();
+        slabs.clear();
+        freeSlabs.clear();
+        for (LongStack freeList : freeBlocks) {
+            freeList.clear();
+        }
+        currentSlab = -1;
+        currentSlabOffset = SLAB_SIZE;
+        allocatedBytes = 0;
+    }
+
+    @Override
+    public Set<Entry<String, T>> entrySet() {
+        return new AbstractSet<Entry<String, T>>() {
+            @Override
+            public Iterator<Entry<String, T>> iterator() {
+                Iterator<Entry<String, Long>> iterator = addresses.entrySet().iterator();
+                return new Iterator<Entry<String, T>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, T> next() {
+                        Entry<String, Long> entry = iterator.next();
+                        return new SimpleImmutableEntry<String, T>(entry.getKey(), decode(entry.getValue()));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return addresses.size();
+            }
+        };
+    }
+
+    /*
+     * @param id
+     * @return a copy of the JSON record of the resource, null if there is no resource with the given id
+     */
+    byte[] getRecord(String id) {
+        Long address = addresses.get(id);
+        return address == null ? null : read(address);
+    }
+
+    /*
+     * @return the bytes of the blocks holding records, excluding the free blocks
+     */
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private T decode(long address) {
+        byte[] record = read(address);
+        try {
+            return store.decode(record, 0, record.length);
+        } catch (CharonException e) {
+            throw new IllegalStateException("Can not decode the stored resource", e);
+        }
+    }
+
+    private byte[] read(long address) {
+        //readers share the slabs, so they read from their own duplicate
+        ByteBuffer block = block(address);
+        byte[] record = new byte[block.getInt()];
+        block.get(record);
+        return record;
+    }
+
+    private ByteBuffer block(long address) {
+        ByteBuffer block = slabs.get(slabIndex(address)).duplicate();
+        block.position(offset(address));
+        return block;
+    }
+
+    private long allocate(int size) {
+        if (size > SLAB_SIZE) {
+            int slabIndex = newSlab(size);
+            allocatedBytes += size;
+            return address(slabIndex, 0);
+        }
+        int sizeClass = sizeClass(size);
+        int blockSize = blockSize(sizeClass);
+        allocatedBytes += blockSize;
+        if (!freeBlocks[sizeClass].isEmpty()) {
+            return freeBlocks[sizeClass].pop();
+        }
+        if (SLAB_SIZE - currentSlabOffset < blockSize) {
+            //the rest of the current slab is split into free blocks
+            int remaining = SLAB_SIZE - currentSlabOffset;
+            while (remaining >= MIN_BLOCK_SIZE) {
+                int remainingClass = sizeClass(remaining);
+                if (blockSize(remainingClass) > remaining) {
+                    remainingClass--;
+                }
+                freeBlocks[remainingClass].push(address(currentSlab, currentSlabOffset));
+                currentSlabOffset += blockSize(remainingClass);
+                remaining -= blockSize(remainingClass);
+            }
+            currentSlab = newSlab(SLAB_SIZE);
+            currentSlabOffset = 0;
+        }
+        long address = address(currentSlab, currentSlabOffset);
+        currentSlabOffset += blockSize;
+        return address;
+    }
+
+    private void free(long address) {
+        int slabIndex = slabIndex(address);
+        ByteBuffer slab = slabs.get(slabIndex);
+        int size = RECORD_HEADER_SIZE + slab.getInt(offset(address));
+        if (size > SLAB_SIZE) {
+            //large records have a slab of their own which is released to the garbage collector
+            slabs.set(slabIndex, null);
+            freeSlabs.push(slabIndex);
+            allocatedBytes -= size;
+        } else {
+            int sizeClass = sizeClass(size);
+            freeBlocks[sizeClass].push(address);
+            allocatedBytes -= blockSize(sizeClass);
+        }
+    }
+
+    private int newSlab(int size) {
+        ByteBuffer slab = ByteBuffer.allocateDirect(size);
+        if (!freeSlabs.isEmpty()) {
+            int slabIndex = (int) freeSlabs.pop();
+            slabs.set(slabIndex, slab);
+            return slabIndex;
+        }
+        slabs.add(slab);
+        return slabs.size() - 1;
+    }
+
+    private static long address(int slabIndex, int offset) {
+        return ((long) slabIndex << 32) | offset;
+    }
+
+    private static int slabIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    /*
+     * the smallest size class holding the given number of bytes. The classes are 32, 48, 64, 96, 128, 192, ... bytes.
+     */
+    private static int sizeClass(int size) {
+        if (size <= MIN_BLOCK_SIZE) {
+            return 0;
+        }
+        //the power of two that is at least the size
+        int power = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return size <= 3 << (power - 2) ? 2 * power - 11 : 2 * power - 10;
+    }
+
+    private static int blockSize(int sizeClass) {
+        return ((sizeClass & 1) == 0 ? MIN_BLOCK_SIZE : MIN_BLOCK_SIZE + MIN_BLOCK_SIZE / 2) << (sizeClass >> 1);
+    }
+
+    /**
+     * A stack of longs that does not box them.
+     */
+    private static class LongStack {
+
+        private long[] values = new long[16];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long pop() {
+            return values[--size];
+        }
+
+        void clear() {
+            values = new long[16];
+            size = 0;
+        }
+    }
+}
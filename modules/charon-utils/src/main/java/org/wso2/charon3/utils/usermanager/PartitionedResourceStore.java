@@ -0,0 +1,496 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.charon3.utils.usermanager;
+
+import org.wso2.charon3.core.attributes.Attribute;
+import org.wso2.charon3.core.attributes.SimpleAttribute;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.exceptions.PreConditionFailedException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+import org.wso2.charon3.core.objects.ListedResource;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.utils.ResourceManagerUtil;
+import org.wso2.charon3.core.utils.codeutils.Node;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The resources of one type held by the InMemoryUserManager, partitioned by their user store domain. The domain of a
+ * resource is the prefix of its name up to the first "/", like "SECONDARY/alice", resources without a prefix are in
+ * the PRIMARY domain.
+ * <p>
+ * Every domain has an InMemoryResourceStore of its own with its own indexes and lock, so writes in one domain do not
+ * block the readers of another. A list scoped to a domain only looks at its partition. An unscoped list merges the
+ * lists of all partitions, which number the resources from the same sequence and list them in the same order as a
+ * single store would.
+ * <p>
+ * The writes of a resource are serialized by one of a fixed set of locks picked by the id (lock striping), so a
+ * resource that is renamed into another domain moves atomically between the partitions. A moved resource keeps its
+ * creation sequence, and only its PUT in the new partition is logged, since replaying a REMOVE of its id would
+ * remove it from the new partition.
+ *
+ * @param <T> the type of the resources
+ */
+class PartitionedResourceStore<T extends AbstractSCIMObject> {
+
+    static final String PRIMARY_DOMAIN = "PRIMARY";
+    private static final String DOMAIN_SEPARATOR = "/";
+    private static final int LOCK_STRIPES = 256;
+
+    private final Supplier<InMemoryResourceStore<T>> partitionFactory;
+    //the name of the attribute holding the domain qualified name
+    private final String nameAttribute;
+    private final Map<String, InMemoryResourceStore<T>> partitions =
+            new ConcurrentHashMap<String, InMemoryResourceStore<T>>();
+    //the domains of the resources by their id
+    private final Map<String, String> domainsById = new ConcurrentHashMap<String, String>();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    //the log the changes of all partitions are written to, null if the resources are not persisted
+    private volatile ResourceLog log;
+    private byte logIndex;
+
+    /*
+     * @param partitionFactory - creates the store of a domain, all stores must share the same sequence generator
+     * @param nameAttribute - the name of the attribute the domain is taken from
+     */
+    PartitionedResourceStore(Supplier<InMemoryResourceStore<T>> partitionFactory, String nameAttribute) {
+        this.partitionFactory = partitionFactory;
+        this.nameAttribute = nameAttribute;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        partitions.put(PRIMARY_DOMAIN, partitionFactory.get());
+    }
+
+    /*
+     * @param id
+     * @return a read only view of the resource, null if there is no resource with the given id
+     * @throws CharonException
+     */
+    T get(String id) throws CharonException {
+        while (true) {
+            String domain = domainsById.get(id);
+            if (domain == null) {
+                return null;
+            }
+            T resource = partitions.get(domain).get(id);
+            //the resource may have moved to another domain in the meantime
+            if (resource != null || domain.equals(domainsById.get(id))) {
+                return resource;
+            }
+        }
+    }
+
+    /*
+     * add the resource unless there is already one with the same id.
+     * @param resource
+     * @return a read only view of the added resource, null if it was not added
+     * @throws CharonException
+     */
+    T add(T resource) throws CharonException {
+        String id = resource.getId();
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            if (domainsById.containsKey(id)) {
+                return null;
+            }
+            return store(id, getDomain(resource), resource);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * add the resource or replace the one with the same id.
+     * @param resource
+     * @return a read only view of the stored resource
+     * @throws CharonException
+     */
+    T put(T resource) throws CharonException {
+        String id = resource.getId();
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            return store(id, getDomain(resource), resource);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * replace the resource with the same id, if there is one.
+     * @param resource
+     * @return a read only view of the stored resource, null if it was not replaced
+     * @throws CharonException
+     */
+    T replace(T resource) throws CharonException {
+        try {
+            return replace(resource, null);
+        } catch (PreConditionFailedException e) {
+            throw new IllegalStateException("An unconditional replace can not fail a precondition", e);
+        }
+    }
+
+    /*
+     * replace the resource with the same id, if there is one and its version matches the If-Match header. The
+     * version is checked while holding the lock of the id, so no other write of the resource can come in between.
+     * @param resource
+     * @param ifMatch - the value of the If-Match header, null to replace unconditionally
+     * @return a read only view of the stored resource, null if it was not replaced
+     * @throws CharonException
+     * @throws PreConditionFailedException if the version does not match
+     */
+    T replace(T resource, String ifMatch) throws CharonException, PreConditionFailedException {
+        String id = resource.getId();
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            String oldDomain = domainsById.get(id);
+            if (oldDomain == null) {
+                return null;
+            }
+            checkVersion(partitions.get(oldDomain), id, ifMatch);
+            String domain = getDomain(resource);
+            if (domain.equals(oldDomain)) {
+                return partitions.get(domain).replace(resource);
+            }
+            return store(id, domain, resource);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    T remove(String id) throws CharonException {
+        try {
+            return remove(id, null);
+        } catch (PreConditionFailedException e) {
+            throw new IllegalStateException("An unconditional remove can not fail a precondition", e);
+        }
+    }
+
+    /*
+     * remove the resource with the given id, if its version matches the If-Match header, see replace.
+     * @param id
+     * @param ifMatch - the value of the If-Match header, null to remove unconditionally
+     * @return the removed resource, null if there is no resource with the given id
+     * @throws CharonException
+     * @throws PreConditionFailedException if the version does not match
+     */
+    T remove(String id, String ifMatch) throws CharonException, PreConditionFailedException {
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            String domain = domainsById.get(id);
+            if (domain == null) {
+                return null;
+            }
+            checkVersion(partitions.get(domain), id, ifMatch);
+            T resource = partitions.get(domain).remove(id);
+            domainsById.remove(id);
+            return resource;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Set<String> getIndexedAttributes() {
+        return partitions.get(PRIMARY_DOMAIN).getIndexedAttributes();
+    }
+
+    /*
+     * list the resources matching the filter in the requested order, see InMemoryResourceStore#list.
+     *
+     * @param domainName the domain to list the resources of, null or empty for all domains
+     * @return the total number of matching resources, followed by read only views of the resources of the page
+     */
+    List<Object> list(Node node, int startIndex, Integer count, String sortBy, String sortOrder, String domainName)
+            throws BadRequestException, CharonException {
+
+        String domain = domainName == null || domainName.isEmpty() ? null : normalize(domainName);
+        if (domain != null || partitions.size() == 1) {
+            InMemoryResourceStore<T> partition = partitions.get(domain == null ? PRIMARY_DOMAIN : domain);
+            if (partition == null) {
+                List<Object> resourceList = new ArrayList<Object>();
+                resourceList.add(0);
+                return resourceList;
+            }
+            return partition.list(node, startIndex, count, sortBy, sortOrder);
+        }
+        //every partition lists the resources up to the end of the page, the page is cut from the merged lists
+        Integer mergedCount = count == null ? null : Math.max(startIndex, 1) - 1 + count;
+        int totalResults = 0;
+        List<Listed> listedResources = new ArrayList<Listed>();
+        Set<String> listedIds = new HashSet<String>();
+        for (InMemoryResourceStore<T> partition : partitions.values()) {
+            List<Object> resourceList = partition.list(node, 1, mergedCount, sortBy, sortOrder);
+            totalResults += (Integer) resourceList.get(0);
+            for (Object resource : resourceList.subList(1, resourceList.size())) {
+                if (!addListed(listedResources, listedIds, partition, (AbstractSCIMObject) resource)) {
+                    totalResults--;
+                }
+            }
+        }
+        sort(listedResources, sortBy, sortOrder);
+        List<Object> resourceList = new ArrayList<Object>();
+        resourceList.add(totalResults);
+        for (int i = Math.max(startIndex, 1) - 1; i < listedResources.size() && (count == null || i < mergedCount);
+             i++) {
+            resourceList.add(listedResources.get(i).resource);
+        }
+        return resourceList;
+    }
+
+    /*
+     * list one page of the resources matching the filter with cursor pagination, see
+     * InMemoryResourceStore#listWithCursor.
+     *
+     * @param domainName the domain to list the resources of, null or empty for all domains
+     */
+    ListedResource listWithCursor(Node node, String cursor, Integer count, String sortBy, String sortOrder,
+                                  String domainName) throws BadRequestException, CharonException {
+
+        String domain = domainName == null || domainName.isEmpty() ? null : normalize(domainName);
+        if (domain != null || partitions.size() == 1) {
+            InMemoryResourceStore<T> partition = partitions.get(domain == null ? PRIMARY_DOMAIN : domain);
+            if (partition == null) {
+                ListedResource listedResource = new ListedResource();
+                listedResource.setSchema(SCIMConstants.LISTED_RESOURCE_CORE_SCHEMA_URI);
+                if (node == null) {
+                    listedResource.setTotalResults(0);
+                }
+                return listedResource;
+            }
+            return partition.listWithCursor(node, cursor, count, sortBy, sortOrder);
+        }
+        //the cursor of a partition is understood by all partitions, since they share the sequences
+        boolean hasNextPage = false;
+        int totalResults = 0;
+        List<Listed> listedResources = new ArrayList<Listed>();
+        Set<String> listedIds = new HashSet<String>();
+        for (InMemoryResourceStore<T> partition : partitions.values()) {
+            ListedResource partitionPage = partition.listWithCursor(node, cursor, count, sortBy, sortOrder);
+            hasNextPage |= partitionPage.getNextCursor() != null;
+            totalResults += partitionPage.getTotalResults();
+            for (Object resource : partitionPage.getResources()) {
+                if (!addListed(listedResources, listedIds, partition, (AbstractSCIMObject) resource)) {
+                    totalResults--;
+                }
+            }
+        }
+        sort(listedResources, sortBy, sortOrder);
+        if (count != null && listedResources.size() > count) {
+            hasNextPage = true;
+            listedResources = listedResources.subList(0, count);
+        }
+        ListedResource listedResource = new ListedResource();
+        listedResource.setSchema(SCIMConstants.LISTED_RESOURCE_CORE_SCHEMA_URI);
+        for (Listed listed : listedResources) {
+            listedResource.addResource(listed.resource);
+        }
+        if (node == null) {
+            listedResource.setTotalResults(totalResults);
+        }
+        if (hasNextPage && !listedResources.isEmpty()) {
+            Listed last = listedResources.get(listedResources.size() - 1);
+            listedResource.setNextCursor(last.partition.encodeCursor(last.resource, last.sequence, sortBy,
+                    sortOrder));
+        }
+        return listedResource;
+    }
+
+    /*
+     * write the changes of all partitions to the given log from now on.
+     */
+    void persistTo(ResourceLog log, byte logIndex) {
+        synchronized (partitions) {
+            this.logIndex = logIndex;
+            this.log = log;
+            for (InMemoryResourceStore<T> partition : partitions.values()) {
+                partition.persistTo(log, logIndex);
+            }
+        }
+    }
+
+    /*
+     * @see InMemoryResourceStore#publish(long)
+     */
+    void publish(long logPosition) {
+        for (InMemoryResourceStore<T> partition : partitions.values()) {
+            partition.publish(logPosition);
+        }
+    }
+
+    /*
+     * @return the ids of the stored resources, in the order they were created
+     */
+    List<String> getIds() {
+        NavigableMap<Long, String> idsBySequence = new TreeMap<Long, String>();
+        for (InMemoryResourceStore<T> partition : partitions.values()) {
+            idsBySequence.putAll(partition.getIdsBySequence());
+        }
+        return new ArrayList<String>(idsBySequence.values());
+    }
+
+    /*
+     * @see InMemoryResourceStore#getRecord(String)
+     */
+    byte[] getRecord(String id) throws CharonException {
+        String domain = domainsById.get(id);
+        return domain == null ? null : partitions.get(domain).getRecord(id);
+    }
+
+    T decode(byte[] bytes, int offset, int length) throws CharonException {
+        return partitions.get(PRIMARY_DOMAIN).decode(bytes, offset, length);
+    }
+
+    /*
+     * @param name - a domain qualified name
+     * @return the domain of the name, PRIMARY if the name has no domain
+     */
+    static String getDomain(String name) {
+        int separatorIndex = name == null ? -1 : name.indexOf(DOMAIN_SEPARATOR);
+        return separatorIndex > 0 ? normalize(name.substring(0, separatorIndex)) : PRIMARY_DOMAIN;
+    }
+
+    private String getDomain(T resource) {
+        Attribute nameAttribute = resource.getAttribute(this.nameAttribute);
+        Object name = nameAttribute instanceof SimpleAttribute ? ((SimpleAttribute) nameAttribute).getValue() : null;
+        return getDomain(name instanceof String ? (String) name : null);
+    }
+
+    private static String normalize(String domainName) {
+        return domainName.toUpperCase(Locale.ENGLISH);
+    }
+
+    /*
+     * store the resource in the partition of its domain and remove it from the partition it was in before. Must be
+     * called while holding the lock of the id. Readers find the resource in one of the partitions all the time.
+     */
+    private T store(String id, String domain, T resource) throws CharonException {
+        String oldDomain = domainsById.get(id);
+        if (oldDomain == null || oldDomain.equals(domain)) {
+            T storedResource = getPartition(domain).put(resource);
+            domainsById.put(id, domain);
+            return storedResource;
+        }
+        InMemoryResourceStore<T> oldPartition = partitions.get(oldDomain);
+        T storedResource = getPartition(domain).putMoved(resource, oldPartition.getSequence(id));
+        domainsById.put(id, domain);
+        oldPartition.removeMoved(id);
+        return storedResource;
+    }
+
+    /*
+     * must be called while holding the lock of the id.
+     */
+    private void checkVersion(InMemoryResourceStore<T> partition, String id, String ifMatch)
+            throws CharonException, PreConditionFailedException {
+        if (ifMatch != null && !ResourceManagerUtil.matchesETag(ifMatch, partition.get(id).getVersion())) {
+            throw new PreConditionFailedException();
+        }
+    }
+
+    private InMemoryResourceStore<T> getPartition(String domain) {
+        InMemoryResourceStore<T> partition = partitions.get(domain);
+        if (partition != null) {
+            return partition;
+        }
+        synchronized (partitions) {
+            return partitions.computeIfAbsent(domain, newDomain -> {
+                InMemoryResourceStore<T> newPartition = partitionFactory.get();
+                if (log != null) {
+                    newPartition.persistTo(log, logIndex);
+                }
+                return newPartition;
+            });
+        }
+    }
+
+    private ReentrantLock lock(String id) {
+        return locks[(id.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    /*
+     * a resource removed from the partition since it was listed is left out, and so is a resource listed by another
+     * partition already, since it moved between the partitions while they were listed.
+     * @return false if the resource is left out
+     */
+    private boolean addListed(List<Listed> listedResources, Set<String> listedIds, InMemoryResourceStore<T> partition,
+                              AbstractSCIMObject resource) {
+        Long sequence = partition.getSequence(resource.getId());
+        if (sequence == null || !listedIds.add(resource.getId())) {
+            return false;
+        }
+        listedResources.add(new Listed(resource, partition, sequence));
+        return true;
+    }
+
+    /*
+     * sort the listed resources in the order a single store lists them: by the sort key, resources without one last
+     * in ascending order, then by their creation.
+     */
+    private void sort(List<Listed> listedResources, String sortBy, String sortOrder) throws BadRequestException {
+        Comparator<Listed> creationOrder = Comparator.comparingLong(listed -> listed.sequence);
+        Function<AbstractSCIMObject, Comparable<Object>> sortKeyReader =
+                partitions.get(PRIMARY_DOMAIN).sortKeyReader(sortBy);
+        if (sortKeyReader == null) {
+            listedResources.sort(creationOrder);
+            return;
+        }
+        Map<Listed, Comparable<Object>> sortKeys = new HashMap<Listed, Comparable<Object>>();
+        for (Listed listed : listedResources) {
+            sortKeys.put(listed, sortKeyReader.apply(listed.resource));
+        }
+        Comparator<Comparable<Object>> keyOrder = Comparator.nullsLast(Comparator.<Comparable<Object>>naturalOrder());
+        boolean descending = SCIMConstants.OperationalConstants.DESCENDING.equalsIgnoreCase(sortOrder);
+        Comparator<Listed> sortKeyOrder = Comparator.comparing(sortKeys::get,
+                descending ? keyOrder.reversed() : keyOrder);
+        listedResources.sort(sortKeyOrder.thenComparing(creationOrder));
+    }
+
+    /**
+     * A resource listed by one of the partitions.
+     */
+    private static class Listed {
+
+        private final AbstractSCIMObject resource;
+        private final InMemoryResourceStore<?> partition;
+        private final long sequence;
+
+        Listed(AbstractSCIMObject resource, InMemoryResourceStore<?> partition, long sequence) {
+            this.resource = resource;
+            this.partition = partition;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.charon3.utils.usermanager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.objects.AbstractSCIMObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the resources of PartitionedResourceStores in a directory, so they survive a restart.
+ * <p>
+ * Every change of a store is appended to a memory mapped write-ahead log as one record, holding either the JSON of
+ * the stored resource or the id of the removed one. Writers append while holding the write lock of their store, so
+ * the log has the changes of a resource in the order they were made, and then wait for the log to be forced to disk.
+ * The writers waiting at the same time are made durable by a single force (group commit), which is done without
+ * holding the lock of the log, so writers keep appending meanwhile. If the log can not be forced, it is not known
+ * which of the records not yet durable are on disk, so the log fails all writers waiting for them and does not accept
+ * records anymore.
+ * <p>
+ * A snapshot starts a new log and then writes the resources of the stores in the background. Writers are not blocked
+ * meanwhile, so a snapshot may already contain some changes of the new log. Replaying a change again yields the same
+ * resource, so recovery loads the latest snapshot and replays the logs from its generation on. The records are
+ * decoded in parallel and applied in the order they were written.
+ * <p>
+ * The records have the layout: length of the body (int), CRC32 of the body (int), operation (byte), index of the
+ * store (byte), payload. A log ends with a zero length or with a record that was not completely written.
+ */
+class ResourceLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceLog.class);
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int REPLAY_BATCH_SIZE = 4096;
+    private static final String LOG_PREFIX = "log-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Pattern FILE_NAME = Pattern.compile("(log|snapshot)-(\\d+)\\.dat");
+
+    private final Path directory;
+    private final List<PartitionedResourceStore<?>> stores;
+    private final ScheduledExecutorService snapshotExecutor;
+    //serializes the snapshots
+    private final Object snapshotLock = new Object();
+
+    //the state of the current log, guarded by this
+    private long generation;
+    private FileChannel channel;
+    //the log is mapped in chunks as it grows
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    //positions count the bytes of all logs written since the log was opened
+    private long fileStart;
+    private long writePosition;
+    private long syncedPosition;
+    private boolean syncing;
+    //the chunks and channels of former logs that may not be durable yet, they are forced by the next sync
+    private final List<MappedByteBuffer> retiredChunks = new ArrayList<MappedByteBuffer>();
+    private final List<FileChannel> retiredChannels = new ArrayList<FileChannel>();
+    //the reason the log could not be forced, it does not accept records afterwards
+    private IOException failure;
+    private long changesSinceSnapshot;
+    private boolean closed;
+
+    /*
+     * recover the stores from the directory and start a new log for their changes.
+     * @param directory - created if it does not exist
+     * @param stores - the stores in the same order as when they were written, they must be empty
+     * @param snapshotIntervalMillis - the delay between two snapshots, no periodic snapshots if not positive
+     * @throws IOException
+     * @throws CharonException if a record can not be decoded
+     */
+    ResourceLog(Path directory, List<PartitionedResourceStore<?>> stores, long snapshotIntervalMillis)
+            throws IOException, CharonException {
+        this.directory = directory;
+        this.stores = stores;
+        Files.createDirectories(directory);
+        recover();
+        for (int i = 0; i < stores.size(); i++) {
+            stores.get(i).persistTo(this, (byte) i);
+        }
+        if (snapshotIntervalMillis > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "charon-resource-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalMillis,
+                    snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+    }
+
+    /*
+     * build a record, done before taking the lock the record is appended with.
+     * @param operation - PUT with the JSON of the resource or REMOVE with its id as payload
+     * @param storeIndex
+     * @param payload
+     * @return
+     */
+    static byte[] record(byte operation, byte storeIndex, byte[] payload) {
+        int length = payload.length + 2;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(operation);
+        record.put(storeIndex);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    static byte[] record(byte operation, byte storeIndex, String id) {
+        return record(operation, storeIndex, id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * append a record to the log. The record is not durable before #sync returns.
+     * @param record
+     * @return the position to sync up to
+     * @throws IOException
+     */
+    synchronized long append(byte[] record) throws IOException {
+        if (closed) {
+            throw new IOException("The resource log is closed");
+        }
+        if (failure != null) {
+            throw new IOException("The resource log could not be written", failure);
+        }
+        int offset = 0;
+        while (offset < record.length) {
+            long filePosition = writePosition - fileStart;
+            int chunkIndex = (int) (filePosition / CHUNK_SIZE);
+            if (chunkIndex == chunks.size()) {
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * CHUNK_SIZE, CHUNK_SIZE));
+            }
+            ByteBuffer chunk = chunks.get(chunkIndex).duplicate();
+            chunk.position((int) (filePosition % CHUNK_SIZE));
+            //a record may span two chunks
+            int length = Math.min(record.length - offset, chunk.remaining());
+            chunk.put(record, offset, length);
+            offset += length;
+            writePosition += length;
+        }
+        changesSinceSnapshot++;
+        return writePosition;
+    }
+
+    /*
+     * wait until the log is durable up to the given position. One of the waiting writers forces the log for all
+     * records appended so far, the others wait for it.
+     * @param position
+     * @throws IOException
+     */
+    void sync(long position) throws IOException {
+        List<MappedByteBuffer> dirtyChunks;
+        List<FileChannel> syncedChannels;
+        int syncedRetiredChunks;
+        long targetPosition;
+        synchronized (this) {
+            while (syncing && syncedPosition < position) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the resource log");
+                }
+            }
+            if (syncedPosition >= position) {
+                return;
+            }
+            if (failure != null) {
+                throw new IOException("The resource log could not be written", failure);
+            }
+            syncing = true;
+            targetPosition = writePosition;
+            syncedRetiredChunks = retiredChunks.size();
+            syncedChannels = new ArrayList<FileChannel>(retiredChannels);
+            dirtyChunks = new ArrayList<MappedByteBuffer>(retiredChunks);
+            dirtyChunks.addAll(chunks.subList(firstDirtyChunk(), chunks.size()));
+        }
+        IOException syncFailure = null;
+        try {
+            for (MappedByteBuffer chunk : dirtyChunks) {
+                chunk.force();
+            }
+        } catch (RuntimeException e) {
+            syncFailure = new IOException("Error in forcing the resource log", e);
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (syncFailure == null) {
+                    syncedPosition = Math.max(syncedPosition, targetPosition);
+                    //a rotation while forcing only adds chunks and channels
+                    retiredChunks.subList(0, syncedRetiredChunks).clear();
+                    retiredChannels.subList(0, syncedChannels.size()).clear();
+                } else {
+                    failure = syncFailure;
+                }
+                notifyAll();
+            }
+        }
+        if (syncFailure != null) {
+            throw syncFailure;
+        }
+        for (FileChannel syncedChannel : syncedChannels) {
+            closeRetired(syncedChannel);
+        }
+    }
+
+    /*
+     * write a snapshot of the stores and delete the logs and snapshots it replaces. Nothing is written if there was
+     * no change since the last snapshot.
+     * @throws IOException
+     * @throws CharonException if a resource can not be encoded
+     */
+    void snapshot() throws IOException, CharonException {
+        synchronized (snapshotLock) {
+            long snapshotGeneration;
+            long logEnd;
+            synchronized (this) {
+                if (changesSinceSnapshot == 0) {
+                    return;
+                }
+                snapshotGeneration = generation + 1;
+            }
+            //the new log is created without holding the lock, writers keep appending to the current one meanwhile
+            FileChannel newChannel = createLog(snapshotGeneration);
+            synchronized (this) {
+                try {
+                    logEnd = rotate(snapshotGeneration, newChannel);
+                } catch (IOException e) {
+                    newChannel.close();
+                    throw e;
+                }
+            }
+            //the snapshot replaces the former logs, so their records must be durable, and it has to see their changes
+            sync(logEnd);
+            for (PartitionedResourceStore<?> store : stores) {
+                store.publish(logEnd);
+            }
+            Path temporaryFile = directory.resolve(SNAPSHOT_PREFIX + snapshotGeneration + TEMPORARY_SUFFIX);
+            try (FileChannel snapshotChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(snapshotChannel),
+                        64 * 1024);
+                for (int i = 0; i < stores.size(); i++) {
+                    writeResources(stores.get(i), (byte) i, outputStream);
+                }
+                outputStream.flush();
+                snapshotChannel.force(true);
+            }
+            Files.move(temporaryFile, file(SNAPSHOT_PREFIX, snapshotGeneration), StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+            for (Path file : listFiles().values()) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < snapshotGeneration) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+        }
+        long endPosition;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            endPosition = writePosition;
+        }
+        try {
+            sync(endPosition);
+        } finally {
+            synchronized (this) {
+                for (FileChannel retiredChannel : retiredChannels) {
+                    retiredChannel.close();
+                }
+                retiredChannels.clear();
+                channel.close();
+            }
+        }
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | CharonException e) {
+            logger.error("Error in writing the snapshot of the resources", e);
+        }
+    }
+
+    /*
+     * start appending to a new log, must be called while holding the lock. The chunks of the current log which are
+     * not durable yet are forced by the next sync.
+     * @param logGeneration
+     * @param logChannel - the channel of the new log, see #createLog
+     * @return the position the current log ends at
+     */
+    private long rotate(long logGeneration, FileChannel logChannel) throws IOException {
+        if (closed) {
+            throw new IOException("The resource log is closed");
+        }
+        retiredChunks.addAll(chunks.subList(firstDirtyChunk(), chunks.size()));
+        retiredChannels.add(channel);
+        long endPosition = writePosition;
+        startLog(logGeneration, logChannel);
+        return endPosition;
+    }
+
+    /*
+     * @return the index of the first chunk of the current log which may not be durable
+     */
+    private int firstDirtyChunk() {
+        return (int) (Math.max(syncedPosition - fileStart, 0) / CHUNK_SIZE);
+    }
+
+    private FileChannel createLog(long logGeneration) throws IOException {
+        FileChannel logChannel = FileChannel.open(file(LOG_PREFIX, logGeneration), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        syncDirectory();
+        return logChannel;
+    }
+
+    private void startLog(long logGeneration, FileChannel logChannel) {
+        generation = logGeneration;
+        channel = logChannel;
+        chunks.clear();
+        fileStart = writePosition;
+        changesSinceSnapshot = 0;
+    }
+
+    private void closeRetired(FileChannel retiredChannel) {
+        try {
+            retiredChannel.close();
+        } catch (IOException e) {
+            logger.warn("Can not close a former resource log", e);
+        }
+    }
+
+    private void writeResources(PartitionedResourceStore<?> store, byte storeIndex, OutputStream outputStream)
+            throws IOException, CharonException {
+        for (String id : store.getIds()) {
+            //a resource removed in the meantime is removed again when replaying the new log
+            byte[] resource = store.getRecord(id);
+            if (resource != null) {
+                outputStream.write(record(PUT, storeIndex, resource));
+            }
+        }
+    }
+
+    /*
+     * load the latest snapshot, replay the logs written since and open the next log.
+     */
+    private void recover() throws IOException, CharonException {
+        TreeMap<Long, Path> logs = new TreeMap<Long, Path>();
+        long snapshotGeneration = -1;
+        for (Path file : listFiles().values()) {
+            String fileName = file.getFileName().toString();
+            Matcher matcher = FILE_NAME.matcher(fileName);
+            if (matcher.matches()) {
+                long fileGeneration = Long.parseLong(matcher.group(2));
+                if ("log".equals(matcher.group(1))) {
+                    logs.put(fileGeneration, file);
+                } else {
+                    snapshotGeneration = Math.max(snapshotGeneration, fileGeneration);
+                }
+            } else if (fileName.endsWith(TEMPORARY_SUFFIX)) {
+                //an unfinished snapshot
+                Files.delete(file);
+            }
+        }
+        long replayedChanges = 0;
+        if (snapshotGeneration >= 0) {
+            replay(file(SNAPSHOT_PREFIX, snapshotGeneration));
+        }
+        for (Path log : logs.tailMap(snapshotGeneration, true).values()) {
+            if (Files.size(log) == 0) {
+                //a log that was never written to
+                Files.delete(log);
+            } else {
+                replayedChanges += replay(log);
+            }
+        }
+        long lastGeneration = logs.isEmpty() ? snapshotGeneration : Math.max(snapshotGeneration, logs.lastKey());
+        startLog(lastGeneration + 1, createLog(lastGeneration + 1));
+        //the next snapshot replaces the replayed logs
+        changesSinceSnapshot = replayedChanges;
+    }
+
+    /*
+     * apply the records of a log or snapshot to the stores.
+     * @return the number of applied records
+     */
+    private long replay(Path file) throws IOException, CharonException {
+        long replayedRecords = 0;
+        long remainingBytes = Files.size(file);
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+            boolean end = false;
+            while (!end) {
+                List<byte[]> batch = new ArrayList<byte[]>(REPLAY_BATCH_SIZE);
+                while (batch.size() < REPLAY_BATCH_SIZE && !end) {
+                    byte[] body = readRecord(input, remainingBytes);
+                    if (body == null) {
+                        end = true;
+                    } else {
+                        batch.add(body);
+                        remainingBytes -= HEADER_SIZE + body.length;
+                    }
+                }
+                replayedRecords += replay(batch);
+            }
+        }
+        return replayedRecords;
+    }
+
+    /*
+     * decode the resources of a batch in parallel, then apply the records in order.
+     */
+    private int replay(List<byte[]> batch) throws CharonException {
+        AbstractSCIMObject[] resources = new AbstractSCIMObject[batch.size()];
+        CharonException[] failures = new CharonException[batch.size()];
+        IntStream.range(0, batch.size()).parallel().forEach(i -> {
+            byte[] body = batch.get(i);
+            if (body[0] == PUT) {
+                try {
+                    resources[i] = store(body).decode(body, 2, body.length - 2);
+                } catch (CharonException e) {
+                    failures[i] = e;
+                }
+            }
+        });
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] body = batch.get(i);
+            if (failures[i] != null) {
+                throw failures[i];
+            } else if (body[0] == PUT) {
+                restore(store(body), resources[i]);
+            } else if (body[0] == REMOVE) {
+                store(body).remove(new String(body, 2, body.length - 2, StandardCharsets.UTF_8));
+            } else {
+                throw new CharonException("Unknown operation " + body[0] + " in the resource log");
+            }
+        }
+        return batch.size();
+    }
+
+    private PartitionedResourceStore<?> store(byte[] body) throws CharonException {
+        if (body[1] < 0 || body[1] >= stores.size()) {
+            throw new CharonException("Unknown store " + body[1] + " in the resource log");
+        }
+        return stores.get(body[1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends AbstractSCIMObject> void restore(PartitionedResourceStore<T> store,
+                                                               AbstractSCIMObject resource)
+            throws CharonException {
+        store.put((T) resource);
+    }
+
+    /*
+     * @return the body of the next record, null at the end of the records
+     */
+    private static byte[] readRecord(DataInputStream input, long remainingBytes) throws IOException {
+        try {
+            int length = input.readInt();
+            //the length of an incomplete record may be anything
+            if (length < 2 || length > remainingBytes - HEADER_SIZE) {
+                return null;
+            }
+            int checksum = input.readInt();
+            byte[] body = new byte[length];
+            input.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, length);
+            //the last record written before a crash may be incomplete
+            return (int) crc.getValue() == checksum ? body : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private TreeMap<String, Path> listFiles() throws IOException {
+        TreeMap<String, Path> files = new TreeMap<String, Path>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            for (Path file : directoryStream) {
+                files.put(file.getFileName().toString(), file);
+            }
+        }
+        return files;
+    }
+
+    private Path file(String prefix, long fileGeneration) {
+        return directory.resolve(prefix + fileGeneration + ".dat");
+    }
+
+    /*
+     * make created, renamed and deleted files durable. Not every platform can open a directory, it is skipped there.
+     */
+    private void syncDirectory() {
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            logger.debug("Can not sync the directory {}", directory, e);
+        }
+    }
+}
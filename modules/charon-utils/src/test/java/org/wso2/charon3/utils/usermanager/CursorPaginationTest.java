@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.utils.usermanager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.exceptions.BadRequestException;
+import org.wso2.charon3.core.objects.ListedResource;
+import org.wso2.charon3.core.objects.SCIMObject;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the cursors handed out by the cursor paginated listing of the InMemoryUserManager.
+ */
+public class CursorPaginationTest {
+
+    private static final String[] USER_NAMES = {"mallory", "alice", "SECONDARY/dave", "bob", "erin", "carol",
+            "SECONDARY/frank", "trent", "grace", "heidi", "ivan", "judy", "SECONDARY/oscar"};
+
+    private InMemoryUserManager userManager;
+    private List<String> userNames;
+
+    @Before
+    public void setUp() throws Exception {
+        userManager = new InMemoryUserManager();
+        userNames = new ArrayList<String>();
+        for (int i = 0; i < USER_NAMES.length; i++) {
+            userManager.createUser(createUser(String.valueOf(i), USER_NAMES[i]),
+                    Collections.<String, Boolean>emptyMap());
+            userNames.add(USER_NAMES[i]);
+        }
+    }
+
+    @Test
+    public void testPagesCoverAllUsersInCreationOrder() throws Exception {
+        assertEquals(userNames, listAll(null, null, null, 4));
+        assertEquals(userNames, listAll(null, null, null, 1));
+        assertEquals(userNames, listAll(null, null, null, USER_NAMES.length));
+    }
+
+    @Test
+    public void testPagesCoverAllUsersInSortOrder() throws Exception {
+        List<String> ascending = new ArrayList<String>(userNames);
+        Collections.sort(ascending, String.CASE_INSENSITIVE_ORDER);
+        List<String> descending = new ArrayList<String>(ascending);
+        Collections.reverse(descending);
+
+        assertEquals(ascending, listAll("userName", SCIMConstants.OperationalConstants.ASCENDING, null, 3));
+        assertEquals(descending, listAll("userName", SCIMConstants.OperationalConstants.DESCENDING, null, 5));
+    }
+
+    @Test
+    public void testPagesOfOneDomain() throws Exception {
+        List<String> secondary = new ArrayList<String>();
+        for (String userName : userNames) {
+            if (userName.startsWith("SECONDARY/")) {
+                secondary.add(userName);
+            }
+        }
+        assertEquals(secondary, listAll(null, null, "SECONDARY", 2));
+    }
+
+    @Test
+    public void testCursorSurvivesChangesBetweenPages() throws Exception {
+        ListedResource page = list(null, "userName", SCIMConstants.OperationalConstants.ASCENDING, 3);
+        assertEquals(3, page.getResources().size());
+        assertEquals("carol", ((User) page.getResources().get(2)).getUserName());
+        String cursor = page.getNextCursor();
+        assertNotNull(cursor);
+        //cursors are url safe
+        assertTrue(cursor, cursor.matches("[A-Za-z0-9_-]+"));
+
+        //the last listed user is deleted and users are added before and after the position of the cursor
+        userManager.deleteUser(((User) page.getResources().get(2)).getId());
+        userManager.createUser(createUser("aaron", "aaron"), Collections.<String, Boolean>emptyMap());
+        userManager.createUser(createUser("zoe", "zoe"), Collections.<String, Boolean>emptyMap());
+
+        List<String> expected = new ArrayList<String>(userNames);
+        expected.add("zoe");
+        Collections.sort(expected, String.CASE_INSENSITIVE_ORDER);
+        expected = expected.subList(expected.indexOf("carol") + 1, expected.size());
+        page = list(cursor, "userName", SCIMConstants.OperationalConstants.ASCENDING, 100);
+        assertEquals(expected, userNames(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testCursorOfOtherSortingIsRejected() throws Exception {
+        String cursor = list(null, "userName", SCIMConstants.OperationalConstants.ASCENDING, 2).getNextCursor();
+        assertInvalidCursor(cursor, "userName", SCIMConstants.OperationalConstants.DESCENDING);
+        assertInvalidCursor(cursor, "name.givenName", SCIMConstants.OperationalConstants.ASCENDING);
+        assertInvalidCursor(cursor, null, null);
+
+        String unsortedCursor = list(null, null, null, 2).getNextCursor();
+        assertInvalidCursor(unsortedCursor, "userName", SCIMConstants.OperationalConstants.ASCENDING);
+    }
+
+    @Test
+    public void testMalformedCursorsAreRejected() throws Exception {
+        String sortBy = "userName";
+        String ascending = SCIMConstants.OperationalConstants.ASCENDING;
+        String userNameURI = SCIMConstants.UserSchemaConstants.USER_NAME_URI;
+
+        assertInvalidCursor("not a cursor!", sortBy, ascending);
+        assertInvalidCursor("@@@@", sortBy, ascending);
+        assertInvalidCursor(encode("garbage"), sortBy, ascending);
+        assertInvalidCursor(encode("1,a," + userNameURI + ",S"), sortBy, ascending);
+        assertInvalidCursor(encode("one,a," + userNameURI + ",S,bob"), sortBy, ascending);
+        assertInvalidCursor(encode("1,x," + userNameURI + ",S,bob"), sortBy, ascending);
+        assertInvalidCursor(encode("1,a," + userNameURI + ",I,yesterday"), sortBy, ascending);
+        assertInvalidCursor(encode("1,a," + userNameURI + ",N,bob"), sortBy, ascending);
+        //a sort key of another type than the sort attribute
+        assertInvalidCursor(encode("1,a," + userNameURI + ",N,5"), sortBy, ascending);
+        assertInvalidCursor(encode("1,a,,S,bob"), null, null);
+    }
+
+    @Test
+    public void testHandCraftedCursorIsAccepted() throws Exception {
+        String userNameURI = SCIMConstants.UserSchemaConstants.USER_NAME_URI;
+        ListedResource page = list(encode("-1,a," + userNameURI + ",S,dave"), "userName",
+                SCIMConstants.OperationalConstants.ASCENDING, 1);
+        assertEquals("erin", userNames(page).get(0));
+
+        page = list(encode("2,a,,-,"), null, null, 1);
+        assertEquals("bob", userNames(page).get(0));
+    }
+
+    private List<String> listAll(String sortBy, String sortOrder, String domainName, int count) throws Exception {
+        List<String> listed = new ArrayList<String>();
+        String cursor = null;
+        do {
+            ListedResource page = userManager.listUsersWithCursor(null, cursor, count, sortBy, sortOrder,
+                    domainName, Collections.<String, Boolean>emptyMap());
+            assertTrue(page.getResources().size() <= count);
+            listed.addAll(userNames(page));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return listed;
+    }
+
+    private ListedResource list(String cursor, String sortBy, String sortOrder, int count) throws Exception {
+        return userManager.listUsersWithCursor(null, cursor, count, sortBy, sortOrder, null,
+                Collections.<String, Boolean>emptyMap());
+    }
+
+    private void assertInvalidCursor(String cursor, String sortBy, String sortOrder) throws Exception {
+        try {
+            list(cursor, sortBy, sortOrder, 2);
+            fail("The cursor " + cursor + " should be rejected");
+        } catch (BadRequestException e) {
+            assertEquals(ResponseCodeConstants.INVALID_CURSOR, e.getScimType());
+        }
+    }
+
+    private static List<String> userNames(ListedResource page) throws Exception {
+        List<String> userNames = new ArrayList<String>();
+        for (SCIMObject resource : page.getResources()) {
+            userNames.add(((User) resource).getUserName());
+        }
+        return userNames;
+    }
+
+    private static String encode(String position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static User createUser(String id, String userName) throws Exception {
+        return new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"],"
+                + "\"id\":\"" + id + "\",\"userName\":\"" + userName + "\"}",
+                SCIMResourceSchemaManager.getInstance().getUserResourceSchema(), new User());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.utils.usermanager;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.objects.Group;
+import org.wso2.charon3.core.protocol.ResponseCodeConstants;
+import org.wso2.charon3.core.protocol.SCIMResponse;
+import org.wso2.charon3.core.protocol.endpoints.AbstractResourceManager;
+import org.wso2.charon3.core.protocol.endpoints.GroupResourceManager;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the groups held by the InMemoryUserManager are not modified by reading them.
+ */
+public class InMemoryUserManagerTest {
+
+    private InMemoryUserManager userManager;
+    private String groupId;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, String> endpoints = new HashMap<String, String>();
+        endpoints.put(SCIMConstants.USER_ENDPOINT, "https://localhost/scim/v2/Users");
+        endpoints.put(SCIMConstants.GROUP_ENDPOINT, "https://localhost/scim/v2/Groups");
+        AbstractResourceManager.setEndpointURLMap(endpoints);
+
+        userManager = new InMemoryUserManager();
+        Group group = new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.GROUP_CORE_SCHEMA_URI
+                        + "\"],\"id\":\"admins\",\"displayName\":\"admins\",\"members\":["
+                        + "{\"value\":\"1\",\"display\":\"alice\"},{\"value\":\"2\",\"display\":\"bob\"}]}",
+                SCIMResourceSchemaManager.getInstance().getGroupResourceSchema(), new Group());
+        groupId = userManager.createGroup(group, Collections.<String, Boolean>emptyMap()).getId();
+    }
+
+    @After
+    public void tearDown() {
+        AbstractResourceManager.setEndpointURLMap(null);
+    }
+
+    @Test
+    public void testGetWithExcludedMemberDisplayKeepsTheStoredGroup() throws Exception {
+        SCIMResponse response = new GroupResourceManager().get(groupId, userManager, null, "members.display");
+        assertEquals(ResponseCodeConstants.CODE_OK, response.getResponseStatus());
+        assertMembers(new JSONObject(response.getResponseMessage()), false);
+
+        response = new GroupResourceManager().get(groupId, userManager, null, null);
+        assertMembers(new JSONObject(response.getResponseMessage()), true);
+    }
+
+    @Test
+    public void testListWithExcludedMemberDisplayKeepsTheStoredGroups() throws Exception {
+        SCIMResponse response = new GroupResourceManager().listWithGET(userManager, null, 1, 10, null, null, null,
+                null, "members.display");
+        assertEquals(ResponseCodeConstants.CODE_OK, response.getResponseStatus());
+        JSONArray resources = new JSONObject(response.getResponseMessage()).getJSONArray("Resources");
+        assertEquals(1, resources.length());
+        assertMembers(resources.getJSONObject(0), false);
+
+        response = new GroupResourceManager().get(groupId, userManager, null, null);
+        assertMembers(new JSONObject(response.getResponseMessage()), true);
+        response = new GroupResourceManager().listWithGET(userManager, null, 1, 10, null, null, null, null, null);
+        assertMembers(new JSONObject(response.getResponseMessage()).getJSONArray("Resources").getJSONObject(0), true);
+    }
+
+    private static void assertMembers(JSONObject group, boolean withDisplay) {
+        JSONArray members = group.getJSONArray(SCIMConstants.GroupSchemaConstants.MEMBERS);
+        assertEquals(2, members.length());
+        for (int i = 0; i < members.length(); i++) {
+            JSONObject member = members.getJSONObject(i);
+            assertTrue(member.has(SCIMConstants.CommonSchemaConstants.VALUE));
+            if (withDisplay) {
+                assertTrue(member.toString(), member.has(SCIMConstants.CommonSchemaConstants.DISPLAY));
+            } else {
+                assertFalse(member.toString(), member.has(SCIMConstants.CommonSchemaConstants.DISPLAY));
+            }
+        }
+    }
+}
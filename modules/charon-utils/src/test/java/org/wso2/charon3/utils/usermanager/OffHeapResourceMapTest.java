@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.utils.usermanager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.encoder.JSONEncoder;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the records and the slab allocator of {@link OffHeapResourceMap}.
+ */
+public class OffHeapResourceMapTest {
+
+    private InMemoryResourceStore<User> store;
+    private OffHeapResourceMap<User> map;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryResourceStore<User>(() -> SCIMResourceSchemaManager.getInstance().getUserResourceSchema(),
+                User::new, Collections.<String>emptyList(), Collections.<String>emptyList(), true, new AtomicLong());
+        map = new OffHeapResourceMap<User>(store);
+    }
+
+    @Test
+    public void testRecordsRoundTrip() throws Exception {
+        User user = createUser("1", "bob", "x");
+
+        assertNull(map.put("1", user));
+
+        assertEquals(encode(user), encode(map.get("1")));
+        assertArrayEquals(store.encode(user), map.getRecord("1"));
+        assertTrue(map.containsKey("1"));
+        assertFalse(map.containsKey("2"));
+        assertNull(map.get("2"));
+        assertNull(map.getRecord("2"));
+        assertNull(map.remove("2"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testReplacedAndRemovedBlocksAreFreed() throws Exception {
+        User bob = createUser("1", "bob", "x");
+        map.put("1", bob);
+        long allocatedBytes = map.getAllocatedBytes();
+        assertTrue(allocatedBytes >= store.encode(bob).length + 4);
+
+        User replaced = map.put("1", createUser("1", "bob", "y"));
+        assertEquals(encode(bob), encode(replaced));
+        assertEquals(allocatedBytes, map.getAllocatedBytes());
+        assertEquals("y", map.get("1").getNickName());
+
+        map.put("2", createUser("2", "alice", "x"));
+        assertEquals("bob", map.remove("1").getUserName());
+        assertEquals(1, map.size());
+        assertEquals("alice", map.get("2").getUserName());
+        map.remove("2");
+        assertEquals(0, map.getAllocatedBytes());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testRecordsOfAllSizes() throws Exception {
+        //records from the smallest size class up to one larger than a slab, which gets a buffer of its own
+        List<Integer> lengths = Arrays.asList(1, 20, 100, 1000, 5000, 100000, 3 * 1024 * 1024,
+                5 * 1024 * 1024);
+        for (int length : lengths) {
+            map.put(String.valueOf(length), createUser(String.valueOf(length), "user" + length, repeat(length)));
+        }
+        for (int length : lengths) {
+            assertEquals(repeat(length), map.get(String.valueOf(length)).getNickName());
+        }
+        for (int length : lengths) {
+            map.remove(String.valueOf(length));
+        }
+        assertEquals(0, map.getAllocatedBytes());
+
+        //the freed blocks and the slab of the large record are reused
+        map.put("large", createUser("large", "large", repeat(6 * 1024 * 1024)));
+        map.put("small", createUser("small", "small", "x"));
+        assertEquals(repeat(6 * 1024 * 1024), map.get("large").getNickName());
+        assertEquals("x", map.get("small").getNickName());
+    }
+
+    @Test
+    public void testManyRecordsSpanSlabs() throws Exception {
+        //about 8 MB of records, so blocks are carved from several slabs
+        int count = 20000;
+        String nickName = repeat(400);
+        for (int i = 0; i < count; i++) {
+            map.put(String.valueOf(i), createUser(String.valueOf(i), "user" + i, nickName));
+        }
+        for (int i = 0; i < count; i += 2) {
+            map.remove(String.valueOf(i));
+        }
+        for (int i = 0; i < count; i += 2) {
+            map.put(String.valueOf(i), createUser(String.valueOf(i), "again" + i, "x"));
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            User user = map.get(String.valueOf(i));
+            assertEquals((i % 2 == 0 ? "again" : "user") + i, user.getUserName());
+        }
+    }
+
+    @Test
+    public void testIterationKeepsInsertionOrder() throws Exception {
+        List<String> ids = Arrays.asList("c", "a", "b");
+        for (String id : ids) {
+            map.put(id, createUser(id, "user" + id, "x"));
+        }
+        map.put("a", createUser("a", "replaced", "x"));
+
+        List<String> iteratedIds = new ArrayList<String>();
+        for (Map.Entry<String, User> entry : map.entrySet()) {
+            iteratedIds.add(entry.getKey());
+            assertEquals(entry.getKey(), entry.getValue().getId());
+        }
+        assertEquals(ids, iteratedIds);
+        assertEquals("replaced", map.get("a").getUserName());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.getAllocatedBytes());
+        map.put("d", createUser("d", "userd", "x"));
+        assertEquals("userd", map.get("d").getUserName());
+    }
+
+    private static User createUser(String id, String userName, String nickName) throws Exception {
+        return new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI + "\"],"
+                + "\"id\":\"" + id + "\",\"userName\":\"" + userName + "\",\"nickName\":\"" + nickName + "\"}",
+                SCIMResourceSchemaManager.getInstance().getUserResourceSchema(), new User());
+    }
+
+    private static String encode(User user) throws Exception {
+        return new JSONEncoder().encodeSCIMObject(user);
+    }
+
+    private static String repeat(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'n');
+        return new String(chars);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.charon3.utils.usermanager;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wso2.charon3.core.encoder.JSONDecoder;
+import org.wso2.charon3.core.encoder.JSONEncoder;
+import org.wso2.charon3.core.exceptions.CharonException;
+import org.wso2.charon3.core.objects.User;
+import org.wso2.charon3.core.schema.SCIMConstants;
+import org.wso2.charon3.core.schema.SCIMResourceSchemaManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests recovering resources from a ResourceLog after a crash, and that the changes of a store are only published
+ * when they are durable.
+ */
+public class ResourceLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ResourceLog> logs = new ArrayList<ResourceLog>();
+
+    @After
+    public void tearDown() {
+        for (ResourceLog log : logs) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                //the log of a failed test
+            }
+        }
+    }
+
+    @Test
+    public void testRecoversTheChangesAfterACrash() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PartitionedResourceStore<User> users = createStore();
+        open(directory, users);
+        users.add(user("1", "alice"));
+        users.add(user("2", "bob"));
+        users.put(user("1", "alice.smith"));
+        users.remove("2");
+
+        PartitionedResourceStore<User> recoveredUsers = createStore();
+        open(crash(directory), recoveredUsers);
+
+        assertEquals("alice.smith", recoveredUsers.get("1").getUserName());
+        assertNull(recoveredUsers.get("2"));
+        assertEquals(Collections.singletonList("1"), recoveredUsers.getIds());
+    }
+
+    @Test
+    public void testRecordAppendedBeforeTheCrashIsReplayed() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PartitionedResourceStore<User> users = createStore();
+        ResourceLog log = open(directory, users);
+        users.add(user("1", "alice"));
+        //crash after the record was appended, but before it was synced and the change was published
+        log.append(ResourceLog.record(ResourceLog.PUT, (byte) 0, encode(user("2", "bob"))));
+        assertNull(users.get("2"));
+
+        PartitionedResourceStore<User> recoveredUsers = createStore();
+        open(crash(directory), recoveredUsers);
+
+        assertNotNull(recoveredUsers.get("1"));
+        assertEquals("bob", recoveredUsers.get("2").getUserName());
+    }
+
+    @Test
+    public void testTornTailRecordIsIgnored() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PartitionedResourceStore<User> users = createStore();
+        ResourceLog log = open(directory, users);
+        users.add(user("1", "alice"));
+        long end = log.append(ResourceLog.record(ResourceLog.PUT, (byte) 0, encode(user("2", "bob"))));
+
+        Path crashed = crash(directory);
+        //only the beginning of the last record reached the disk
+        try (FileChannel channel = FileChannel.open(lastLog(crashed), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(10), end - 10);
+        }
+        PartitionedResourceStore<User> recoveredUsers = createStore();
+        open(crashed, recoveredUsers);
+
+        assertNotNull(recoveredUsers.get("1"));
+        assertNull(recoveredUsers.get("2"));
+        //the recovered log accepts changes again
+        recoveredUsers.add(user("3", "carol"));
+        PartitionedResourceStore<User> recoveredAgain = createStore();
+        open(crash(crashed), recoveredAgain);
+        assertEquals(2, recoveredAgain.getIds().size());
+        assertNotNull(recoveredAgain.get("3"));
+    }
+
+    @Test
+    public void testTruncatedTailRecordIsIgnored() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PartitionedResourceStore<User> users = createStore();
+        ResourceLog log = open(directory, users);
+        users.add(user("1", "alice"));
+        long end = log.append(ResourceLog.record(ResourceLog.PUT, (byte) 0, encode(user("2", "bob"))));
+
+        Path crashed = crash(directory);
+        try (FileChannel channel = FileChannel.open(lastLog(crashed), StandardOpenOption.WRITE)) {
+            channel.truncate(end - 5);
+        }
+        PartitionedResourceStore<User> recoveredUsers = createStore();
+        open(crashed, recoveredUsers);
+
+        assertNotNull(recoveredUsers.get("1"));
+        assertNull(recoveredUsers.get("2"));
+    }
+
+    @Test
+    public void testSnapshotRacingWithWritesKeepsAllChanges() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PartitionedResourceStore<User> users = createStore();
+        ResourceLog log = open(directory, users);
+        Map<String, String> expectedUserNames = new ConcurrentHashMap<String, String>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        CountDownLatch writersDone = new CountDownLatch(4);
+
+        for (int writer = 0; writer < 4; writer++) {
+            int firstId = writer * 1000;
+            new Thread(() -> {
+                try {
+                    for (int i = firstId; i < firstId + 300; i++) {
+                        String id = String.valueOf(i);
+                        users.add(user(id, "user" + i));
+                        users.put(user(id, "renamed" + i));
+                        if (i % 3 == 0) {
+                            users.remove(id);
+                        } else {
+                            expectedUserNames.put(id, "renamed" + i);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    writersDone.countDown();
+                }
+            }).start();
+        }
+        while (!writersDone.await(1, TimeUnit.MILLISECONDS)) {
+            log.snapshot();
+        }
+        log.snapshot();
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        PartitionedResourceStore<User> recoveredUsers = createStore();
+        open(crash(directory), recoveredUsers);
+
+        assertEquals(expectedUserNames.size(), recoveredUsers.getIds().size());
+        for (Map.Entry<String, String> entry : expectedUserNames.entrySet()) {
+            assertEquals(entry.getValue(), recoveredUsers.get(entry.getKey()).getUserName());
+        }
+    }
+
+    @Test
+    public void testChangeIsPublishedWhenItIsDurable() throws Exception {
+        ControlledLog log = new ControlledLog(folder.newFolder().toPath());
+        InMemoryResourceStore<User> users = createPartition(new AtomicLong());
+        users.persistTo(log, (byte) 0);
+        log.blockSync = new CountDownLatch(1);
+
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread writer = new Thread(() -> {
+            try {
+                users.add(user("1", "alice"));
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            assertTrue(log.syncStarted.await(10, TimeUnit.SECONDS));
+            assertNull(users.get("1"));
+            assertTrue(users.getIdsBySequence().isEmpty());
+        } finally {
+            log.blockSync.countDown();
+        }
+        writer.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals("alice", users.get("1").getUserName());
+    }
+
+    @Test
+    public void testChangeIsDiscardedWhenTheSyncFails() throws Exception {
+        ControlledLog log = new ControlledLog(folder.newFolder().toPath());
+        InMemoryResourceStore<User> users = createPartition(new AtomicLong());
+        users.persistTo(log, (byte) 0);
+        users.add(user("1", "alice"));
+
+        log.failSync = true;
+        try {
+            users.put(user("1", "alice.smith"));
+            fail("The change must fail if the log can not be synced");
+        } catch (CharonException e) {
+            assertEquals("alice", users.get("1").getUserName());
+        }
+        try {
+            users.add(user("2", "bob"));
+            fail("The change must fail if the log can not be synced");
+        } catch (CharonException e) {
+            assertNull(users.get("2"));
+        }
+        //the discarded change does not count for the next write
+        log.failSync = false;
+        assertNotNull(users.add(user("2", "bob")));
+        assertEquals("alice", users.replace(user("1", "alice")).getUserName());
+    }
+
+    private ResourceLog open(Path directory, PartitionedResourceStore<User> users) throws Exception {
+        ResourceLog log = new ResourceLog(directory, Collections.<PartitionedResourceStore<?>>singletonList(users), 0);
+        logs.add(log);
+        return log;
+    }
+
+    /*
+     * copy the files of the log as they are now, as if the process crashed.
+     */
+    private Path crash(Path directory) throws IOException {
+        Path copy = folder.newFolder().toPath();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        return copy;
+    }
+
+    private static Path lastLog(Path directory) throws IOException {
+        Path lastLog = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "log-*.dat")) {
+            for (Path file : files) {
+                if (Files.size(file) > 0 && (lastLog == null || file.compareTo(lastLog) > 0)) {
+                    lastLog = file;
+                }
+            }
+        }
+        return lastLog;
+    }
+
+    private static PartitionedResourceStore<User> createStore() {
+        AtomicLong sequenceGenerator = new AtomicLong();
+        return new PartitionedResourceStore<User>(() -> createPartition(sequenceGenerator),
+                SCIMConstants.UserSchemaConstants.USER_NAME);
+    }
+
+    private static InMemoryResourceStore<User> createPartition(AtomicLong sequenceGenerator) {
+        return new InMemoryResourceStore<User>(
+                () -> SCIMResourceSchemaManager.getInstance().getUserResourceSchema(), User::new,
+                Collections.singletonList(SCIMConstants.UserSchemaConstants.USER_NAME_URI),
+                Collections.<String>emptyList(), false, sequenceGenerator);
+    }
+
+    private static User user(String id, String userName) throws Exception {
+        return new JSONDecoder().decodeResource("{\"schemas\":[\"" + SCIMConstants.USER_CORE_SCHEMA_URI
+                + "\"],\"id\":\"" + id + "\",\"userName\":\"" + userName + "\"}",
+                SCIMResourceSchemaManager.getInstance().getUserResourceSchema(), new User());
+    }
+
+    private static byte[] encode(User user) throws CharonException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new JSONEncoder().encodeSCIMObject(user, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * A log whose syncs can be held back or made to fail.
+     */
+    private class ControlledLog extends ResourceLog {
+
+        private final CountDownLatch syncStarted = new CountDownLatch(1);
+        private volatile CountDownLatch blockSync;
+        private volatile boolean failSync;
+
+        ControlledLog(Path directory) throws Exception {
+            super(directory, Collections.<PartitionedResourceStore<?>>emptyList(), 0);
+            logs.add(this);
+        }
+
+        @Override
+        void sync(long position) throws IOException {
+            syncStarted.countDown();
+            if (failSync) {
+                throw new IOException("No space left on device");
+            }
+            if (blockSync != null) {
+                try {
+                    blockSync.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.sync(position);
+        }
+    }
+}